@@ -33,6 +33,8 @@ package com.google.protobuf;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -76,6 +78,49 @@ public final class CodedInputStream {
   public static CodedInputStream newInstance(RandomAccessFile raf) {
     return new CodedInputStream(raf);
   }
+
+  /**
+   * Create a new CodedInputStream reading directly from a read-only memory
+   * mapping of the whole file. The file is split into windows of
+   * {@link #MAPPED_WINDOW_SIZE} bytes (single mapping can't exceed 2GB),
+   * so varints are decoded from the mapping without intermediate copy
+   * and seek doesn't issue any system call.
+   */
+  public static CodedInputStream newMappedInstance(RandomAccessFile raf) throws IOException {
+    FileChannel channel = raf.getChannel();
+    long length = channel.size();
+    int windowsCount = (int) ((length + MAPPED_WINDOW_SIZE - 1) / MAPPED_WINDOW_SIZE);
+    ByteBuffer[] windows = new ByteBuffer[windowsCount];
+    for (int i = 0; i < windowsCount; i++) {
+      long start = (long) i * MAPPED_WINDOW_SIZE;
+      windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPED_WINDOW_SIZE, length - start));
+    }
+    return new CodedInputStream(raf, windows);
+  }
+
+  /**
+   * Create a new independent CodedInputStream over the same file as {@code shared}
+   * without opening new file handle : memory mapped windows are shared
+   * and random access file is read with positional reads (seek and read under lock of file),
+   * so several cursors could be used from different threads at the same time.
+   * File channel is not used for reading : it is closed when reading thread is interrupted.
+   */
+  public static CodedInputStream newCursor(CodedInputStream shared) {
+    CodedInputStream cis;
+    if (shared.windows != null) {
+      cis = new CodedInputStream(shared.raf, shared.windows);
+    } else if (shared.raf != null) {
+      cis = new CodedInputStream(shared.raf);
+    } else {
+      throw new IllegalArgumentException("Only file based stream could have cursors");
+    }
+    cis.sizeLimit = shared.sizeLimit;
+    return cis;
+  }
+
+  public boolean isMemoryMapped() {
+    return windows != null;
+  }
   // end osmand change
 
 
@@ -205,7 +250,7 @@ public final class CodedInputStream {
   /** Read a {@code string} field value from the stream. */
   public String readString() throws IOException {
     final int size = readRawVarint32();
-    if (size <= (bufferSize - bufferPos) && size > 0) {
+    if (windows == null && size <= (bufferSize - bufferPos) && size > 0) {
       // Fast path:  We already have the bytes in a contiguous buffer, so
       //   just copy directly from it.
       final String result = new String(buffer, bufferPos, size, "UTF-8");
@@ -270,7 +315,7 @@ public final class CodedInputStream {
   /** Read a {@code bytes} field value from the stream. */
   public ByteString readBytes() throws IOException {
     final int size = readRawVarint32();
-    if (size <= (bufferSize - bufferPos) && size > 0) {
+    if (windows == null && size <= (bufferSize - bufferPos) && size > 0) {
       // Fast path:  We already have the bytes in a contiguous buffer, so
       //   just copy directly from it.
       final ByteString result = ByteString.copyFrom(buffer, bufferPos, size);
@@ -485,6 +530,13 @@ public final class CodedInputStream {
 
   private final byte[] buffer;
   private RandomAccessFile raf;
+  // osmand change : memory mapped windows of the file (buffer is not used)
+  private ByteBuffer[] windows;
+  // own views of shared windows (position of view is used by bulk reads)
+  private ByteBuffer[] windowViews;
+  private ByteBuffer window;
+  // osmand change : positional reads (don't depend on shared file pointer)
+  private long filePosition;
   private int bufferSize;
   private int bufferSizeAfterLimit;
   private int bufferPos;
@@ -513,6 +565,7 @@ public final class CodedInputStream {
   private static final int DEFAULT_RECURSION_LIMIT = 64;
   private static final int DEFAULT_SIZE_LIMIT = 64 << 20;  // 64MB
   private static final int BUFFER_SIZE = 5 * 1024;
+  private static final int MAPPED_WINDOW_SIZE = 1 << 30;
 
 
   private CodedInputStream(final byte[] buffer, final int off, final int len) {
@@ -540,6 +593,16 @@ public final class CodedInputStream {
 	 input = null;
   }
 
+  private CodedInputStream(final RandomAccessFile raf, final ByteBuffer[] windows) {
+	 buffer = new byte[0];
+	 this.bufferSize = 0;
+	 bufferPos = 0;
+	 totalBytesRetired = 0;
+	 this.raf = raf;
+	 this.windows = windows;
+	 input = null;
+  }
+
   /**
    * Set the maximum message recursion depth.  In order to prevent malicious
    * messages from causing stack overflows, {@code CodedInputStream} limits
@@ -697,12 +760,15 @@ public final class CodedInputStream {
     totalBytesRetired += bufferSize;
 
     bufferPos = 0;
-    if (raf != null) {
+    if (windows != null) {
+    	// osmand change
+    	bufferSize = selectWindow(totalBytesRetired) ? window.limit() : -1;
+    } else if (raf != null) {
         // osmand change
-    	long remain = raf.length() - raf.getFilePointer();
+    	long remain = raf.length() - filePosition;
     	bufferSize = (int) Math.min(remain, buffer.length);
     	if(bufferSize > 0) {
-    		raf.readFully(buffer, 0, bufferSize);
+    		readFullyFromFile(buffer, 0, bufferSize);
     	} else {
     		bufferSize = -1;
     	}
@@ -742,6 +808,9 @@ public final class CodedInputStream {
     if (bufferPos == bufferSize) {
       refillBuffer(true);
     }
+    if (window != null) {
+      return window.get(bufferPos++);
+    }
     return buffer[bufferPos++];
   }
 
@@ -763,7 +832,22 @@ public final class CodedInputStream {
       throw InvalidProtocolBufferException.truncatedMessage();
     }
 
-    if (size <= bufferSize - bufferPos) {
+    if (windows != null) {
+      // osmand change : copy directly from the mapped windows
+      final byte[] bytes = new byte[size];
+      int pos = 0;
+      while (pos < size) {
+        if (bufferPos == bufferSize) {
+          refillBuffer(true);
+        }
+        int chunk = Math.min(size - pos, bufferSize - bufferPos);
+        window.position(bufferPos);
+        window.get(bytes, pos, chunk);
+        pos += chunk;
+        bufferPos += chunk;
+      }
+      return bytes;
+    } else if (size <= bufferSize - bufferPos) {
       // We have all the bytes we need already.
       final byte[] bytes = new byte[size];
       System.arraycopy(buffer, bufferPos, bytes, 0, size);
@@ -826,7 +910,7 @@ public final class CodedInputStream {
           final int n;
           // osmand change
           if(raf != null) {
-        	  raf.readFully(chunk, pos, chunk.length - pos);
+        	  readFullyFromFile(chunk, pos, chunk.length - pos);
         	  n = chunk.length - pos;
           } else {
               n = (input == null) ? -1 :
@@ -880,6 +964,9 @@ public final class CodedInputStream {
     if (size <= bufferSize - bufferPos) {
       // We have all the bytes we need already.
       bufferPos += size;
+    } else if (windows != null) {
+      // osmand change
+      seek(totalBytesRetired + bufferPos + size);
     } else {
       // Skipping more bytes than are in the buffer.  First skip what we have.
       int pos = bufferSize - bufferPos;
@@ -892,7 +979,8 @@ public final class CodedInputStream {
     	// osmand change
     	final int n ;
     	if(raf != null) {
-    	 n = raf.skipBytes(size - pos);
+    	 n = (int) Math.min(size - pos, raf.length() - filePosition);
+    	 filePosition += n;
     	} else {
     	 n = (input == null) ? -1 : (int) input.skip(size - pos);
     	}
@@ -913,12 +1001,50 @@ public final class CodedInputStream {
 				throw InvalidProtocolBufferException.truncatedMessage();
 			}
 			bufferPos = (int) (pointer - totalBytesRetired);
+		} else if (windows != null) {
+			// window is aligned, so totalBytesRetired stays the start of the window
+			bufferSizeAfterLimit = 0;
+			if (selectWindow(pointer)) {
+				totalBytesRetired = (int) (pointer - pointer % MAPPED_WINDOW_SIZE);
+				bufferPos = (int) (pointer - totalBytesRetired);
+				bufferSize = window.limit();
+				recomputeBufferSizeAfterLimit();
+			} else {
+				totalBytesRetired = (int) pointer;
+				bufferPos = 0;
+				bufferSize = 0;
+			}
 		} else {
 			totalBytesRetired = (int) pointer;
 			bufferSizeAfterLimit = 0;
-			raf.seek(pointer);
+			filePosition = pointer;
 			bufferPos = 0;
 			bufferSize = 0;
 		}
 	}
+
+	// file is shared by cursors, so file pointer is set for every read
+	private void readFullyFromFile(byte[] b, int off, int len) throws IOException {
+		synchronized (raf) {
+			raf.seek(filePosition);
+			raf.readFully(b, off, len);
+		}
+		filePosition += len;
+	}
+
+	private boolean selectWindow(long pointer) {
+		int ind = (int) (pointer / MAPPED_WINDOW_SIZE);
+		if (pointer < 0 || ind >= windows.length || pointer % MAPPED_WINDOW_SIZE >= windows[ind].limit()) {
+			window = null;
+			return false;
+		}
+		if (windowViews == null) {
+			windowViews = new ByteBuffer[windows.length];
+		}
+		if (windowViews[ind] == null) {
+			windowViews[ind] = windows[ind].duplicate();
+		}
+		window = windowViews[ind];
+		return true;
+	}
 }
@@ -110,14 +110,26 @@ public class TspAnt {
     	l.add(start);
     	l.addAll(intermediates);
     	l.add(end);
-        n = l.size() ;
+    	double[][] costs = new double[l.size()][l.size()];
+    	for (int i = 0; i < costs.length; i++) {
+    		for (int j = 1; j < costs.length; j++) {
+    			costs[i][j] = MapUtils.getDistance(l.get(i), l.get(j));
+    		}
+    	}
+    	return readGraph(costs);
+    }
+
+    // Read in graph from matrix of costs (i.e. route times from RouteDistanceMatrix) :
+    // first point is start, last point is end, negative cost means that point is not reachable.
+    public TspAnt readGraph(double[][] costs) {
+        n = costs.length;
 //        System.out.println("Cost");
         graph = new double[n][n];
         double maxSum = 0;
 		for (int i = 0; i < n ; i++) {
 			double maxIWeight = 0;
 			for (int j = 1; j < n ; j++) {
-				double d = Math.rint(MapUtils.getDistance(l.get(i), l.get(j))) + 0.1;
+				double d = costs[i][j] < 0 ? -1 : Math.rint(costs[i][j]) + 0.1;
 				maxIWeight = Math.max(d, maxIWeight);
 				graph[i][j] = d;
 			}
@@ -130,6 +142,11 @@ public class TspAnt {
 			} else {
 				graph[i][0] = maxSum;
 			}
+			for (int j = 1; j < n; j++) {
+				if (graph[i][j] < 0) {
+					graph[i][j] = maxSum;
+				}
+			}
 //			System.out.println(Arrays.toString(graph[i]));
 		}
 		
@@ -25,17 +25,37 @@ public class TspHeldKarp {
 
   /// OSMAND Modification
 	public TspHeldKarp readInput(List<LatLon> ls, boolean returnToInitialPoint) {
-		n = ls.size();
+		double[][] costs = new double[ls.size()][ls.size()];
+		for (int i = 0; i < costs.length; i++) {
+			for (int j = 0; j < costs.length; j++) {
+				costs[i][j] = MapUtils.getDistance(ls.get(i), ls.get(j));
+			}
+		}
+		return readInput(costs, returnToInitialPoint);
+	}
+	
+	// matrix of costs (i.e. route times from RouteDistanceMatrix), negative cost means that point is not reachable
+	public TspHeldKarp readInput(double[][] costs, boolean returnToInitialPoint) {
+		n = costs.length;
 		order = new int[n];
 		cost = new double[n][n];
+		double maxCost = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				maxCost = Math.max(maxCost, costs[i][j]);
+			}
+		}
 		// TSPLIB distances are rounded to the nearest integer to avoid the sum of square roots problem
 		System.out.println("Cost");
 		for (int i = 0; i < n; i++) {
 			for (int j = 0; j < n; j++) {
 				if (!returnToInitialPoint && (j == 0)) {
 					cost[i][j] = 0;
+				} else if (costs[i][j] < 0) {
+					// not reachable : more than any tour
+					cost[i][j] = Math.rint(maxCost * n) + 1;
 				} else {
-					cost[i][j] = Math.rint(MapUtils.getDistance(ls.get(i), ls.get(j)));
+					cost[i][j] = Math.rint(costs[i][j]);
 				}
 			}
 			System.out.println(Arrays.toString(cost[i]));
@@ -2,10 +2,16 @@ package net.osmand.binary;
 
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.List;
+
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.render.RenderingRulesStorage;
 
 public class BinaryMapDataObject {
+	static final int[] EMPTY_TYPES = new int[0];
+	static final int[][] EMPTY_POLYGONS = new int[0][0];
+	
 	protected int[] coordinates = null;
 	protected int[][] polygonInnerCoordinates = null;
 	protected boolean area = false;
@@ -15,6 +21,8 @@ public class BinaryMapDataObject {
 	
 	protected TIntObjectHashMap<String> objectNames = null;
 	protected TIntArrayList namesOrder = null;
+	// pairs (name type, index in string table) of object which names are not read yet
+	int[] objectNamesRefs = null;
 	protected long id = 0;
 	
 	protected MapIndex mapIndex = null;
@@ -48,6 +56,23 @@ public class BinaryMapDataObject {
 	}
 	
 	
+	/**
+	 * Sets names from string table of map data block (if there is no string table, indexes are kept as names)
+	 */
+	void resolveObjectNames(List<String> stringTable) {
+		if (objectNamesRefs == null) {
+			return;
+		}
+		objectNames = new TIntObjectHashMap<String>();
+		namesOrder = new TIntArrayList(objectNamesRefs.length / 2);
+		for (int i = 0; i < objectNamesRefs.length; i += 2) {
+			char ind = (char) objectNamesRefs[i + 1];
+			objectNames.put(objectNamesRefs[i], stringTable == null ? String.valueOf(ind) : stringTable.get(ind));
+			namesOrder.add(objectNamesRefs[i]);
+		}
+		objectNamesRefs = null;
+	}
+	
 	public TIntObjectHashMap<String> getObjectNames() {
 		return objectNames;
 	}
@@ -171,5 +196,28 @@ public class BinaryMapDataObject {
 		return coordinates[2 * ind];
 	}
 	
+	public int getEstimatedSize() {
+		int sz = 8 + 4 * 8; // overhead and fields
+		sz += coordinates == null ? 0 : 12 + 4 * coordinates.length;
+		if (polygonInnerCoordinates != null) {
+			sz += 12 + 4 * polygonInnerCoordinates.length;
+			for (int[] p : polygonInnerCoordinates) {
+				sz += 12 + 4 * p.length;
+			}
+		}
+		sz += types == null ? 0 : 12 + 4 * types.length;
+		sz += additionalTypes == null ? 0 : 12 + 4 * additionalTypes.length;
+		if (objectNames != null) {
+			sz += 12 + objectNames.size() * 25;
+			for (String s : objectNames.valueCollection()) {
+				sz += 40 + 2 * s.length();
+			}
+		}
+		if (namesOrder != null) {
+			sz += 24 + 4 * namesOrder.size();
+		}
+		return sz;
+	}
+	
 
 }
@@ -93,6 +93,16 @@ public class BinaryMapIndexReader {
 	/*private */List<BinaryIndexPart> indexes = new ArrayList<BinaryIndexPart>();
 	
 	protected CodedInputStream codedIS;
+	// reader owning the file and the parsed structures (null if this reader is not a cursor)
+	private final BinaryMapIndexReader sharedReader;
+	private ThreadLocal<BinaryMapIndexReader> threadCursors;
+	// all cursors created by threads, they are closed with the reader
+	private List<BinaryMapIndexReader> openedCursors;
+	// cursor is closed by owner thread or by the reader (from other thread, so stream of cursor is not changed)
+	private volatile boolean closed;
+	private final MapTreeBoxCache.Budget mapTreeCacheBudget;
+	private volatile MapDataBlockCache mapDataBlockCache;
+	public static final int DEFAULT_MAP_TREE_CACHE_LIMIT = 512 * 1024;
 	
 	private final BinaryMapTransportReaderAdapter transportAdapter;
 	private final BinaryMapPoiReaderAdapter poiAdapter;
@@ -103,20 +113,18 @@ public class BinaryMapIndexReader {
 
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf) throws IOException {
-		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
-		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
-		transportAdapter = new BinaryMapTransportReaderAdapter(this);
-		addressAdapter = new BinaryMapAddressReaderAdapter(this);
-		poiAdapter = new BinaryMapPoiReaderAdapter(this);
-		routeAdapter = new BinaryMapRouteReaderAdapter(this);
-		init();
+		this(raf, true, false);
 	}
 	
-	/*private */BinaryMapIndexReader(final RandomAccessFile raf, boolean init) throws IOException {
+	/**
+	 * @param useMemoryMapping read file through memory mapping instead of buffered random access reads 
+	 * (zero copy, seek doesn't cost system call), mapping is released only when reader is garbage collected
+	 */
+	public BinaryMapIndexReader(final RandomAccessFile raf, boolean init, boolean useMemoryMapping) throws IOException {
 		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
-		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		this.sharedReader = null;
+		this.mapTreeCacheBudget = new MapTreeBoxCache.Budget(DEFAULT_MAP_TREE_CACHE_LIMIT);
+		codedIS = createCodedInputStream(raf, useMemoryMapping);
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
 		poiAdapter = new BinaryMapPoiReaderAdapter(this);
@@ -126,10 +134,16 @@ public class BinaryMapIndexReader {
 		}
 	}
 	
+	/*private */BinaryMapIndexReader(final RandomAccessFile raf, boolean init) throws IOException {
+		this(raf, init, false);
+	}
+	
 	public BinaryMapIndexReader(final RandomAccessFile raf, BinaryMapIndexReader referenceToSameFile) throws IOException {
 		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
-		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		this.sharedReader = null;
+		// map levels are shared with the reference reader and so their box caches
+		this.mapTreeCacheBudget = referenceToSameFile.mapTreeCacheBudget;
+		codedIS = createCodedInputStream(raf, referenceToSameFile.isMemoryMapped());
 		version = referenceToSameFile.version;
 		dateCreated = referenceToSameFile.dateCreated;
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
@@ -145,6 +159,101 @@ public class BinaryMapIndexReader {
 		basemap = referenceToSameFile.basemap;
 	}
 	
+	private BinaryMapIndexReader(final BinaryMapIndexReader sharedReader) {
+		this.raf = sharedReader.raf;
+		this.sharedReader = sharedReader;
+		this.mapTreeCacheBudget = sharedReader.mapTreeCacheBudget;
+		codedIS = CodedInputStream.newCursor(sharedReader.codedIS);
+		version = sharedReader.version;
+		dateCreated = sharedReader.dateCreated;
+		transportAdapter = new BinaryMapTransportReaderAdapter(this);
+		addressAdapter = new BinaryMapAddressReaderAdapter(this);
+		poiAdapter = new BinaryMapPoiReaderAdapter(this);
+		routeAdapter = new BinaryMapRouteReaderAdapter(this);
+		// structures are not copied : they are immutable after init (lazy parts are read under lock)
+		mapIndexes = sharedReader.mapIndexes;
+		poiIndexes = sharedReader.poiIndexes;
+		addressIndexes = sharedReader.addressIndexes;
+		transportIndexes = sharedReader.transportIndexes;
+		routingIndexes = sharedReader.routingIndexes;
+		indexes = sharedReader.indexes;
+		basemap = sharedReader.basemap;
+	}
+	
+	/**
+	 * Returns reader for the calling thread that shares file handle and all parsed index structures 
+	 * ({@link MapIndex}, {@link PoiRegion}, {@link RouteRegion}, ...) with this reader but has own position in file,
+	 * so different threads could search the same file concurrently. Cursor should not be used by other threads.
+	 */
+	public BinaryMapIndexReader getThreadCursor() {
+		if (sharedReader != null) {
+			return sharedReader.getThreadCursor();
+		}
+		ThreadLocal<BinaryMapIndexReader> cursors;
+		synchronized (this) {
+			if (codedIS == null) {
+				throw new IllegalStateException("Reader is closed");
+			}
+			if (threadCursors == null) {
+				threadCursors = new ThreadLocal<BinaryMapIndexReader>();
+			}
+			cursors = threadCursors;
+		}
+		BinaryMapIndexReader cursor = cursors.get();
+		if (cursor == null || cursor.closed) {
+			synchronized (this) {
+				// reader could be closed by other thread meanwhile
+				if (cursors != threadCursors) {
+					throw new IllegalStateException("Reader is closed");
+				}
+				cursor = createCursor();
+			}
+			cursors.set(cursor);
+		}
+		return cursor;
+	}
+
+	/**
+	 * Returns new reader that shares file handle and parsed index structures with this reader (as {@link #getThreadCursor()})
+	 * but is not bound to a thread, it should be used by one thread at a time.
+	 * Cursor is closed with this reader, closing cursor doesn't close the file.
+	 */
+	public BinaryMapIndexReader createCursor() {
+		if (sharedReader != null) {
+			return sharedReader.createCursor();
+		}
+		synchronized (this) {
+			if (codedIS == null) {
+				throw new IllegalStateException("Reader is closed");
+			}
+			if (openedCursors == null) {
+				openedCursors = new ArrayList<BinaryMapIndexReader>();
+			}
+			BinaryMapIndexReader cursor = new BinaryMapIndexReader(this);
+			openedCursors.add(cursor);
+			return cursor;
+		}
+	}
+	
+	public boolean isThreadCursor() {
+		return sharedReader != null;
+	}
+	
+	private static CodedInputStream createCodedInputStream(RandomAccessFile raf, boolean useMemoryMapping) throws IOException {
+		CodedInputStream cis;
+		if (useMemoryMapping) {
+			cis = CodedInputStream.newMappedInstance(raf);
+		} else {
+			cis = CodedInputStream.newInstance(raf);
+		}
+		cis.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		return cis;
+	}
+	
+	public boolean isMemoryMapped() {
+		return codedIS != null && codedIS.isMemoryMapped();
+	}
+	
 	
 	public long getDateCreated() {
 		return dateCreated;
@@ -799,6 +908,115 @@ public class BinaryMapIndexReader {
 	
 	
 	
+	private void initMapEncodingRules(MapIndex mapIndex) throws IOException {
+		// lazy initializing rules (structure could be shared by thread cursors)
+		synchronized (mapIndex) {
+			if (mapIndex.encodingRules.isEmpty()) {
+				codedIS.seek(mapIndex.filePointer);
+				int oldLimit = codedIS.pushLimit(mapIndex.length);
+				readMapIndex(mapIndex, true);
+				codedIS.popLimit(oldLimit);
+			}
+		}
+	}
+	
+	private List<MapTree> initMapTrees(MapRoot level) throws IOException {
+		// lazy initializing trees
+		synchronized (level) {
+			if (level.trees == null) {
+				level.trees = new ArrayList<MapTree>();
+				codedIS.seek(level.filePointer);
+				int oldLimit = codedIS.pushLimit(level.length);
+				readMapLevel(level);
+				codedIS.popLimit(oldLimit);
+			}
+			if (level.boxCache == null && mapTreeCacheBudget.getLimit() > 0) {
+				level.boxCache = new MapTreeBoxCache(mapTreeCacheBudget, level.trees.size());
+			}
+			return level.trees;
+		}
+	}
+	
+	/**
+	 * Limits memory (in bytes) used to keep map boxes read from this file (0 disables caching)
+	 */
+	public void setMapTreeCacheLimit(int limit) {
+		mapTreeCacheBudget.setLimit(limit);
+	}
+	
+	public int getMapTreeCacheUsedMemory() {
+		return mapTreeCacheBudget.getUsed();
+	}
+	
+	private void searchMapTrees(MapRoot level, SearchRequest<BinaryMapDataObject> req, List<MapTree> foundSubtrees) 
+			throws IOException {
+		List<MapTree> trees = initMapTrees(level);
+		MapTreeBoxCache cache = level.boxCache;
+		int[] node = cache == null ? null : new int[MapTreeBoxCache.NODE_SIZE];
+		for (int i = 0; i < trees.size(); i++) {
+			MapTree tree = trees.get(i);
+			if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
+				continue;
+			}
+			int rootId = cache == null ? -1 : cache.getRoot(i, tree.filePointer, tree.length);
+			if (rootId != -1) {
+				searchCachedMapTree(cache, rootId, level, req, foundSubtrees, node);
+			} else {
+				codedIS.seek(tree.filePointer);
+				int oldLimit = codedIS.pushLimit(tree.length);
+				searchMapTreeBounds(tree, level, req, foundSubtrees, null, -1);
+				codedIS.popLimit(oldLimit);
+			}
+		}
+	}
+	
+	private void searchCachedMapTree(MapTreeBoxCache cache, int id, MapTree parent,
+			SearchRequest<BinaryMapDataObject> req, List<MapTree> foundSubtrees, int[] node) throws IOException {
+		MapTree current = new MapTree();
+		if (!cache.readCompleteNode(id, node)) {
+			current.filePointer = cache.getFilePointer(id);
+			current.length = cache.getLength(id);
+			if (parent.ocean != null) {
+				current.ocean = parent.ocean;
+			}
+			boolean register = cache.startParsing(id);
+			codedIS.seek(current.filePointer);
+			int oldLimit = codedIS.pushLimit(current.length);
+			searchMapTreeBounds(current, parent, req, foundSubtrees, register ? cache : null, id);
+			codedIS.popLimit(oldLimit);
+			return;
+		}
+		req.numberOfReadSubtrees++;
+		current.left = MapTreeBoxCache.getLeft(node);
+		current.right = MapTreeBoxCache.getRight(node);
+		current.top = MapTreeBoxCache.getTop(node);
+		current.bottom = MapTreeBoxCache.getBottom(node);
+		if (current.right < req.left || current.left > req.right || current.top > req.bottom || current.bottom < req.top) {
+			return;
+		}
+		req.numberOfAcceptedSubtrees++;
+		Boolean ocean = MapTreeBoxCache.getOcean(node);
+		if (ocean != null) {
+			current.ocean = ocean;
+			req.publishOceanTile(ocean);
+		} else if (parent.ocean != null) {
+			current.ocean = parent.ocean;
+		}
+		if (MapTreeBoxCache.getMapDataBlock(node) != 0) {
+			req.numberOfAcceptedSubtrees++;
+			current.mapDataBlock = MapTreeBoxCache.getMapDataBlock(node);
+			foundSubtrees.add(current);
+		}
+		int child = MapTreeBoxCache.getFirstChild(node);
+		while (child != -1) {
+			if (req.isCancelled()) {
+				return;
+			}
+			searchCachedMapTree(cache, child, current, req, foundSubtrees, node);
+			child = cache.getNextSibling(child);
+		}
+	}
+	
 	public List<BinaryMapDataObject> searchMapIndex(SearchRequest<BinaryMapDataObject> req) throws IOException {
 		req.numberOfVisitedObjects = 0;
 		req.numberOfAcceptedObjects = 0;
@@ -806,37 +1024,14 @@ public class BinaryMapIndexReader {
 		req.numberOfReadSubtrees = 0;
 		List<MapTree> foundSubtrees = new ArrayList<MapTree>();
 		for (MapIndex mapIndex : mapIndexes) {
-			// lazy initializing rules
-			if(mapIndex.encodingRules.isEmpty()) {
-				codedIS.seek(mapIndex.filePointer);
-				int oldLimit = codedIS.pushLimit(mapIndex.length);
-				readMapIndex(mapIndex, true);
-				codedIS.popLimit(oldLimit);
-			}
+			initMapEncodingRules(mapIndex);
 			for (MapRoot index : mapIndex.getRoots()) {
 				if (index.minZoom <= req.zoom && index.maxZoom >= req.zoom) {
 					if (index.right < req.left || index.left > req.right || index.top > req.bottom || index.bottom < req.top) {
 						continue;
 					}
 					
-					// lazy initializing trees
-					if(index.trees == null){
-						index.trees = new ArrayList<MapTree>();
-						codedIS.seek(index.filePointer);
-						int oldLimit = codedIS.pushLimit(index.length);
-						readMapLevel(index);
-						codedIS.popLimit(oldLimit);
-					}
-					
-					for (MapTree tree : index.trees) {
-						if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
-							continue;
-						}
-						codedIS.seek(tree.filePointer);
-						int oldLimit = codedIS.pushLimit(tree.length);
-						searchMapTreeBounds(tree, index, req, foundSubtrees);
-						codedIS.popLimit(oldLimit);
-					}
+					searchMapTrees(index, req, foundSubtrees);
 					
 					Collections.sort(foundSubtrees, new Comparator<MapTree>() {
 						@Override
@@ -846,11 +1041,7 @@ public class BinaryMapIndexReader {
 					});
 					for(MapTree tree : foundSubtrees) {
 						if(!req.isCancelled()){
-							codedIS.seek(tree.mapDataBlock);
-							int length = codedIS.readRawVarint32();
-							int oldLimit = codedIS.pushLimit(length);
-							readMapDataBlocks(req, tree, mapIndex);
-							codedIS.popLimit(oldLimit);
+							searchMapDataBlock(req, tree, mapIndex);
 						}
 					}
 					foundSubtrees.clear();
@@ -872,13 +1063,7 @@ public class BinaryMapIndexReader {
 		req.numberOfReadSubtrees = 0;
 		List<MapTree> foundSubtrees = new ArrayList<MapTree>();
 		
-		// lazy initializing rules
-		if(mapIndex.encodingRules.isEmpty()) {
-			codedIS.seek(mapIndex.filePointer);
-			int oldLimit = codedIS.pushLimit(mapIndex.length);
-			readMapIndex(mapIndex, true);
-			codedIS.popLimit(oldLimit);
-		}
+		initMapEncodingRules(mapIndex);
 		
 		for (MapRoot level : mapIndex.getRoots()) {
 			if ((level.minZoom <= req.zoom && level.maxZoom >= req.zoom) || req.zoom == -1) {
@@ -886,24 +1071,7 @@ public class BinaryMapIndexReader {
 					continue;
 				}
 				
-				// lazy initializing trees
-				if(level.trees == null){
-					level.trees = new ArrayList<MapTree>();
-					codedIS.seek(level.filePointer);
-					int oldLimit = codedIS.pushLimit(level.length);
-					readMapLevel(level);
-					codedIS.popLimit(oldLimit);
-				}
-				
-				for (MapTree tree : level.trees) {
-					if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
-						continue;
-					}
-					codedIS.seek(tree.filePointer);
-					int oldLimit = codedIS.pushLimit(tree.length);
-					searchMapTreeBounds(tree, level, req, foundSubtrees);
-					codedIS.popLimit(oldLimit);
-				}
+				searchMapTrees(level, req, foundSubtrees);
 				
 				Collections.sort(foundSubtrees, new Comparator<MapTree>() {
 					@Override
@@ -913,11 +1081,7 @@ public class BinaryMapIndexReader {
 				});
 				for(MapTree tree : foundSubtrees) {
 					if(!req.isCancelled()){
-						codedIS.seek(tree.mapDataBlock);
-						int length = codedIS.readRawVarint32();
-						int oldLimit = codedIS.pushLimit(length);
-						readMapDataBlocks(req, tree, mapIndex);
-						codedIS.popLimit(oldLimit);
+						searchMapDataBlock(req, tree, mapIndex);
 					}
 				}
 				foundSubtrees.clear();
@@ -933,6 +1097,120 @@ public class BinaryMapIndexReader {
 		return req.getSearchResults();
 	}
 	
+	/**
+	 * Shares decoded map data blocks between searches of this reader and other readers using the same cache
+	 */
+	public void setMapDataBlockCache(MapDataBlockCache mapDataBlockCache) {
+		if (sharedReader != null) {
+			sharedReader.setMapDataBlockCache(mapDataBlockCache);
+		} else {
+			this.mapDataBlockCache = mapDataBlockCache;
+		}
+	}
+	
+	public MapDataBlockCache getMapDataBlockCache() {
+		if (sharedReader != null) {
+			return sharedReader.getMapDataBlockCache();
+		}
+		return mapDataBlockCache;
+	}
+	
+	private void searchMapDataBlock(SearchRequest<BinaryMapDataObject> req, MapTree tree, MapIndex mapIndex) throws IOException {
+		MapDataBlockCache cache = getMapDataBlockCache();
+		if (cache == null || READ_STATS) {
+			codedIS.seek(tree.mapDataBlock);
+			int length = codedIS.readRawVarint32();
+			int oldLimit = codedIS.pushLimit(length);
+			readMapDataBlocks(req, tree, mapIndex);
+			codedIS.popLimit(oldLimit);
+			return;
+		}
+		MapDataBlockCache.DataBlock block = cache.get(mapIndex, tree.mapDataBlock);
+		if (block == null) {
+			codedIS.seek(tree.mapDataBlock);
+			int length = codedIS.readRawVarint32();
+			int oldLimit = codedIS.pushLimit(length);
+			block = readWholeMapDataBlock(req, tree, mapIndex);
+			codedIS.popLimit(oldLimit);
+			if (block == null) {
+				// interrupted
+				return;
+			}
+			cache.put(mapIndex, tree.mapDataBlock, block);
+		}
+		List<BinaryMapDataObject> tempResults = null;
+		for (int i = 0; i < block.objects.length; i++) {
+			req.numberOfVisitedObjects++;
+			int p = i * 4;
+			if (block.bbox[p + 1] < req.left || block.bbox[p] > req.right || 
+					block.bbox[p + 2] > req.bottom || block.bbox[p + 3] < req.top) {
+				continue;
+			}
+			BinaryMapDataObject obj = block.objects[i];
+			if (req.searchFilter != null) {
+				req.cacheTypes.clear();
+				req.cacheTypes.add(obj.types);
+				if (!req.searchFilter.accept(req.cacheTypes, mapIndex)) {
+					continue;
+				}
+			}
+			req.numberOfAcceptedObjects++;
+			if (tempResults == null) {
+				tempResults = new ArrayList<BinaryMapDataObject>();
+			}
+			tempResults.add(obj);
+		}
+		if (tempResults != null && !req.isCancelled()) {
+			for (BinaryMapDataObject obj : tempResults) {
+				req.publish(obj);
+			}
+		}
+	}
+	
+	private MapDataBlockCache.DataBlock readWholeMapDataBlock(SearchRequest<BinaryMapDataObject> req, MapTree tree, 
+			MapIndex root) throws IOException {
+		List<BinaryMapDataObject> objects = new ArrayList<BinaryMapDataObject>();
+		TIntArrayList bbox = new TIntArrayList();
+		long baseId = 0;
+		while (true) {
+			if (req.isCancelled()) {
+				return null;
+			}
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				for (BinaryMapDataObject obj : objects) {
+					obj.setId(obj.getId() + baseId);
+					obj.resolveObjectNames(null);
+				}
+				return new MapDataBlockCache.DataBlock(objects.toArray(new BinaryMapDataObject[objects.size()]), 
+						bbox.toArray());
+			case MapDataBlock.BASEID_FIELD_NUMBER:
+				baseId = codedIS.readUInt64();
+				break;
+			case MapDataBlock.DATAOBJECTS_FIELD_NUMBER:
+				int length = codedIS.readRawVarint32();
+				int oldLimit = codedIS.pushLimit(length);
+				objects.add(readMapDataObject(tree, req, root, bbox));
+				codedIS.popLimit(oldLimit);
+				break;
+			case MapDataBlock.STRINGTABLE_FIELD_NUMBER:
+				length = codedIS.readRawVarint32();
+				oldLimit = codedIS.pushLimit(length);
+				List<String> stringTable = readStringTable();
+				for (BinaryMapDataObject rs : objects) {
+					rs.resolveObjectNames(stringTable);
+				}
+				codedIS.popLimit(oldLimit);
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+	
 	protected void readMapDataBlocks(SearchRequest<BinaryMapDataObject> req, MapTree tree, MapIndex root) throws IOException {
 		List<BinaryMapDataObject> tempResults = null;
 		long baseId  = 0;
@@ -946,6 +1224,7 @@ public class BinaryMapIndexReader {
 			case 0:
 				if(tempResults != null) {
 					for(BinaryMapDataObject obj : tempResults) {
+						obj.resolveObjectNames(null);
 						req.publish(obj);
 					}
 				}
@@ -963,7 +1242,7 @@ public class BinaryMapIndexReader {
 					req.stat.lastObjectSize += length;
 					req.stat.addBlockHeader(MapDataBlock.DATAOBJECTS_FIELD_NUMBER, length);
 				}
-				BinaryMapDataObject mapObject = readMapDataObject(tree, req, root);
+				BinaryMapDataObject mapObject = readMapDataObject(tree, req, root, null);
 				if (mapObject != null) {
 					mapObject.setId(mapObject.getId() + baseId);
 					if (READ_STATS) {
@@ -986,13 +1265,7 @@ public class BinaryMapIndexReader {
 				if (tempResults != null) {
 					List<String> stringTable = readStringTable();
 					for (int i = 0; i < tempResults.size(); i++) {
-						BinaryMapDataObject rs = tempResults.get(i);
-						if (rs.objectNames != null) {
-							int[] keys = rs.objectNames.keys();
-							for (int j = 0; j < keys.length; j++) {
-								rs.objectNames.put(keys[j], stringTable.get(rs.objectNames.get(keys[j]).charAt(0)));
-							}
-						}
+						tempResults.get(i).resolveObjectNames(stringTable);
 					}
 				} else {
 					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
@@ -1008,11 +1281,19 @@ public class BinaryMapIndexReader {
 	}
 	
 	protected void searchMapTreeBounds(MapTree current, MapTree parent,
-			SearchRequest<BinaryMapDataObject> req, List<MapTree> foundSubtrees) throws IOException {
+			SearchRequest<BinaryMapDataObject> req, List<MapTree> foundSubtrees, 
+			MapTreeBoxCache cache, int cacheId) throws IOException {
 		int init = 0;
+		// box is registered in cache only if it is read completely
+		boolean complete = cache != null;
+		Boolean ocean = null;
 		req.numberOfReadSubtrees++;
 		while(true){
 			if(req.isCancelled()){
+				if (cache != null) {
+					cache.finishParsing(cacheId, current.left, current.right, current.top, current.bottom, ocean, 
+							current.mapDataBlock, false);
+				}
 				return;
 			}
 			int t = codedIS.readTag();
@@ -1021,6 +1302,10 @@ public class BinaryMapIndexReader {
 				init = 0;
 				// coordinates are init
 				if(current.right < req.left || current.left > req.right || current.top > req.bottom || current.bottom < req.top){
+					if (cache != null) {
+						cache.finishParsing(cacheId, current.left, current.right, current.top, current.bottom, ocean, 
+								current.mapDataBlock, false);
+					}
 					return;
 				} else {
 					req.numberOfAcceptedSubtrees++;
@@ -1028,6 +1313,10 @@ public class BinaryMapIndexReader {
 			}
 			switch (tag) {
 			case 0:
+				if (cache != null) {
+					cache.finishParsing(cacheId, current.left, current.right, current.top, current.bottom, ocean, 
+							current.mapDataBlock, complete);
+				}
 				return;
 			case MapDataBox.BOTTOM_FIELD_NUMBER :
 				current.bottom = codedIS.readSInt32() + parent.bottom;
@@ -1056,6 +1345,7 @@ public class BinaryMapIndexReader {
 				} else {
 					current.ocean = Boolean.FALSE;
 				}
+				ocean = current.ocean;
 				req.publishOceanTile(current.ocean);
 				break;
 			case MapDataBox.BOXES_FIELD_NUMBER :
@@ -1067,7 +1357,15 @@ public class BinaryMapIndexReader {
 				if(current.ocean != null ){
 					child.ocean = current.ocean;
 				}
-				searchMapTreeBounds(child, current, req, foundSubtrees);
+				int childId = -1;
+				if (cache != null) {
+					childId = cache.addChild(cacheId, child.filePointer, child.length);
+					if (childId == -1 || !cache.startParsing(childId)) {
+						complete = false;
+						childId = -1;
+					}
+				}
+				searchMapTreeBounds(child, current, req, foundSubtrees, childId == -1 ? null : cache, childId);
 				codedIS.popLimit(oldLimit);
 				codedIS.seek(child.filePointer + child.length);
 				break;
@@ -1079,8 +1377,12 @@ public class BinaryMapIndexReader {
 	}
 	
 	private int MASK_TO_READ = ~((1 << SHIFT_COORDINATES) - 1);
+	/**
+	 * Reads object if it intersects request and accepted by its filter, 
+	 * if objectsBbox is specified reads any object and appends its bbox (left, right, top, bottom) to the list  
+	 */
 	private BinaryMapDataObject readMapDataObject(MapTree tree , SearchRequest<BinaryMapDataObject> req, 
-			MapIndex root) throws IOException {
+			MapIndex root, TIntArrayList objectsBbox) throws IOException {
 		int tag = WireFormat.getTagFieldNumber(codedIS.readTag());
 		boolean area = OsmandOdb.MapData.AREACOORDINATES_FIELD_NUMBER == tag;
 		if(!area && OsmandOdb.MapData.COORDINATES_FIELD_NUMBER != tag) {
@@ -1101,7 +1403,9 @@ public class BinaryMapIndexReader {
 		int maxX = 0;
 		int minY = Integer.MAX_VALUE;
 		int maxY = 0;
-		req.numberOfVisitedObjects++;
+		if (objectsBbox == null) {
+			req.numberOfVisitedObjects++;
+		}
 		while(codedIS.getBytesUntilLimit() > 0){
 			int x = (codedIS.readSInt32() << SHIFT_COORDINATES) + px;
 			int y = (codedIS.readSInt32() << SHIFT_COORDINATES) + py;
@@ -1112,7 +1416,7 @@ public class BinaryMapIndexReader {
 			if(!contains && req.left <= x && req.right >= x && req.top <= y && req.bottom >= y){
 				contains = true;
 			}
-			if(!contains){
+			if(!contains || objectsBbox != null){
 				minX = Math.min(minX, x);
 				maxX = Math.max(maxX, x);
 				minY = Math.min(minY, y);
@@ -1126,17 +1430,22 @@ public class BinaryMapIndexReader {
 			
 		}
 		codedIS.popLimit(old);
-		if(!contains){
+		if (objectsBbox != null) {
+			objectsBbox.add(minX);
+			objectsBbox.add(maxX);
+			objectsBbox.add(minY);
+			objectsBbox.add(maxY);
+		} else if(!contains){
 			codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
 			return null;
 		}
 		
-		// read 
-		
-		List<TIntArrayList> innercoordinates = null;
-		TIntArrayList additionalTypes = null;
-		TIntObjectHashMap<String> stringNames = null;
-		TIntArrayList stringOrder = null;
+		// read into request buffers, object is created only if it is accepted by filter
+		req.cacheInnerCoordinates.clear();
+		req.cacheInnerOffsets.clear();
+		req.cacheAdditionalTypes.clear();
+		req.cacheNames.clear();
+		boolean hasNames = false;
 		long id = 0;
 		
 		boolean loop = true; 
@@ -1148,11 +1457,6 @@ public class BinaryMapIndexReader {
 				loop = false;
 				break;
 			case OsmandOdb.MapData.POLYGONINNERCOORDINATES_FIELD_NUMBER:
-				if (innercoordinates == null) {
-					innercoordinates = new ArrayList<TIntArrayList>();
-				}
-				TIntArrayList polygon = new TIntArrayList();
-				innercoordinates.add(polygon);
 				px = tree.left & MASK_TO_READ;
 				py = tree.top & MASK_TO_READ;
 				size = codedIS.readRawVarint32();
@@ -1165,15 +1469,16 @@ public class BinaryMapIndexReader {
 				while (codedIS.getBytesUntilLimit() > 0) {
 					int x = (codedIS.readSInt32() << SHIFT_COORDINATES) + px;
 					int y = (codedIS.readSInt32() << SHIFT_COORDINATES) + py;
-					polygon.add(x);
-					polygon.add(y);
+					req.cacheInnerCoordinates.add(x);
+					req.cacheInnerCoordinates.add(y);
 					px = x;
 					py = y;
 				}
+				req.cacheInnerOffsets.add(req.cacheInnerCoordinates.size());
 				codedIS.popLimit(old);
 				break;
 			case OsmandOdb.MapData.ADDITIONALTYPES_FIELD_NUMBER:
-				additionalTypes = new TIntArrayList();
+				req.cacheAdditionalTypes.clear();
 				int sizeL = codedIS.readRawVarint32();
 				old = codedIS.pushLimit(sizeL);
 				if(READ_STATS) {
@@ -1182,7 +1487,7 @@ public class BinaryMapIndexReader {
 							sizeL);
 				}
 				while (codedIS.getBytesUntilLimit() > 0) {
-					additionalTypes.add(codedIS.readRawVarint32());
+					req.cacheAdditionalTypes.add(codedIS.readRawVarint32());
 				}
 				codedIS.popLimit(old);
 				
@@ -1200,14 +1505,16 @@ public class BinaryMapIndexReader {
 				}
 				codedIS.popLimit(old);
 				boolean accept = true;
-				if (req.searchFilter != null) {
+				if (req.searchFilter != null && objectsBbox == null) {
 					accept = req.searchFilter.accept(req.cacheTypes, root);
 				}
 				if (!accept) {
 					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
 					return null;
 				}
-				req.numberOfAcceptedObjects++;
+				if (objectsBbox == null) {
+					req.numberOfAcceptedObjects++;
+				}
 				break;
 			case OsmandOdb.MapData.ID_FIELD_NUMBER:
 				id = codedIS.readSInt64();
@@ -1218,15 +1525,15 @@ public class BinaryMapIndexReader {
 				}
 				break;
 			case OsmandOdb.MapData.STRINGNAMES_FIELD_NUMBER:
-				stringNames = new TIntObjectHashMap<String>();
-				stringOrder = new TIntArrayList();
+				hasNames = true;
+				req.cacheNames.clear();
 				sizeL = codedIS.readRawVarint32();
 				old = codedIS.pushLimit(sizeL);
 				while (codedIS.getBytesUntilLimit() > 0) {
 					int stag = codedIS.readRawVarint32();
 					int pId = codedIS.readRawVarint32();
-					stringNames.put(stag, ((char)pId)+"");
-					stringOrder.add(stag);
+					req.cacheNames.add(stag);
+					req.cacheNames.add(pId);
 				}
 				codedIS.popLimit(old);
 				if(READ_STATS) {
@@ -1242,21 +1549,26 @@ public class BinaryMapIndexReader {
 		BinaryMapDataObject dataObject = new BinaryMapDataObject();
 		dataObject.area = area;
 		dataObject.coordinates = req.cacheCoordinates.toArray();
-		dataObject.objectNames = stringNames;
-		dataObject.namesOrder = stringOrder;
-		if (innercoordinates == null) {
-			dataObject.polygonInnerCoordinates = new int[0][0];
+		if (hasNames) {
+			// names are set when string table of block is read
+			dataObject.objectNamesRefs = req.cacheNames.toArray();
+		}
+		if (req.cacheInnerOffsets.isEmpty()) {
+			dataObject.polygonInnerCoordinates = BinaryMapDataObject.EMPTY_POLYGONS;
 		} else {
-			dataObject.polygonInnerCoordinates = new int[innercoordinates.size()][];
-			for (int i = 0; i < innercoordinates.size(); i++) {
-				dataObject.polygonInnerCoordinates[i] = innercoordinates.get(i).toArray();
+			dataObject.polygonInnerCoordinates = new int[req.cacheInnerOffsets.size()][];
+			int st = 0;
+			for (int i = 0; i < req.cacheInnerOffsets.size(); i++) {
+				int end = req.cacheInnerOffsets.get(i);
+				dataObject.polygonInnerCoordinates[i] = req.cacheInnerCoordinates.toArray(st, end - st);
+				st = end;
 			}
 		}
 		dataObject.types = req.cacheTypes.toArray();
-		if (additionalTypes != null) {
-			dataObject.additionalTypes = additionalTypes.toArray();
+		if (!req.cacheAdditionalTypes.isEmpty()) {
+			dataObject.additionalTypes = req.cacheAdditionalTypes.toArray();
 		} else {
-			dataObject.additionalTypes = new int[0];
+			dataObject.additionalTypes = BinaryMapDataObject.EMPTY_TYPES;
 		}
 		dataObject.id = id;
 		dataObject.area = area;
@@ -1536,6 +1848,26 @@ public class BinaryMapIndexReader {
 	}
 	
 	public void close() throws IOException{
+		if (sharedReader != null) {
+			// cursor doesn't own the file and structures
+			closed = true;
+			synchronized (sharedReader) {
+				if (sharedReader.openedCursors != null) {
+					sharedReader.openedCursors.remove(this);
+				}
+			}
+			return;
+		}
+		synchronized (this) {
+			if (openedCursors != null) {
+				for (BinaryMapIndexReader c : openedCursors) {
+					c.closed = true;
+				}
+				openedCursors = null;
+			}
+			// entries of pooled threads are released with the thread local
+			threadCursors = null;
+		}
 		if(codedIS != null){
 			raf.close();
 			codedIS = null;
@@ -1630,6 +1962,12 @@ public class BinaryMapIndexReader {
 		// cache information
 		TIntArrayList cacheCoordinates = new TIntArrayList();
 		TIntArrayList cacheTypes = new TIntArrayList();
+		// inner polygons coordinates and end offset of every polygon
+		TIntArrayList cacheInnerCoordinates = new TIntArrayList();
+		TIntArrayList cacheInnerOffsets = new TIntArrayList();
+		TIntArrayList cacheAdditionalTypes = new TIntArrayList();
+		// pairs (name type, index in block string table)
+		TIntArrayList cacheNames = new TIntArrayList();
 		
 		MapObjectStat stat = new MapObjectStat();
 		
@@ -1641,9 +1979,28 @@ public class BinaryMapIndexReader {
 		int numberOfAcceptedSubtrees = 0;
 		boolean interrupted = false;
 		
+		// request which is searched by several files in parallel (cancellation is taken from it)
+		private SearchRequest<T> parentRequest = null;
+		
 		protected SearchRequest(){
 		}
 		
+		/**
+		 * Creates request with the same search parameters and own search state,
+		 * so it could be searched by one file while other files are searched in parallel.
+		 */
+		SearchRequest<T> createFileRequest() {
+			SearchRequest<T> request = new SearchRequest<T>();
+			request.left = left;
+			request.right = right;
+			request.top = top;
+			request.bottom = bottom;
+			request.zoom = zoom;
+			request.searchFilter = searchFilter;
+			request.parentRequest = this;
+			return request;
+		}
+		
 		public long getTileHashOnPath(double lat, double lon) {
 			long x = (int) MapUtils.getTileNumberX(SearchRequest.ZOOM_TO_SEARCH_POI, lon);
 			long y = (int) MapUtils.getTileNumberY(SearchRequest.ZOOM_TO_SEARCH_POI, lat);
@@ -1682,6 +2039,9 @@ public class BinaryMapIndexReader {
 			if(this.interrupted){
 				return interrupted;
 			}
+			if(parentRequest != null && parentRequest.isCancelled()){
+				return true;
+			}
 			if(resultMatcher != null){
 				return resultMatcher.isCancelled();
 			}
@@ -1907,6 +2267,7 @@ public class BinaryMapIndexReader {
 		}
 		
 		private List<MapTree> trees = null;
+		private MapTreeBoxCache boxCache = null;
 	}
 	
 	private static class MapTree {
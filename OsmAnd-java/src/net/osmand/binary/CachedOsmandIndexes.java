@@ -167,6 +167,10 @@ public class CachedOsmandIndexes {
 	}
 	
 	public BinaryMapIndexReader getReader(File f) throws IOException {
+		return getReader(f, false);
+	}
+	
+	public BinaryMapIndexReader getReader(File f, boolean useMemoryMapping) throws IOException {
 		RandomAccessFile mf = new RandomAccessFile(f.getPath(), "r");
 		FileIndex found = null;
 		if (storedIndex != null) {
@@ -182,19 +186,19 @@ public class CachedOsmandIndexes {
 		BinaryMapIndexReader reader = null;
 		if (found == null) {
 			long val = System.currentTimeMillis();
-			reader = new BinaryMapIndexReader(mf);
+			reader = new BinaryMapIndexReader(mf, true, useMemoryMapping);
 			addToCache(reader, f);
 			if (log.isDebugEnabled()) {
 				log.debug("Initializing db " + f.getAbsolutePath() + " " + (System.currentTimeMillis() - val ) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			}
 		} else {
-			reader = initFileIndex(found, mf);
+			reader = initFileIndex(found, mf, useMemoryMapping);
 		}
 		return reader;
 	}
 	
-	private BinaryMapIndexReader initFileIndex(FileIndex found, RandomAccessFile mf) throws IOException {
-		BinaryMapIndexReader reader = new BinaryMapIndexReader(mf, false);
+	private BinaryMapIndexReader initFileIndex(FileIndex found, RandomAccessFile mf, boolean useMemoryMapping) throws IOException {
+		BinaryMapIndexReader reader = new BinaryMapIndexReader(mf, false, useMemoryMapping);
 		reader.version = found.getVersion();
 		reader.dateCreated = found.getDateModified();
 		
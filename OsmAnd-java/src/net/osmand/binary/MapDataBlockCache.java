@@ -0,0 +1,165 @@
+package net.osmand.binary;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+
+/**
+ * LRU cache of completely decoded map data blocks (all objects of the block, names resolved),
+ * limited by estimated memory size. Block is identified by its map index and file offset
+ * (offset defines the map level, so zoom is not part of the key).
+ * Cache could be shared by several readers and used by concurrent searches,
+ * cached objects are shared between requests and should not be modified.
+ */
+public class MapDataBlockCache {
+
+	private final LinkedHashMap<BlockKey, DataBlock> blocks = new LinkedHashMap<BlockKey, DataBlock>(64, 0.75f, true);
+	private long limit;
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public MapDataBlockCache(long limit) {
+		this.limit = limit;
+	}
+
+	public synchronized DataBlock get(MapIndex index, long offset) {
+		DataBlock block = blocks.get(new BlockKey(index, offset));
+		if (block == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return block;
+	}
+
+	public synchronized void put(MapIndex index, long offset, DataBlock block) {
+		if (block.estimatedSize > limit) {
+			return;
+		}
+		DataBlock old = blocks.put(new BlockKey(index, offset), block);
+		if (old != null) {
+			size -= old.estimatedSize;
+		}
+		size += block.estimatedSize;
+		Iterator<Entry<BlockKey, DataBlock>> it = blocks.entrySet().iterator();
+		while (size > limit && it.hasNext()) {
+			Entry<BlockKey, DataBlock> e = it.next();
+			size -= e.getValue().estimatedSize;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes blocks of map indexes (f.e. when file is closed)
+	 */
+	public synchronized void removeIndexes(Collection<MapIndex> indexes) {
+		Iterator<Entry<BlockKey, DataBlock>> it = blocks.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<BlockKey, DataBlock> e = it.next();
+			if (indexes.contains(e.getKey().index)) {
+				size -= e.getValue().estimatedSize;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		blocks.clear();
+		size = 0;
+	}
+
+	public synchronized void setLimit(long limit) {
+		this.limit = limit;
+		Iterator<Entry<BlockKey, DataBlock>> it = blocks.entrySet().iterator();
+		while (size > limit && it.hasNext()) {
+			size -= it.next().getValue().estimatedSize;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	public synchronized long getEstimatedSize() {
+		return size;
+	}
+
+	public synchronized int getBlocksCount() {
+		return blocks.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Map data block cache : " + blocks.size() + " blocks, " + (size >> 10) + " KB of " + (limit >> 10)
+				+ " KB, hits " + hits + ", misses " + misses + ", evictions " + evictions;
+	}
+
+	private static class BlockKey {
+		private final MapIndex index;
+		private final long offset;
+
+		public BlockKey(MapIndex index, long offset) {
+			this.index = index;
+			this.offset = offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(index) + (int) (offset ^ (offset >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BlockKey)) {
+				return false;
+			}
+			BlockKey other = (BlockKey) obj;
+			return index == other.index && offset == other.offset;
+		}
+	}
+
+	public static class DataBlock {
+		// 4 ints per object : left, right, top, bottom
+		final int[] bbox;
+		final BinaryMapDataObject[] objects;
+		final int estimatedSize;
+
+		DataBlock(BinaryMapDataObject[] objects, int[] bbox) {
+			this.objects = objects;
+			this.bbox = bbox;
+			int sz = 16 + 16 + bbox.length * 4 + objects.length * 4;
+			for (BinaryMapDataObject o : objects) {
+				sz += o.getEstimatedSize();
+			}
+			this.estimatedSize = sz;
+		}
+
+		public int getObjectsCount() {
+			return objects.length;
+		}
+
+		public int getEstimatedSize() {
+			return estimatedSize;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package net.osmand.binary;
+
+
+/**
+ * Compact in-memory copy of map data boxes hierarchy of one map level (MapRoot).
+ * Boxes are stored in one int array (10 ints per box) and added incrementally when search reads them from file,
+ * box becomes usable only after it was completely read once (all fields and all children boxes registered).
+ * Growth is limited by {@link Budget} shared by all levels of one file.
+ */
+class MapTreeBoxCache {
+
+	public static final int NODE_SIZE = 10;
+	public static final int NODE_BYTES = NODE_SIZE * 4;
+
+	private static final int LEFT = 0;
+	private static final int RIGHT = 1;
+	private static final int TOP = 2;
+	private static final int BOTTOM = 3;
+	private static final int FILE_POINTER = 4;
+	private static final int LENGTH = 5;
+	private static final int MAP_DATA_BLOCK = 6;
+	private static final int FLAGS = 7;
+	private static final int FIRST_CHILD = 8;
+	private static final int NEXT_SIBLING = 9;
+
+	private static final int FLAG_COMPLETE = 1;
+	private static final int FLAG_PARSING = 2;
+	private static final int FLAG_HAS_OCEAN = 4;
+	private static final int FLAG_OCEAN = 8;
+
+	private final Budget budget;
+	private final int[] roots;
+	private int[] nodes = new int[NODE_SIZE * 16];
+	private int size = 0;
+
+	public MapTreeBoxCache(Budget budget, int rootsSize) {
+		this.budget = budget;
+		this.roots = new int[rootsSize];
+		for (int i = 0; i < rootsSize; i++) {
+			roots[i] = -1;
+		}
+	}
+
+	public synchronized int getRoot(int ind, int filePointer, int length) {
+		if (roots[ind] == -1) {
+			roots[ind] = addNode(filePointer, length);
+		}
+		return roots[ind];
+	}
+
+	/**
+	 * Registers child box read from file, returns -1 if memory budget is exceeded.
+	 * Child registered by previous interrupted read of parent is reused.
+	 */
+	public synchronized int addChild(int parent, int filePointer, int length) {
+		int child = nodes[parent * NODE_SIZE + FIRST_CHILD];
+		while (child != -1) {
+			if (nodes[child * NODE_SIZE + FILE_POINTER] == filePointer) {
+				return child;
+			}
+			child = nodes[child * NODE_SIZE + NEXT_SIBLING];
+		}
+		child = addNode(filePointer, length);
+		if (child != -1) {
+			// children order is not important
+			nodes[child * NODE_SIZE + NEXT_SIBLING] = nodes[parent * NODE_SIZE + FIRST_CHILD];
+			nodes[parent * NODE_SIZE + FIRST_CHILD] = child;
+		}
+		return child;
+	}
+
+	private int addNode(int filePointer, int length) {
+		if (!budget.allocate(NODE_BYTES)) {
+			return -1;
+		}
+		if ((size + 1) * NODE_SIZE > nodes.length) {
+			int[] nnodes = new int[nodes.length * 2];
+			System.arraycopy(nodes, 0, nnodes, 0, nodes.length);
+			nodes = nnodes;
+		}
+		int id = size++;
+		int p = id * NODE_SIZE;
+		nodes[p + FILE_POINTER] = filePointer;
+		nodes[p + LENGTH] = length;
+		nodes[p + FIRST_CHILD] = -1;
+		nodes[p + NEXT_SIBLING] = -1;
+		return id;
+	}
+
+	/**
+	 * Marks that box will be read from file by the calling thread and registered in cache.
+	 * Returns false if box is already being read by another thread (then it shouldn't be registered).
+	 */
+	public synchronized boolean startParsing(int id) {
+		int p = id * NODE_SIZE;
+		if ((nodes[p + FLAGS] & FLAG_PARSING) != 0) {
+			return false;
+		}
+		// children registered by interrupted read are kept (they are charged to budget) and reused by addChild
+		nodes[p + FLAGS] = FLAG_PARSING;
+		return true;
+	}
+
+	public synchronized void finishParsing(int id, int left, int right, int top, int bottom, Boolean ocean,
+			long mapDataBlock, boolean complete) {
+		int p = id * NODE_SIZE;
+		nodes[p + LEFT] = left;
+		nodes[p + RIGHT] = right;
+		nodes[p + TOP] = top;
+		nodes[p + BOTTOM] = bottom;
+		nodes[p + MAP_DATA_BLOCK] = (int) mapDataBlock;
+		int flags = complete ? FLAG_COMPLETE : 0;
+		if (ocean != null) {
+			flags |= FLAG_HAS_OCEAN | (ocean.booleanValue() ? FLAG_OCEAN : 0);
+		}
+		nodes[p + FLAGS] = flags;
+	}
+
+	/**
+	 * Copies completely read box into node array (size of {@link #NODE_SIZE}) and returns true,
+	 * returns false if box should be read from file.
+	 */
+	public synchronized boolean readCompleteNode(int id, int[] node) {
+		int p = id * NODE_SIZE;
+		if ((nodes[p + FLAGS] & FLAG_COMPLETE) == 0) {
+			return false;
+		}
+		System.arraycopy(nodes, p, node, 0, NODE_SIZE);
+		return true;
+	}
+
+	public synchronized int getFilePointer(int id) {
+		return nodes[id * NODE_SIZE + FILE_POINTER];
+	}
+
+	public synchronized int getLength(int id) {
+		return nodes[id * NODE_SIZE + LENGTH];
+	}
+
+	public synchronized int getNextSibling(int id) {
+		return nodes[id * NODE_SIZE + NEXT_SIBLING];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public static int getLeft(int[] node) {
+		return node[LEFT];
+	}
+
+	public static int getRight(int[] node) {
+		return node[RIGHT];
+	}
+
+	public static int getTop(int[] node) {
+		return node[TOP];
+	}
+
+	public static int getBottom(int[] node) {
+		return node[BOTTOM];
+	}
+
+	public static int getMapDataBlock(int[] node) {
+		return node[MAP_DATA_BLOCK];
+	}
+
+	public static int getFirstChild(int[] node) {
+		return node[FIRST_CHILD];
+	}
+
+	public static Boolean getOcean(int[] node) {
+		if ((node[FLAGS] & FLAG_HAS_OCEAN) == 0) {
+			return null;
+		}
+		return (node[FLAGS] & FLAG_OCEAN) != 0 ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	public static class Budget {
+		private int limit;
+		private int used;
+
+		public Budget(int limit) {
+			this.limit = limit;
+		}
+
+		public synchronized boolean allocate(int bytes) {
+			if (used + bytes > limit) {
+				return false;
+			}
+			used += bytes;
+			return true;
+		}
+
+		public synchronized void setLimit(int limit) {
+			this.limit = limit;
+		}
+
+		public synchronized int getLimit() {
+			return limit;
+		}
+
+		public synchronized int getUsed() {
+			return used;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package net.osmand.binary;
+
+import gnu.trove.set.TLongSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Searches one map request in several files in parallel (limited number of threads).
+ * Every file is searched with its own thread cursor and own copy of request,
+ * results are merged in order of files, so they are the same as with sequential search.
+ * Search filter of request is called from several threads and should be thread safe.
+ */
+public class MultiFileMapSearch {
+
+	private static final Log log = PlatformUtil.getLog(MultiFileMapSearch.class);
+	private static final int THREADS_KEEP_ALIVE_SECONDS = 30;
+
+	private final ThreadPoolExecutor executor;
+
+	public MultiFileMapSearch(int numberOfThreads) {
+		if (numberOfThreads > 1) {
+			executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, THREADS_KEEP_ALIVE_SECONDS,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private int counter = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "Map search " + (++counter));
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		} else {
+			executor = null;
+		}
+	}
+
+	public static class FileSearchResult {
+		private final BinaryMapIndexReader reader;
+		private List<BinaryMapDataObject> objects;
+		private boolean ocean;
+		private boolean land;
+		private IOException error;
+
+		public FileSearchResult(BinaryMapIndexReader reader) {
+			this.reader = reader;
+		}
+
+		public BinaryMapIndexReader getReader() {
+			return reader;
+		}
+
+		public List<BinaryMapDataObject> getObjects() {
+			return objects;
+		}
+
+		public boolean isOcean() {
+			return ocean;
+		}
+
+		public boolean isLand() {
+			return land;
+		}
+
+		public IOException getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Searches request in all readers and returns results by file (in order of readers).
+	 * Merged results and ocean/land flags are published to the request (result matcher is called only while merging).
+	 * If ids is not null, objects with positive id already found in previous files are removed from results
+	 * (basemap files are not checked). Search stops as soon as request is cancelled.
+	 */
+	public List<FileSearchResult> searchMapIndex(Collection<BinaryMapIndexReader> readers,
+			SearchRequest<BinaryMapDataObject> req, TLongSet ids) throws InterruptedException {
+		List<FileSearchResult> results = new ArrayList<FileSearchResult>(readers.size());
+		if (executor == null || readers.size() <= 1) {
+			for (BinaryMapIndexReader reader : readers) {
+				if (req.isCancelled()) {
+					break;
+				}
+				results.add(searchFile(reader, reader, req.createFileRequest()));
+			}
+		} else {
+			List<Future<FileSearchResult>> futures = new ArrayList<Future<FileSearchResult>>(readers.size());
+			for (final BinaryMapIndexReader reader : readers) {
+				final SearchRequest<BinaryMapDataObject> fileReq = req.createFileRequest();
+				futures.add(executor.submit(new Callable<FileSearchResult>() {
+					@Override
+					public FileSearchResult call() throws Exception {
+						return searchFile(reader, reader.getThreadCursor(), fileReq);
+					}
+				}));
+			}
+			try {
+				for (Future<FileSearchResult> f : futures) {
+					results.add(f.get());
+				}
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				for (Future<FileSearchResult> f : futures) {
+					f.cancel(false);
+				}
+			}
+		}
+		mergeResults(results, req, ids);
+		return results;
+	}
+
+	private FileSearchResult searchFile(BinaryMapIndexReader reader, BinaryMapIndexReader cursor,
+			SearchRequest<BinaryMapDataObject> req) {
+		FileSearchResult result = new FileSearchResult(reader);
+		try {
+			result.objects = cursor.searchMapIndex(req);
+		} catch (IOException e) {
+			result.error = e;
+			result.objects = new ArrayList<BinaryMapDataObject>();
+			log.debug("Search failed " + reader.getRegionNames(), e); //$NON-NLS-1$
+		}
+		result.ocean = req.isOcean();
+		result.land = req.isLand();
+		return result;
+	}
+
+	private void mergeResults(List<FileSearchResult> results, SearchRequest<BinaryMapDataObject> req, TLongSet ids) {
+		req.clearSearchResults();
+		for (FileSearchResult r : results) {
+			boolean checkIds = ids != null && !r.reader.isBasemap();
+			Iterator<BinaryMapDataObject> it = r.objects.iterator();
+			while (it.hasNext()) {
+				BinaryMapDataObject o = it.next();
+				if (checkIds) {
+					if (ids.contains(o.getId()) && o.getId() > 0) {
+						// do not add object twice
+						it.remove();
+						continue;
+					}
+					ids.add(o.getId());
+				}
+				if (!req.publish(o)) {
+					it.remove();
+				}
+			}
+			if (r.ocean) {
+				req.publishOceanTile(true);
+			}
+			if (r.land) {
+				req.publishOceanTile(false);
+			}
+		}
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+}
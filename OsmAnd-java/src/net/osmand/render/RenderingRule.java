@@ -29,6 +29,17 @@ public class RenderingRule {
 		this.storage = storage;
 		init(attributes);
 	}
+
+	// rule read from binary storage, attributes references and children are set after all rules are created
+	RenderingRule(RenderingRuleProperty[] properties, int[] intProperties, float[] floatProperties,
+			RenderingRule[] attributesRef, boolean isGroup, RenderingRulesStorage storage) {
+		this.properties = properties;
+		this.intProperties = intProperties;
+		this.floatProperties = floatProperties;
+		this.attributesRef = attributesRef;
+		this.isGroup = isGroup;
+		this.storage = storage;
+	}
 	
 	public void storeAttributes(Map<String, String> attributes){
 		this.attributes = new HashMap<String, String>(attributes);
@@ -131,6 +142,18 @@ public class RenderingRule {
 	protected float getFloatProp(int ind){
 		return floatProperties[ind];
 	}
+
+	void setAttrProp(int ind, RenderingRule rule) {
+		attributesRef[ind] = rule;
+	}
+
+	boolean hasFloatProps() {
+		return floatProperties != null;
+	}
+
+	boolean hasStoredAttributes() {
+		return attributes != null;
+	}
 	
 	public RenderingRuleProperty[] getProperties() {
 		return properties;
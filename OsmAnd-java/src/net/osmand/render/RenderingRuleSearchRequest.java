@@ -7,6 +7,7 @@ import net.osmand.util.Algorithms;
 public class RenderingRuleSearchRequest {
 
 	private final RenderingRulesStorage storage;
+	private final RenderingRulesProgram program;
 	RenderingRuleProperty[] props;
 	int[] values;
 	BinaryMapDataObject object;
@@ -21,8 +22,16 @@ public class RenderingRuleSearchRequest {
 	public final RenderingRuleStorageProperties ALL;
 
 	public RenderingRuleSearchRequest(RenderingRulesStorage storage) {
+		this(storage, true);
+	}
+
+	/**
+	 * @param compiledRules rules are evaluated by compiled program of storage (otherwise by visiting rule tree)
+	 */
+	public RenderingRuleSearchRequest(RenderingRulesStorage storage, boolean compiledRules) {
 		this.storage = storage;
 		this.ALL = storage.PROPS;
+		this.program = compiledRules ? storage.getProgram() : null;
 		props = storage.PROPS.getPoperties();
 		values = new int[props.length];
 		for (int i = 0; i < props.length; i++) {
@@ -72,6 +81,13 @@ public class RenderingRuleSearchRequest {
 		}
 	}
 	
+	/**
+	 * Visibility of map types for saved state of request (custom properties)
+	 */
+	public RenderingRulesVisibility getVisibility() {
+		return storage.getVisibility(this);
+	}
+
 	public BinaryMapDataObject getObject() {
 		return object;
 	}
@@ -100,6 +116,11 @@ public class RenderingRuleSearchRequest {
 	
 	public boolean searchRenderingAttribute(String attribute) {
 		searchResult = false;
+		if (program != null) {
+			int entry = program.getAttributeEntry(attribute);
+			searchResult = entry != -1 && program.execute(this, entry, true);
+			return searchResult;
+		}
 		RenderingRule rule = storage.getRenderingAttributeRule(attribute);
 		if(rule == null){
 			return false;
@@ -117,12 +138,14 @@ public class RenderingRuleSearchRequest {
 		searchResult = false;
 		int tagKey = values[storage.PROPS.R_TAG.getId()];
 		int valueKey = values[storage.PROPS.R_VALUE.getId()];
-		boolean result = searchInternal(state, tagKey, valueKey, loadOutput);
+		// strings unknown to dictionary have no rules
+		boolean result = valueKey != RenderingRulesDictionary.UNKNOWN && tagKey != RenderingRulesDictionary.UNKNOWN
+				&& searchInternal(state, tagKey, valueKey, loadOutput);
 		if (result) {
 			searchResult = true;
 			return true;
 		}
-		result = searchInternal(state, tagKey, 0, loadOutput);
+		result = tagKey != RenderingRulesDictionary.UNKNOWN && searchInternal(state, tagKey, 0, loadOutput);
 		if (result) {
 			searchResult = true;
 			return true;
@@ -141,11 +164,20 @@ public class RenderingRuleSearchRequest {
 		values[storage.PROPS.R_TAG.getId()] = tagKey;
 		values[storage.PROPS.R_VALUE.getId()] = valueKey;
 		values[storage.PROPS.R_DISABLE.getId()] = 0;
-		RenderingRule accept = storage.getRule(state, tagKey, valueKey);
-		if (accept == null) {
-			return false;
+		boolean match;
+		if (program != null) {
+			int entry = program.getRuleEntry(state, storage.getTagValueKey(tagKey, valueKey));
+			if (entry == -1) {
+				return false;
+			}
+			match = program.execute(this, entry, loadOutput);
+		} else {
+			RenderingRule accept = storage.getRule(state, tagKey, valueKey);
+			if (accept == null) {
+				return false;
+			}
+			match = visitRule(accept, loadOutput);
 		}
-		boolean match = visitRule(accept, loadOutput);
 		if(match && values[storage.PROPS.R_DISABLE.getId()] != 0) {
 			return false;
 		}
@@ -0,0 +1,125 @@
+package net.osmand.render;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dictionary of strings of rendering rules (string -> index). Strings are added while rules are parsed,
+ * after {@link #freeze()} dictionary is immutable : unknown strings are not added and get {@link #UNKNOWN},
+ * so lookups are thread safe without locking.
+ * Index is open addressing hash table (linear probing) of string index + 1 (0 - empty slot).
+ */
+public class RenderingRulesDictionary {
+
+	// index of strings not in dictionary (-1 is used by requests as not specified value)
+	public static final int UNKNOWN = -2;
+
+	private String[] strings;
+	private int[] hashes;
+	private int[] table;
+	private int size;
+	private boolean frozen;
+
+	public RenderingRulesDictionary() {
+		strings = new String[64];
+		hashes = new int[64];
+		table = new int[128];
+	}
+
+	public RenderingRulesDictionary(RenderingRulesDictionary copy) {
+		strings = copy.strings.clone();
+		hashes = copy.hashes.clone();
+		table = copy.table.clone();
+		size = copy.size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Dictionary becomes immutable
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+
+	/**
+	 * @return unmodifiable copy of strings ordered by index
+	 */
+	public List<String> toList() {
+		return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(strings, size)));
+	}
+
+	public String getString(int i) {
+		if (i < 0 || i >= size) {
+			return null;
+		}
+		return strings[i];
+	}
+
+	/**
+	 * @return index of string or {@link #UNKNOWN}
+	 */
+	public int get(String s) {
+		if (s == null) {
+			return UNKNOWN;
+		}
+		int hash = hash(s);
+		int mask = table.length - 1;
+		for (int pos = hash & mask;; pos = (pos + 1) & mask) {
+			int ind = table[pos] - 1;
+			if (ind < 0) {
+				return UNKNOWN;
+			}
+			if (hashes[ind] == hash && strings[ind].equals(s)) {
+				return ind;
+			}
+		}
+	}
+
+	/**
+	 * @return index of string, string is added if dictionary is not frozen (otherwise {@link #UNKNOWN} is returned)
+	 */
+	public int getOrAdd(String s) {
+		int ind = get(s);
+		if (ind != UNKNOWN || frozen || s == null) {
+			return ind;
+		}
+		if (size == strings.length) {
+			strings = Arrays.copyOf(strings, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		ind = size++;
+		strings[ind] = s;
+		hashes[ind] = hash(s);
+		if (size * 2 > table.length) {
+			table = new int[table.length * 2];
+			for (int i = 0; i < size; i++) {
+				insert(i);
+			}
+		} else {
+			insert(ind);
+		}
+		return ind;
+	}
+
+	private void insert(int ind) {
+		int mask = table.length - 1;
+		int pos = hashes[ind] & mask;
+		while (table[pos] != 0) {
+			pos = (pos + 1) & mask;
+		}
+		table[pos] = ind + 1;
+	}
+
+	private static int hash(String s) {
+		int h = s.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
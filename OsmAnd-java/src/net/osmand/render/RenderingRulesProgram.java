@@ -0,0 +1,367 @@
+package net.osmand.render;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Rendering rules compiled to flat program : every rule is a function of int instructions (input checks,
+ * output stores and calls of child rules), root rules are found by tag/value key of state.
+ * Program is executed on values of search request with the same result as
+ * {@link RenderingRuleSearchRequest} visiting rule tree (the same order of checks and stores).
+ */
+public class RenderingRulesProgram {
+
+	// input checks : return false if check fails
+	private static final int IN_EQUAL = 1; // prop, value
+	private static final int IN_FLOAT_EQUAL = 2; // prop, float index
+	private static final int IN_LESS = 3; // prop, value (value >= request value)
+	private static final int IN_GREATER = 4; // prop, value (value <= request value)
+	private static final int IN_ACCEPT = 5; // prop, value (property accepts)
+	private static final int IN_FLOAT_ACCEPT = 6; // prop, float index
+	private static final int SET_VALUE = 7; // prop, value
+	// returns true if output is not loaded
+	private static final int NO_OUTPUT = 8;
+	// output stores : prop, value, override
+	private static final int OUT_INT = 9;
+	private static final int OUT_COLOR = 10;
+	private static final int OUT_FLOAT = 11; // prop, value, float index, override
+	private static final int OUT_ATTRIBUTE = 12; // prop, function, override
+	// calls of children : if else child (function, jump if matched), if child (function)
+	private static final int CALL_ELSE = 13;
+	private static final int CALL = 14;
+	private static final int RETURN_FALSE = 15;
+	private static final int RETURN_TRUE = 16;
+
+	private final int[] code;
+	private final float[] floats;
+	private final TIntLongHashMap[] stateRules;
+	private final Map<String, Integer> attributes;
+	private final RenderingRuleProperty colorValue;
+	private final RenderingRuleProperty intValue;
+
+	RenderingRulesProgram(int[] code, float[] floats, TIntLongHashMap[] stateRules, Map<String, Integer> attributes,
+			RenderingRuleStorageProperties props) {
+		this.code = code;
+		this.floats = floats;
+		this.stateRules = stateRules;
+		this.attributes = attributes;
+		this.colorValue = props.R_ATTR_COLOR_VALUE;
+		this.intValue = props.R_ATTR_INT_VALUE;
+	}
+
+	public int getCodeSize() {
+		return code.length;
+	}
+
+	/**
+	 * Entry of root rule of state for tag/value key, -1 if there is no rule
+	 */
+	int getRuleEntry(int state, int tagValueKey) {
+		TIntLongHashMap rules = state < stateRules.length ? stateRules[state] : null;
+		if (rules == null) {
+			return -1;
+		}
+		return (int) rules.get(tagValueKey) - 1;
+	}
+
+	int getAttributeEntry(String attribute) {
+		Integer entry = attributes.get(attribute);
+		return entry == null ? -1 : entry;
+	}
+
+	/**
+	 * The same as visiting rule tree by search request
+	 */
+	boolean execute(RenderingRuleSearchRequest req, int pc, boolean loadOutput) {
+		final int[] code = this.code;
+		final int[] values = req.values;
+		final float[] fvalues = req.fvalues;
+		while (true) {
+			switch (code[pc]) {
+			case IN_EQUAL:
+				if (code[pc + 2] != values[code[pc + 1]]) {
+					return false;
+				}
+				pc += 3;
+				break;
+			case IN_FLOAT_EQUAL:
+				if (floats[code[pc + 2]] != fvalues[code[pc + 1]]) {
+					return false;
+				}
+				pc += 3;
+				break;
+			case IN_LESS:
+				if (code[pc + 2] < values[code[pc + 1]]) {
+					return false;
+				}
+				pc += 3;
+				break;
+			case IN_GREATER:
+				if (code[pc + 2] > values[code[pc + 1]]) {
+					return false;
+				}
+				pc += 3;
+				break;
+			case IN_ACCEPT:
+				if (!req.props[code[pc + 1]].accept(code[pc + 2], values[code[pc + 1]], req)) {
+					return false;
+				}
+				pc += 3;
+				break;
+			case IN_FLOAT_ACCEPT:
+				if (!req.props[code[pc + 1]].accept(floats[code[pc + 2]], fvalues[code[pc + 1]], req)) {
+					return false;
+				}
+				pc += 3;
+				break;
+			case SET_VALUE:
+				values[code[pc + 1]] = code[pc + 2];
+				pc += 3;
+				break;
+			case NO_OUTPUT:
+				if (!loadOutput) {
+					return true;
+				}
+				pc++;
+				break;
+			case OUT_INT:
+				if (code[pc + 3] != 0 || values[code[pc + 1]] == -1) {
+					values[code[pc + 1]] = code[pc + 2];
+				}
+				pc += 4;
+				break;
+			case OUT_COLOR:
+				if (code[pc + 3] != 0 || values[code[pc + 1]] == 0) {
+					values[code[pc + 1]] = code[pc + 2];
+				}
+				pc += 4;
+				break;
+			case OUT_FLOAT: {
+				int p = code[pc + 1];
+				if (code[pc + 4] != 0 || (fvalues[p] == 0 && values[p] == -1)) {
+					fvalues[p] = floats[code[pc + 3]];
+					values[p] = code[pc + 2];
+				}
+				pc += 5;
+				break;
+			}
+			case OUT_ATTRIBUTE: {
+				RenderingRuleProperty rp = req.props[code[pc + 1]];
+				if (code[pc + 3] != 0 || !req.isSpecified(rp)) {
+					execute(req, code[pc + 2], true);
+					if (req.isSpecified(colorValue)) {
+						values[rp.getId()] = values[colorValue.getId()];
+					} else if (req.isSpecified(intValue)) {
+						values[rp.getId()] = values[intValue.getId()];
+						fvalues[rp.getId()] = fvalues[intValue.getId()];
+					}
+				}
+				pc += 4;
+				break;
+			}
+			case CALL_ELSE:
+				if (execute(req, code[pc + 1], loadOutput)) {
+					pc = code[pc + 2];
+				} else {
+					pc += 3;
+				}
+				break;
+			case CALL:
+				execute(req, code[pc + 1], loadOutput);
+				pc += 2;
+				break;
+			case RETURN_FALSE:
+				return false;
+			case RETURN_TRUE:
+				return true;
+			default:
+				throw new IllegalStateException("Wrong instruction " + code[pc] + " at " + pc);
+			}
+		}
+	}
+
+	/**
+	 * Compiles rules of storage (rules could be shared by several parents, they are compiled once)
+	 */
+	static RenderingRulesProgram compile(RenderingRulesStorage storage) {
+		Compiler c = new Compiler(storage);
+		TIntLongHashMap[] stateRules = new TIntLongHashMap[storage.tagValueGlobalRules.length];
+		for (int state = 0; state < stateRules.length; state++) {
+			TIntObjectHashMap<RenderingRule> rules = storage.tagValueGlobalRules[state];
+			if (rules != null) {
+				stateRules[state] = new TIntLongHashMap();
+				int[] keys = rules.keys();
+				for (int key : keys) {
+					stateRules[state].put(key, c.function(rules.get(key)));
+				}
+			}
+		}
+		Map<String, Integer> attributeFunctions = new LinkedHashMap<String, Integer>();
+		for (Entry<String, RenderingRule> e : storage.renderingAttributes.entrySet()) {
+			attributeFunctions.put(e.getKey(), c.function(e.getValue()));
+		}
+		c.compileAll();
+		// function references were stored as function id + 1
+		for (int i = 0; i < stateRules.length; i++) {
+			if (stateRules[i] != null) {
+				for (int key : stateRules[i].keys()) {
+					stateRules[i].put(key, c.entries.get((int) stateRules[i].get(key) - 1) + 1);
+				}
+			}
+		}
+		Map<String, Integer> attributes = new LinkedHashMap<String, Integer>();
+		for (Entry<String, Integer> e : attributeFunctions.entrySet()) {
+			attributes.put(e.getKey(), c.entries.get(e.getValue() - 1));
+		}
+		return new RenderingRulesProgram(c.code.toArray(), Arrays.copyOf(c.floats, c.floatsSize), stateRules,
+				attributes, storage.PROPS);
+	}
+
+	private static class Compiler {
+		private final RenderingRulesStorage storage;
+		private final TIntArrayList code = new TIntArrayList();
+		private float[] floats = new float[64];
+		private int floatsSize = 0;
+		private final Map<RenderingRule, Integer> functions = new IdentityHashMap<RenderingRule, Integer>();
+		private final List<RenderingRule> toCompile = new ArrayList<RenderingRule>();
+		private final TIntArrayList entries = new TIntArrayList();
+		// positions of function ids to replace with entries
+		private final TIntArrayList calls = new TIntArrayList();
+
+		public Compiler(RenderingRulesStorage storage) {
+			this.storage = storage;
+		}
+
+		// function id + 1 of rule
+		public int function(RenderingRule rule) {
+			Integer id = functions.get(rule);
+			if (id == null) {
+				id = toCompile.size();
+				functions.put(rule, id);
+				toCompile.add(rule);
+			}
+			return id + 1;
+		}
+
+		private void emit(int... ops) {
+			code.add(ops);
+		}
+
+		private void call(int op, RenderingRule rule) {
+			code.add(op);
+			calls.add(code.size());
+			code.add(function(rule) - 1);
+		}
+
+		private int addFloat(float f) {
+			if (floatsSize == floats.length) {
+				floats = Arrays.copyOf(floats, floatsSize * 2);
+			}
+			floats[floatsSize] = f;
+			return floatsSize++;
+		}
+
+		public void compileAll() {
+			for (int i = 0; i < toCompile.size(); i++) {
+				entries.add(code.size());
+				compileRule(toCompile.get(i));
+			}
+			for (int i = 0; i < calls.size(); i++) {
+				code.set(calls.get(i), entries.get(code.get(calls.get(i))));
+			}
+		}
+
+		private void compileRule(RenderingRule rule) {
+			RenderingRuleProperty[] properties = rule.getProperties();
+			for (int i = 0; i < properties.length; i++) {
+				RenderingRuleProperty rp = properties[i];
+				if (rp.isInputProperty()) {
+					compileInput(rule, i, rp);
+				} else if (rp == storage.PROPS.R_DISABLE) {
+					emit(SET_VALUE, rp.getId(), rule.getIntProp(i));
+				}
+			}
+			if (!rule.isGroup()) {
+				code.add(NO_OUTPUT);
+				compileOutput(rule, true);
+			}
+			List<RenderingRule> elseChildren = rule.getIfElseChildren();
+			int[] jumps = new int[elseChildren.size()];
+			for (int i = 0; i < elseChildren.size(); i++) {
+				call(CALL_ELSE, elseChildren.get(i));
+				jumps[i] = code.size();
+				code.add(0);
+			}
+			if (rule.isGroup()) {
+				code.add(RETURN_FALSE);
+			}
+			for (int j : jumps) {
+				code.set(j, code.size());
+			}
+			if (rule.isGroup()) {
+				code.add(NO_OUTPUT);
+				compileOutput(rule, false);
+			}
+			for (RenderingRule rr : rule.getIfChildren()) {
+				call(CALL, rr);
+			}
+			code.add(RETURN_TRUE);
+		}
+
+		private void compileInput(RenderingRule rule, int i, RenderingRuleProperty rp) {
+			boolean standard = rp.getClass() == RenderingRuleProperty.class;
+			if (rp.isFloat()) {
+				// reference to attribute is not evaluated for input
+				float f = rule.getAttrProp(i) != null ? 0 : rule.getFloatProp(i);
+				emit(standard ? IN_FLOAT_EQUAL : IN_FLOAT_ACCEPT, rp.getId(), addFloat(f));
+			} else if (standard) {
+				if (rp.isIntParse()) {
+					emit(IN_EQUAL, rp.getId(), rule.getIntProp(i));
+				} else {
+					// not accepted by property
+					code.add(RETURN_FALSE);
+				}
+			} else if (rp == storage.PROPS.R_MAXZOOM) {
+				emit(IN_LESS, rp.getId(), rule.getIntProp(i));
+			} else if (rp == storage.PROPS.R_MINZOOM) {
+				emit(IN_GREATER, rp.getId(), rule.getIntProp(i));
+			} else {
+				emit(IN_ACCEPT, rp.getId(), rule.getIntProp(i));
+			}
+		}
+
+		private void compileOutput(RenderingRule rule, boolean override) {
+			RenderingRuleProperty[] properties = rule.getProperties();
+			int ovr = override ? 1 : 0;
+			for (int i = 0; i < properties.length; i++) {
+				RenderingRuleProperty rp = properties[i];
+				if (!rp.isOutputProperty()) {
+					continue;
+				}
+				RenderingRule rr = rule.getAttrProp(i);
+				if (rr != null) {
+					code.add(OUT_ATTRIBUTE);
+					code.add(rp.getId());
+					calls.add(code.size());
+					code.add(function(rr) - 1);
+					code.add(ovr);
+				} else if (rp.isFloat()) {
+					emit(OUT_FLOAT, rp.getId(), rule.getIntProp(i));
+					emit(addFloat(rule.getFloatProp(i)), ovr);
+				} else {
+					emit(rp.isColor() ? OUT_COLOR : OUT_INT, rp.getId(), rule.getIntProp(i));
+					code.add(ovr);
+				}
+			}
+		}
+	}
+}
@@ -38,10 +38,12 @@ public class RenderingRulesStorage {
 	public final static int LENGTH_RULES = 6;
 	
 	private final static int SHIFT_TAG_VAL = 16;
+	private final static int MAX_VISIBILITIES = 8;
 	
-	// C++
-	List<String> dictionary = new ArrayList<String>();
-	Map<String, Integer> dictionaryMap = new LinkedHashMap<String, Integer>();
+	// C++ (read by native library after rules are parsed)
+	List<String> dictionary = Collections.emptyList();
+	// string -> index, frozen after rules are parsed
+	RenderingRulesDictionary dictionaryIndex = new RenderingRulesDictionary();
 	
 	public RenderingRuleStorageProperties PROPS = new RenderingRuleStorageProperties();
 
@@ -53,6 +55,10 @@ public class RenderingRulesStorage {
 	
 	protected String renderingName;
 	protected String internalRenderingName;
+	// compiled rules (created on first search)
+	private RenderingRulesProgram program;
+	// visibility of types for different custom properties of requests
+	private List<RenderingRulesVisibility> visibilities = new ArrayList<RenderingRulesVisibility>();
 	
 	
 	public static interface RenderingRulesStorageResolver {
@@ -68,19 +74,24 @@ public class RenderingRulesStorage {
 		}
 	}
 	
+	/**
+	 * Index of string in dictionary, string is added while rules are not parsed,
+	 * after that unknown strings get {@link RenderingRulesDictionary#UNKNOWN} and storage is not changed
+	 */
 	public int getDictionaryValue(String val) {
-		if(dictionaryMap.containsKey(val)){
-			return dictionaryMap.get(val);
-		}
-		int nextInd = dictionaryMap.size();
-		dictionaryMap.put(val, nextInd);
-		dictionary.add(val);
-		return nextInd;
-
+		return dictionaryIndex.getOrAdd(val);
 	}
 	
 	public String getStringValue(int i){
-		return dictionary.get(i);
+		return dictionaryIndex.getString(i);
+	}
+
+	/**
+	 * Dictionary becomes immutable, so storage could be used by concurrent requests
+	 */
+	public void freezeDictionary() {
+		dictionaryIndex.freeze();
+		dictionary = dictionaryIndex.toList();
 	}
 	
 	
@@ -97,9 +108,17 @@ public class RenderingRulesStorage {
 			IOException {
 		XmlPullParser parser = PlatformUtil.newXMLPullParser();
 		RenderingRulesHandler handler = new RenderingRulesHandler(parser, resolver);
+		if (dictionaryIndex.isFrozen()) {
+			dictionaryIndex = new RenderingRulesDictionary(dictionaryIndex);
+		}
 		handler.parse(is);
+		program = null;
+		visibilities.clear();
 		RenderingRulesStorage depends = handler.getDependsStorage();
 		if (depends != null) {
+			// rules of depends storage are changed by merge
+			depends.program = null;
+			depends.visibilities.clear();
 			// merge results
 			// dictionary and props are already merged
 			Iterator<Entry<String, RenderingRule>> it = depends.renderingAttributes.entrySet().iterator();
@@ -142,6 +161,7 @@ public class RenderingRulesStorage {
 			}
 
 		}
+		freezeDictionary();
 	}
 
 	public static String colorToString(int color) {
@@ -305,8 +325,7 @@ public class RenderingRulesStorage {
 				}
 				if(dependsStorage != null){
 					// copy dictionary
-					dictionary = new ArrayList<String>(dependsStorage.dictionary);
-					dictionaryMap = new LinkedHashMap<String, Integer>(dependsStorage.dictionaryMap);
+					dictionaryIndex = new RenderingRulesDictionary(dependsStorage.dictionaryIndex);
 					PROPS = new RenderingRuleStorageProperties(dependsStorage.PROPS);
 					
 				}
@@ -416,6 +435,10 @@ public class RenderingRulesStorage {
 		return (itag << SHIFT_TAG_VAL) | ivalue; 
 	}
 	
+	protected int getTagValueKey(int itag, int ivalue) {
+		return (itag << SHIFT_TAG_VAL) | ivalue;
+	}
+
 	public String getValueString(int tagValueKey){
 		return getStringValue(tagValueKey & ((1 << SHIFT_TAG_VAL) - 1)); 
 	}
@@ -431,6 +454,39 @@ public class RenderingRulesStorage {
 		return null;
 	}
 	
+	/**
+	 * Rules compiled to program, it should be recompiled by {@link #compileRules()} if rules are changed
+	 */
+	public synchronized RenderingRulesProgram getProgram() {
+		if (program == null) {
+			program = RenderingRulesProgram.compile(this);
+		}
+		return program;
+	}
+
+	public synchronized void compileRules() {
+		program = RenderingRulesProgram.compile(this);
+		visibilities.clear();
+	}
+
+	/**
+	 * Visibility of map types for custom properties saved in request (see {@link RenderingRuleSearchRequest#saveState()}),
+	 * it is shared by all requests with the same saved state
+	 */
+	public synchronized RenderingRulesVisibility getVisibility(RenderingRuleSearchRequest req) {
+		for (RenderingRulesVisibility v : visibilities) {
+			if (v.isStateOf(req)) {
+				return v;
+			}
+		}
+		if (visibilities.size() >= MAX_VISIBILITIES) {
+			visibilities.remove(0);
+		}
+		RenderingRulesVisibility v = new RenderingRulesVisibility(this, req.savedValues, req.savedFvalues);
+		visibilities.add(v);
+		return v;
+	}
+
 	protected RenderingRule getRenderingAttributeRule(String attribute){
 		return renderingAttributes.get(attribute);
 	}
@@ -106,6 +106,7 @@ public class RenderingRulesStoragePrinter {
 		out.println(""+indent + defindent +"initConstants();");
 		out.println(""+indent + defindent +"initAttributes();");
 		out.println(""+indent + defindent +"initRules();");
+		out.println(""+indent + defindent +"storage.freezeDictionary();");
 		out.println(""+indent +"}");
 		printJavaInitConstants(storage, out, indent, defindent);
 		printJavaInitProperties(storage, out, indent, defindent);
@@ -126,9 +127,8 @@ public class RenderingRulesStoragePrinter {
 
 	private void printJavaInitDictionary(RenderingRulesStorage storage, PrintStream out, String indent, String ti) {
 		out.println("\n" + indent + "public void initDictionary() {");
-		int i = 0;
-		for(String s : storage.dictionary) {
-			out.println(""+indent + ti +"storage.getDictionaryValue("+ javaString(s) + ");  // " + i++);
+		for(int i = 0; i < storage.dictionaryIndex.size(); i++) {
+			out.println(""+indent + ti +"storage.getDictionaryValue("+ javaString(storage.getStringValue(i)) + ");  // " + i);
 		}
 		out.println(""+indent +"}");
 	}
@@ -0,0 +1,474 @@
+package net.osmand.render;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of fully resolved rendering rules storage (with merged depends styles) : dictionary, custom properties,
+ * constants, rule trees of states and attributes. Header keeps hashes of source styles, so binary file is used only
+ * if sources are not changed, it is read from memory mapped file without xml parsing.
+ *
+ * Format (big endian) : magic, version, sources (name, hash), strings (dictionary strings are first), names,
+ * constants, custom properties, rules (rules are shared, so children are indexes of rule table), attributes, states.
+ */
+public class RenderingRulesStorageSerializer {
+
+	private static final int MAGIC = 0x4f525253;
+	public static final int VERSION = 1;
+
+	private static final byte INT_VALUE = 0;
+	private static final byte FLOAT_VALUE = 1;
+	private static final byte ATTRIBUTE_VALUE = 2;
+
+	public interface RenderingRulesSourceHashes {
+
+		/**
+		 * @return hash of current source of style by name (see {@link RenderingRulesStorageSerializer#getSourceHash(InputStream)})
+		 */
+		long getSourceHash(String name) throws IOException;
+	}
+
+	public static long getSourceHash(InputStream is) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[8192];
+		long length = 0;
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			crc.update(buf, 0, read);
+			length += read;
+		}
+		return (length << 32) | crc.getValue();
+	}
+
+	public static void writeStorage(RenderingRulesStorage storage, Map<String, Long> sources, File file) throws IOException {
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			writeStorage(storage, sources, out);
+		} finally {
+			out.close();
+		}
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Binary style is not saved " + file.getName());
+		}
+	}
+
+	public static void writeStorage(RenderingRulesStorage storage, Map<String, Long> sources, OutputStream os) throws IOException {
+		new Writer(storage).write(sources, os);
+	}
+
+	/**
+	 * @return storage or null if file has other version or sources were changed
+	 */
+	public static RenderingRulesStorage readStorage(File file, RenderingRulesSourceHashes hashes) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return readStorage(buf, hashes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static RenderingRulesStorage readStorage(ByteBuffer buf, RenderingRulesSourceHashes hashes) throws IOException {
+		if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			return null;
+		}
+		int sources = buf.getInt();
+		for (int i = 0; i < sources; i++) {
+			String name = readString(buf);
+			long hash = buf.getLong();
+			if (hashes != null && hashes.getSourceHash(name) != hash) {
+				return null;
+			}
+		}
+		return new Reader(buf).read();
+	}
+
+	private static String readString(ByteBuffer buf) throws IOException {
+		int len = buf.getInt();
+		if (len < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len];
+		buf.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static class Writer {
+		private final RenderingRulesStorage storage;
+		private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		private final Map<RenderingRule, Integer> rulesIndex = new IdentityHashMap<RenderingRule, Integer>();
+		private final List<RenderingRule> rules = new ArrayList<RenderingRule>();
+
+		Writer(RenderingRulesStorage storage) {
+			this.storage = storage;
+			for (int i = 0; i < storage.dictionaryIndex.size(); i++) {
+				strings.put(storage.getStringValue(i), i);
+			}
+		}
+
+		void write(Map<String, Long> sources, OutputStream os) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(body);
+			writeBody(out);
+			out.flush();
+
+			DataOutputStream dos = new DataOutputStream(os);
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(sources.size());
+			for (Entry<String, Long> e : sources.entrySet()) {
+				writeString(dos, e.getKey());
+				dos.writeLong(e.getValue());
+			}
+			dos.writeInt(storage.dictionaryIndex.size());
+			dos.writeInt(strings.size());
+			for (String s : strings.keySet()) {
+				writeString(dos, s);
+			}
+			body.writeTo(dos);
+			dos.flush();
+		}
+
+		private void writeBody(DataOutputStream out) throws IOException {
+			out.writeInt(string(storage.renderingName));
+			out.writeInt(string(storage.internalRenderingName));
+			out.writeInt(storage.renderingConstants.size());
+			for (Entry<String, String> e : storage.renderingConstants.entrySet()) {
+				out.writeInt(string(e.getKey()));
+				out.writeInt(string(e.getValue()));
+			}
+			List<RenderingRuleProperty> custom = storage.PROPS.getCustomRules();
+			out.writeInt(custom.size());
+			for (RenderingRuleProperty p : custom) {
+				out.writeInt(string(p.attrName));
+				out.writeInt(p.type);
+				out.writeBoolean(p.input);
+				out.writeInt(string(p.name));
+				out.writeInt(string(p.description));
+				out.writeInt(string(p.defaultValueDescription));
+				out.writeInt(string(p.category));
+				out.writeInt(p.possibleValues == null ? -1 : p.possibleValues.length);
+				if (p.possibleValues != null) {
+					for (String s : p.possibleValues) {
+						out.writeInt(string(s));
+					}
+				}
+			}
+
+			for (RenderingRule r : storage.renderingAttributes.values()) {
+				collectRules(r);
+			}
+			for (int i = 0; i < RenderingRulesStorage.LENGTH_RULES; i++) {
+				if (storage.tagValueGlobalRules[i] != null) {
+					for (RenderingRule r : storage.tagValueGlobalRules[i].valueCollection()) {
+						collectRules(r);
+					}
+				}
+			}
+			out.writeInt(rules.size());
+			for (RenderingRule r : rules) {
+				writeRule(out, r);
+			}
+
+			out.writeInt(storage.renderingAttributes.size());
+			for (Entry<String, RenderingRule> e : storage.renderingAttributes.entrySet()) {
+				out.writeInt(string(e.getKey()));
+				out.writeInt(rule(e.getValue()));
+			}
+			for (int i = 0; i < RenderingRulesStorage.LENGTH_RULES; i++) {
+				TIntObjectHashMap<RenderingRule> m = storage.tagValueGlobalRules[i];
+				out.writeInt(m == null ? -1 : m.size());
+				if (m != null) {
+					TIntObjectIterator<RenderingRule> it = m.iterator();
+					while (it.hasNext()) {
+						it.advance();
+						out.writeInt(it.key());
+						out.writeInt(rule(it.value()));
+					}
+				}
+			}
+		}
+
+		private void writeRule(DataOutputStream out, RenderingRule r) throws IOException {
+			out.writeBoolean(r.isGroup());
+			RenderingRuleProperty[] props = r.getProperties();
+			out.writeInt(props.length);
+			for (int i = 0; i < props.length; i++) {
+				out.writeInt(string(props[i].getAttrName()));
+				if (r.getAttrProp(i) != null) {
+					out.writeByte(ATTRIBUTE_VALUE);
+					out.writeInt(rule(r.getAttrProp(i)));
+				} else if (props[i].isFloat() && r.hasFloatProps()) {
+					out.writeByte(FLOAT_VALUE);
+					out.writeInt(r.getIntProp(i));
+					out.writeFloat(r.getFloatProp(i));
+				} else {
+					out.writeByte(INT_VALUE);
+					out.writeInt(r.getIntProp(i));
+				}
+			}
+			out.writeInt(r.getIfElseChildren().size());
+			for (RenderingRule c : r.getIfElseChildren()) {
+				out.writeInt(rule(c));
+			}
+			out.writeInt(r.getIfChildren().size());
+			for (RenderingRule c : r.getIfChildren()) {
+				out.writeInt(rule(c));
+			}
+			Map<String, String> attrs = r.hasStoredAttributes() ? r.getAttributes() : null;
+			out.writeInt(attrs == null ? -1 : attrs.size());
+			if (attrs != null) {
+				for (Entry<String, String> e : attrs.entrySet()) {
+					out.writeInt(string(e.getKey()));
+					out.writeInt(string(e.getValue()));
+				}
+			}
+		}
+
+		private void collectRules(RenderingRule r) {
+			if (r == null || rulesIndex.containsKey(r)) {
+				return;
+			}
+			rulesIndex.put(r, rules.size());
+			rules.add(r);
+			for (int i = 0; i < r.getProperties().length; i++) {
+				collectRules(r.getAttrProp(i));
+			}
+			for (RenderingRule c : r.getIfElseChildren()) {
+				collectRules(c);
+			}
+			for (RenderingRule c : r.getIfChildren()) {
+				collectRules(c);
+			}
+		}
+
+		private int rule(RenderingRule r) {
+			return r == null ? -1 : rulesIndex.get(r);
+		}
+
+		private int string(String s) {
+			if (s == null) {
+				return -1;
+			}
+			Integer ind = strings.get(s);
+			if (ind == null) {
+				ind = strings.size();
+				strings.put(s, ind);
+			}
+			return ind;
+		}
+	}
+
+	private static class Reader {
+		private final ByteBuffer buf;
+		private String[] strings;
+
+		Reader(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		RenderingRulesStorage read() throws IOException {
+			int dictionarySize = buf.getInt();
+			strings = new String[buf.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString(buf);
+			}
+			String renderingName = string();
+			String internalRenderingName = string();
+			Map<String, String> constants = new LinkedHashMap<String, String>();
+			int cnt = buf.getInt();
+			for (int i = 0; i < cnt; i++) {
+				String k = string();
+				constants.put(k, string());
+			}
+			RenderingRulesStorage storage = new RenderingRulesStorage(renderingName, constants);
+			storage.internalRenderingName = internalRenderingName;
+			storage.dictionaryIndex = new RenderingRulesDictionary();
+			for (int i = 0; i < dictionarySize; i++) {
+				storage.getDictionaryValue(strings[i]);
+			}
+
+			cnt = buf.getInt();
+			for (int i = 0; i < cnt; i++) {
+				String attrName = string();
+				int type = buf.getInt();
+				boolean input = buf.get() != 0;
+				RenderingRuleProperty p = new RenderingRuleProperty(attrName, type, input);
+				p.setName(string());
+				p.setDescription(string());
+				p.setDefaultValueDescription(string());
+				p.setCategory(string());
+				int pv = buf.getInt();
+				if (pv >= 0) {
+					String[] possibleValues = new String[pv];
+					for (int j = 0; j < pv; j++) {
+						possibleValues[j] = string();
+					}
+					p.setPossibleValues(possibleValues);
+				}
+				storage.PROPS.registerRule(p);
+			}
+
+			RenderingRule[] rules = new RenderingRule[buf.getInt()];
+			int[][] links = new int[rules.length][];
+			for (int i = 0; i < rules.length; i++) {
+				links[i] = readRule(storage, rules, i);
+			}
+			// children and attributes references
+			for (int i = 0; i < rules.length; i++) {
+				int[] l = links[i];
+				int p = 0;
+				while (p < l.length) {
+					int kind = l[p++];
+					if (kind == 0) {
+						rules[i].addIfElseChildren(rules[l[p++]]);
+					} else if (kind == 1) {
+						rules[i].addIfChildren(rules[l[p++]]);
+					} else {
+						int prop = l[p++];
+						int ref = l[p++];
+						rules[i].setAttrProp(prop, ref == -1 ? null : rules[ref]);
+					}
+				}
+			}
+
+			cnt = buf.getInt();
+			for (int i = 0; i < cnt; i++) {
+				String name = string();
+				storage.renderingAttributes.put(name, rules[buf.getInt()]);
+			}
+			for (int s = 0; s < RenderingRulesStorage.LENGTH_RULES; s++) {
+				cnt = buf.getInt();
+				if (cnt >= 0) {
+					TIntObjectHashMap<RenderingRule> m = new TIntObjectHashMap<RenderingRule>();
+					for (int i = 0; i < cnt; i++) {
+						int key = buf.getInt();
+						m.put(key, rules[buf.getInt()]);
+					}
+					storage.tagValueGlobalRules[s] = m;
+				}
+			}
+			storage.freezeDictionary();
+			return storage;
+		}
+
+		// returns links : (0 - if else child, 1 - if child, rule) or (2 - attribute, property index, rule)
+		private int[] readRule(RenderingRulesStorage storage, RenderingRule[] rules, int ind) throws IOException {
+			boolean isGroup = buf.get() != 0;
+			int cnt = buf.getInt();
+			RenderingRuleProperty[] props = new RenderingRuleProperty[cnt];
+			int[] intProps = new int[cnt];
+			float[] floatProps = null;
+			RenderingRule[] attributesRef = null;
+			List<Integer> links = new ArrayList<Integer>();
+			for (int i = 0; i < cnt; i++) {
+				String attrName = string();
+				props[i] = storage.PROPS.get(attrName);
+				if (props[i] == null) {
+					throw new IOException("Unknown property " + attrName);
+				}
+				byte kind = buf.get();
+				if (kind == ATTRIBUTE_VALUE) {
+					if (attributesRef == null) {
+						attributesRef = new RenderingRule[cnt];
+					}
+					links.add(2);
+					links.add(i);
+					links.add(buf.getInt());
+				} else {
+					intProps[i] = buf.getInt();
+					if (kind == FLOAT_VALUE) {
+						if (floatProps == null) {
+							floatProps = new float[cnt];
+						}
+						floatProps[i] = buf.getFloat();
+					}
+				}
+			}
+			cnt = buf.getInt();
+			for (int i = 0; i < cnt; i++) {
+				links.add(0);
+				links.add(buf.getInt());
+			}
+			cnt = buf.getInt();
+			for (int i = 0; i < cnt; i++) {
+				links.add(1);
+				links.add(buf.getInt());
+			}
+			rules[ind] = new RenderingRule(props, intProps, floatProps, attributesRef, isGroup, storage);
+			cnt = buf.getInt();
+			if (cnt >= 0) {
+				Map<String, String> attrs = new LinkedHashMap<String, String>();
+				for (int i = 0; i < cnt; i++) {
+					String k = string();
+					attrs.put(k, string());
+				}
+				rules[ind].storeAttributes(attrs);
+			}
+			int[] res = new int[links.size()];
+			for (int i = 0; i < res.length; i++) {
+				res[i] = links.get(i);
+			}
+			return res;
+		}
+
+		private String string() {
+			int i = buf.getInt();
+			return i < 0 ? null : strings[i];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// converts xml style without depends : <style.render.xml> <style.render.bin>
+		RenderingRulesStorage storage = new RenderingRulesStorage(args[0], null);
+		storage.parseRulesFromXmlInputStream(new FileInputStream(args[0]), null);
+		Map<String, Long> sources = new LinkedHashMap<String, Long>();
+		FileInputStream is = new FileInputStream(args[0]);
+		try {
+			sources.put(args[0], getSourceHash(is));
+		} finally {
+			is.close();
+		}
+		long time = System.nanoTime();
+		writeStorage(storage, sources, new File(args[1]));
+		System.out.println("Written " + (System.nanoTime() - time) / 1e6 + " ms");
+		time = System.nanoTime();
+		RenderingRulesStorage read = readStorage(new File(args[1]), null);
+		System.out.println("Read " + (System.nanoTime() - time) / 1e6 + " ms, dictionary " + read.dictionaryIndex.size());
+	}
+}
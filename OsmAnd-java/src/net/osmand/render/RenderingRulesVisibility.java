@@ -0,0 +1,110 @@
+package net.osmand.render;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+
+/**
+ * Visibility of map object types for rendering style with fixed custom properties (saved state of request) :
+ * type is visible at zoom if any of point, line, polygon or text rules accepts its tag and value.
+ * Results are memoized per encoding type of map index and zoom, lookups are thread safe and
+ * need no rule evaluation once type was checked.
+ */
+public class RenderingRulesVisibility {
+
+	private static final byte UNKNOWN = 0;
+	private static final byte VISIBLE = 1;
+	private static final byte HIDDEN = 2;
+	private static final int MAX_ZOOM = 31;
+	private static final int[] STATES = { RenderingRulesStorage.POINT_RULES, RenderingRulesStorage.LINE_RULES,
+			RenderingRulesStorage.POLYGON_RULES, RenderingRulesStorage.TEXT_RULES };
+
+	private final RenderingRuleSearchRequest req;
+	private final Map<MapIndex, byte[][]> indexes = new WeakHashMap<MapIndex, byte[][]>();
+
+	RenderingRulesVisibility(RenderingRulesStorage storage, int[] savedValues, float[] savedFvalues) {
+		req = new RenderingRuleSearchRequest(storage);
+		req.values = savedValues.clone();
+		req.fvalues = savedFvalues.clone();
+		req.saveState();
+	}
+
+	boolean isStateOf(RenderingRuleSearchRequest request) {
+		return Arrays.equals(req.savedValues, request.savedValues) && Arrays.equals(req.savedFvalues, request.savedFvalues);
+	}
+
+	/**
+	 * @return true if any of types is rendered at zoom
+	 */
+	public boolean isVisible(TIntArrayList types, MapIndex root, int zoom) {
+		byte[] cache = getZoomCache(root, zoom);
+		for (int j = 0; j < types.size(); j++) {
+			int type = types.get(j);
+			byte v = type < cache.length ? cache[type] : UNKNOWN;
+			if (v == UNKNOWN) {
+				cache = checkType(root, type, zoom);
+				v = cache[type];
+			}
+			if (v == VISIBLE) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isVisible(int type, MapIndex root, int zoom) {
+		byte[] cache = getZoomCache(root, zoom);
+		byte v = type < cache.length ? cache[type] : UNKNOWN;
+		if (v == UNKNOWN) {
+			v = checkType(root, type, zoom)[type];
+		}
+		return v == VISIBLE;
+	}
+
+	private synchronized byte[] getZoomCache(MapIndex root, int zoom) {
+		byte[][] zooms = indexes.get(root);
+		if (zooms == null) {
+			zooms = new byte[MAX_ZOOM + 1][];
+			indexes.put(root, zooms);
+		}
+		int z = Math.max(0, Math.min(zoom, MAX_ZOOM));
+		if (zooms[z] == null) {
+			zooms[z] = new byte[0];
+		}
+		return zooms[z];
+	}
+
+	// checks type by rules and stores result, cache array is replaced if type is out of its bounds
+	private synchronized byte[] checkType(MapIndex root, int type, int zoom) {
+		byte[][] zooms = indexes.get(root);
+		int z = Math.max(0, Math.min(zoom, MAX_ZOOM));
+		byte[] cache = zooms[z];
+		if (type >= cache.length) {
+			cache = Arrays.copyOf(cache, Math.max(type + 1, cache.length * 2));
+			zooms[z] = cache;
+		}
+		if (cache[type] == UNKNOWN) {
+			TagValuePair pair = root.decodeType(type);
+			cache[type] = pair != null && searchRules(pair, zoom) ? VISIBLE : HIDDEN;
+		}
+		return cache;
+	}
+
+	private boolean searchRules(TagValuePair pair, int zoom) {
+		for (int state : STATES) {
+			req.clearState();
+			req.setIntFilter(req.ALL.R_MINZOOM, zoom);
+			req.setStringFilter(req.ALL.R_TAG, pair.tag);
+			req.setStringFilter(req.ALL.R_VALUE, pair.value);
+			if (req.search(state, false)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
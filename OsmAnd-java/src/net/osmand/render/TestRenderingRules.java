@@ -0,0 +1,265 @@
+package net.osmand.render;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+import net.osmand.render.RenderingRulesStorage.RenderingRulesStorageResolver;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Checks styles given as arguments (depends styles are read from the same folder) :
+ * dictionary is frozen after parsing, compiled rules give the same results as visiting rule tree,
+ * style saved in binary form and read back gives the same results.
+ */
+public class TestRenderingRules {
+
+	private static final int[] STATES = { RenderingRulesStorage.POINT_RULES, RenderingRulesStorage.LINE_RULES,
+			RenderingRulesStorage.POLYGON_RULES, RenderingRulesStorage.TEXT_RULES, RenderingRulesStorage.ORDER_RULES };
+	private static final int MAX_ZOOM = 21;
+	// default values of custom properties, first and last possible values (with night mode)
+	private static final int VARIANTS = 3;
+	private static final String UNKNOWN = "$unknown$";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage : TestRenderingRules <style.render.xml>...");
+			return;
+		}
+		for (String s : args) {
+			File file = new File(s);
+			RenderingRulesStorage storage = loadStyle(file);
+			checkDictionary(storage);
+			long time = System.currentTimeMillis();
+			int searches = compareSearches(storage, true, storage, false);
+			System.out.println(file.getName() + " : compiled rules = rule tree, " + searches + " searches "
+					+ (System.currentTimeMillis() - time) + " ms");
+			RenderingRulesStorage read = writeAndRead(storage);
+			checkDictionary(read);
+			searches = compareSearches(storage, true, read, true);
+			compareSearches(storage, false, read, false);
+			System.out.println(file.getName() + " : binary style = xml style, " + searches + " searches");
+		}
+	}
+
+	static RenderingRulesStorage loadStyle(File file) throws XmlPullParserException, IOException {
+		final File dir = file.getParentFile();
+		final Map<String, String> renderingConstants = new LinkedHashMap<String, String>();
+		readConstants(file, renderingConstants);
+		RenderingRulesStorageResolver resolver = new RenderingRulesStorageResolver() {
+			@Override
+			public RenderingRulesStorage resolve(String name, RenderingRulesStorageResolver ref)
+					throws XmlPullParserException, IOException {
+				File depends = new File(dir, name + ".render.xml");
+				readConstants(depends, renderingConstants);
+				return parse(depends, name, renderingConstants, ref);
+			}
+		};
+		String name = file.getName();
+		if (name.endsWith(".render.xml")) {
+			name = name.substring(0, name.length() - ".render.xml".length());
+		}
+		return parse(file, name, renderingConstants, resolver);
+	}
+
+	private static RenderingRulesStorage parse(File file, String name, Map<String, String> renderingConstants,
+			RenderingRulesStorageResolver resolver) throws XmlPullParserException, IOException {
+		RenderingRulesStorage storage = new RenderingRulesStorage(name, renderingConstants);
+		InputStream is = new FileInputStream(file);
+		try {
+			storage.parseRulesFromXmlInputStream(is, resolver);
+		} finally {
+			is.close();
+		}
+		return storage;
+	}
+
+	private static void readConstants(File file, Map<String, String> renderingConstants)
+			throws XmlPullParserException, IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			XmlPullParser parser = PlatformUtil.newXMLPullParser();
+			parser.setInput(is, "UTF-8");
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG && parser.getName().equals("renderingConstant")) {
+					if (!renderingConstants.containsKey(parser.getAttributeValue("", "name"))) {
+						renderingConstants.put(parser.getAttributeValue("", "name"),
+								parser.getAttributeValue("", "value"));
+					}
+				}
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	static RenderingRulesStorage writeAndRead(RenderingRulesStorage storage) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Map<String, Long> sources = new LinkedHashMap<String, Long>();
+		sources.put(storage.getName(), 0l);
+		RenderingRulesStorageSerializer.writeStorage(storage, sources, out);
+		RenderingRulesStorage read = RenderingRulesStorageSerializer.readStorage(ByteBuffer.wrap(out.toByteArray()), null);
+		if (read == null) {
+			throw new IllegalStateException("Binary style is not read " + storage.getName());
+		}
+		if (!read.getName().equals(storage.getName()) || !read.dictionary.equals(storage.dictionary)) {
+			throw new IllegalStateException("Binary style differs " + read.getName());
+		}
+		return read;
+	}
+
+	/**
+	 * Unknown strings of requests should not change dictionary of parsed storage
+	 */
+	static void checkDictionary(RenderingRulesStorage storage) {
+		RenderingRulesDictionary index = storage.dictionaryIndex;
+		if (!index.isFrozen()) {
+			throw new IllegalStateException("Dictionary is not frozen " + storage.getName());
+		}
+		int size = index.size();
+		if (storage.getDictionaryValue(UNKNOWN) != RenderingRulesDictionary.UNKNOWN) {
+			throw new IllegalStateException("Unknown string is found in dictionary " + storage.getName());
+		}
+		RenderingRuleSearchRequest req = new RenderingRuleSearchRequest(storage);
+		req.setStringFilter(storage.PROPS.R_TAG, UNKNOWN);
+		req.setInitialTagValueZoom(UNKNOWN, UNKNOWN, 15, null);
+		req.search(RenderingRulesStorage.LINE_RULES);
+		if (index.size() != size || storage.dictionaryIndex != index) {
+			throw new IllegalStateException("Dictionary is changed by request " + storage.getName());
+		}
+		List<String> dictionary = storage.dictionary;
+		if (dictionary.size() != size) {
+			throw new IllegalStateException("Dictionary list " + dictionary.size() + " != " + size);
+		}
+		for (int i = 0; i < size; i++) {
+			if (!dictionary.get(i).equals(index.getString(i)) || index.get(dictionary.get(i)) != i) {
+				throw new IllegalStateException("Dictionary list differs at " + i + " " + dictionary.get(i));
+			}
+		}
+		try {
+			dictionary.add(UNKNOWN);
+			throw new IllegalStateException("Dictionary list is modifiable " + storage.getName());
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Runs the same searches of all states, tag/values of style, zooms and attributes with both requests,
+	 * found flag and all properties should be equal
+	 * @return number of compared searches
+	 */
+	static int compareSearches(RenderingRulesStorage s1, boolean compiled1, RenderingRulesStorage s2, boolean compiled2) {
+		int searches = 0;
+		for (int variant = 0; variant < VARIANTS; variant++) {
+			RenderingRuleSearchRequest r1 = createRequest(s1, compiled1, variant);
+			RenderingRuleSearchRequest r2 = createRequest(s2, compiled2, variant);
+			for (String attr : s1.getRenderingAttributeNames()) {
+				r1.clearState();
+				r2.clearState();
+				r1.searchRenderingAttribute(attr);
+				r2.searchRenderingAttribute(attr);
+				compare(r1, r2, "attribute " + attr + " variant " + variant);
+				searches++;
+			}
+			for (int state : STATES) {
+				for (String[] tv : getTagValues(s1, state)) {
+					for (int zoom = 1; zoom <= MAX_ZOOM; zoom++) {
+						setInput(r1, tv, zoom, variant);
+						setInput(r2, tv, zoom, variant);
+						r1.search(state);
+						r2.search(state);
+						compare(r1, r2, "state " + state + " " + tv[0] + "=" + tv[1] + " zoom " + zoom
+								+ " variant " + variant);
+						searches++;
+					}
+				}
+			}
+		}
+		return searches;
+	}
+
+	private static RenderingRuleSearchRequest createRequest(RenderingRulesStorage storage, boolean compiled, int variant) {
+		RenderingRuleSearchRequest req = new RenderingRuleSearchRequest(storage, compiled);
+		req.setBooleanFilter(storage.PROPS.R_NIGHT_MODE, variant == 1);
+		for (RenderingRuleProperty p : storage.PROPS.getCustomRules()) {
+			if (variant == 0) {
+				continue;
+			}
+			if (p.isBoolean()) {
+				req.setBooleanFilter(p, variant == 1);
+			} else if (p.isString() && p.getPossibleValues() != null && p.getPossibleValues().length > 0) {
+				String[] vls = p.getPossibleValues();
+				req.setStringFilter(p, variant == 1 ? vls[0] : vls[vls.length - 1]);
+			} else if (p.isInt()) {
+				req.setIntFilter(p, variant);
+			}
+		}
+		req.saveState();
+		return req;
+	}
+
+	private static void setInput(RenderingRuleSearchRequest req, String[] tv, int zoom, int variant) {
+		RenderingRuleStorageProperties props = req.ALL;
+		req.setInitialTagValueZoom(tv[0], tv[1], zoom, null);
+		req.setIntFilter(props.R_LAYER, variant - 1);
+		req.setIntFilter(props.R_TEXT_LENGTH, zoom % 4 * 5);
+		req.setBooleanFilter(props.R_AREA, variant == 1);
+		req.setBooleanFilter(props.R_POINT, variant == 2);
+		req.setBooleanFilter(props.R_CYCLE, variant == 1);
+	}
+
+	/**
+	 * Tag/values of rules of state, with unknown value of each tag and unknown tag
+	 */
+	private static List<String[]> getTagValues(RenderingRulesStorage storage, int state) {
+		List<String[]> list = new ArrayList<String[]>();
+		if (storage.tagValueGlobalRules[state] != null) {
+			for (int key : storage.tagValueGlobalRules[state].keys()) {
+				String tag = storage.getTagString(key);
+				list.add(new String[] { tag, storage.getValueString(key) });
+				list.add(new String[] { tag, UNKNOWN });
+			}
+		}
+		list.add(new String[] { UNKNOWN, UNKNOWN });
+		return list;
+	}
+
+	private static void compare(RenderingRuleSearchRequest r1, RenderingRuleSearchRequest r2, String search) {
+		if (r1.searchResult != r2.searchResult) {
+			throw new IllegalStateException("Found " + r1.searchResult + " != " + r2.searchResult + " : " + search);
+		}
+		for (RenderingRuleProperty p : r1.ALL.getPoperties()) {
+			RenderingRuleProperty p2 = r2.ALL.get(p.getAttrName());
+			if (p2 == null) {
+				throw new IllegalStateException("No property " + p.getAttrName() + " : " + search);
+			}
+			Object v1 = getValue(r1, p);
+			Object v2 = getValue(r2, p2);
+			if (!v1.equals(v2) || Float.floatToIntBits(r1.fvalues[p.getId()]) != Float.floatToIntBits(r2.fvalues[p2.getId()])) {
+				throw new IllegalStateException("Property " + p.getAttrName() + " " + v1 + "/" + r1.fvalues[p.getId()]
+						+ " != " + v2 + "/" + r2.fvalues[p2.getId()] + " : " + search);
+			}
+		}
+	}
+
+	// strings are compared by value, so storages could have different dictionaries
+	private static Object getValue(RenderingRuleSearchRequest req, RenderingRuleProperty p) {
+		int v = req.values[p.getId()];
+		if (p.isString() && v >= 0) {
+			return String.valueOf(req.getStorage().getStringValue(v));
+		}
+		return v;
+	}
+}
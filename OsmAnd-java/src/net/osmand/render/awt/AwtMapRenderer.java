@@ -0,0 +1,865 @@
+package net.osmand.render.awt;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.TexturePaint;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.data.QuadRect;
+import net.osmand.data.QuadTree;
+import net.osmand.render.RenderingRuleProperty;
+import net.osmand.render.RenderingRuleSearchRequest;
+import net.osmand.render.RenderingRulesStorage;
+import net.osmand.render.awt.AwtTextRenderer.TextDrawInfo;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Java2D port of android OsmandRenderer : map objects are sorted and drawn by the same rendering rules
+ * (order, polygons, polylines, points, icons and text) to {@link BufferedImage}.
+ * Renderer keeps paint state, so every thread should use its own renderer and search request.
+ */
+public class AwtMapRenderer {
+	private static final Log log = PlatformUtil.getLog(AwtMapRenderer.class);
+
+	public static final int TILE_SIZE = 256;
+	private static final int MAX_V = 75;
+	private static final int ONE_WAY_COLOR = 0xff6c70d5;
+
+	private final AwtPaint paint = new AwtPaint();
+	private final AwtRenderingIcons icons;
+	private final AwtTextRenderer textRenderer;
+
+	private Map<String, float[]> parsedDashEffects = new LinkedHashMap<String, float[]>();
+	private Map<String, TexturePaint> shaders = new LinkedHashMap<String, TexturePaint>();
+
+	public static class MapDataObjectPrimitive {
+		BinaryMapDataObject obj;
+		int typeInd;
+		double order;
+		int objectType;
+	}
+
+	static class IconDrawInfo {
+		float x = 0;
+		float y = 0;
+		String resId_1;
+		String resId;
+		String resId2;
+		String resId3;
+		String resId4;
+		String resId5;
+		String shieldId;
+		int iconOrder;
+		float iconSize;
+	}
+
+	/**
+	 * State of android Paint used by rules : fill or stroke, color, shader, cap, dashes and shadow layer
+	 */
+	static class AwtPaint {
+		boolean fill;
+		int color;
+		TexturePaint shader;
+		float strokeWidth;
+		int cap = BasicStroke.CAP_BUTT;
+		float[] dashes;
+		float dashPhase;
+		int shadowRadius;
+		int shadowColor;
+		// color of PorterDuff SRC_IN filter (0 - no filter)
+		int filterColor;
+	}
+
+	public static class RenderingContext extends net.osmand.RenderingContext {
+		List<TextDrawInfo> textToDraw = new ArrayList<TextDrawInfo>();
+		List<IconDrawInfo> iconsToDraw = new ArrayList<IconDrawInfo>();
+		AwtPaint[] oneWay;
+		AwtPaint[] reverseOneWay;
+		final AwtRenderingIcons icons;
+
+		public RenderingContext(AwtRenderingIcons icons) {
+			this.icons = icons;
+		}
+
+		// use to calculate points
+		Point2D.Float tempPoint = new Point2D.Float();
+		float cosRotateTileSize;
+		float sinRotateTileSize;
+
+		int shadowLevelMin = 256;
+		int shadowLevelMax = 0;
+
+		boolean ended = false;
+
+		@Override
+		protected byte[] getIconRawData(String data) {
+			return icons == null ? null : icons.getIconRawData(data);
+		}
+	}
+
+	public AwtMapRenderer(AwtRenderingIcons icons) {
+		this.icons = icons;
+		this.textRenderer = new AwtTextRenderer(icons);
+	}
+
+	private float[] getDashes(RenderingContext rc, float[] cachedValues) {
+		float[] dashes = new float[cachedValues.length / 2];
+		boolean positive = false;
+		for (int i = 0; i < dashes.length; i++) {
+			dashes[i] = Math.max(0, rc.getDensityValue(cachedValues[i * 2]) + cachedValues[i * 2 + 1]);
+			positive |= dashes[i] > 0;
+		}
+		// java2d doesn't accept dashes of zero length
+		return positive ? dashes : null;
+	}
+
+	public TexturePaint getShader(String resId) {
+		if (!shaders.containsKey(resId)) {
+			BufferedImage bmp = icons == null ? null : icons.getIcon(resId);
+			if (bmp != null) {
+				shaders.put(resId, new TexturePaint(bmp, new Rectangle(0, 0, bmp.getWidth(), bmp.getHeight())));
+			} else {
+				shaders.put(resId, null);
+			}
+		}
+		return shaders.get(resId);
+	}
+
+	void drawObject(RenderingContext rc, Graphics2D cv, RenderingRuleSearchRequest req,
+			List<MapDataObjectPrimitive> array, int objOrder) {
+		double minPolygonSize = 1. / rc.polygonMinSizeToDisplay;
+		for (int i = 0; i < array.size(); i++) {
+			rc.allObjects++;
+			BinaryMapDataObject mObj = array.get(i).obj;
+			TagValuePair pair = mObj.getMapIndex().decodeType(mObj.getTypes()[array.get(i).typeInd]);
+			if (objOrder == 0) {
+				if (array.get(i).order > minPolygonSize + ((int) array.get(i).order)) {
+					continue;
+				}
+				// polygon
+				drawPolygon(mObj, req, cv, rc, pair);
+			} else if (objOrder == 1 || objOrder == 2) {
+				drawPolyline(mObj, req, cv, rc, pair, mObj.getSimpleLayer(), objOrder == 1);
+			} else if (objOrder == 3) {
+				drawPoint(mObj, req, cv, rc, pair, array.get(i).typeInd == 0);
+			}
+			if (i % 25 == 0 && rc.interrupted) {
+				return;
+			}
+		}
+	}
+
+	public void generateNewBitmap(RenderingContext rc, List<BinaryMapDataObject> objects, BufferedImage bmp,
+			RenderingRuleSearchRequest render) {
+		long now = System.currentTimeMillis();
+		Graphics2D cv = bmp.createGraphics();
+		try {
+			cv.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			cv.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			cv.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			// fill area
+			if (rc.defaultColor != 0) {
+				cv.setColor(new Color(rc.defaultColor, true));
+				cv.fillRect(0, 0, bmp.getWidth(), bmp.getHeight());
+			}
+			if (objects != null && !objects.isEmpty() && rc.width > 0 && rc.height > 0) {
+				rc.cosRotateTileSize = (float) Math.cos(Math.toRadians(rc.rotate)) * TILE_SIZE;
+				rc.sinRotateTileSize = (float) Math.sin(Math.toRadians(rc.rotate)) * TILE_SIZE;
+
+				// put in order map
+				List<MapDataObjectPrimitive> pointsArray = new ArrayList<MapDataObjectPrimitive>();
+				List<MapDataObjectPrimitive> polygonsArray = new ArrayList<MapDataObjectPrimitive>();
+				List<MapDataObjectPrimitive> linesArray = new ArrayList<MapDataObjectPrimitive>();
+				sortObjectsByProperOrder(rc, objects, render, pointsArray, polygonsArray, linesArray);
+
+				rc.lastRenderedKey = 0;
+				drawObject(rc, cv, render, polygonsArray, 0);
+				rc.lastRenderedKey = 5;
+				if (rc.shadowRenderingMode > 1) {
+					drawObject(rc, cv, render, linesArray, 1);
+				}
+				rc.lastRenderedKey = 40;
+				drawObject(rc, cv, render, linesArray, 2);
+				rc.lastRenderedKey = 60;
+
+				drawObject(rc, cv, render, pointsArray, 3);
+				rc.lastRenderedKey = 125;
+
+				long beforeIconTextTime = System.currentTimeMillis() - now;
+				drawIconsOverCanvas(rc, cv);
+
+				textRenderer.drawTextOverCanvas(rc, cv, rc.preferredLocale);
+
+				long time = System.currentTimeMillis() - now;
+				rc.textRenderingTime = (int) (time - beforeIconTextTime);
+				rc.renderingDebugInfo = String.format("Rendering: %s ms  (%s text)\n"
+						+ "(%s points, %s points inside, %s of %s objects visible)",//$NON-NLS-1$
+						time, time - beforeIconTextTime, rc.pointCount, rc.pointInsideCount, rc.visible, rc.allObjects);
+				if (log.isDebugEnabled()) {
+					log.debug(rc.renderingDebugInfo);
+				}
+			}
+			rc.ended = true;
+		} finally {
+			cv.dispose();
+		}
+	}
+
+	private void drawIconsOverCanvas(RenderingContext rc, Graphics2D cv) {
+		// 1. Sort text using text order
+		Collections.sort(rc.iconsToDraw, new Comparator<IconDrawInfo>() {
+			@Override
+			public int compare(IconDrawInfo object1, IconDrawInfo object2) {
+				return object1.iconOrder - object2.iconOrder;
+			}
+		});
+		QuadRect bounds = new QuadRect(0, 0, rc.width, rc.height);
+		bounds.inset(-bounds.width() / 4, -bounds.height() / 4);
+		QuadTree<QuadRect> boundIntersections = new QuadTree<QuadRect>(bounds, 4, 0.6f);
+		List<QuadRect> result = new ArrayList<QuadRect>();
+
+		for (IconDrawInfo icon : rc.iconsToDraw) {
+			if (icon.resId != null) {
+				BufferedImage ico = icons == null ? null : icons.getIcon(icon.resId);
+				if (ico != null) {
+					if (icon.y >= 0 && icon.y < rc.height && icon.x >= 0 && icon.x < rc.width) {
+						int visbleWidth = icon.iconSize >= 0 ? (int) icon.iconSize : ico.getWidth();
+						int visbleHeight = icon.iconSize >= 0 ? (int) icon.iconSize : ico.getHeight();
+						boolean intersects = false;
+						QuadRect rf = calculateRect(rc, icon, ico.getWidth(), ico.getHeight());
+						QuadRect visibleRect = null;
+						if (visbleHeight > 0 && visbleWidth > 0) {
+							visibleRect = calculateRect(rc, icon, visbleWidth, visbleHeight);
+							boundIntersections.queryInBox(visibleRect, result);
+							for (QuadRect r : result) {
+								if (QuadRect.intersects(r, visibleRect)) {
+									intersects = true;
+									break;
+								}
+							}
+						}
+
+						if (!intersects) {
+							BufferedImage shield = icon.shieldId == null ? null : icons.getIcon(icon.shieldId);
+							if (shield != null) {
+								drawBitmap(cv, shield, calculateRect(rc, icon, shield.getWidth(), shield.getHeight()));
+							}
+							drawBitmap(cv, icons.getIcon(icon.resId_1), rf);
+							drawBitmap(cv, ico, rf);
+							drawBitmap(cv, icons.getIcon(icon.resId2), rf);
+							drawBitmap(cv, icons.getIcon(icon.resId3), rf);
+							drawBitmap(cv, icons.getIcon(icon.resId4), rf);
+							drawBitmap(cv, icons.getIcon(icon.resId5), rf);
+							if (visibleRect != null) {
+								visibleRect.inset(-visibleRect.width() / 4, -visibleRect.height() / 4);
+								boundIntersections.insert(visibleRect, visibleRect);
+							}
+						}
+					}
+				}
+			}
+			if (rc.interrupted) {
+				return;
+			}
+		}
+	}
+
+	static void drawBitmap(Graphics2D cv, BufferedImage ico, QuadRect rf) {
+		if (ico == null) {
+			return;
+		}
+		int w = (int) Math.round(rf.width());
+		int h = (int) Math.round(rf.height());
+		if (w == ico.getWidth() && h == ico.getHeight()) {
+			cv.drawImage(ico, (int) rf.left, (int) rf.top, null);
+		} else {
+			cv.drawImage(ico, (int) rf.left, (int) rf.top, w, h, null);
+		}
+	}
+
+	private QuadRect calculateRect(RenderingContext rc, IconDrawInfo icon, int visbleWidth, int visbleHeight) {
+		float coeff = rc.getDensityValue(rc.screenDensityRatio * rc.textScale);
+		float left = icon.x - visbleWidth / 2 * coeff;
+		float top = icon.y - visbleHeight / 2 * coeff;
+		float right = left + visbleWidth * coeff;
+		float bottom = top + visbleHeight * coeff;
+		return new QuadRect(left, top, right, bottom);
+	}
+
+	Comparator<MapDataObjectPrimitive> sortByOrder() {
+		return new Comparator<MapDataObjectPrimitive>() {
+
+			@Override
+			public int compare(MapDataObjectPrimitive i, MapDataObjectPrimitive j) {
+				if (i.order == j.order) {
+					if (i.typeInd == j.typeInd) {
+						if (i.obj.getPointsLength() == j.obj.getPointsLength()) {
+							return 0;
+						}
+						return i.obj.getPointsLength() < j.obj.getPointsLength() ? -1 : 1;
+					}
+					return i.typeInd < j.typeInd ? -1 : 1;
+				}
+				return (i.order < j.order ? -1 : 1);
+			}
+
+		};
+	}
+
+	private void sortObjectsByProperOrder(RenderingContext rc, List<BinaryMapDataObject> objects,
+			RenderingRuleSearchRequest render,
+			List<MapDataObjectPrimitive> pointsArray, List<MapDataObjectPrimitive> polygonsArray,
+			List<MapDataObjectPrimitive> linesResArray) {
+		int sz = objects.size();
+		List<MapDataObjectPrimitive> linesArray = new ArrayList<MapDataObjectPrimitive>();
+		if (render != null) {
+			render.clearState();
+
+			float mult = (float) (1. / MapUtils.getPowZoom(Math.max(31 - (rc.zoom + 8), 0)));
+			for (int i = 0; i < sz; i++) {
+				BinaryMapDataObject o = objects.get(i);
+				for (int j = 0; j < o.getTypes().length; j++) {
+					int wholeType = o.getTypes()[j];
+					int layer = 0;
+					if (o.getPointsLength() > 1) {
+						layer = o.getSimpleLayer();
+					}
+
+					TagValuePair pair = o.getMapIndex().decodeType(wholeType);
+					if (pair != null) {
+						render.setTagValueZoomLayer(pair.tag, pair.value, rc.zoom, layer, o);
+						render.setBooleanFilter(render.ALL.R_AREA, o.isArea());
+						render.setBooleanFilter(render.ALL.R_POINT, o.getPointsLength() == 1);
+						render.setBooleanFilter(render.ALL.R_CYCLE, o.isCycle());
+						if (render.search(RenderingRulesStorage.ORDER_RULES)) {
+							int objectType = render.getIntPropertyValue(render.ALL.R_OBJECT_TYPE);
+							int order = render.getIntPropertyValue(render.ALL.R_ORDER);
+							MapDataObjectPrimitive mapObj = new MapDataObjectPrimitive();
+							mapObj.objectType = objectType;
+							mapObj.order = order;
+							mapObj.typeInd = j;
+							mapObj.obj = o;
+							if (objectType == 3) {
+								MapDataObjectPrimitive pointObj = mapObj;
+								pointObj.objectType = 1;
+								double area = polygonArea(mapObj, mult);
+								if (area > MAX_V) {
+									mapObj.order = mapObj.order + (1. / area);
+									polygonsArray.add(mapObj);
+									pointsArray.add(pointObj);
+								}
+							} else if (objectType == 1) {
+								pointsArray.add(mapObj);
+							} else {
+								linesArray.add(mapObj);
+							}
+							if (render.isSpecified(render.ALL.R_SHADOW_LEVEL)) {
+								rc.shadowLevelMin = Math.min(rc.shadowLevelMin, order);
+								rc.shadowLevelMax = Math.max(rc.shadowLevelMax, order);
+								render.clearValue(render.ALL.R_SHADOW_LEVEL);
+							}
+						}
+
+					}
+				}
+
+				if (rc.interrupted) {
+					return;
+				}
+			}
+		}
+		Collections.sort(polygonsArray, sortByOrder());
+		Collections.sort(pointsArray, sortByOrder());
+		Collections.sort(linesArray, sortByOrder());
+		// roads density filter is not implemented by android renderer as well
+		linesResArray.addAll(linesArray);
+	}
+
+	private double polygonArea(MapDataObjectPrimitive mapObj, float mult) {
+		double area = 0.;
+		int j = mapObj.obj.getPointsLength() - 1;
+		for (int i = 0; i < mapObj.obj.getPointsLength(); i++) {
+			int px = mapObj.obj.getPoint31XTile(i);
+			int py = mapObj.obj.getPoint31YTile(i);
+			int sx = mapObj.obj.getPoint31XTile(j);
+			int sy = mapObj.obj.getPoint31YTile(j);
+			area += (sx + ((float) px)) * (sy - ((float) py));
+			j = i;
+		}
+		return Math.abs(area) * mult * mult * .5;
+	}
+
+	private Point2D.Float calcPoint(int xt, int yt, RenderingContext rc) {
+		rc.pointCount++;
+		double tx = xt / rc.tileDivisor;
+		double ty = yt / rc.tileDivisor;
+		double dTileX = (tx - rc.leftX);
+		double dTileY = (ty - rc.topY);
+		float x = (float) (rc.cosRotateTileSize * dTileX - rc.sinRotateTileSize * dTileY);
+		float y = (float) (rc.sinRotateTileSize * dTileX + rc.cosRotateTileSize * dTileY);
+		rc.tempPoint.setLocation(x, y);
+		if (rc.tempPoint.x >= 0 && rc.tempPoint.x < rc.width &&
+				rc.tempPoint.y >= 0 && rc.tempPoint.y < rc.height) {
+			rc.pointInsideCount++;
+		}
+		return rc.tempPoint;
+	}
+
+	private Point2D.Float calcPoint(BinaryMapDataObject o, int ind, RenderingContext rc) {
+		return calcPoint(o.getPoint31XTile(ind), o.getPoint31YTile(ind), rc);
+	}
+
+	public void clearCachedResources() {
+		shaders.clear();
+	}
+
+	private void drawPolygon(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Graphics2D canvas,
+			RenderingContext rc, TagValuePair pair) {
+		if (render == null || pair == null) {
+			return;
+		}
+		float xText = 0;
+		float yText = 0;
+		int zoom = rc.zoom;
+		Path2D.Float path = null;
+
+		render.setInitialTagValueZoom(pair.tag, pair.value, zoom, obj);
+		boolean rendered = render.search(RenderingRulesStorage.POLYGON_RULES);
+		if (!rendered || !updatePaint(render, paint, 0, true, rc)) {
+			return;
+		}
+		rc.visible++;
+		int len = obj.getPointsLength();
+		for (int i = 0; i < obj.getPointsLength(); i++) {
+			Point2D.Float p = calcPoint(obj, i, rc);
+			xText += p.x;
+			yText += p.y;
+			if (path == null) {
+				path = new Path2D.Float(Path2D.WIND_NON_ZERO, len);
+				path.moveTo(p.x, p.y);
+			} else {
+				path.lineTo(p.x, p.y);
+			}
+		}
+		int[][] polygonInnerCoordinates = obj.getPolygonInnerCoordinates();
+		if (polygonInnerCoordinates != null && path != null) {
+			path.setWindingRule(Path2D.WIND_EVEN_ODD);
+			for (int j = 0; j < polygonInnerCoordinates.length; j++) {
+				for (int i = 0; i < polygonInnerCoordinates[j].length; i += 2) {
+					Point2D.Float p = calcPoint(polygonInnerCoordinates[j][i], polygonInnerCoordinates[j][i + 1], rc);
+					if (i == 0) {
+						path.moveTo(p.x, p.y);
+					} else {
+						path.lineTo(p.x, p.y);
+					}
+				}
+			}
+		}
+
+		if (path != null && len > 0) {
+			drawPath(canvas, path, paint);
+			if (updatePaint(render, paint, 1, false, rc)) {
+				drawPath(canvas, path, paint);
+			}
+			textRenderer.renderText(obj, render, rc, pair, xText / len, yText / len, null);
+		}
+	}
+
+	public boolean updatePaint(RenderingRuleSearchRequest req, AwtPaint p, int ind, boolean area, RenderingContext rc) {
+		RenderingRuleProperty rColor;
+		RenderingRuleProperty rStrokeW;
+		RenderingRuleProperty rCap;
+		RenderingRuleProperty rPathEff;
+
+		if (ind == 0) {
+			rColor = req.ALL.R_COLOR;
+			rStrokeW = req.ALL.R_STROKE_WIDTH;
+			rCap = req.ALL.R_CAP;
+			rPathEff = req.ALL.R_PATH_EFFECT;
+		} else if (ind == 1) {
+			rColor = req.ALL.R_COLOR_2;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_2;
+			rCap = req.ALL.R_CAP_2;
+			rPathEff = req.ALL.R_PATH_EFFECT_2;
+		} else if (ind == -1) {
+			rColor = req.ALL.R_COLOR_0;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_0;
+			rCap = req.ALL.R_CAP_0;
+			rPathEff = req.ALL.R_PATH_EFFECT_0;
+		} else if (ind == -2) {
+			rColor = req.ALL.R_COLOR__1;
+			rStrokeW = req.ALL.R_STROKE_WIDTH__1;
+			rCap = req.ALL.R_CAP__1;
+			rPathEff = req.ALL.R_PATH_EFFECT__1;
+		} else if (ind == 2) {
+			rColor = req.ALL.R_COLOR_3;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_3;
+			rCap = req.ALL.R_CAP_3;
+			rPathEff = req.ALL.R_PATH_EFFECT_3;
+		} else if (ind == -3) {
+			rColor = req.ALL.R_COLOR__2;
+			rStrokeW = req.ALL.R_STROKE_WIDTH__2;
+			rCap = req.ALL.R_CAP__2;
+			rPathEff = req.ALL.R_PATH_EFFECT__2;
+		} else if (ind == 3) {
+			rColor = req.ALL.R_COLOR_4;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_4;
+			rCap = req.ALL.R_CAP_4;
+			rPathEff = req.ALL.R_PATH_EFFECT_4;
+		} else {
+			rColor = req.ALL.R_COLOR_5;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_5;
+			rCap = req.ALL.R_CAP_5;
+			rPathEff = req.ALL.R_PATH_EFFECT_5;
+		}
+		if (area) {
+			if (!req.isSpecified(rColor) && !req.isSpecified(req.ALL.R_SHADER)) {
+				return false;
+			}
+			p.shader = null;
+			p.filterColor = 0;
+			p.shadowRadius = 0;
+			p.fill = true;
+			p.strokeWidth = 0;
+			p.dashes = null;
+		} else {
+			if (!req.isSpecified(rStrokeW)) {
+				return false;
+			}
+			p.shader = null;
+			p.filterColor = 0;
+			p.shadowRadius = 0;
+			p.fill = false;
+			p.strokeWidth = rc.getComplexValue(req, rStrokeW);
+			String cap = req.getStringPropertyValue(rCap);
+			if ("round".equalsIgnoreCase(cap)) {
+				p.cap = BasicStroke.CAP_ROUND;
+			} else if ("square".equalsIgnoreCase(cap)) {
+				p.cap = BasicStroke.CAP_SQUARE;
+			} else {
+				p.cap = BasicStroke.CAP_BUTT;
+			}
+			String pathEffect = req.getStringPropertyValue(rPathEff);
+			if (!Algorithms.isEmpty(pathEffect)) {
+				if (!parsedDashEffects.containsKey(pathEffect)) {
+					String[] vls = pathEffect.split("_");
+					float[] vs = new float[vls.length * 2];
+					for (int i = 0; i < vls.length; i++) {
+						int s = vls[i].indexOf(':');
+						String pre = vls[i];
+						String post = "";
+						if (s != -1) {
+							pre = vls[i].substring(0, s);
+							post = vls[i].substring(s + 1);
+						}
+						if (pre.length() > 0) {
+							vs[i * 2] = Float.parseFloat(pre);
+						}
+						if (post.length() > 0) {
+							vs[i * 2 + 1] = Float.parseFloat(post);
+						}
+					}
+					parsedDashEffects.put(pathEffect, vs);
+				}
+				p.dashes = getDashes(rc, parsedDashEffects.get(pathEffect));
+				p.dashPhase = 0;
+			} else {
+				p.dashes = null;
+			}
+		}
+		p.color = req.getIntPropertyValue(rColor);
+		if (ind == 0) {
+			String resId = req.getStringPropertyValue(req.ALL.R_SHADER);
+			if (resId != null) {
+				p.shader = getShader(resId);
+			}
+			// do not check shadow color here
+			if (rc.shadowRenderingMode == 1) {
+				int shadowColor = req.getIntPropertyValue(req.ALL.R_SHADOW_COLOR);
+				if (shadowColor == 0) {
+					shadowColor = rc.shadowRenderingColor;
+				}
+				int shadowRadius = (int) rc.getComplexValue(req, req.ALL.R_SHADOW_RADIUS);
+				if (shadowColor == 0) {
+					shadowRadius = 0;
+				}
+				p.shadowRadius = shadowRadius;
+				p.shadowColor = shadowColor;
+			}
+		}
+		return true;
+	}
+
+	private static Stroke createStroke(float width, int cap, float[] dashes, float phase) {
+		// android default miter limit is 4
+		if (dashes == null) {
+			return new BasicStroke(width, cap, BasicStroke.JOIN_MITER, 4f);
+		}
+		return new BasicStroke(width, cap, BasicStroke.JOIN_MITER, 4f, dashes, phase);
+	}
+
+	/**
+	 * Draws path as android canvas with paint, shadow layer (blur) is drawn as solid border under path
+	 */
+	static void drawPath(Graphics2D canvas, Shape path, AwtPaint p) {
+		if (p.shadowRadius > 0 && p.shadowColor != 0) {
+			canvas.setColor(new Color(p.shadowColor, true));
+			if (p.fill) {
+				canvas.setStroke(createStroke(p.shadowRadius * 2, BasicStroke.CAP_BUTT, null, 0));
+			} else {
+				canvas.setStroke(createStroke(p.strokeWidth + p.shadowRadius * 2, p.cap, p.dashes, p.dashPhase));
+			}
+			canvas.draw(path);
+		}
+		if (p.filterColor != 0) {
+			canvas.setColor(new Color(p.filterColor, true));
+		} else if (p.shader != null) {
+			canvas.setPaint(p.shader);
+		} else {
+			canvas.setColor(new Color(p.color, true));
+		}
+		if (p.fill) {
+			canvas.fill(path);
+		} else {
+			canvas.setStroke(createStroke(p.strokeWidth, p.cap, p.dashes, p.dashPhase));
+			canvas.draw(path);
+		}
+	}
+
+	private void drawPoint(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Graphics2D canvas,
+			RenderingContext rc, TagValuePair pair, boolean renderText) {
+		if (render == null || pair == null) {
+			return;
+		}
+		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
+		render.search(RenderingRulesStorage.POINT_RULES);
+
+		String resId = render.getStringPropertyValue(render.ALL.R_ICON);
+		if (resId == null && !renderText) {
+			return;
+		}
+		int len = obj.getPointsLength();
+		rc.visible++;
+		Point2D.Float ps = new Point2D.Float(0, 0);
+		for (int i = 0; i < len; i++) {
+			Point2D.Float p = calcPoint(obj, i, rc);
+			ps.x += p.x;
+			ps.y += p.y;
+		}
+		if (len > 1) {
+			ps.x /= len;
+			ps.y /= len;
+		}
+
+		if (resId != null) {
+			IconDrawInfo ico = new IconDrawInfo();
+			ico.x = ps.x;
+			ico.y = ps.y;
+			ico.iconOrder = render.getIntPropertyValue(render.ALL.R_ICON_ORDER, 100);
+			ico.iconSize = rc.getComplexValue(render, render.ALL.R_ICON_VISIBLE_SIZE, -1);
+			ico.shieldId = render.getStringPropertyValue(render.ALL.R_SHIELD);
+			ico.resId_1 = render.getStringPropertyValue(render.ALL.R_ICON__1);
+			ico.resId = resId;
+			ico.resId2 = render.getStringPropertyValue(render.ALL.R_ICON_2);
+			ico.resId3 = render.getStringPropertyValue(render.ALL.R_ICON_3);
+			ico.resId4 = render.getStringPropertyValue(render.ALL.R_ICON_4);
+			ico.resId5 = render.getStringPropertyValue(render.ALL.R_ICON_5);
+			rc.iconsToDraw.add(ico);
+		}
+		if (renderText) {
+			textRenderer.renderText(obj, render, rc, pair, ps.x, ps.y, null);
+		}
+	}
+
+	private void drawPolylineShadow(Graphics2D canvas, RenderingContext rc, Path2D path, int shadowColor, int shadowRadius) {
+		// blurred shadows (mode 2) are drawn as solid border of option 3
+		if ((rc.shadowRenderingMode == 2 || rc.shadowRenderingMode == 3) && shadowRadius > 0) {
+			paint.shadowRadius = 0;
+			paint.strokeWidth = paint.strokeWidth + shadowRadius * 2;
+			paint.filterColor = shadowColor;
+			drawPath(canvas, path, paint);
+		}
+	}
+
+	private void drawPolyline(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Graphics2D canvas,
+			RenderingContext rc, TagValuePair pair, int layer, boolean drawOnlyShadow) {
+		if (render == null || pair == null) {
+			return;
+		}
+		int length = obj.getPointsLength();
+		if (length < 2) {
+			return;
+		}
+		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
+		render.setIntFilter(render.ALL.R_LAYER, layer);
+		boolean rendered = render.search(RenderingRulesStorage.LINE_RULES);
+		if (!rendered || !updatePaint(render, paint, 0, false, rc)) {
+			return;
+		}
+		int oneway = 0;
+		if (rc.zoom >= 16 && "highway".equals(pair.tag)) { //$NON-NLS-1$
+			if (obj.containsAdditionalType(obj.getMapIndex().onewayAttribute)) {
+				oneway = 1;
+			} else if (obj.containsAdditionalType(obj.getMapIndex().onewayReverseAttribute)) {
+				oneway = -1;
+			}
+		}
+
+		rc.visible++;
+
+		Path2D.Float path = null;
+		float xMid = 0;
+		float yMid = 0;
+		int middle = obj.getPointsLength() / 2;
+		Point2D.Float[] textPoints = null;
+		if (!drawOnlyShadow) {
+			textPoints = new Point2D.Float[length];
+		}
+
+		boolean intersect = false;
+		float prevX = 0;
+		float prevY = 0;
+		for (int i = 0; i < length; i++) {
+			Point2D.Float p = calcPoint(obj, i, rc);
+			if (textPoints != null) {
+				textPoints[i] = new Point2D.Float(p.x, p.y);
+			}
+			if (!intersect) {
+				if (p.x >= 0 && p.y >= 0 && p.x < rc.width && p.y < rc.height) {
+					intersect = true;
+				}
+				if (!intersect && i > 0) {
+					if ((p.x < 0 && prevX < 0) || (p.y < 0 && prevY < 0) || (p.x > rc.width && prevX > rc.width)
+							|| (p.y > rc.height && prevY > rc.height)) {
+						intersect = false;
+					} else {
+						intersect = true;
+					}
+				}
+			}
+			if (path == null) {
+				path = new Path2D.Float(Path2D.WIND_NON_ZERO, length);
+				path.moveTo(p.x, p.y);
+			} else {
+				if (i == middle) {
+					xMid = p.x;
+					yMid = p.y;
+				}
+				path.lineTo(p.x, p.y);
+			}
+			prevX = p.x;
+			prevY = p.y;
+		}
+		if (!intersect) {
+			return;
+		}
+		if (path != null) {
+			if (drawOnlyShadow) {
+				int shadowColor = render.getIntPropertyValue(render.ALL.R_SHADOW_COLOR);
+				int shadowRadius = (int) rc.getComplexValue(render, render.ALL.R_SHADOW_RADIUS);
+				if (shadowColor == 0) {
+					shadowColor = rc.shadowRenderingColor;
+				}
+				drawPolylineShadow(canvas, rc, path, shadowColor, shadowRadius);
+			} else {
+				boolean update = false;
+				if (updatePaint(render, paint, -3, false, rc)) {
+					update = true;
+					drawPath(canvas, path, paint);
+				}
+				if (updatePaint(render, paint, -2, false, rc)) {
+					update = true;
+					drawPath(canvas, path, paint);
+				}
+				if (updatePaint(render, paint, -1, false, rc)) {
+					update = true;
+					drawPath(canvas, path, paint);
+				}
+				if (update) {
+					updatePaint(render, paint, 0, false, rc);
+				}
+				drawPath(canvas, path, paint);
+				if (updatePaint(render, paint, 1, false, rc)) {
+					drawPath(canvas, path, paint);
+				}
+				if (updatePaint(render, paint, 2, false, rc)) {
+					drawPath(canvas, path, paint);
+				}
+				if (updatePaint(render, paint, 3, false, rc)) {
+					drawPath(canvas, path, paint);
+				}
+				if (updatePaint(render, paint, 4, false, rc)) {
+					drawPath(canvas, path, paint);
+				}
+			}
+
+			if (oneway != 0 && !drawOnlyShadow) {
+				AwtPaint[] paints = oneway == -1 ? getReverseOneWayPaints(rc) : getOneWayPaints(rc);
+				for (int i = 0; i < paints.length; i++) {
+					drawPath(canvas, path, paints[i]);
+				}
+			}
+			if (textPoints != null) {
+				textRenderer.renderText(obj, render, rc, pair, xMid, yMid, textPoints);
+			}
+		}
+	}
+
+	private static AwtPaint oneWayPaint(float strokeWidth, float[] dashes, float phase) {
+		AwtPaint oneWay = new AwtPaint();
+		oneWay.color = ONE_WAY_COLOR;
+		oneWay.strokeWidth = strokeWidth;
+		oneWay.dashes = dashes;
+		oneWay.dashPhase = phase;
+		return oneWay;
+	}
+
+	public AwtPaint[] getReverseOneWayPaints(RenderingContext rc) {
+		if (rc.reverseOneWay == null) {
+			int rmin = (int) rc.getDensityValue(1);
+			if (rmin > 2) {
+				rmin = rmin / 2;
+			}
+			rc.reverseOneWay = new AwtPaint[4];
+			rc.reverseOneWay[0] = oneWayPaint(rmin * 2, new float[] { 0, 12, 10 * rmin, 152 }, 0);
+			rc.reverseOneWay[1] = oneWayPaint(rmin, new float[] { 0, 12 + rmin, 9 * rmin, 152 }, 1);
+			rc.reverseOneWay[2] = oneWayPaint(rmin * 3, new float[] { 0, 12 + 2 * rmin, 2 * rmin, 152 + 6 * rmin }, 1);
+			rc.reverseOneWay[3] = oneWayPaint(rmin * 4, new float[] { 0, 12 + 3 * rmin, 1 * rmin, 152 + 6 * rmin }, 1);
+		}
+		return rc.reverseOneWay;
+	}
+
+	public AwtPaint[] getOneWayPaints(RenderingContext rc) {
+		if (rc.oneWay == null) {
+			float rmin = rc.getDensityValue(1);
+			if (rmin > 1) {
+				rmin = rmin * 2 / 3;
+			}
+			rc.oneWay = new AwtPaint[4];
+			rc.oneWay[0] = oneWayPaint(rmin, new float[] { 0, 12, 10 * rmin, 152 }, 0);
+			rc.oneWay[1] = oneWayPaint(rmin * 2, new float[] { 0, 12, 9 * rmin, 152 + rmin }, 1);
+			rc.oneWay[2] = oneWayPaint(rmin * 3, new float[] { 0, 12 + 6 * rmin, 2 * rmin, 152 + 2 * rmin }, 1);
+			rc.oneWay[3] = oneWayPaint(rmin * 4, new float[] { 0, 12 + 6 * rmin, 1 * rmin, 152 + 3 * rmin }, 1);
+		}
+		return rc.oneWay;
+	}
+}
@@ -0,0 +1,91 @@
+package net.osmand.render.awt;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import net.osmand.PlatformUtil;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Icons of rendering styles read from drawable folders of resources (files h_*.png and mm_*.png
+ * as android RenderingIcons, h_ icons are preferred). Shared by renderers of all threads.
+ */
+public class AwtRenderingIcons {
+	private static final Log log = PlatformUtil.getLog(AwtRenderingIcons.class);
+
+	private final Map<String, File> icons = new LinkedHashMap<String, File>();
+	private final Map<String, BufferedImage> iconsBmp = new LinkedHashMap<String, BufferedImage>();
+
+	public AwtRenderingIcons(File... dirs) {
+		for (File dir : dirs) {
+			File[] fs = dir == null ? null : dir.listFiles();
+			if (fs == null) {
+				continue;
+			}
+			for (File f : fs) {
+				String name = f.getName();
+				if (!name.endsWith(".png") || (!name.startsWith("h_") && !name.startsWith("mm_"))) {
+					continue;
+				}
+				String id = name.substring(name.startsWith("mm_") ? 3 : 2, name.length() - 4);
+				// don't override shader or map icons (h)
+				if (name.startsWith("h_") || !icons.containsKey(id)) {
+					icons.put(id, f);
+				}
+			}
+		}
+	}
+
+	public boolean containsIcon(String s) {
+		return icons.containsKey(s);
+	}
+
+	public byte[] getIconRawData(String s) {
+		File f = s == null ? null : icons.get(s);
+		if (f == null) {
+			return null;
+		}
+		try {
+			InputStream is = new FileInputStream(f);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+			try {
+				Algorithms.streamCopy(is, out);
+			} finally {
+				is.close();
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			log.error("Failed to read icon " + s, e); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	public synchronized BufferedImage getIcon(String s) {
+		if (s == null) {
+			return null;
+		}
+		if (!iconsBmp.containsKey(s)) {
+			BufferedImage bmp = null;
+			File f = icons.get(s);
+			if (f != null) {
+				try {
+					bmp = ImageIO.read(f);
+				} catch (IOException e) {
+					log.error("Failed to read icon " + s, e); //$NON-NLS-1$
+				}
+			}
+			iconsBmp.put(s, bmp);
+		}
+		return iconsBmp.get(s);
+	}
+}
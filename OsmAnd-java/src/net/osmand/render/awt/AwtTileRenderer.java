@@ -0,0 +1,446 @@
+package net.osmand.render.awt;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.render.RenderingRuleProperty;
+import net.osmand.render.RenderingRuleSearchRequest;
+import net.osmand.render.RenderingRuleStorageProperties;
+import net.osmand.render.RenderingRulesStorage;
+import net.osmand.render.RenderingRulesStorage.RenderingRulesStorageResolver;
+import net.osmand.render.RenderingRulesVisibility;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Renders range of map tiles of obf files by {@link AwtMapRenderer} in several threads (every thread has own
+ * file cursors, renderer and search request, visibility of types is shared) and writes them as png files
+ * zoom/x/y.png. Without output directory tiles are only rendered, so it could be used to measure rendering.
+ */
+public class AwtTileRenderer {
+	private static final Log log = PlatformUtil.getLog(AwtTileRenderer.class);
+
+	// as MapRenderRepositories
+	private static final int ZOOM_ONLY_FOR_BASEMAPS = 11;
+
+	public static class TileStatistics {
+		public int tiles;
+		public int objects;
+		public long searchTime;
+		public long renderTime;
+		public long writeTime;
+	}
+
+	private final RenderingRulesStorage storage;
+	private final BinaryMapIndexReader[] readers;
+	private final AwtRenderingIcons icons;
+
+	private float density = 1;
+	private float textScale = 1;
+	private boolean nightMode = false;
+	private String preferredLocale = "";
+	private Map<String, String> customProperties = new LinkedHashMap<String, String>();
+
+	public AwtTileRenderer(RenderingRulesStorage storage, BinaryMapIndexReader[] readers, AwtRenderingIcons icons) {
+		this.storage = storage;
+		this.readers = readers;
+		this.icons = icons;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args == null || args.length == 0) {
+			info();
+			return;
+		}
+		String obfDir = null;
+		String style = null;
+		String iconsDir = null;
+		String output = null;
+		int zoom = -1;
+		int threads = 1;
+		int[] tiles = null;
+		double[] bbox = null;
+		Map<String, String> props = new LinkedHashMap<String, String>();
+		float density = 1;
+		float textScale = 1;
+		boolean nightMode = false;
+		String locale = "";
+		for (String a : args) {
+			if (a.startsWith("-obfDir=")) {
+				obfDir = a.substring("-obfDir=".length());
+			} else if (a.startsWith("-style=")) {
+				style = a.substring("-style=".length());
+			} else if (a.startsWith("-icons=")) {
+				iconsDir = a.substring("-icons=".length());
+			} else if (a.startsWith("-output=")) {
+				output = a.substring("-output=".length());
+			} else if (a.startsWith("-zoom=")) {
+				zoom = Integer.parseInt(a.substring("-zoom=".length()));
+			} else if (a.startsWith("-threads=")) {
+				threads = Integer.parseInt(a.substring("-threads=".length()));
+			} else if (a.startsWith("-tiles=")) {
+				String[] s = a.substring("-tiles=".length()).split(",");
+				tiles = new int[] { Integer.parseInt(s[0]), Integer.parseInt(s[1]), Integer.parseInt(s[2]),
+						Integer.parseInt(s[3]) };
+			} else if (a.startsWith("-bbox=")) {
+				String[] s = a.substring("-bbox=".length()).split(",");
+				bbox = new double[] { Double.parseDouble(s[0]), Double.parseDouble(s[1]), Double.parseDouble(s[2]),
+						Double.parseDouble(s[3]) };
+			} else if (a.startsWith("-density=")) {
+				density = Float.parseFloat(a.substring("-density=".length()));
+			} else if (a.startsWith("-textScale=")) {
+				textScale = Float.parseFloat(a.substring("-textScale=".length()));
+			} else if (a.startsWith("-locale=")) {
+				locale = a.substring("-locale=".length());
+			} else if (a.equals("-nightMode")) {
+				nightMode = true;
+			} else if (a.startsWith("-prop=")) {
+				String s = a.substring("-prop=".length());
+				int i = s.indexOf('=');
+				props.put(i == -1 ? s : s.substring(0, i), i == -1 ? "true" : s.substring(i + 1));
+			}
+		}
+		if (obfDir == null || style == null || zoom < 1 || zoom > 21 || (tiles == null && bbox == null)) {
+			info();
+			return;
+		}
+		if (tiles == null) {
+			// top left lat, lon, bottom right lat, lon
+			tiles = new int[] { (int) MapUtils.getTileNumberX(zoom, bbox[1]), (int) MapUtils.getTileNumberY(zoom, bbox[0]),
+					(int) MapUtils.getTileNumberX(zoom, bbox[3]), (int) MapUtils.getTileNumberY(zoom, bbox[2]) };
+		}
+		File styleFile = new File(style);
+		List<File> iconDirs = new ArrayList<File>();
+		if (iconsDir != null) {
+			for (String s : iconsDir.split(File.pathSeparator)) {
+				iconDirs.add(new File(s));
+			}
+		}
+		RenderingRulesStorage storage = loadStorage(styleFile);
+		BinaryMapIndexReader[] rs = collectFiles(new File(obfDir));
+		AwtTileRenderer renderer = new AwtTileRenderer(storage, rs, new AwtRenderingIcons(
+				iconDirs.toArray(new File[iconDirs.size()])));
+		renderer.setDensity(density);
+		renderer.setTextScale(textScale);
+		renderer.setNightMode(nightMode);
+		renderer.setPreferredLocale(locale);
+		renderer.getCustomProperties().putAll(props);
+		long time = System.currentTimeMillis();
+		TileStatistics st = renderer.renderTiles(zoom, tiles[0], tiles[1], tiles[2], tiles[3], threads,
+				output == null ? null : new File(output));
+		time = System.currentTimeMillis() - time;
+		System.out.println(String.format(Locale.US, "Rendered %d tiles (%d objects) in %d ms by %d threads : %.1f tiles/s",
+				st.tiles, st.objects, time, threads, st.tiles * 1000d / Math.max(1, time)));
+		System.out.println(String.format(Locale.US, "Search %d ms, render %d ms, write %d ms (sum of threads)",
+				st.searchTime, st.renderTime, st.writeTime));
+		for (BinaryMapIndexReader r : rs) {
+			r.close();
+		}
+	}
+
+	public static void info() {
+		System.out.println("Renders map tiles of obf files with rendering style (java2d) and writes them as OUTPUT/zoom/x/y.png "
+				+ "(without output tiles are rendered only to measure time).");
+		System.out.println("\nUsage : -obfDir=PATH -style=PATH.render.xml -zoom=ZOOM (-tiles=LEFT,TOP,RIGHT,BOTTOM | "
+				+ "-bbox=TOP_LAT,LEFT_LON,BOTTOM_LAT,RIGHT_LON) [-icons=DRAWABLE_DIRS] [-output=PATH] [-threads=1] "
+				+ "[-density=1] [-textScale=1] [-locale=LOCALE] [-nightMode] {-prop=STYLE_PROPERTY=VALUE}");
+	}
+
+	public void setDensity(float density) {
+		this.density = density;
+	}
+
+	public void setTextScale(float textScale) {
+		this.textScale = textScale;
+	}
+
+	public void setNightMode(boolean nightMode) {
+		this.nightMode = nightMode;
+	}
+
+	public void setPreferredLocale(String preferredLocale) {
+		this.preferredLocale = preferredLocale;
+	}
+
+	/**
+	 * Values of custom properties of style by attribute name (as preferences of the application)
+	 */
+	public Map<String, String> getCustomProperties() {
+		return customProperties;
+	}
+
+	/**
+	 * Loads style file, rendering constants and depends styles are resolved from the same folder (name.render.xml)
+	 */
+	public static RenderingRulesStorage loadStorage(File styleFile) throws XmlPullParserException, IOException {
+		final File dir = styleFile.getAbsoluteFile().getParentFile();
+		final Map<String, String> renderingConstants = new LinkedHashMap<String, String>();
+		String name = styleFile.getName();
+		if (name.endsWith(".render.xml")) {
+			name = name.substring(0, name.length() - ".render.xml".length());
+		}
+		return loadStorage(name, styleFile, dir, renderingConstants);
+	}
+
+	private static RenderingRulesStorage loadStorage(String name, File file, final File dir,
+			final Map<String, String> renderingConstants) throws XmlPullParserException, IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			XmlPullParser parser = PlatformUtil.newXMLPullParser();
+			parser.setInput(is, "UTF-8");
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG && parser.getName().equals("renderingConstant")) {
+					if (!renderingConstants.containsKey(parser.getAttributeValue("", "name"))) {
+						renderingConstants.put(parser.getAttributeValue("", "name"), parser.getAttributeValue("", "value"));
+					}
+				}
+			}
+		} finally {
+			is.close();
+		}
+		RenderingRulesStorage storage = new RenderingRulesStorage(name, renderingConstants);
+		is = new FileInputStream(file);
+		try {
+			storage.parseRulesFromXmlInputStream(is, new RenderingRulesStorageResolver() {
+				@Override
+				public RenderingRulesStorage resolve(String depends, RenderingRulesStorageResolver ref)
+						throws XmlPullParserException, IOException {
+					File f = new File(dir, depends + ".render.xml");
+					if (!f.exists()) {
+						log.warn("Dependent renderer not found : " + depends); //$NON-NLS-1$
+						return null;
+					}
+					return loadStorage(depends, f, dir, renderingConstants);
+				}
+			});
+		} finally {
+			is.close();
+		}
+		return storage;
+	}
+
+	public static BinaryMapIndexReader[] collectFiles(File dir) throws IOException {
+		List<File> files = new ArrayList<File>();
+		File[] fs = dir.isDirectory() ? dir.listFiles() : new File[] { dir };
+		if (fs != null) {
+			for (File f : fs) {
+				if (f.getName().endsWith(".obf")) {
+					files.add(f);
+				}
+			}
+		}
+		BinaryMapIndexReader[] rs = new BinaryMapIndexReader[files.size()];
+		for (int i = 0; i < rs.length; i++) {
+			rs[i] = new BinaryMapIndexReader(new RandomAccessFile(files.get(i), "r"));
+		}
+		return rs;
+	}
+
+	/**
+	 * Creates search request with custom properties of style and night mode (request state is saved)
+	 */
+	public RenderingRuleSearchRequest createSearchRequest() {
+		RenderingRuleSearchRequest renderingReq = new RenderingRuleSearchRequest(storage);
+		renderingReq.setBooleanFilter(renderingReq.ALL.R_NIGHT_MODE, nightMode);
+		for (RenderingRuleProperty customProp : storage.PROPS.getCustomRules()) {
+			String res = customProperties.get(customProp.getAttrName());
+			if (customProp.isBoolean()) {
+				if (customProp.getAttrName().equals(RenderingRuleStorageProperties.A_ENGINE_V1)) {
+					renderingReq.setBooleanFilter(customProp, true);
+				} else {
+					renderingReq.setBooleanFilter(customProp, Boolean.parseBoolean(res));
+				}
+			} else if (!Algorithms.isEmpty(res)) {
+				if (customProp.isString()) {
+					renderingReq.setStringFilter(customProp, res);
+				} else {
+					try {
+						renderingReq.setIntFilter(customProp, Integer.parseInt(res));
+					} catch (NumberFormatException e) {
+						log.warn("Wrong value of " + customProp.getAttrName() + " : " + res); //$NON-NLS-1$
+					}
+				}
+			} else if (customProp.isString()) {
+				renderingReq.setStringFilter(customProp, "");
+			}
+		}
+		renderingReq.saveState();
+		return renderingReq;
+	}
+
+	/**
+	 * Reads objects of box from files (cursors of the thread) as MapRenderRepositories does :
+	 * types invisible by style are skipped, basemap objects are used for low zooms or if there is no detailed data.
+	 * Coastlines are returned as they are (water polygons are not built).
+	 */
+	public List<BinaryMapDataObject> searchObjects(BinaryMapIndexReader[] cursors, RenderingRuleSearchRequest renderingReq,
+			final int zoom, int leftX, int rightX, int topY, int bottomY) throws IOException {
+		final RenderingRulesVisibility visibility = renderingReq.getVisibility();
+		BinaryMapIndexReader.SearchFilter searchFilter = new BinaryMapIndexReader.SearchFilter() {
+			@Override
+			public boolean accept(TIntArrayList types, MapIndex root) {
+				return visibility.isVisible(types, root, zoom);
+			}
+		};
+		if (zoom > 16) {
+			searchFilter = null;
+		}
+		List<BinaryMapDataObject> result = new ArrayList<BinaryMapDataObject>();
+		List<BinaryMapDataObject> basemapResult = new ArrayList<BinaryMapDataObject>();
+		TLongHashSet ids = new TLongHashSet();
+		for (BinaryMapIndexReader c : cursors) {
+			SearchRequest<BinaryMapDataObject> req = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY,
+					zoom, searchFilter);
+			List<BinaryMapDataObject> res = c.searchMapIndex(req);
+			boolean basemap = c.isBasemap();
+			for (BinaryMapDataObject r : res) {
+				// objects of the same map split in several files
+				if (r.getId() > 0 && !ids.add(r.getId())) {
+					continue;
+				}
+				if (basemap) {
+					basemapResult.add(r);
+				} else {
+					result.add(r);
+				}
+			}
+		}
+		if (zoom <= ZOOM_ONLY_FOR_BASEMAPS || result.isEmpty()) {
+			result.addAll(basemapResult);
+		}
+		return result;
+	}
+
+	/**
+	 * Renders tile (256 * density pixels) with objects of the tile
+	 */
+	public BufferedImage renderTile(AwtMapRenderer renderer, RenderingRuleSearchRequest renderingReq,
+			List<BinaryMapDataObject> objects, int zoom, int x, int y) {
+		AwtMapRenderer.RenderingContext rc = new AwtMapRenderer.RenderingContext(icons);
+		renderingReq.clearState();
+		renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
+		if (renderingReq.searchRenderingAttribute(RenderingRuleStorageProperties.A_DEFAULT_COLOR)) {
+			rc.defaultColor = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_COLOR_VALUE);
+		}
+		renderingReq.clearState();
+		renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
+		if (renderingReq.searchRenderingAttribute(RenderingRuleStorageProperties.A_SHADOW_RENDERING)) {
+			rc.shadowRenderingMode = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
+			rc.shadowRenderingColor = renderingReq.getIntPropertyValue(renderingReq.ALL.R_SHADOW_COLOR);
+		}
+		if (renderingReq.searchRenderingAttribute("polygonMinSizeToDisplay")) {
+			rc.polygonMinSizeToDisplay = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
+		}
+		int size = (int) (AwtMapRenderer.TILE_SIZE * density);
+		rc.leftX = x * density;
+		rc.topY = y * density;
+		rc.tileDivisor = MapUtils.getPowZoom(31 - zoom) / density;
+		rc.zoom = zoom;
+		rc.width = size;
+		rc.height = size;
+		rc.nightMode = nightMode;
+		rc.preferredLocale = preferredLocale;
+		rc.setDensityValue(density);
+		rc.textScale = textScale;
+		BufferedImage bmp = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		renderer.generateNewBitmap(rc, objects, bmp, renderingReq);
+		return bmp;
+	}
+
+	/**
+	 * Renders tiles of range (inclusive) by threads, tiles are written to output folder if it is specified
+	 */
+	public TileStatistics renderTiles(final int zoom, final int left, final int top, int right, int bottom, int threads,
+			final File output) throws Exception {
+		final int width = right - left + 1;
+		final int count = width * (bottom - top + 1);
+		final AtomicInteger next = new AtomicInteger();
+		threads = Math.max(1, Math.min(threads, count));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final TileStatistics total = new TileStatistics();
+		try {
+			List<Future<TileStatistics>> futures = new ArrayList<Future<TileStatistics>>(threads);
+			for (int k = 0; k < threads; k++) {
+				futures.add(executor.submit(new Callable<TileStatistics>() {
+					@Override
+					public TileStatistics call() throws Exception {
+						TileStatistics st = new TileStatistics();
+						BinaryMapIndexReader[] cursors = new BinaryMapIndexReader[readers.length];
+						for (int i = 0; i < readers.length; i++) {
+							cursors[i] = readers[i].getThreadCursor();
+						}
+						RenderingRuleSearchRequest renderingReq = createSearchRequest();
+						AwtMapRenderer renderer = new AwtMapRenderer(icons);
+						int i;
+						while ((i = next.getAndIncrement()) < count) {
+							int x = left + i % width;
+							int y = top + i / width;
+							long nt = System.nanoTime();
+							int shift = 31 - zoom;
+							int leftX = x << shift;
+							int topY = y << shift;
+							int rightX = (int) Math.min(Integer.MAX_VALUE, ((long) x + 1) << shift);
+							int bottomY = (int) Math.min(Integer.MAX_VALUE, ((long) y + 1) << shift);
+							List<BinaryMapDataObject> objects = searchObjects(cursors, renderingReq, zoom, leftX, rightX, topY,
+									bottomY);
+							long st1 = System.nanoTime();
+							BufferedImage bmp = renderTile(renderer, renderingReq, objects, zoom, x, y);
+							long st2 = System.nanoTime();
+							if (output != null) {
+								File f = new File(output, zoom + "/" + x + "/" + y + ".png");
+								f.getParentFile().mkdirs();
+								ImageIO.write(bmp, "png", f);
+							}
+							st.tiles++;
+							st.objects += objects.size();
+							st.searchTime += (st1 - nt) / 1000000;
+							st.renderTime += (st2 - st1) / 1000000;
+							st.writeTime += (System.nanoTime() - st2) / 1000000;
+						}
+						return st;
+					}
+				}));
+			}
+			for (Future<TileStatistics> f : futures) {
+				TileStatistics st = f.get();
+				total.tiles += st.tiles;
+				total.objects += st.objects;
+				total.searchTime += st.searchTime;
+				total.renderTime += st.renderTime;
+				total.writeTime += st.writeTime;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return total;
+	}
+}
@@ -8,7 +8,6 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.RouteDataObject;
@@ -77,8 +76,8 @@ public class BinaryRoutePlanner {
 		
 		// Initializing priority queue to visit way segments 
 		Comparator<RouteSegment> nonHeuristicSegmentsComparator = new NonHeuristicSegmentsComparator();
-		PriorityQueue<RouteSegment> graphDirectSegments = new PriorityQueue<RouteSegment>(50, new SegmentsComparator(ctx));
-		PriorityQueue<RouteSegment> graphReverseSegments = new PriorityQueue<RouteSegment>(50, new SegmentsComparator(ctx));
+		RouteSegmentQueue graphDirectSegments = new RouteSegmentQueue(new SegmentsComparator(ctx));
+		RouteSegmentQueue graphReverseSegments = new RouteSegmentQueue(new SegmentsComparator(ctx));
 		
 		// Set to not visit one segment twice (stores road.id << X + segmentStart)
 		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
@@ -89,7 +88,7 @@ public class BinaryRoutePlanner {
 		// Extract & analyze segment with min(f(x)) from queue while final segment is not found
 		boolean forwardSearch = true;
 		
-		PriorityQueue<RouteSegment>  graphSegments = graphDirectSegments;
+		RouteSegmentQueue  graphSegments = graphDirectSegments;
 		
 		FinalRouteSegment finalSegment = null;
 		boolean onlyBackward = ctx.getPlanRoadDirection() < 0;
@@ -111,10 +110,18 @@ public class BinaryRoutePlanner {
 					log.warn("Estimated overhead " + (ctx.memoryOverhead / (1<<20))+ " mb");
 					printMemoryConsumption("Memory occupied after calculation : ");
 				}
-				finalSegment = (FinalRouteSegment) segment;
 				if(TRACE_ROUTING){
 					println("Final segment found");
 				}
+				if (finalSegment == null) {
+					finalSegment = (FinalRouteSegment) segment;
+				}
+				if (ctx.alternatives == null || !ctx.alternatives.finalSegmentFound(ctx, (FinalRouteSegment) segment)) {
+					break;
+				}
+				continue;
+			}
+			if (finalSegment != null && !ctx.alternatives.continueSearch(ctx)) {
 				break;
 			}
 			if (ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95 && RoutingContext.SHOW_GC_SIZE) {
@@ -134,7 +141,11 @@ public class BinaryRoutePlanner {
 						visitedDirectSegments, doNotAddIntersections);
 			}
 			updateCalculationProgress(ctx, graphDirectSegments, graphReverseSegments);
-			
+			if (finalSegment != null && ((ctx.getPlanRoadDirection() <= 0 && graphReverseSegments.isEmpty())
+					|| (ctx.getPlanRoadDirection() >= 0 && graphDirectSegments.isEmpty()))) {
+				// search for alternatives is over
+				break;
+			}
 			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() <= 0, graphReverseSegments, end, visitedOppositeSegments,
 					"Route is not found to selected target point.");
 			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() >= 0, graphDirectSegments, start, visitedDirectSegments,
@@ -176,7 +187,7 @@ public class BinaryRoutePlanner {
 
 
 	protected void checkIfGraphIsEmpty(final RoutingContext ctx, boolean allowDirection,
-			PriorityQueue<RouteSegment> graphSegments, RouteSegmentPoint pnt, TLongObjectHashMap<RouteSegment> visited,
+			RouteSegmentQueue graphSegments, RouteSegmentPoint pnt, TLongObjectHashMap<RouteSegment> visited,
 			String msg) {
 		if (allowDirection && graphSegments.isEmpty()) {
 			if (pnt.others != null) {
@@ -244,7 +255,7 @@ public class BinaryRoutePlanner {
 
 
 	private void initQueuesWithStartEnd(final RoutingContext ctx, RouteSegment start, RouteSegment end,
-			RouteSegment recalculationEnd, PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments) {
+			RouteSegment recalculationEnd, RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments) {
 		RouteSegment startPos = initRouteSegment(ctx, start, true);
 		RouteSegment startNeg = initRouteSegment(ctx, start, false);
 		RouteSegment endPos = initRouteSegment(ctx, end, true);
@@ -299,8 +310,8 @@ public class BinaryRoutePlanner {
 	}
 
 
-	private void updateCalculationProgress(final RoutingContext ctx, PriorityQueue<RouteSegment> graphDirectSegments,
-			PriorityQueue<RouteSegment> graphReverseSegments) {
+	private void updateCalculationProgress(final RoutingContext ctx, RouteSegmentQueue graphDirectSegments,
+			RouteSegmentQueue graphReverseSegments) {
 		if(ctx.calculationProgress != null) {
 			ctx.calculationProgress.reverseSegmentQueueSize = graphReverseSegments.size();
 			ctx.calculationProgress.directSegmentQueueSize = graphDirectSegments.size();
@@ -338,19 +349,38 @@ public class BinaryRoutePlanner {
 	private float estimatedDistance(final RoutingContext ctx, int targetEndX, int targetEndY,
 			int startX, int startY) {
 		double distance = squareRootDist(startX, startY, targetEndX, targetEndY);
-		return (float) (distance / ctx.getRouter().getMaxDefaultSpeed());
+		float result = (float) (distance / ctx.getRouter().getMaxDefaultSpeed());
+		if (ctx.landmarks != null) {
+			result = Math.max(result, ctx.landmarks.estimate(startX, startY, targetEndX, targetEndY));
+		}
+		return result;
 	}
 	
 	protected static float h(RoutingContext ctx, int begX, int begY, int endX, int endY) {
+		return h(ctx, begX, begY, endX, endY, false);
+	}
+	
+	/**
+	 * Estimate of time between point and end point (from end point to point for reverse way search)
+	 */
+	protected static float h(RoutingContext ctx, int begX, int begY, int endX, int endY, boolean reverseWaySearch) {
 		double distToFinalPoint = squareRootDist(begX, begY,  endX, endY);
-		double result = distToFinalPoint / ctx.getRouter().getMaxDefaultSpeed();
+		float result = (float) (distToFinalPoint / ctx.getRouter().getMaxDefaultSpeed());
 		if(ctx.precalculatedRouteDirection != null){
 			float te = ctx.precalculatedRouteDirection.timeEstimate(begX, begY,  endX, endY);
 			if(te > 0) {
 				return te;
 			}
 		}
-		return (float) result; 
+		if (ctx.landmarks != null) {
+			// landmarks bound is not symmetric (oneway roads)
+			float lm = reverseWaySearch ? ctx.landmarks.estimate(endX, endY, begX, begY) : 
+				ctx.landmarks.estimate(begX, begY, endX, endY);
+			if (lm > result) {
+				return lm;
+			}
+		}
+		return result; 
 	}
 	
 	
@@ -364,7 +394,7 @@ public class BinaryRoutePlanner {
 		log.warn(logMsg);
 	}
 	
-	public void printDebugMemoryInformation(RoutingContext ctx, PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments, 
+	public void printDebugMemoryInformation(RoutingContext ctx, RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments, 
 			TLongObjectHashMap<RouteSegment> visitedDirectSegments,TLongObjectHashMap<RouteSegment> visitedOppositeSegments) {
 		printInfo("Time to calculate : " + (System.nanoTime() - ctx.timeToCalculate) / 1e6 + 
 				", time to load : " + ctx.timeToLoad / 1e6 + ", time to load headers : " + ctx.timeToLoadHeaders / 1e6 + 
@@ -387,7 +417,7 @@ public class BinaryRoutePlanner {
 	
 	@SuppressWarnings("unused")
 	private void processRouteSegment(final RoutingContext ctx, boolean reverseWaySearch,
-			PriorityQueue<RouteSegment> graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, 
+			RouteSegmentQueue graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, 
             RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments, boolean doNotAddIntersections) throws IOException {
 		final RouteDataObject road = segment.road;
 		boolean initDirectionAllowed = checkIfInitialMovementAllowedOnSegment(ctx, reverseWaySearch, visitedSegments, segment, road);
@@ -539,7 +569,7 @@ public class BinaryRoutePlanner {
 	}
 
 	private boolean checkIfOppositieSegmentWasVisited(final RoutingContext ctx, boolean reverseWaySearch,
-			PriorityQueue<RouteSegment> graphSegments, RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments,
+			RouteSegmentQueue graphSegments, RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments,
 			int segmentPoint, float segmentDist, float obstaclesTime) {
 		RouteDataObject road = segment.getRoad();
 		long opp = calculateRoutePointId(road, segment.isPositive() ? segmentPoint - 1 : segmentPoint, !segment.isPositive());
@@ -698,7 +728,7 @@ public class BinaryRoutePlanner {
 	
 
 
-	private RouteSegment processIntersections(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
+	private RouteSegment processIntersections(RoutingContext ctx, RouteSegmentQueue graphSegments,
 			TLongObjectHashMap<RouteSegment> visitedSegments,  float distFromStart, RouteSegment segment,
 			short segmentPoint, RouteSegment inputNext, boolean reverseWaySearch, boolean doNotAddIntersections, 
 			boolean[] processFurther) {
@@ -720,7 +750,7 @@ public class BinaryRoutePlanner {
 		int targetEndX = reverseWaySearch ? ctx.startX : ctx.targetX;
 		int targetEndY = reverseWaySearch ? ctx.startY : ctx.targetY;
 		float distanceToEnd = h(ctx, segment.getRoad().getPoint31XTile(segmentPoint), segment.getRoad()
-				.getPoint31YTile(segmentPoint), targetEndX, targetEndY);
+				.getPoint31YTile(segmentPoint), targetEndX, targetEndY, reverseWaySearch);
 		// Calculate possible ways to put into priority queue
 		RouteSegment next = inputNext;
 		boolean hasNext = nextIterator == null || nextIterator.hasNext();
@@ -768,7 +798,7 @@ public class BinaryRoutePlanner {
 
 
 	@SuppressWarnings("unused")
-	private void processOneRoadIntersection(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
+	private void processOneRoadIntersection(RoutingContext ctx, RouteSegmentQueue graphSegments,
 			TLongObjectHashMap<RouteSegment> visitedSegments, float distFromStart, float distanceToEnd,  RouteSegment segment,
 			int segmentPoint, RouteSegment next) {
 		if (next != null) {
@@ -782,7 +812,8 @@ public class BinaryRoutePlanner {
 						" distToEnd=" + distanceToEnd +
 						" segmentPoint="+ segmentPoint + " -- ", next, true);
 			}
-			if (!visitedSegments.containsKey(calculateRoutePointId(next, next.isPositive()))) {
+			long nextId = calculateRoutePointId(next, next.isPositive());
+			if (!visitedSegments.containsKey(nextId)) {
 				if (next.getParentRoute() == null
 						|| ctx.roadPriorityComparator(next.distanceFromStart, next.distanceToEnd,
 								distFromStart, distanceToEnd) > 0) {
@@ -794,7 +825,8 @@ public class BinaryRoutePlanner {
 					// put additional information to recover whole route after
 					next.setParentRoute(segment);
 					next.setParentSegmentEnd(segmentPoint);
-					graphSegments.add(next);
+					// segment with the same id could be already queued (not visited), keep only the better one
+					graphSegments.addOrDecrease(nextId, next);
 				}
 			} else {
 				// the segment was already visited! We need to follow better route if it exists
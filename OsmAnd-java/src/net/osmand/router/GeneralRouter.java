@@ -1,9 +1,11 @@
 package net.osmand.router;
 
+import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -42,6 +44,13 @@ public class GeneralRouter implements VehicleRouter {
 	
 	private Map<RouteRegion, Map<Integer, Integer>> regionConvert = new LinkedHashMap<RouteRegion, Map<Integer,Integer>>();
 	
+	// interned sets of types (by region and hash of types) to cache evaluated attributes
+	private static final Object NOT_EVALUATED = new Object();
+	private Map<RouteRegion, TIntObjectHashMap<TypeSet>> regionTypeSets = new LinkedHashMap<RouteRegion, TIntObjectHashMap<TypeSet>>();
+	private RouteRegion lastTypeSetsRegion;
+	private TIntObjectHashMap<TypeSet> lastTypeSets;
+	private int typeSetsCount = 0;
+	
 	// cached values
 	private boolean restrictionsAware = true;
 	private float leftTurn;
@@ -127,13 +136,24 @@ public class GeneralRouter implements VehicleRouter {
 		for (int i = 0; i < objectAttributes.length; i++) {
 			objectAttributes[i] = new RouteAttributeContext(parent.objectAttributes[i], params);
 		}
-		shortestRoute = params.containsKey(USE_SHORTEST_WAY) && parseSilentBoolean(params.get(USE_SHORTEST_WAY), false);
+		shortestRoute = params != null && params.containsKey(USE_SHORTEST_WAY)
+				&& parseSilentBoolean(params.get(USE_SHORTEST_WAY), false);
 		if(shortestRoute) {
 			maxDefaultSpeed = Math.min(CAR_SHORTEST_DEFAULT_SPEED, maxDefaultSpeed);
 		}
 
 	}
 
+	/**
+	 * Router with the same rules and parameters but own caches, so it could be used in another thread
+	 */
+	public GeneralRouter createThreadCopy() {
+		ParameterContext pc = objectAttributes[0].paramContext;
+		GeneralRouter router = new GeneralRouter(this, pc == null ? null : pc.vars);
+		router.impassableRoads = impassableRoads;
+		return router;
+	}
+
 	public Map<String, RoutingParameter> getParameters() {
 		return parameters;
 	}
@@ -197,6 +217,27 @@ public class GeneralRouter implements VehicleRouter {
 		return impassableRoads.toArray();
 	}
 	
+	private int getTypeSetId(RouteRegion reg, int[] types) {
+		if (reg != lastTypeSetsRegion || lastTypeSets == null) {
+			lastTypeSets = regionTypeSets.get(reg);
+			if (lastTypeSets == null) {
+				lastTypeSets = new TIntObjectHashMap<TypeSet>();
+				regionTypeSets.put(reg, lastTypeSets);
+			}
+			lastTypeSetsRegion = reg;
+		}
+		int hash = Arrays.hashCode(types);
+		TypeSet first = lastTypeSets.get(hash);
+		for (TypeSet ts = first; ts != null; ts = ts.next) {
+			if (Arrays.equals(ts.types, types)) {
+				return ts.id;
+			}
+		}
+		TypeSet ts = new TypeSet(types.clone(), typeSetsCount++, first);
+		lastTypeSets.put(hash, ts);
+		return ts.id;
+	}
+	
 	private int registerTagValueAttribute(String tag, String value) {
 		String key = tag +"$"+value;
 		if(universalRules.containsKey(key)) {
@@ -432,9 +473,24 @@ public class GeneralRouter implements VehicleRouter {
 		private Map<String, String> vars;
 	}
 	
+	private static class TypeSet {
+		private final int[] types;
+		private final int id;
+		// next type set with the same hash
+		private final TypeSet next;
+		
+		public TypeSet(int[] types, int id, TypeSet next) {
+			this.types = types;
+			this.id = id;
+			this.next = next;
+		}
+	}
+	
 	public class RouteAttributeContext {
 		List<RouteAttributeEvalRule> rules = new ArrayList<RouteAttributeEvalRule>();
 		ParameterContext paramContext = null;
+		// evaluated values by type set id (rules and parameters are the same for all of them)
+		private Object[] cache = new Object[0];
 		
 		public RouteAttributeContext(){
 		}
@@ -469,7 +525,30 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		private Object evaluate(RouteDataObject ro) {
-			return evaluate(convert(ro.region, ro.types));
+			return evaluate(ro.region, ro.types);
+		}
+		
+		private Object evaluate(RouteRegion region, int[] types) {
+			int id = getTypeSetId(region, types);
+			if (id >= cache.length) {
+				Object[] ncache = new Object[Math.max(id + 1, Math.max(cache.length * 2, 64))];
+				System.arraycopy(cache, 0, ncache, 0, cache.length);
+				Arrays.fill(ncache, cache.length, ncache.length, NOT_EVALUATED);
+				cache = ncache;
+			}
+			Object o = cache[id];
+			if (o == NOT_EVALUATED) {
+				// rules and registered types are shared with parent and other built routers
+				synchronized (universalRules) {
+					o = evaluate(convert(region, types));
+				}
+				cache[id] = o;
+			}
+			return o;
+		}
+		
+		private void clearCache() {
+			cache = new Object[0];
 		}
 
 		public void printRules(PrintStream out) {
@@ -482,10 +561,13 @@ public class GeneralRouter implements VehicleRouter {
 			RouteAttributeEvalRule ev = new RouteAttributeEvalRule();
 			ev.registerSelectValue(selectValue, selectType);
 			rules.add(ev);	
+			clearCache();
 			return ev;
 		}
 		
 		public RouteAttributeEvalRule getLastRule() {
+			// rule could be changed
+			clearCache();
 			return rules.get(rules.size() - 1);
 		}
 
@@ -528,7 +610,7 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		public int evaluateInt(RouteRegion region, int[] types, int defValue) {
-			Object o = evaluate(convert(region, types));
+			Object o = evaluate(region, types);
 			if(!(o instanceof Number)){
 				return defValue;
 			}
@@ -544,7 +626,7 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		public float evaluateFloat(RouteRegion region, int[] types, float defValue) {
-			Object o = evaluate(convert(region, types));
+			Object o = evaluate(region, types);
 			if(!(o instanceof Number)) {
 				return defValue;
 			}
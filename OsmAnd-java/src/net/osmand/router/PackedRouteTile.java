@@ -0,0 +1,303 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.RouteDataObject;
+
+/**
+ * Roads of one routing subregion packed into few primitive arrays (offsets by road + values).
+ * Points are indexed by sorted (x31, y31) keys instead of RouteSegment per point,
+ * RouteDataObject is created on demand as a view of one road and kept in small cache of recently used roads.
+ */
+class PackedRouteTile {
+
+	private static final int ROADS_CACHE_SIZE = 64;
+
+	private final RouteRegion region;
+	private final int roadsCount;
+	private final long[] ids;
+	// offsets by road (roadsCount + 1)
+	private final int[] pointsOffsets;
+	private final int[] typesOffsets;
+	private final int[] restrictionsOffsets;
+	private final int[] namesOffsets;
+	private final int[] pointsX;
+	private final int[] pointsY;
+	private final int[] types;
+	private final long[] restrictions;
+	private final int[] nameKeys;
+	private final String[] nameValues;
+
+	// point types : for road index of first point in pointTypesStarts (-1 if road has no point types) and length of array,
+	// for point start and end in pointTypes (start -1 if point has no types)
+	private final int[] roadPointTypes;
+	private final int[] roadPointTypesLength;
+	private final int[] pointTypesStarts;
+	private final int[] pointTypesEnds;
+	private final int[] pointTypes;
+
+	// sorted keys of all points and corresponding road / point index
+	private final long[] pointKeys;
+	private final int[] pointRoads;
+	private final int[] pointIndexes;
+
+	// recently created roads by road index modulo size (tile could be shared by several routing threads)
+	private final AtomicReferenceArray<RouteDataObject> roadsCache;
+
+	private final int estimatedSize;
+	private final int coordinatesCount;
+
+	public PackedRouteTile(RouteRegion region, List<RouteDataObject> roads) {
+		this.region = region;
+		this.roadsCount = roads.size();
+		ids = new long[roadsCount];
+		pointsOffsets = new int[roadsCount + 1];
+		typesOffsets = new int[roadsCount + 1];
+		restrictionsOffsets = new int[roadsCount + 1];
+		namesOffsets = new int[roadsCount + 1];
+		roadPointTypes = new int[roadsCount];
+		roadPointTypesLength = new int[roadsCount];
+		int pointTypesArrays = 0;
+		int pointTypesValues = 0;
+		for (int r = 0; r < roadsCount; r++) {
+			RouteDataObject ro = roads.get(r);
+			ids[r] = ro.id;
+			pointsOffsets[r + 1] = pointsOffsets[r] + ro.pointsX.length;
+			typesOffsets[r + 1] = typesOffsets[r] + (ro.types == null ? 0 : ro.types.length);
+			restrictionsOffsets[r + 1] = restrictionsOffsets[r] + ro.getRestrictionLength();
+			namesOffsets[r + 1] = namesOffsets[r] + (ro.names == null ? 0 : ro.names.size());
+			if (ro.pointTypes == null) {
+				roadPointTypes[r] = -1;
+			} else {
+				roadPointTypes[r] = pointTypesArrays;
+				roadPointTypesLength[r] = ro.pointTypes.length;
+				pointTypesArrays += ro.pointTypes.length;
+				for (int[] pt : ro.pointTypes) {
+					pointTypesValues += pt == null ? 0 : pt.length;
+				}
+			}
+		}
+		int pointsCount = pointsOffsets[roadsCount];
+		pointsX = new int[pointsCount];
+		pointsY = new int[pointsCount];
+		types = new int[typesOffsets[roadsCount]];
+		restrictions = new long[restrictionsOffsets[roadsCount]];
+		nameKeys = new int[namesOffsets[roadsCount]];
+		nameValues = new String[namesOffsets[roadsCount]];
+		pointTypesStarts = new int[pointTypesArrays];
+		pointTypesEnds = new int[pointTypesArrays];
+		pointTypes = new int[pointTypesValues];
+		pointKeys = new long[pointsCount];
+		pointRoads = new int[pointsCount];
+		pointIndexes = new int[pointsCount];
+		int ptValue = 0;
+		for (int r = 0; r < roadsCount; r++) {
+			RouteDataObject ro = roads.get(r);
+			int p = pointsOffsets[r];
+			for (int i = 0; i < ro.pointsX.length; i++) {
+				pointsX[p + i] = ro.pointsX[i];
+				pointsY[p + i] = ro.pointsY[i];
+				pointKeys[p + i] = (((long) ro.pointsX[i]) << 31) + (long) ro.pointsY[i];
+				pointRoads[p + i] = r;
+				pointIndexes[p + i] = i;
+			}
+			if (ro.types != null) {
+				System.arraycopy(ro.types, 0, types, typesOffsets[r], ro.types.length);
+			}
+			if (ro.restrictions != null) {
+				System.arraycopy(ro.restrictions, 0, restrictions, restrictionsOffsets[r], ro.restrictions.length);
+			}
+			if (ro.names != null) {
+				int n = namesOffsets[r];
+				int[] keys = ro.names.keys();
+				for (int k : keys) {
+					nameKeys[n] = k;
+					nameValues[n] = ro.names.get(k);
+					n++;
+				}
+			}
+			if (ro.pointTypes != null) {
+				int pt = roadPointTypes[r];
+				for (int i = 0; i < ro.pointTypes.length; i++) {
+					if (ro.pointTypes[i] == null) {
+						pointTypesStarts[pt + i] = -1;
+					} else {
+						pointTypesStarts[pt + i] = ptValue;
+						System.arraycopy(ro.pointTypes[i], 0, pointTypes, ptValue, ro.pointTypes[i].length);
+						ptValue += ro.pointTypes[i].length;
+						pointTypesEnds[pt + i] = ptValue;
+					}
+				}
+			}
+		}
+		sortPoints(0, pointsCount - 1);
+		roadsCache = new AtomicReferenceArray<RouteDataObject>(Math.min(roadsCount, ROADS_CACHE_SIZE));
+		coordinatesCount = pointsCount * 2;
+		int sz = 8 + 4 * 16;
+		sz += arraySize(8, ids.length) + 4 * arraySize(4, roadsCount + 1) + 2 * arraySize(4, roadsCount);
+		sz += 2 * arraySize(4, pointsCount) + arraySize(4, types.length) + arraySize(8, restrictions.length);
+		sz += arraySize(4, nameKeys.length) + arraySize(4, nameValues.length);
+		for (String s : nameValues) {
+			sz += 40 + 2 * s.length();
+		}
+		sz += 2 * arraySize(4, pointTypesArrays) + arraySize(4, pointTypes.length);
+		sz += arraySize(8, pointsCount) + 2 * arraySize(4, pointsCount);
+		sz += arraySize(4, roadsCache.length());
+		estimatedSize = sz;
+	}
+
+	private static int arraySize(int elementSize, int length) {
+		return 16 + elementSize * length;
+	}
+
+	// sort by point key, points with the same key keep order of roads
+	private void sortPoints(int lo, int hi) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			long pivotKey = pointKeys[mid];
+			int pivotSeq = pointsOffsets[pointRoads[mid]] + pointIndexes[mid];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (comparePoint(i, pivotKey, pivotSeq) < 0) {
+					i++;
+				}
+				while (comparePoint(j, pivotKey, pivotSeq) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			// recursion for smaller part
+			if (j - lo < hi - i) {
+				sortPoints(lo, j);
+				lo = i;
+			} else {
+				sortPoints(i, hi);
+				hi = j;
+			}
+		}
+	}
+
+	private int comparePoint(int i, long key, int seq) {
+		if (pointKeys[i] != key) {
+			return pointKeys[i] < key ? -1 : 1;
+		}
+		int s = pointsOffsets[pointRoads[i]] + pointIndexes[i];
+		return s < seq ? -1 : (s == seq ? 0 : 1);
+	}
+
+	private void swap(int i, int j) {
+		long k = pointKeys[i];
+		pointKeys[i] = pointKeys[j];
+		pointKeys[j] = k;
+		int t = pointRoads[i];
+		pointRoads[i] = pointRoads[j];
+		pointRoads[j] = t;
+		t = pointIndexes[i];
+		pointIndexes[i] = pointIndexes[j];
+		pointIndexes[j] = t;
+	}
+
+	/**
+	 * Returns index of first point with the key or -1
+	 */
+	public int searchPoint(int x31, int y31) {
+		long key = (((long) x31) << 31) + (long) y31;
+		int lo = 0;
+		int hi = pointKeys.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (pointKeys[mid] < key) {
+				lo = mid + 1;
+			} else {
+				if (pointKeys[mid] == key) {
+					found = mid;
+				}
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	public boolean isPointKey(int point, int x31, int y31) {
+		return point < pointKeys.length && pointKeys[point] == (((long) x31) << 31) + (long) y31;
+	}
+
+	public int getPointRoad(int point) {
+		return pointRoads[point];
+	}
+
+	public int getPointIndex(int point) {
+		return pointIndexes[point];
+	}
+
+	public int getRoadsCount() {
+		return roadsCount;
+	}
+
+	public long getRoadId(int road) {
+		return ids[road];
+	}
+
+	public int getRoadPointsLength(int road) {
+		return pointsOffsets[road + 1] - pointsOffsets[road];
+	}
+
+	/**
+	 * Returns road object, roads are shared and should not be modified
+	 */
+	public RouteDataObject createRoad(int road) {
+		int slot = road % roadsCache.length();
+		RouteDataObject ro = roadsCache.get(slot);
+		if (ro == null || ro.id != ids[road]) {
+			ro = materializeRoad(road);
+			roadsCache.set(slot, ro);
+		}
+		return ro;
+	}
+
+	private RouteDataObject materializeRoad(int road) {
+		RouteDataObject ro = new RouteDataObject(region);
+		ro.id = ids[road];
+		ro.pointsX = Arrays.copyOfRange(pointsX, pointsOffsets[road], pointsOffsets[road + 1]);
+		ro.pointsY = Arrays.copyOfRange(pointsY, pointsOffsets[road], pointsOffsets[road + 1]);
+		ro.types = Arrays.copyOfRange(types, typesOffsets[road], typesOffsets[road + 1]);
+		if (restrictionsOffsets[road] != restrictionsOffsets[road + 1]) {
+			ro.restrictions = Arrays.copyOfRange(restrictions, restrictionsOffsets[road], restrictionsOffsets[road + 1]);
+		}
+		if (namesOffsets[road] != namesOffsets[road + 1]) {
+			ro.names = new TIntObjectHashMap<String>();
+			for (int n = namesOffsets[road]; n < namesOffsets[road + 1]; n++) {
+				ro.names.put(nameKeys[n], nameValues[n]);
+			}
+		}
+		if (roadPointTypes[road] != -1) {
+			ro.pointTypes = new int[roadPointTypesLength[road]][];
+			for (int i = 0; i < ro.pointTypes.length; i++) {
+				int pt = roadPointTypes[road] + i;
+				if (pointTypesStarts[pt] != -1) {
+					ro.pointTypes[i] = Arrays.copyOfRange(pointTypes, pointTypesStarts[pt], pointTypesEnds[pt]);
+				}
+			}
+		}
+		return ro;
+	}
+
+	public int getEstimatedSize() {
+		return estimatedSize;
+	}
+
+	public int getCoordinatesCount() {
+		return coordinatesCount;
+	}
+}
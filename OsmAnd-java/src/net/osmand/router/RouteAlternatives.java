@@ -0,0 +1,161 @@
+package net.osmand.router;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Collects alternative routes in the same bidirectional search : after the best route is found
+ * search continues for a limited number of segments and every meeting point of forward and backward
+ * search trees gives a candidate route (via route through the meeting point).
+ * Candidate is accepted if it is not longer than maxStretch * best time, shares not more than maxOverlap
+ * of its length with every accepted route and has no road passed twice.
+ */
+public class RouteAlternatives {
+
+	private static final Log log = PlatformUtil.getLog(RouteAlternatives.class);
+	// the same as in BinaryRoutePlanner
+	private static final int ROUTE_POINTS = 11;
+	// search continues after best route is found for that part of segments visited to find it
+	public static final float DEFAULT_SEARCH_FRACTION = 0.5f;
+
+	private final int count;
+	private final float maxStretch;
+	private final float maxOverlap;
+	private float searchFraction = DEFAULT_SEARCH_FRACTION;
+
+	private final List<List<RouteSegmentResult>> routes = new ArrayList<List<RouteSegmentResult>>();
+	private final List<RouteIntervals> routeIntervals = new ArrayList<RouteIntervals>();
+	private final List<Float> routeTimes = new ArrayList<Float>();
+	private int visitedLimit = -1;
+	private int candidates = 0;
+
+	/**
+	 * @param count maximal number of routes (including the best one)
+	 * @param maxStretch maximal ratio of alternative route time to the best route time
+	 * @param maxOverlap maximal part of alternative route length shared with another route
+	 */
+	public RouteAlternatives(int count, float maxStretch, float maxOverlap) {
+		this.count = count;
+		this.maxStretch = maxStretch;
+		this.maxOverlap = maxOverlap;
+	}
+
+	public void setSearchFraction(float searchFraction) {
+		this.searchFraction = searchFraction;
+	}
+
+	/**
+	 * Routes found (the best route is the first), results are not prepared
+	 */
+	public List<List<RouteSegmentResult>> getRoutes() {
+		return routes;
+	}
+
+	public List<Float> getRouteTimes() {
+		return routeTimes;
+	}
+
+	/**
+	 * Called by planner for every final segment polled from queue, returns false if search should be stopped
+	 */
+	boolean finalSegmentFound(RoutingContext ctx, FinalRouteSegment finalSegment) {
+		float time = finalSegment.distanceFromStart;
+		// segments of search tree could get new parents later, so route is converted now
+		float routingTime = ctx.routingTime;
+		List<RouteSegmentResult> route = new RouteResultPreparation().convertFinalSegmentToResults(ctx, finalSegment);
+		if (routes.isEmpty()) {
+			visitedLimit = ctx.visitedSegments + (int) (ctx.visitedSegments * searchFraction);
+			addRoute(route, collectIntervals(route, true), time);
+			log.info("Best route time " + time + ", search alternatives till " + visitedLimit + " visited segments");
+		} else {
+			ctx.routingTime = routingTime;
+			candidates++;
+			if (time <= maxStretch * routeTimes.get(0)) {
+				RouteIntervals intervals = collectIntervals(route, false);
+				if (intervals != null && !overlaps(intervals)) {
+					addRoute(route, intervals, time);
+				}
+			}
+		}
+		return continueSearch(ctx);
+	}
+
+	boolean continueSearch(RoutingContext ctx) {
+		return routes.size() < count && ctx.visitedSegments < visitedLimit;
+	}
+
+	private void addRoute(List<RouteSegmentResult> route, RouteIntervals intervals, float time) {
+		routes.add(route);
+		routeIntervals.add(intervals);
+		routeTimes.add(time);
+		if (routes.size() > 1) {
+			log.info("Alternative route " + (routes.size() - 1) + " time " + time + " (candidate " + candidates + ")");
+		}
+	}
+
+	// road intervals of route, null if repeats are not allowed and route passes some interval twice
+	private RouteIntervals collectIntervals(List<RouteSegmentResult> route, boolean allowRepeats) {
+		RouteIntervals intervals = new RouteIntervals();
+		for (RouteSegmentResult r : route) {
+			int st = Math.min(r.getStartPointIndex(), r.getEndPointIndex());
+			int en = Math.max(r.getStartPointIndex(), r.getEndPointIndex());
+			for (int i = st; i < en; i++) {
+				long key = (r.getObject().getId() << ROUTE_POINTS) + i;
+				if (!intervals.keys.add(key)) {
+					if (allowRepeats) {
+						continue;
+					}
+					return null;
+				}
+				float len = (float) BinaryRoutePlanner.squareRootDist(r.getObject().getPoint31XTile(i), r.getObject()
+						.getPoint31YTile(i), r.getObject().getPoint31XTile(i + 1), r.getObject().getPoint31YTile(i + 1));
+				intervals.add(key, len);
+			}
+		}
+		return intervals;
+	}
+
+	private boolean overlaps(RouteIntervals intervals) {
+		if (intervals.length == 0) {
+			return true;
+		}
+		for (RouteIntervals accepted : routeIntervals) {
+			float shared = 0;
+			for (int i = 0; i < intervals.size; i++) {
+				if (accepted.keys.contains(intervals.list[i])) {
+					shared += intervals.lengths[i];
+				}
+			}
+			if (shared > maxOverlap * intervals.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class RouteIntervals {
+		private final TLongHashSet keys = new TLongHashSet();
+		private long[] list = new long[64];
+		private float[] lengths = new float[64];
+		private int size;
+		private float length;
+
+		public void add(long key, float len) {
+			if (size == list.length) {
+				list = Arrays.copyOf(list, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+			}
+			list[size] = key;
+			lengths[size++] = len;
+			length += len;
+		}
+	}
+}
@@ -0,0 +1,769 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+import org.apache.commons.logging.Log;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Contraction hierarchy of road graph for one routing profile (built by {@link RouteContractionHierarchyBuilder}).
+ * Nodes are road intersections and road ends, edges are parts of roads between nodes (original edges)
+ * and shortcuts replacing path via contracted node. Route is searched by bidirectional Dijkstra
+ * using only edges to higher ranked nodes, shortcuts are unpacked back to road segments.
+ * Edge weight is the same time as used by {@link BinaryRoutePlanner} without turn costs and turn restrictions,
+ * so route passing restricted turn is rejected (and should be calculated by usual search).
+ */
+public class RouteContractionHierarchy {
+
+	private static final Log log = PlatformUtil.getLog(RouteContractionHierarchy.class);
+	private static final String HEADER = "OsmAnd route contraction hierarchy";
+	public static final int VERSION = 2;
+	private static final float INF = Float.POSITIVE_INFINITY;
+
+	private final String routerName;
+	// hash of router parameters, impassable roads and maps used to build hierarchy
+	private final int graphHash;
+	// sorted keys of nodes ((x31 << 31) + y31) and their ranks (order of contraction)
+	private final long[] nodeKeys;
+	private final int[] nodeRanks;
+	private final long[] roadIds;
+	private final int[] edgeFrom;
+	private final int[] edgeTo;
+	private final float[] edgeWeight;
+	// original edge : road index and (start point << 16) + end point,
+	// shortcut : -(first edge + 1) and second edge
+	private final int[] edgeA;
+	private final int[] edgeB;
+	// edges to higher ranked nodes (outgoing for forward search and incoming for backward search)
+	private final int[] upOutOffsets;
+	private final int[] upOutEdges;
+	private final int[] upInOffsets;
+	private final int[] upInEdges;
+
+	RouteContractionHierarchy(String routerName, int graphHash, long[] nodeKeys, int[] nodeRanks, long[] roadIds,
+			int[] edgeFrom, int[] edgeTo, float[] edgeWeight, int[] edgeA, int[] edgeB) {
+		this.routerName = routerName;
+		this.graphHash = graphHash;
+		this.nodeKeys = nodeKeys;
+		this.nodeRanks = nodeRanks;
+		this.roadIds = roadIds;
+		this.edgeFrom = edgeFrom;
+		this.edgeTo = edgeTo;
+		this.edgeWeight = edgeWeight;
+		this.edgeA = edgeA;
+		this.edgeB = edgeB;
+		int nodes = nodeKeys.length;
+		upOutOffsets = new int[nodes + 1];
+		upInOffsets = new int[nodes + 1];
+		for (int e = 0; e < edgeFrom.length; e++) {
+			if (nodeRanks[edgeTo[e]] > nodeRanks[edgeFrom[e]]) {
+				upOutOffsets[edgeFrom[e] + 1]++;
+			} else {
+				upInOffsets[edgeTo[e] + 1]++;
+			}
+		}
+		for (int i = 0; i < nodes; i++) {
+			upOutOffsets[i + 1] += upOutOffsets[i];
+			upInOffsets[i + 1] += upInOffsets[i];
+		}
+		upOutEdges = new int[upOutOffsets[nodes]];
+		upInEdges = new int[upInOffsets[nodes]];
+		int[] outPos = Arrays.copyOf(upOutOffsets, nodes);
+		int[] inPos = Arrays.copyOf(upInOffsets, nodes);
+		for (int e = 0; e < edgeFrom.length; e++) {
+			if (nodeRanks[edgeTo[e]] > nodeRanks[edgeFrom[e]]) {
+				upOutEdges[outPos[edgeFrom[e]]++] = e;
+			} else {
+				upInEdges[inPos[edgeTo[e]]++] = e;
+			}
+		}
+	}
+
+	public String getRouterName() {
+		return routerName;
+	}
+
+	/**
+	 * @see RoutingConfiguration#calculateGraphHash
+	 */
+	public int getGraphHash() {
+		return graphHash;
+	}
+
+	public int getNodesCount() {
+		return nodeKeys.length;
+	}
+
+	public int getEdgesCount() {
+		return edgeFrom.length;
+	}
+
+	public int getShortcutsCount() {
+		int cnt = 0;
+		for (int a : edgeA) {
+			if (a < 0) {
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+
+	public int getNode(int x31, int y31) {
+		int ind = Arrays.binarySearch(nodeKeys, nodeKey(x31, y31));
+		return ind < 0 ? -1 : ind;
+	}
+
+	static long nodeKey(int x31, int y31) {
+		return (((long) x31) << 31) + (long) y31;
+	}
+
+	private int getNodeX(int node) {
+		return (int) (nodeKeys[node] >> 31);
+	}
+
+	private int getNodeY(int node) {
+		return (int) (nodeKeys[node] & Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Speed used for road (the same as in {@link BinaryRoutePlanner})
+	 */
+	static float getRoadSpeed(VehicleRouter router, RouteDataObject road) {
+		float priority = router.defineSpeedPriority(road);
+		float speed = router.defineRoutingSpeed(road) * priority;
+		if (speed == 0) {
+			speed = router.getMinDefaultSpeed() * priority;
+		}
+		if (speed > router.getMaxDefaultSpeed()) {
+			speed = router.getMaxDefaultSpeed();
+		}
+		return speed;
+	}
+
+	/**
+	 * Time to move from (x31, y31) through count points of road starting from point 'from' (obstacles of passed points included),
+	 * returns -1 if road is not passable
+	 */
+	static float calculateTime(VehicleRouter router, RouteDataObject road, float speed, int x31, int y31, int from,
+			int count, boolean plus) {
+		double dist = 0;
+		float obstacles = 0;
+		int px = x31;
+		int py = y31;
+		for (int k = 0, i = from; k < count; k++, i += plus ? 1 : -1) {
+			int x = road.getPoint31XTile(i);
+			int y = road.getPoint31YTile(i);
+			dist += BinaryRoutePlanner.squareRootDist(px, py, x, y);
+			float obstacle = router.defineRoutingObstacle(road, i);
+			if (obstacle < 0) {
+				return -1;
+			}
+			obstacles += obstacle;
+			px = x;
+			py = y;
+		}
+		return obstacles + (float) dist / speed;
+	}
+
+	private static float distanceTime(float speed, int x1, int y1, int x2, int y2) {
+		return (float) BinaryRoutePlanner.squareRootDist(x1, y1, x2, y2) / speed;
+	}
+
+	/**
+	 * Searches route between points, returns not prepared results or null if route is not found in hierarchy
+	 */
+	List<RouteSegmentResult> searchRoute(RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end)
+			throws IOException, InterruptedException {
+		long nt = System.nanoTime();
+		VehicleRouter router = ctx.getRouter();
+		List<Access> startAccess = findStartAccess(router, start);
+		List<Access> endAccess = findEndAccess(router, end);
+		NodeLabels forwardLabels = new NodeLabels();
+		NodeLabels backwardLabels = new NodeLabels();
+		NodeQueue forwardQueue = new NodeQueue();
+		NodeQueue backwardQueue = new NodeQueue();
+		for (Access a : startAccess) {
+			if (a.time < forwardLabels.getDistance(a.node)) {
+				forwardLabels.put(a.node, a.time, -1);
+				forwardQueue.add(a.time, a.node);
+			}
+		}
+		for (Access a : endAccess) {
+			if (a.time < backwardLabels.getDistance(a.node)) {
+				backwardLabels.put(a.node, a.time, -1);
+				backwardQueue.add(a.time, a.node);
+			}
+		}
+		float best = INF;
+		int meet = -1;
+		int settled = 0;
+		while (true) {
+			float fk = forwardQueue.isEmpty() ? INF : forwardQueue.peekKey();
+			float bk = backwardQueue.isEmpty() ? INF : backwardQueue.peekKey();
+			if (Math.min(fk, bk) >= best) {
+				break;
+			}
+			boolean forward = fk <= bk;
+			NodeQueue queue = forward ? forwardQueue : backwardQueue;
+			NodeLabels labels = forward ? forwardLabels : backwardLabels;
+			float d = queue.peekKey();
+			int u = queue.poll();
+			if (d > labels.getDistance(u)) {
+				continue;
+			}
+			if (++settled % 1000 == 0 && ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+				throw new InterruptedException("Route calculation interrupted");
+			}
+			float opposite = (forward ? backwardLabels : forwardLabels).getDistance(u);
+			if (d + opposite < best) {
+				best = d + opposite;
+				meet = u;
+			}
+			int[] offsets = forward ? upOutOffsets : upInOffsets;
+			int[] edges = forward ? upOutEdges : upInEdges;
+			for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+				int e = edges[i];
+				int v = forward ? edgeTo[e] : edgeFrom[e];
+				float nd = d + edgeWeight[e];
+				if (nd < labels.getDistance(v)) {
+					labels.put(v, nd, e);
+					queue.add(nd, v);
+				}
+			}
+		}
+		float direct = calculateDirectTime(router, start, end);
+		ctx.visitedSegments = settled;
+		List<RoadPart> parts = new ArrayList<RoadPart>();
+		if (direct >= 0 && direct <= best) {
+			boolean plus = isBefore(start, end);
+			parts.add(new RoadPart(start.getRoad(), plus ? start.getSegmentStart() - 1 : start.getSegmentStart(),
+					plus ? end.getSegmentStart() : end.getSegmentStart() - 1, true));
+			best = direct;
+		} else if (meet == -1) {
+			return null;
+		} else {
+			TIntArrayList path = new TIntArrayList();
+			int n = meet;
+			while (forwardLabels.getParent(n) != -1) {
+				int e = forwardLabels.getParent(n);
+				path.add(e);
+				n = edgeFrom[e];
+			}
+			Access sa = findAccess(startAccess, n, forwardLabels.getDistance(n));
+			path.reverse();
+			n = meet;
+			while (backwardLabels.getParent(n) != -1) {
+				int e = backwardLabels.getParent(n);
+				path.add(e);
+				n = edgeTo[e];
+			}
+			Access ea = findAccess(endAccess, n, backwardLabels.getDistance(n));
+			addPart(parts, new RoadPart(start.getRoad(), sa.plus ? start.getSegmentStart() - 1 : start.getSegmentStart(),
+					sa.point, true));
+			if (!unpackPath(ctx, path, parts)) {
+				return null;
+			}
+			addPart(parts, new RoadPart(end.getRoad(), ea.point, ea.plus ? end.getSegmentStart() : end.getSegmentStart() - 1, true));
+		}
+		if (router.restrictionsAware() && !checkRestrictions(ctx, parts)) {
+			log.info("Contraction hierarchy route passes restricted turn");
+			return null;
+		}
+		List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>(parts.size());
+		for (RoadPart p : parts) {
+			result.add(new RouteSegmentResult(p.road, p.start, p.end));
+		}
+		ctx.routingTime = best;
+		log.info("Contraction hierarchy route : " + best + " s, settled nodes " + settled + ", time "
+				+ (System.nanoTime() - nt) / 1e6 + " ms");
+		return result;
+	}
+
+	private Access findAccess(List<Access> access, int node, float time) {
+		Access res = null;
+		for (Access a : access) {
+			if (a.node == node && (res == null || Math.abs(a.time - time) < Math.abs(res.time - time))) {
+				res = a;
+			}
+		}
+		return res;
+	}
+
+	private boolean unpackPath(RoutingContext ctx, TIntArrayList path, List<RoadPart> parts) {
+		TIntArrayList stack = new TIntArrayList();
+		for (int i = path.size() - 1; i >= 0; i--) {
+			stack.add(path.get(i));
+		}
+		while (stack.size() > 0) {
+			int e = stack.removeAt(stack.size() - 1);
+			if (edgeA[e] < 0) {
+				stack.add(edgeB[e]);
+				stack.add(-edgeA[e] - 1);
+				continue;
+			}
+			int from = edgeB[e] >>> 16;
+			int to = edgeB[e] & 0xffff;
+			RouteDataObject road = loadRoad(ctx, roadIds[edgeA[e]], getNodeX(edgeFrom[e]), getNodeY(edgeFrom[e]), from);
+			if (road == null) {
+				log.warn("Road " + roadIds[edgeA[e]] + " of contraction hierarchy is not found in maps");
+				return false;
+			}
+			addPart(parts, new RoadPart(road, from, to, false));
+		}
+		return true;
+	}
+
+	private boolean checkRestrictions(RoutingContext ctx, List<RoadPart> parts) {
+		for (int i = 1; i < parts.size(); i++) {
+			RoadPart from = parts.get(i - 1);
+			RouteDataObject to = parts.get(i).road;
+			if (from.road.getId() == to.getId()) {
+				continue;
+			}
+			for (int k = 0; k < from.road.getRestrictionLength(); k++) {
+				int type = from.road.getRestrictionType(k);
+				long restrictedTo = from.road.getRestrictionId(k);
+				boolean only = type == MapRenderingTypes.RESTRICTION_ONLY_RIGHT_TURN
+						|| type == MapRenderingTypes.RESTRICTION_ONLY_LEFT_TURN
+						|| type == MapRenderingTypes.RESTRICTION_ONLY_STRAIGHT_ON;
+				if (restrictedTo == to.getId()) {
+					if (!only) {
+						return false;
+					}
+				} else if (only) {
+					// restriction applies to this junction only if restricted road passes through it
+					int x31 = from.road.getPoint31XTile(from.end);
+					int y31 = from.road.getPoint31YTile(from.end);
+					if (loadRoad(ctx, restrictedTo, x31, y31, -1) != null) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	// point -1 means any point of road
+	private RouteDataObject loadRoad(RoutingContext ctx, long id, int x31, int y31, int point) {
+		if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+			ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+		}
+		RouteSegment s = ctx.loadRouteSegment(x31, y31, ctx.config.memoryLimitation - ctx.memoryOverhead);
+		while (s != null) {
+			RouteDataObject road = s.getRoad();
+			if (road.getId() == id && (point == -1 || s.getSegmentStart() == point)) {
+				return road;
+			}
+			s = s.getNext();
+		}
+		return null;
+	}
+
+	private static void addPart(List<RoadPart> parts, RoadPart p) {
+		if (parts.size() > 0) {
+			RoadPart last = parts.get(parts.size() - 1);
+			if (last.road.getId() == p.road.getId() && last.end == p.start && (last.start < last.end) == (p.start < p.end)) {
+				// continue the same road (start and end parts keep own copy of road)
+				if (p.endpoint && !last.endpoint) {
+					p.start = last.start;
+					parts.set(parts.size() - 1, p);
+				} else {
+					last.end = p.end;
+				}
+				return;
+			}
+		}
+		parts.add(p);
+	}
+
+	private boolean isBefore(RouteSegmentPoint start, RouteSegmentPoint end) {
+		if (start.getSegmentStart() != end.getSegmentStart()) {
+			return start.getSegmentStart() < end.getSegmentStart();
+		}
+		RouteDataObject road = start.getRoad();
+		int px = road.getPoint31XTile(start.getSegmentStart() - 1);
+		int py = road.getPoint31YTile(start.getSegmentStart() - 1);
+		return BinaryRoutePlanner.squareRootDist(px, py, start.preciseX, start.preciseY) <= BinaryRoutePlanner
+				.squareRootDist(px, py, end.preciseX, end.preciseY);
+	}
+
+	private float calculateDirectTime(VehicleRouter router, RouteSegmentPoint start, RouteSegmentPoint end) {
+		RouteDataObject road = start.getRoad();
+		if (road.getId() != end.getRoad().getId()) {
+			return -1;
+		}
+		float speed = getRoadSpeed(router, road);
+		int oneway = router.isOneWay(road);
+		int js = start.getSegmentStart();
+		int je = end.getSegmentStart();
+		if (isBefore(start, end)) {
+			if (oneway < 0) {
+				return -1;
+			}
+			float t = calculateTime(router, road, speed, start.preciseX, start.preciseY, js, je - js, true);
+			int lx = je == js ? start.preciseX : road.getPoint31XTile(je - 1);
+			int ly = je == js ? start.preciseY : road.getPoint31YTile(je - 1);
+			return t < 0 ? -1 : t + distanceTime(speed, lx, ly, end.preciseX, end.preciseY);
+		} else {
+			if (oneway > 0) {
+				return -1;
+			}
+			float t = calculateTime(router, road, speed, start.preciseX, start.preciseY, js - 1, js - je, false);
+			int lx = je == js ? start.preciseX : road.getPoint31XTile(je);
+			int ly = je == js ? start.preciseY : road.getPoint31YTile(je);
+			return t < 0 ? -1 : t + distanceTime(speed, lx, ly, end.preciseX, end.preciseY);
+		}
+	}
+
+	// nearest nodes reachable from start point along its road
+	private List<Access> findStartAccess(VehicleRouter router, RouteSegmentPoint pnt) {
+		List<Access> res = new ArrayList<Access>(2);
+		RouteDataObject road = pnt.getRoad();
+		float speed = getRoadSpeed(router, road);
+		int oneway = router.isOneWay(road);
+		int j = pnt.getSegmentStart();
+		if (oneway >= 0) {
+			for (int i = j; i < road.getPointsLength(); i++) {
+				int node = getNode(road.getPoint31XTile(i), road.getPoint31YTile(i));
+				if (node != -1) {
+					float t = calculateTime(router, road, speed, pnt.preciseX, pnt.preciseY, j, i - j + 1, true);
+					if (t >= 0) {
+						res.add(new Access(node, i, true, t));
+					}
+					break;
+				}
+			}
+		}
+		if (oneway <= 0) {
+			for (int i = j - 1; i >= 0; i--) {
+				int node = getNode(road.getPoint31XTile(i), road.getPoint31YTile(i));
+				if (node != -1) {
+					float t = calculateTime(router, road, speed, pnt.preciseX, pnt.preciseY, j - 1, j - i, false);
+					if (t >= 0) {
+						res.add(new Access(node, i, false, t));
+					}
+					break;
+				}
+			}
+		}
+		return res;
+	}
+
+	// nearest nodes from which end point is reachable along its road
+	private List<Access> findEndAccess(VehicleRouter router, RouteSegmentPoint pnt) {
+		List<Access> res = new ArrayList<Access>(2);
+		RouteDataObject road = pnt.getRoad();
+		float speed = getRoadSpeed(router, road);
+		int oneway = router.isOneWay(road);
+		int j = pnt.getSegmentStart();
+		if (oneway >= 0) {
+			for (int i = j - 1; i >= 0; i--) {
+				int x = road.getPoint31XTile(i);
+				int y = road.getPoint31YTile(i);
+				int node = getNode(x, y);
+				if (node != -1) {
+					float t = calculateTime(router, road, speed, x, y, i + 1, j - 1 - i, true);
+					if (t >= 0) {
+						t += distanceTime(speed, road.getPoint31XTile(j - 1), road.getPoint31YTile(j - 1), pnt.preciseX,
+								pnt.preciseY);
+						res.add(new Access(node, i, true, t));
+					}
+					break;
+				}
+			}
+		}
+		if (oneway <= 0) {
+			for (int i = j; i < road.getPointsLength(); i++) {
+				int x = road.getPoint31XTile(i);
+				int y = road.getPoint31YTile(i);
+				int node = getNode(x, y);
+				if (node != -1) {
+					float t = calculateTime(router, road, speed, x, y, i - 1, i - j, false);
+					if (t >= 0) {
+						t += distanceTime(speed, road.getPoint31XTile(j), road.getPoint31YTile(j), pnt.preciseX, pnt.preciseY);
+						res.add(new Access(node, i, false, t));
+					}
+					break;
+				}
+			}
+		}
+		return res;
+	}
+
+	public void write(File file) throws IOException {
+		OutputStream fout = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			CodedOutputStream out = CodedOutputStream.newInstance(fout);
+			out.writeStringNoTag(HEADER);
+			out.writeRawVarint32(VERSION);
+			out.writeStringNoTag(routerName);
+			out.writeInt32NoTag(graphHash);
+			out.writeRawVarint32(nodeKeys.length);
+			long pkey = 0;
+			for (int i = 0; i < nodeKeys.length; i++) {
+				out.writeSInt64NoTag(nodeKeys[i] - pkey);
+				out.writeRawVarint32(nodeRanks[i]);
+				pkey = nodeKeys[i];
+			}
+			out.writeRawVarint32(roadIds.length);
+			long pid = 0;
+			for (int i = 0; i < roadIds.length; i++) {
+				out.writeSInt64NoTag(roadIds[i] - pid);
+				pid = roadIds[i];
+			}
+			out.writeRawVarint32(edgeFrom.length);
+			for (int e = 0; e < edgeFrom.length; e++) {
+				out.writeRawVarint32(edgeFrom[e]);
+				out.writeRawVarint32(edgeTo[e]);
+				out.writeFloatNoTag(edgeWeight[e]);
+				if (edgeA[e] >= 0) {
+					out.writeRawVarint32(edgeA[e] << 1);
+					out.writeRawVarint32(edgeB[e] >>> 16);
+					out.writeRawVarint32(edgeB[e] & 0xffff);
+				} else {
+					out.writeRawVarint32(((-edgeA[e] - 1) << 1) | 1);
+					out.writeRawVarint32(edgeB[e]);
+				}
+			}
+			out.flush();
+		} finally {
+			fout.close();
+		}
+	}
+
+	public static RouteContractionHierarchy read(File file) throws IOException {
+		InputStream fin = new BufferedInputStream(new FileInputStream(file));
+		try {
+			CodedInputStream in = CodedInputStream.newInstance(fin);
+			in.setSizeLimit(Integer.MAX_VALUE);
+			if (!HEADER.equals(in.readString())) {
+				throw new IOException("File is not a route contraction hierarchy " + file.getName());
+			}
+			int version = in.readRawVarint32();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version of route contraction hierarchy " + version + " " + file.getName());
+			}
+			String routerName = in.readString();
+			int graphHash = in.readInt32();
+			int nodes = in.readRawVarint32();
+			long[] nodeKeys = new long[nodes];
+			int[] nodeRanks = new int[nodes];
+			long pkey = 0;
+			for (int i = 0; i < nodes; i++) {
+				pkey += in.readSInt64();
+				nodeKeys[i] = pkey;
+				nodeRanks[i] = in.readRawVarint32();
+			}
+			long[] roadIds = new long[in.readRawVarint32()];
+			long pid = 0;
+			for (int i = 0; i < roadIds.length; i++) {
+				pid += in.readSInt64();
+				roadIds[i] = pid;
+			}
+			int edges = in.readRawVarint32();
+			int[] edgeFrom = new int[edges];
+			int[] edgeTo = new int[edges];
+			float[] edgeWeight = new float[edges];
+			int[] edgeA = new int[edges];
+			int[] edgeB = new int[edges];
+			for (int e = 0; e < edges; e++) {
+				edgeFrom[e] = in.readRawVarint32();
+				edgeTo[e] = in.readRawVarint32();
+				edgeWeight[e] = in.readFloat();
+				int h = in.readRawVarint32();
+				if ((h & 1) == 0) {
+					edgeA[e] = h >>> 1;
+					edgeB[e] = (in.readRawVarint32() << 16) | in.readRawVarint32();
+				} else {
+					edgeA[e] = -(h >>> 1) - 1;
+					edgeB[e] = in.readRawVarint32();
+				}
+			}
+			return new RouteContractionHierarchy(routerName, graphHash, nodeKeys, nodeRanks, roadIds, edgeFrom, edgeTo, edgeWeight,
+					edgeA, edgeB);
+		} finally {
+			fin.close();
+		}
+	}
+
+	private static class Access {
+		final int node;
+		final int point;
+		final boolean plus;
+		final float time;
+
+		public Access(int node, int point, boolean plus, float time) {
+			this.node = node;
+			this.point = point;
+			this.plus = plus;
+			this.time = time;
+		}
+	}
+
+	private static class RoadPart {
+		final RouteDataObject road;
+		final boolean endpoint;
+		int start;
+		int end;
+
+		public RoadPart(RouteDataObject road, int start, int end, boolean endpoint) {
+			this.road = road;
+			this.start = start;
+			this.end = end;
+			this.endpoint = endpoint;
+		}
+	}
+
+	/**
+	 * Distance and parent edge by node (open addressing hash table)
+	 */
+	static class NodeLabels {
+		private int[] keys = new int[256];
+		private float[] distances = new float[256];
+		private int[] parents = new int[256];
+		private int size = 0;
+
+		public NodeLabels() {
+			Arrays.fill(keys, -1);
+		}
+
+		private int slot(int node) {
+			int mask = keys.length - 1;
+			int s = (node * 0x9E3779B9) >>> 1 & mask;
+			while (keys[s] != -1 && keys[s] != node) {
+				s = (s + 1) & mask;
+			}
+			return s;
+		}
+
+		public float getDistance(int node) {
+			int s = slot(node);
+			return keys[s] == -1 ? INF : distances[s];
+		}
+
+		public int getParent(int node) {
+			int s = slot(node);
+			return keys[s] == -1 ? -1 : parents[s];
+		}
+
+		public void put(int node, float distance, int parent) {
+			int s = slot(node);
+			if (keys[s] == -1) {
+				if ((size + 1) * 2 > keys.length) {
+					rehash();
+					s = slot(node);
+				}
+				keys[s] = node;
+				size++;
+			}
+			distances[s] = distance;
+			parents[s] = parent;
+		}
+
+		private void rehash() {
+			int[] okeys = keys;
+			float[] odistances = distances;
+			int[] oparents = parents;
+			keys = new int[okeys.length * 2];
+			distances = new float[okeys.length * 2];
+			parents = new int[okeys.length * 2];
+			Arrays.fill(keys, -1);
+			for (int i = 0; i < okeys.length; i++) {
+				if (okeys[i] != -1) {
+					int s = slot(okeys[i]);
+					keys[s] = okeys[i];
+					distances[s] = odistances[i];
+					parents[s] = oparents[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binary min-heap of nodes by float key (node could be added several times)
+	 */
+	static class NodeQueue {
+		private float[] heapKeys = new float[64];
+		private int[] heapNodes = new int[64];
+		private int size = 0;
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public float peekKey() {
+			return heapKeys[0];
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		public void add(float key, int node) {
+			if (size == heapKeys.length) {
+				heapKeys = Arrays.copyOf(heapKeys, size * 2);
+				heapNodes = Arrays.copyOf(heapNodes, size * 2);
+			}
+			int pos = size++;
+			while (pos > 0) {
+				int parent = (pos - 1) >>> 1;
+				if (heapKeys[parent] <= key) {
+					break;
+				}
+				heapKeys[pos] = heapKeys[parent];
+				heapNodes[pos] = heapNodes[parent];
+				pos = parent;
+			}
+			heapKeys[pos] = key;
+			heapNodes[pos] = node;
+		}
+
+		public int poll() {
+			int result = heapNodes[0];
+			size--;
+			float key = heapKeys[size];
+			int node = heapNodes[size];
+			int pos = 0;
+			int half = size >>> 1;
+			while (pos < half) {
+				int child = 2 * pos + 1;
+				if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) {
+					child++;
+				}
+				if (key <= heapKeys[child]) {
+					break;
+				}
+				heapKeys[pos] = heapKeys[child];
+				heapNodes[pos] = heapNodes[child];
+				pos = child;
+			}
+			heapKeys[pos] = key;
+			heapNodes[pos] = node;
+			return result;
+		}
+	}
+}
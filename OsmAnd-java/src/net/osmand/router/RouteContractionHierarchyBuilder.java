@@ -0,0 +1,409 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.RouteContractionHierarchy.NodeQueue;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Offline preprocessing : builds {@link RouteContractionHierarchy} for routing profile from route sections of obf files.
+ * Nodes are contracted in order of edge difference (lazy updates), shortcut is not added if witness path
+ * is found by limited local search.
+ */
+public class RouteContractionHierarchyBuilder {
+
+	private static final Log log = PlatformUtil.getLog(RouteContractionHierarchyBuilder.class);
+	private static final int WITNESS_SETTLED_LIMIT = 64;
+	private static final float INF = Float.POSITIVE_INFINITY;
+
+	private final RoutingConfiguration config;
+	private final VehicleRouter router;
+	private final String routerName;
+	private final List<BinaryMapIndexReader> maps = new ArrayList<BinaryMapIndexReader>();
+
+	// roads : id, oneway, offset of first point
+	private final TLongHashSet loadedRoads = new TLongHashSet();
+	private final TLongArrayList roadIds = new TLongArrayList();
+	private final TByteArrayList roadOneway = new TByteArrayList();
+	private final TIntArrayList roadOffsets = new TIntArrayList();
+	// points : coordinates and time to come to the point from previous (forward) and from next (backward) point
+	private final TIntArrayList pointsX = new TIntArrayList();
+	private final TIntArrayList pointsY = new TIntArrayList();
+	private float[] forwardTimes = new float[1024];
+	private float[] backwardTimes = new float[1024];
+
+	// graph
+	private int nodes;
+	private int edges = 0;
+	private int[] edgeFrom = new int[1024];
+	private int[] edgeTo = new int[1024];
+	private float[] edgeWeight = new float[1024];
+	private int[] edgeA = new int[1024];
+	private int[] edgeB = new int[1024];
+	private int[][] outEdges;
+	private int[] outSize;
+	private int[][] inEdges;
+	private int[] inSize;
+	private boolean[] contracted;
+	private int[] deletedNeighbours;
+
+	// witness search
+	private float[] witnessDist;
+	private final TIntArrayList witnessTouched = new TIntArrayList();
+	private final NodeQueue witnessQueue = new NodeQueue();
+
+	public RouteContractionHierarchyBuilder(RoutingConfiguration config) {
+		this.config = config;
+		this.router = config.router;
+		this.routerName = config.routerName;
+	}
+
+	public void addRoads(BinaryMapIndexReader reader) throws IOException {
+		maps.add(reader);
+		for (RouteRegion reg : reader.getRoutingIndexes()) {
+			SearchRequest<RouteDataObject> req = BinaryMapIndexReader.buildSearchRouteRequest(0, Integer.MAX_VALUE, 0,
+					Integer.MAX_VALUE, null);
+			List<RouteSubregion> subregions = reader.searchRouteIndexTree(req, reg.getSubregions());
+			for (RouteSubregion sub : subregions) {
+				for (RouteDataObject road : reader.loadRouteIndexData(sub)) {
+					if (road != null) {
+						addRoad(road);
+					}
+				}
+			}
+		}
+	}
+
+	public void addRoad(RouteDataObject road) {
+		int len = road.getPointsLength();
+		if (len < 2 || len > 0xffff || !router.acceptLine(road) || !loadedRoads.add(road.getId())) {
+			return;
+		}
+		roadIds.add(road.getId());
+		roadOneway.add((byte) Integer.signum(router.isOneWay(road)));
+		roadOffsets.add(pointsX.size());
+		int p = pointsX.size();
+		ensurePointsCapacity(p + len);
+		float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+		for (int i = 0; i < len; i++) {
+			pointsX.add(road.getPoint31XTile(i));
+			pointsY.add(road.getPoint31YTile(i));
+			forwardTimes[p + i] = i == 0 ? 0 : passTime(road, speed, i - 1, i);
+			backwardTimes[p + i] = i == len - 1 ? 0 : passTime(road, speed, i + 1, i);
+		}
+	}
+
+	private float passTime(RouteDataObject road, float speed, int from, int to) {
+		float t = RouteContractionHierarchy.calculateTime(router, road, speed, road.getPoint31XTile(from),
+				road.getPoint31YTile(from), to, 1, to > from);
+		return t < 0 ? INF : t;
+	}
+
+	private void ensurePointsCapacity(int size) {
+		if (size > forwardTimes.length) {
+			int nsize = Math.max(size, forwardTimes.length * 2);
+			forwardTimes = Arrays.copyOf(forwardTimes, nsize);
+			backwardTimes = Arrays.copyOf(backwardTimes, nsize);
+		}
+	}
+
+	public RouteContractionHierarchy build() {
+		long time = System.currentTimeMillis();
+		long[] nodeKeys = buildNodes();
+		buildEdges(nodeKeys);
+		int originalEdges = edges;
+		log.info("Contraction hierarchy graph : " + roadIds.size() + " roads, " + nodes + " nodes, " + edges + " edges");
+		int[] ranks = contract();
+		log.info("Contraction hierarchy built : " + (edges - originalEdges) + " shortcuts, "
+				+ (System.currentTimeMillis() - time) + " ms");
+		return new RouteContractionHierarchy(routerName, config.calculateGraphHash(maps), nodeKeys, ranks, roadIds.toArray(), Arrays.copyOf(edgeFrom,
+				edges), Arrays.copyOf(edgeTo, edges), Arrays.copyOf(edgeWeight, edges), Arrays.copyOf(edgeA, edges),
+				Arrays.copyOf(edgeB, edges));
+	}
+
+	// nodes are points shared by several roads (or several times by one road) and road ends
+	private long[] buildNodes() {
+		int roads = roadIds.size();
+		int points = pointsX.size();
+		long[] keys = new long[points + 2 * roads];
+		for (int i = 0; i < points; i++) {
+			keys[i] = RouteContractionHierarchy.nodeKey(pointsX.get(i), pointsY.get(i));
+		}
+		for (int r = 0; r < roads; r++) {
+			keys[points + 2 * r] = keys[roadOffsets.get(r)];
+			keys[points + 2 * r + 1] = keys[roadEnd(r) - 1];
+		}
+		Arrays.sort(keys);
+		int cnt = 0;
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i] == keys[i - 1] && (cnt == 0 || keys[cnt - 1] != keys[i])) {
+				keys[cnt++] = keys[i];
+			}
+		}
+		nodes = cnt;
+		return Arrays.copyOf(keys, cnt);
+	}
+
+	private int roadEnd(int r) {
+		return r + 1 < roadOffsets.size() ? roadOffsets.get(r + 1) : pointsX.size();
+	}
+
+	private void buildEdges(long[] nodeKeys) {
+		outEdges = new int[nodes][];
+		outSize = new int[nodes];
+		inEdges = new int[nodes][];
+		inSize = new int[nodes];
+		for (int r = 0; r < roadIds.size(); r++) {
+			int start = roadOffsets.get(r);
+			int end = roadEnd(r);
+			int prevNode = -1;
+			int prevPoint = -1;
+			float forward = 0;
+			float backward = 0;
+			for (int p = start; p < end; p++) {
+				if (prevNode != -1) {
+					forward += forwardTimes[p];
+					backward += backwardTimes[p - 1];
+				}
+				int node = Arrays.binarySearch(nodeKeys, RouteContractionHierarchy.nodeKey(pointsX.get(p), pointsY.get(p)));
+				if (node < 0) {
+					continue;
+				}
+				if (prevNode != -1 && prevNode != node) {
+					int a = prevPoint - start;
+					int b = p - start;
+					if (roadOneway.get(r) >= 0 && forward < INF) {
+						addEdge(prevNode, node, forward, r, (a << 16) | b);
+					}
+					if (roadOneway.get(r) <= 0 && backward < INF) {
+						addEdge(node, prevNode, backward, r, (b << 16) | a);
+					}
+				}
+				prevNode = node;
+				prevPoint = p;
+				forward = 0;
+				backward = 0;
+			}
+		}
+	}
+
+	private int addEdge(int from, int to, float weight, int a, int b) {
+		if (edges == edgeFrom.length) {
+			int nsize = edges * 2;
+			edgeFrom = Arrays.copyOf(edgeFrom, nsize);
+			edgeTo = Arrays.copyOf(edgeTo, nsize);
+			edgeWeight = Arrays.copyOf(edgeWeight, nsize);
+			edgeA = Arrays.copyOf(edgeA, nsize);
+			edgeB = Arrays.copyOf(edgeB, nsize);
+		}
+		int e = edges++;
+		edgeFrom[e] = from;
+		edgeTo[e] = to;
+		edgeWeight[e] = weight;
+		edgeA[e] = a;
+		edgeB[e] = b;
+		outEdges[from] = addToList(outEdges[from], outSize[from]++, e);
+		inEdges[to] = addToList(inEdges[to], inSize[to]++, e);
+		return e;
+	}
+
+	private static int[] addToList(int[] list, int size, int value) {
+		if (list == null) {
+			list = new int[4];
+		} else if (size == list.length) {
+			list = Arrays.copyOf(list, size * 2);
+		}
+		list[size] = value;
+		return list;
+	}
+
+	private int[] contract() {
+		contracted = new boolean[nodes];
+		deletedNeighbours = new int[nodes];
+		witnessDist = new float[nodes];
+		Arrays.fill(witnessDist, INF);
+		int[] ranks = new int[nodes];
+		NodeQueue order = new NodeQueue();
+		for (int v = 0; v < nodes; v++) {
+			order.add(calculatePriority(v), v);
+		}
+		int rank = 0;
+		while (!order.isEmpty()) {
+			int v = order.poll();
+			// lazy update : contract node only if it is still the best one
+			float priority = calculatePriority(v);
+			if (!order.isEmpty() && priority > order.peekKey()) {
+				order.add(priority, v);
+				continue;
+			}
+			processShortcuts(v, true);
+			contracted[v] = true;
+			ranks[v] = rank++;
+			for (int i = 0; i < outSize[v]; i++) {
+				deletedNeighbours[edgeTo[outEdges[v][i]]]++;
+			}
+			for (int i = 0; i < inSize[v]; i++) {
+				deletedNeighbours[edgeFrom[inEdges[v][i]]]++;
+			}
+		}
+		return ranks;
+	}
+
+	private float calculatePriority(int v) {
+		int removed = 0;
+		for (int i = 0; i < outSize[v]; i++) {
+			if (!contracted[edgeTo[outEdges[v][i]]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < inSize[v]; i++) {
+			if (!contracted[edgeFrom[inEdges[v][i]]]) {
+				removed++;
+			}
+		}
+		int shortcuts = processShortcuts(v, false);
+		return shortcuts - removed + deletedNeighbours[v];
+	}
+
+	/**
+	 * Counts (and adds) shortcuts needed to contract node v
+	 */
+	private int processShortcuts(int v, boolean add) {
+		int count = 0;
+		for (int i = 0; i < inSize[v]; i++) {
+			int in = inEdges[v][i];
+			int u = edgeFrom[in];
+			if (contracted[u]) {
+				continue;
+			}
+			float maxOut = -1;
+			for (int j = 0; j < outSize[v]; j++) {
+				int out = outEdges[v][j];
+				int x = edgeTo[out];
+				if (!contracted[x] && x != u) {
+					maxOut = Math.max(maxOut, edgeWeight[out]);
+				}
+			}
+			if (maxOut < 0) {
+				continue;
+			}
+			witnessSearch(u, v, edgeWeight[in] + maxOut);
+			for (int j = 0; j < outSize[v]; j++) {
+				int out = outEdges[v][j];
+				int x = edgeTo[out];
+				if (contracted[x] || x == u) {
+					continue;
+				}
+				float via = edgeWeight[in] + edgeWeight[out];
+				if (witnessDist[x] > via && !hasEdge(u, x, via)) {
+					count++;
+					if (add) {
+						addEdge(u, x, via, -in - 1, out);
+					}
+				}
+			}
+			clearWitnessSearch();
+		}
+		return count;
+	}
+
+	private boolean hasEdge(int from, int to, float weight) {
+		for (int i = 0; i < outSize[from]; i++) {
+			int e = outEdges[from][i];
+			if (edgeTo[e] == to && edgeWeight[e] <= weight) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Dijkstra from source in not contracted graph without node 'ignore', limited by cost and number of settled nodes
+	private void witnessSearch(int source, int ignore, float maxCost) {
+		witnessQueue.clear();
+		witnessDist[source] = 0;
+		witnessTouched.add(source);
+		witnessQueue.add(0, source);
+		int settled = 0;
+		while (!witnessQueue.isEmpty() && settled < WITNESS_SETTLED_LIMIT) {
+			float d = witnessQueue.peekKey();
+			int u = witnessQueue.poll();
+			if (d > witnessDist[u]) {
+				continue;
+			}
+			if (d > maxCost) {
+				break;
+			}
+			settled++;
+			for (int i = 0; i < outSize[u]; i++) {
+				int e = outEdges[u][i];
+				int x = edgeTo[e];
+				if (contracted[x] || x == ignore) {
+					continue;
+				}
+				float nd = d + edgeWeight[e];
+				if (nd < witnessDist[x]) {
+					if (witnessDist[x] == INF) {
+						witnessTouched.add(x);
+					}
+					witnessDist[x] = nd;
+					witnessQueue.add(nd, x);
+				}
+			}
+		}
+	}
+
+	private void clearWitnessSearch() {
+		for (int i = 0; i < witnessTouched.size(); i++) {
+			witnessDist[witnessTouched.get(i)] = INF;
+		}
+		witnessTouched.clear();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage : <profile> <output file> <obf files...> [--routing=routing.xml]");
+			return;
+		}
+		RoutingConfiguration.Builder builder = null;
+		for (String a : args) {
+			if (a.startsWith("--routing=")) {
+				builder = RoutingConfiguration.parseFromInputStream(new FileInputStream(a.substring("--routing=".length())));
+			}
+		}
+		if (builder == null) {
+			builder = RoutingConfiguration.getDefault();
+		}
+		RoutingConfiguration config = builder.build(args[0], RoutingConfiguration.DEFAULT_MEMORY_LIMIT);
+		RouteContractionHierarchyBuilder chBuilder = new RouteContractionHierarchyBuilder(config);
+		for (int i = 2; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				RandomAccessFile raf = new RandomAccessFile(args[i], "r");
+				BinaryMapIndexReader reader = new BinaryMapIndexReader(raf);
+				chBuilder.addRoads(reader);
+				reader.close();
+			}
+		}
+		RouteContractionHierarchy ch = chBuilder.build();
+		ch.write(new File(args[1]));
+		System.out.println("Nodes " + ch.getNodesCount() + ", edges " + ch.getEdgesCount() + ", shortcuts "
+				+ ch.getShortcutsCount());
+	}
+}
@@ -0,0 +1,401 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Calculates matrix of travel times between all pairs of points (i.e. to optimize order of intermediate points).
+ * For every point one Dijkstra search is run to all other points (it stops as soon as all of them are reached),
+ * so matrix costs N searches instead of N * N routes. Searches of one thread share loaded tiles.
+ * Time is calculated as in {@link BinaryRoutePlanner} (speed, priority, obstacles, turn time and simple restrictions).
+ */
+public class RouteDistanceMatrix {
+
+	private static final Log log = PlatformUtil.getLog(RouteDistanceMatrix.class);
+	// the same as in BinaryRoutePlanner
+	private static final int ROUTE_POINTS = 11;
+	// search stops if not all points are reached and time exceeds time to pass
+	// (coefficient * max distance to points) with min default speed
+	private static final float TIME_LIMIT_COEFFICIENT = 3;
+
+	private final RoutePlannerFrontEnd frontEnd;
+
+	public RouteDistanceMatrix(RoutePlannerFrontEnd frontEnd) {
+		this.frontEnd = frontEnd;
+	}
+
+	/**
+	 * Returns matrix of times in seconds (result[i][j] from point i to point j),
+	 * -1 if point is not reachable or route segment is not found for it.
+	 * If threads > 1 sources are processed in parallel (each thread uses own copy of routing context).
+	 */
+	public double[][] calculateMatrix(final RoutingContext ctx, List<LatLon> points, int threads) throws IOException,
+			InterruptedException {
+		long nt = System.nanoTime();
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		final int n = points.size();
+		final double[][] result = new double[n][];
+		final RouteSegmentPoint[] segments = new RouteSegmentPoint[n];
+		for (int i = 0; i < n; i++) {
+			segments[i] = frontEnd.findRouteSegment(points.get(i).getLatitude(), points.get(i).getLongitude(), ctx);
+			if (segments[i] == null) {
+				log.warn("Route segment is not found for " + points.get(i));
+			}
+		}
+		threads = Math.min(threads, n);
+		if (threads <= 1) {
+			for (int i = 0; i < n; i++) {
+				result[i] = calculateTimes(ctx, segments, i);
+			}
+		} else {
+			final int step = threads;
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				RoutingWorkers.run(executor, ctx.calculationProgress, threads, new RoutingWorkers.Worker() {
+					@Override
+					public void run(int first, RouteCalculationProgress progress) throws IOException,
+							InterruptedException {
+						RoutingContext local = ctx.createThreadContext(progress, step);
+						for (int i = first; i < n; i += step) {
+							result[i] = calculateTimes(local, segments, i);
+						}
+					}
+				});
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		log.info("Distance matrix " + n + "x" + n + " is calculated in " + (System.nanoTime() - nt) / 1e6 + " ms");
+		return result;
+	}
+
+	private double[] calculateTimes(RoutingContext ctx, RouteSegmentPoint[] segments, int source) throws IOException,
+			InterruptedException {
+		double[] times = new double[segments.length];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = i == source ? 0 : -1;
+		}
+		if (segments[source] != null) {
+			new OneToManySearch(ctx, segments, source, times).search();
+		}
+		return times;
+	}
+
+	private static class SearchEntry implements Comparable<SearchEntry> {
+		// road entered at segment start point
+		private final RouteSegment segment;
+		private final boolean plus;
+		private final float time;
+		private final long key;
+
+		public SearchEntry(RouteSegment segment, boolean plus, float time, long key) {
+			this.segment = segment;
+			this.plus = plus;
+			this.time = time;
+			this.key = key;
+		}
+
+		@Override
+		public int compareTo(SearchEntry o) {
+			return Float.compare(time, o.time);
+		}
+	}
+
+	private static class OneToManySearch {
+		private final RoutingContext ctx;
+		private final VehicleRouter router;
+		private final RouteSegmentPoint[] targets;
+		private final int source;
+		private final double[] times;
+		private final TimeLabels labels = new TimeLabels();
+		private final PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+		private int targetsToReach;
+		private float timeLimit;
+
+		public OneToManySearch(RoutingContext ctx, RouteSegmentPoint[] targets, int source, double[] times) {
+			this.ctx = ctx;
+			this.router = ctx.getRouter();
+			this.targets = targets;
+			this.source = source;
+			this.times = times;
+			RouteSegmentPoint start = targets[source];
+			double maxDist = 0;
+			for (int i = 0; i < targets.length; i++) {
+				if (i != source && targets[i] != null) {
+					targetsToReach++;
+					maxDist = Math.max(maxDist, BinaryRoutePlanner.squareRootDist(start.preciseX, start.preciseY,
+							targets[i].preciseX, targets[i].preciseY));
+				}
+			}
+			timeLimit = (float) (TIME_LIMIT_COEFFICIENT * maxDist / router.getMinDefaultSpeed());
+		}
+
+		public void search() throws IOException, InterruptedException {
+			RouteSegmentPoint start = targets[source];
+			RouteDataObject road = start.getRoad();
+			int j = start.getSegmentStart();
+			int oneway = router.isOneWay(road);
+			float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+			if (oneway >= 0) {
+				checkTargetsOnStartSegment(start, speed, true);
+				float t = RouteContractionHierarchy.calculateTime(router, road, speed, start.preciseX, start.preciseY, j, 1, true);
+				if (t >= 0) {
+					visitRoad(new RouteSegment(road, j - 1), true, j, t);
+				}
+			}
+			if (oneway <= 0) {
+				checkTargetsOnStartSegment(start, speed, false);
+				float t = RouteContractionHierarchy.calculateTime(router, road, speed, start.preciseX, start.preciseY, j - 1, 1,
+						false);
+				if (t >= 0) {
+					visitRoad(new RouteSegment(road, j), false, j - 1, t);
+				}
+			}
+			int visited = 0;
+			while (!queue.isEmpty()) {
+				SearchEntry e = queue.poll();
+				if (targetsToReach == 0 && e.time >= maxTargetTime()) {
+					break;
+				}
+				if (e.time > timeLimit) {
+					log.warn("Not all points are reachable from " + start.getRoad().getId() + ", time limit " + timeLimit);
+					break;
+				}
+				if (e.time > labels.get(e.key)) {
+					continue;
+				}
+				if (++visited % 1000 == 0) {
+					if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+						throw new InterruptedException("Route calculation interrupted");
+					}
+					if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+						ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+					}
+				}
+				visitRoad(e.segment, e.plus, e.segment.getSegmentStart(), e.time);
+			}
+			ctx.visitedSegments += visited;
+		}
+
+		private double maxTargetTime() {
+			double max = 0;
+			for (int i = 0; i < times.length; i++) {
+				max = Math.max(max, times[i]);
+			}
+			return max;
+		}
+
+		// moves along road from point 'point' (entered with given time) and adds intersections to queue
+		private void visitRoad(RouteSegment segment, boolean plus, int point, float time) throws IOException {
+			RouteDataObject road = segment.getRoad();
+			float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+			boolean intersections = point != segment.getSegmentStart();
+			if (intersections) {
+				long key = calculateRoutePointId(road, point, plus);
+				if (labels.get(key) <= time) {
+					return;
+				}
+				labels.put(key, time);
+			}
+			while (true) {
+				if (intersections) {
+					processIntersections(segment, plus, point, time);
+				}
+				intersections = true;
+				int next = plus ? point + 1 : point - 1;
+				if (next < 0 || next >= road.getPointsLength()) {
+					break;
+				}
+				int x = road.getPoint31XTile(point);
+				int y = road.getPoint31YTile(point);
+				checkTargetsOnSegment(road, Math.max(point, next), x, y, time, speed);
+				float t = RouteContractionHierarchy.calculateTime(router, road, speed, x, y, next, 1, plus);
+				if (t < 0) {
+					break;
+				}
+				time += t;
+				point = next;
+				long key = calculateRoutePointId(road, point, plus);
+				if (labels.get(key) <= time) {
+					break;
+				}
+				labels.put(key, time);
+			}
+		}
+
+		private void processIntersections(RouteSegment segment, boolean plus, int point, float time) {
+			RouteDataObject road = segment.getRoad();
+			RouteSegment next = ctx.loadRouteSegment(road.getPoint31XTile(point), road.getPoint31YTile(point),
+					ctx.config.memoryLimitation - ctx.memoryOverhead);
+			RouteSegment first = next;
+			while (next != null) {
+				RouteDataObject nr = next.getRoad();
+				if ((nr.getId() != road.getId() || next.getSegmentStart() != point)
+						&& checkRestrictions(router, road, nr, first)) {
+					int oneway = router.isOneWay(nr);
+					if (oneway >= 0 && next.getSegmentStart() < nr.getPointsLength() - 1) {
+						addEntry(next, true, time + (float) router.calculateTurnTime(next, nr.getPointsLength() - 1,
+								segment, point));
+					}
+					if (oneway <= 0 && next.getSegmentStart() > 0) {
+						addEntry(next, false, time + (float) router.calculateTurnTime(next, 0, segment, point));
+					}
+				}
+				next = next.getNext();
+			}
+		}
+
+		private void addEntry(RouteSegment segment, boolean plus, float time) {
+			long key = calculateRoutePointId(segment.getRoad(), segment.getSegmentStart(), plus);
+			if (time < labels.get(key)) {
+				labels.put(key, time);
+				queue.add(new SearchEntry(segment, plus, time, key));
+			}
+		}
+
+		// targets located between points segStart - 1 and segStart of road passed from (x, y) with given time
+		private void checkTargetsOnSegment(RouteDataObject road, int segStart, int x, int y, float time, float speed) {
+			for (int i = 0; i < targets.length; i++) {
+				RouteSegmentPoint t = targets[i];
+				if (i != source && t != null && t.getSegmentStart() == segStart && t.getRoad().getId() == road.getId()) {
+					updateTime(i, time + (float) BinaryRoutePlanner.squareRootDist(x, y, t.preciseX, t.preciseY) / speed);
+				}
+			}
+		}
+
+		// targets located on the same segment as start in given direction
+		private void checkTargetsOnStartSegment(RouteSegmentPoint start, float speed, boolean plus) {
+			RouteDataObject road = start.getRoad();
+			int px = road.getPoint31XTile(start.getSegmentStart() - 1);
+			int py = road.getPoint31YTile(start.getSegmentStart() - 1);
+			double startDist = BinaryRoutePlanner.squareRootDist(px, py, start.preciseX, start.preciseY);
+			for (int i = 0; i < targets.length; i++) {
+				RouteSegmentPoint t = targets[i];
+				if (i != source && t != null && t.getSegmentStart() == start.getSegmentStart()
+						&& t.getRoad().getId() == road.getId()) {
+					double targetDist = BinaryRoutePlanner.squareRootDist(px, py, t.preciseX, t.preciseY);
+					if (plus ? targetDist >= startDist : targetDist <= startDist) {
+						updateTime(i, (float) Math.abs(targetDist - startDist) / speed);
+					}
+				}
+			}
+		}
+
+		private void updateTime(int target, float time) {
+			if (times[target] < 0) {
+				targetsToReach--;
+				times[target] = time;
+			} else if (time < times[target]) {
+				times[target] = time;
+			}
+		}
+	}
+
+	// turn from road to another road of intersection is not forbidden by restrictions
+	static boolean checkRestrictions(VehicleRouter router, RouteDataObject from, RouteDataObject to,
+			RouteSegment intersection) {
+		if (!router.restrictionsAware()) {
+			return true;
+		}
+		for (int i = 0; i < from.getRestrictionLength(); i++) {
+			int type = from.getRestrictionType(i);
+			long id = from.getRestrictionId(i);
+			if (id == to.getId()) {
+				return type != MapRenderingTypes.RESTRICTION_NO_LEFT_TURN
+						&& type != MapRenderingTypes.RESTRICTION_NO_RIGHT_TURN
+						&& type != MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON
+						&& type != MapRenderingTypes.RESTRICTION_NO_U_TURN;
+			}
+			if (type == MapRenderingTypes.RESTRICTION_ONLY_LEFT_TURN || type == MapRenderingTypes.RESTRICTION_ONLY_RIGHT_TURN
+					|| type == MapRenderingTypes.RESTRICTION_ONLY_STRAIGHT_ON) {
+				// only restriction to another road of this intersection
+				for (RouteSegment s = intersection; s != null; s = s.getNext()) {
+					if (s.getRoad().getId() == id) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	static long calculateRoutePointId(RouteDataObject road, int point, boolean plus) {
+		return (road.getId() << ROUTE_POINTS) + (point << 1) + (plus ? 1 : 0);
+	}
+
+	// best known times by route point id (open addressing, linear probing)
+	static class TimeLabels {
+		private static final long EMPTY = Long.MIN_VALUE;
+		private long[] keys;
+		private float[] values;
+		private int size = 0;
+		private int mask;
+
+		public TimeLabels() {
+			init(1024);
+		}
+
+		private void init(int capacity) {
+			keys = new long[capacity];
+			values = new float[capacity];
+			mask = capacity - 1;
+			for (int i = 0; i < capacity; i++) {
+				keys[i] = EMPTY;
+			}
+		}
+
+		private int slot(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			int slot = (int) (h ^ (h >>> 32)) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		public float get(long key) {
+			int slot = slot(key);
+			return keys[slot] == EMPTY ? Float.POSITIVE_INFINITY : values[slot];
+		}
+
+		public void put(long key, float value) {
+			int slot = slot(key);
+			if (keys[slot] == EMPTY) {
+				if ((size + 1) * 2 > keys.length) {
+					rehash();
+					slot = slot(key);
+				}
+				keys[slot] = key;
+				size++;
+			}
+			values[slot] = value;
+		}
+
+		private void rehash() {
+			long[] oldKeys = keys;
+			float[] oldValues = values;
+			init(oldKeys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					int slot = slot(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+	}
+}
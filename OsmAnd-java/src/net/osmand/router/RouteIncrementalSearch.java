@@ -0,0 +1,443 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Incremental route recalculation to the same target. Dijkstra tree of times to the target (reverse search)
+ * is kept between calls and only grows, every route is found by forward search from start which stops as soon
+ * as it is proved that no better route goes through not settled part of the tree (bidirectional Dijkstra criterion).
+ * After route is found the tree is extended a bit further than the start, so following recalculations (start moved
+ * or driver left the route) settle only few segments.
+ * Time is calculated as in {@link RouteDistanceMatrix} (speed, priority, obstacles, turn time and simple restrictions).
+ */
+public class RouteIncrementalSearch {
+
+	private static final Log log = PlatformUtil.getLog(RouteIncrementalSearch.class);
+	private static final float INF = Float.POSITIVE_INFINITY;
+	// after route is found tree is extended till route time + EXTRA_TREE_TIME seconds
+	public static final float EXTRA_TREE_TIME = 120;
+	// tree is cleared if it is bigger (or if tree with its roads takes more than half of routing memory limit)
+	public static final int MAX_TREE_NODES = 1000000;
+
+	private final RouteSegmentPoint target;
+	private final String routerName;
+	private final RouteCalculationMode calculationMode;
+	// router parameters, impassable roads and maps of tree
+	private final int graphHash;
+	private TLongObjectHashMap<SearchNode> tree = new TLongObjectHashMap<SearchNode>();
+	private PriorityQueue<QueueEntry> treeQueue = new PriorityQueue<QueueEntry>();
+	private boolean treeInitialized;
+	// roads referenced by tree are kept in memory after their tiles are unloaded
+	private TLongHashSet treeRoads = new TLongHashSet();
+	private int treeRoadsSize;
+
+	public RouteIncrementalSearch(RoutingContext ctx, RouteSegmentPoint target) {
+		this.target = target;
+		this.routerName = ctx.config.routerName;
+		this.calculationMode = ctx.calculationMode;
+		this.graphHash = ctx.config.calculateGraphHash(ctx.map.keySet());
+	}
+
+	/**
+	 * Tree could be used for route to that point calculated with router (and its parameters, impassable roads),
+	 * calculation mode and maps of context
+	 */
+	public boolean isTarget(RoutingContext ctx, RouteSegmentPoint point) {
+		return routerName.equals(ctx.config.routerName) && calculationMode == ctx.calculationMode
+				&& graphHash == ctx.config.calculateGraphHash(ctx.map.keySet())
+				&& point.getRoad().getId() == target.getRoad().getId()
+				&& point.getSegmentStart() == target.getSegmentStart() && point.preciseX == target.preciseX
+				&& point.preciseY == target.preciseY;
+	}
+
+	public int getTreeSize() {
+		return tree.size();
+	}
+
+	/**
+	 * Estimated memory of tree nodes and roads referenced by them
+	 */
+	public int getEstimatedSize() {
+		return tree.size() * BinaryRoutePlanner.STANDARD_ROAD_VISITED_OVERHEAD
+				+ treeQueue.size() * BinaryRoutePlanner.STANDARD_ROAD_IN_QUEUE_OVERHEAD + treeRoadsSize;
+	}
+
+	private boolean isTreeTooBig(RoutingContext ctx) {
+		return tree.size() > MAX_TREE_NODES || getEstimatedSize() > ctx.config.memoryLimitation / 2;
+	}
+
+	/**
+	 * Point of road (arrived by road or turned to road at the point) with direction of movement.
+	 * Time is time from start for forward search and time to target for tree, parent is the previous node of route
+	 * for forward search and the next one for tree.
+	 */
+	private static class SearchNode {
+		private final RouteDataObject road;
+		private final int point;
+		private final boolean plus;
+		private final boolean turned;
+		private float time = INF;
+		private SearchNode parent;
+		private boolean settled;
+
+		public SearchNode(RouteDataObject road, int point, boolean plus, boolean turned) {
+			this.road = road;
+			this.point = point;
+			this.plus = plus;
+			this.turned = turned;
+		}
+
+		public long getKey() {
+			return calculateKey(road, point, plus, turned);
+		}
+	}
+
+	private static long calculateKey(RouteDataObject road, int point, boolean plus, boolean turned) {
+		return (RouteDistanceMatrix.calculateRoutePointId(road, point, plus) << 1) + (turned ? 1 : 0);
+	}
+
+	private static class QueueEntry implements Comparable<QueueEntry> {
+		private final SearchNode node;
+		private final float time;
+
+		public QueueEntry(SearchNode node, float time) {
+			this.node = node;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo(QueueEntry o) {
+			return Float.compare(time, o.time);
+		}
+	}
+
+	/**
+	 * Searches route from start to target, returns not prepared results or null if route is not found
+	 */
+	public List<RouteSegmentResult> searchRoute(RoutingContext ctx, RouteSegmentPoint start) throws IOException,
+			InterruptedException {
+		long nt = System.nanoTime();
+		VehicleRouter router = ctx.getRouter();
+		if (isTreeTooBig(ctx)) {
+			log.info("Incremental search tree is too big " + tree.size() + ", it is cleared");
+			tree = new TLongObjectHashMap<SearchNode>();
+			treeQueue = new PriorityQueue<QueueEntry>();
+			treeRoads = new TLongHashSet();
+			treeRoadsSize = 0;
+			treeInitialized = false;
+		}
+		if (!treeInitialized) {
+			initTree(router);
+			treeInitialized = true;
+		}
+		ctx.memoryOverhead = getEstimatedSize();
+		int treeSize = tree.size();
+		TLongObjectHashMap<SearchNode> forward = new TLongObjectHashMap<SearchNode>();
+		PriorityQueue<QueueEntry> forwardQueue = new PriorityQueue<QueueEntry>();
+		// route on the start segment is the first candidate
+		float direct = calculateDirectTime(router, start);
+		float best = direct >= 0 ? direct : INF;
+		SearchNode meet = null;
+		RouteDataObject road = start.getRoad();
+		int j = start.getSegmentStart();
+		float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+		int oneway = router.isOneWay(road);
+		for (int k = 0; k < 2; k++) {
+			boolean plus = k == 0;
+			if (plus ? oneway < 0 : oneway > 0) {
+				continue;
+			}
+			int point = plus ? j : j - 1;
+			float t = RouteContractionHierarchy.calculateTime(router, road, speed, start.preciseX, start.preciseY,
+					point, 1, plus);
+			if (t >= 0) {
+				SearchNode n = relax(forward, forwardQueue, road, point, plus, false, t, null);
+				if (n != null && meetTime(n) < best) {
+					best = meetTime(n);
+					meet = n;
+				}
+			}
+		}
+		int settled = 0;
+		while (true) {
+			float fk = forwardQueue.isEmpty() ? INF : forwardQueue.peek().time;
+			float bk = treeQueue.isEmpty() ? INF : treeQueue.peek().time;
+			if ((best < INF && fk + bk >= best) || (fk == INF && bk == INF)) {
+				break;
+			}
+			if (fk == INF && isTreeTooBig(ctx)) {
+				log.warn("Incremental search tree is too big, route is not found");
+				break;
+			}
+			if (++settled % 1000 == 0) {
+				checkContext(ctx, forward.size() + forwardQueue.size());
+			}
+			if (fk <= bk) {
+				QueueEntry e = forwardQueue.poll();
+				if (e.node.settled || e.time > e.node.time) {
+					continue;
+				}
+				e.node.settled = true;
+				SearchNode n = expandForward(ctx, router, forward, forwardQueue, e.node, best);
+				if (n != null) {
+					best = meetTime(n);
+					meet = n;
+				}
+			} else {
+				SearchNode n = settleTreeNode(ctx, router);
+				if (n != null) {
+					SearchNode f = forward.get(n.getKey());
+					if (f != null && f.time + n.time < best) {
+						best = f.time + n.time;
+						meet = f;
+					}
+				}
+			}
+		}
+		List<RouteSegmentResult> result = null;
+		if (meet != null) {
+			result = convertToResult(start, meet);
+		} else if (direct >= 0) {
+			boolean plus = isBefore(start, target);
+			result = new ArrayList<RouteSegmentResult>();
+			result.add(new RouteSegmentResult(road, plus ? j - 1 : j, plus ? target.getSegmentStart()
+					: target.getSegmentStart() - 1));
+		}
+		if (result != null) {
+			ctx.routingTime = best;
+			// extend tree behind start for next recalculations
+			while (!treeQueue.isEmpty() && treeQueue.peek().time < best + EXTRA_TREE_TIME && !isTreeTooBig(ctx)) {
+				if (++settled % 1000 == 0) {
+					checkContext(ctx, 0);
+				}
+				settleTreeNode(ctx, router);
+			}
+		}
+		ctx.visitedSegments += settled;
+		log.info("Incremental route : " + best + " s, forward nodes " + forward.size() + ", new tree nodes "
+				+ (tree.size() - treeSize) + ", time " + (System.nanoTime() - nt) / 1e6 + " ms");
+		return result;
+	}
+
+	private void checkContext(RoutingContext ctx, int forwardNodes) throws InterruptedException {
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			throw new InterruptedException("Route calculation interrupted");
+		}
+		// tree is kept in memory together with tiles
+		ctx.memoryOverhead = getEstimatedSize() + forwardNodes * BinaryRoutePlanner.STANDARD_ROAD_VISITED_OVERHEAD;
+		if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+			ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+		}
+	}
+
+	// time of route through forward node if it is settled in tree
+	private float meetTime(SearchNode forwardNode) {
+		SearchNode n = tree.get(forwardNode.getKey());
+		return n != null && n.settled ? forwardNode.time + n.time : INF;
+	}
+
+	// target is reached by moving from the last point before it (arrived or turned there)
+	private void initTree(VehicleRouter router) {
+		RouteDataObject road = target.getRoad();
+		int k = target.getSegmentStart();
+		float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+		int oneway = router.isOneWay(road);
+		for (int i = 0; i < 2; i++) {
+			boolean plus = i == 0;
+			if (plus ? oneway < 0 : oneway > 0) {
+				continue;
+			}
+			int point = plus ? k - 1 : k;
+			float t = (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(point), road.getPoint31YTile(point),
+					target.preciseX, target.preciseY) / speed;
+			relax(tree, treeQueue, road, point, plus, false, t, null);
+			relax(tree, treeQueue, road, point, plus, true, t, null);
+		}
+	}
+
+	private SearchNode relax(TLongObjectHashMap<SearchNode> nodes, PriorityQueue<QueueEntry> queue,
+			RouteDataObject road, int point, boolean plus, boolean turned, float time, SearchNode parent) {
+		long key = calculateKey(road, point, plus, turned);
+		SearchNode n = nodes.get(key);
+		if (n == null) {
+			n = new SearchNode(road, point, plus, turned);
+			nodes.put(key, n);
+			if (nodes == tree && treeRoads.add(road.getId())) {
+				treeRoadsSize += RoutingContext.getEstimatedSize(road);
+			}
+		} else if (n.settled || n.time <= time) {
+			return null;
+		}
+		n.time = time;
+		n.parent = parent;
+		queue.add(new QueueEntry(n, time));
+		return n;
+	}
+
+	// relaxes successors of forward node, returns node of better route if it is found
+	private SearchNode expandForward(RoutingContext ctx, VehicleRouter router, TLongObjectHashMap<SearchNode> forward,
+			PriorityQueue<QueueEntry> queue, SearchNode node, float best) {
+		SearchNode meet = null;
+		RouteDataObject road = node.road;
+		int next = node.plus ? node.point + 1 : node.point - 1;
+		if (next >= 0 && next < road.getPointsLength()) {
+			float t = RouteContractionHierarchy.calculateTime(router, road,
+					RouteContractionHierarchy.getRoadSpeed(router, road), road.getPoint31XTile(node.point),
+					road.getPoint31YTile(node.point), next, 1, node.plus);
+			if (t >= 0) {
+				SearchNode n = relax(forward, queue, road, next, node.plus, false, node.time + t, node);
+				if (n != null && meetTime(n) < best) {
+					best = meetTime(n);
+					meet = n;
+				}
+			}
+		}
+		if (node.turned) {
+			return meet;
+		}
+		RouteSegment first = ctx.loadRouteSegment(road.getPoint31XTile(node.point), road.getPoint31YTile(node.point),
+				ctx.config.memoryLimitation - ctx.memoryOverhead);
+		RouteSegment segment = new RouteSegment(road, node.point);
+		for (RouteSegment s = first; s != null; s = s.getNext()) {
+			RouteDataObject nr = s.getRoad();
+			if ((nr.getId() == road.getId() && s.getSegmentStart() == node.point)
+					|| !RouteDistanceMatrix.checkRestrictions(router, road, nr, first)) {
+				continue;
+			}
+			int oneway = router.isOneWay(nr);
+			for (int k = 0; k < 2; k++) {
+				boolean plus = k == 0;
+				int p = s.getSegmentStart();
+				if ((plus ? oneway < 0 || p >= nr.getPointsLength() - 1 : oneway > 0 || p <= 0)) {
+					continue;
+				}
+				float t = (float) router.calculateTurnTime(s, plus ? nr.getPointsLength() - 1 : 0, segment, node.point);
+				SearchNode n = relax(forward, queue, nr, p, plus, true, node.time + t, node);
+				if (n != null && meetTime(n) < best) {
+					best = meetTime(n);
+					meet = n;
+				}
+			}
+		}
+		return meet;
+	}
+
+	// settles the next node of tree and relaxes its predecessors, returns settled node
+	private SearchNode settleTreeNode(RoutingContext ctx, VehicleRouter router) {
+		QueueEntry e = treeQueue.poll();
+		SearchNode node = e.node;
+		if (node.settled || e.time > node.time) {
+			return null;
+		}
+		node.settled = true;
+		RouteDataObject road = node.road;
+		int prev = node.plus ? node.point - 1 : node.point + 1;
+		if (prev >= 0 && prev < road.getPointsLength()) {
+			float t = RouteContractionHierarchy.calculateTime(router, road,
+					RouteContractionHierarchy.getRoadSpeed(router, road), road.getPoint31XTile(prev),
+					road.getPoint31YTile(prev), node.point, 1, node.plus);
+			if (t >= 0) {
+				relax(tree, treeQueue, road, prev, node.plus, false, node.time + t, node);
+				relax(tree, treeQueue, road, prev, node.plus, true, node.time + t, node);
+			}
+		}
+		if (!node.turned) {
+			return node;
+		}
+		RouteSegment first = ctx.loadRouteSegment(road.getPoint31XTile(node.point), road.getPoint31YTile(node.point),
+				ctx.config.memoryLimitation - ctx.memoryOverhead);
+		RouteSegment segment = new RouteSegment(road, node.point);
+		int end = node.plus ? road.getPointsLength() - 1 : 0;
+		for (RouteSegment s = first; s != null; s = s.getNext()) {
+			RouteDataObject nr = s.getRoad();
+			if ((nr.getId() == road.getId() && s.getSegmentStart() == node.point)
+					|| !RouteDistanceMatrix.checkRestrictions(router, nr, road, first)) {
+				continue;
+			}
+			int oneway = router.isOneWay(nr);
+			for (int k = 0; k < 2; k++) {
+				boolean plus = k == 0;
+				int p = s.getSegmentStart();
+				// arrived to p moving in direction plus
+				if ((plus ? oneway < 0 || p <= 0 : oneway > 0 || p >= nr.getPointsLength() - 1)) {
+					continue;
+				}
+				float t = (float) router.calculateTurnTime(segment, end, s, p);
+				relax(tree, treeQueue, nr, p, plus, false, node.time + t, node);
+			}
+		}
+		return node;
+	}
+
+	private List<RouteSegmentResult> convertToResult(RouteSegmentPoint start, SearchNode meet) {
+		List<SearchNode> nodes = new ArrayList<SearchNode>();
+		for (SearchNode n = meet; n != null; n = n.parent) {
+			nodes.add(n);
+		}
+		Collections.reverse(nodes);
+		for (SearchNode n = tree.get(meet.getKey()).parent; n != null; n = n.parent) {
+			nodes.add(n);
+		}
+		List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+		SearchNode f = nodes.get(0);
+		RouteSegmentResult last = new RouteSegmentResult(start.getRoad(), f.plus ? start.getSegmentStart() - 1
+				: start.getSegmentStart(), f.point);
+		for (int i = 1; i < nodes.size(); i++) {
+			SearchNode n = nodes.get(i);
+			if (n.turned) {
+				if (last.getStartPointIndex() != last.getEndPointIndex()) {
+					result.add(last);
+				}
+				last = new RouteSegmentResult(n.road, n.point, n.point);
+			} else {
+				last.setEndPointIndex(n.point);
+			}
+		}
+		SearchNode l = nodes.get(nodes.size() - 1);
+		int end = l.plus ? target.getSegmentStart() : target.getSegmentStart() - 1;
+		if (last.getObject().getId() == target.getRoad().getId()) {
+			last = new RouteSegmentResult(target.getRoad(), last.getStartPointIndex(), end);
+		} else {
+			last.setEndPointIndex(end);
+		}
+		result.add(last);
+		return result;
+	}
+
+	// time to target on the same segment, -1 if it is not possible
+	private float calculateDirectTime(VehicleRouter router, RouteSegmentPoint start) {
+		if (start.getRoad().getId() != target.getRoad().getId() || start.getSegmentStart() != target.getSegmentStart()) {
+			return -1;
+		}
+		boolean plus = isBefore(start, target);
+		int oneway = router.isOneWay(start.getRoad());
+		if (plus ? oneway < 0 : oneway > 0) {
+			return -1;
+		}
+		return (float) BinaryRoutePlanner.squareRootDist(start.preciseX, start.preciseY, target.preciseX,
+				target.preciseY) / RouteContractionHierarchy.getRoadSpeed(router, start.getRoad());
+	}
+
+	private static boolean isBefore(RouteSegmentPoint start, RouteSegmentPoint end) {
+		RouteDataObject road = start.getRoad();
+		int px = road.getPoint31XTile(start.getSegmentStart() - 1);
+		int py = road.getPoint31YTile(start.getSegmentStart() - 1);
+		return BinaryRoutePlanner.squareRootDist(px, py, start.preciseX, start.preciseY) <= BinaryRoutePlanner
+				.squareRootDist(px, py, end.preciseX, end.preciseY);
+	}
+}
@@ -0,0 +1,332 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RouteDistanceMatrix.TimeLabels;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Reachability (isochrone) query : Dijkstra search from one point to all roads which could be reached
+ * within time and road distance limits. Reached road intervals are reported to listener when their end point
+ * is settled (in order of arrival time), tiles are loaded and unloaded by routing context as in usual route search.
+ * Time is calculated as in {@link BinaryRoutePlanner} (speed, priority, obstacles, turn time and simple restrictions).
+ */
+public class RouteIsochrone {
+
+	private static final Log log = PlatformUtil.getLog(RouteIsochrone.class);
+	public static final int DEFAULT_POLYGON_SECTORS = 72;
+
+	private final RoutePlannerFrontEnd frontEnd;
+
+	public RouteIsochrone(RoutePlannerFrontEnd frontEnd) {
+		this.frontEnd = frontEnd;
+	}
+
+	public interface ReachableSegmentListener {
+
+		/**
+		 * Returns false to stop search
+		 */
+		public boolean segmentReached(ReachableSegment segment);
+	}
+
+	/**
+	 * Interval of road between segment start and segment end points passed in one direction.
+	 * Distance from start is arrival time to the segment start, interval could be reached partially
+	 * (then end coordinates are inside interval).
+	 */
+	public static class ReachableSegment extends RouteSegment {
+		private final int segmentEnd;
+		private final int startX;
+		private final int startY;
+		private final int endX;
+		private final int endY;
+		private final float endTime;
+		private final float endDistance;
+
+		public ReachableSegment(RouteDataObject road, int segmentStart, int segmentEnd, int startX, int startY,
+				int endX, int endY, float startTime, float endTime, float endDistance) {
+			super(road, segmentStart);
+			this.segmentEnd = segmentEnd;
+			this.startX = startX;
+			this.startY = startY;
+			this.endX = endX;
+			this.endY = endY;
+			this.distanceFromStart = startTime;
+			this.endTime = endTime;
+			this.endDistance = endDistance;
+		}
+
+		public int getSegmentEnd() {
+			return segmentEnd;
+		}
+
+		public boolean isPartial() {
+			return endX != getRoad().getPoint31XTile(segmentEnd) || endY != getRoad().getPoint31YTile(segmentEnd);
+		}
+
+		public int getStartX() {
+			return startX;
+		}
+
+		public int getStartY() {
+			return startY;
+		}
+
+		public int getEndX() {
+			return endX;
+		}
+
+		public int getEndY() {
+			return endY;
+		}
+
+		public float getEndTime() {
+			return endTime;
+		}
+
+		/**
+		 * Distance of road in meters passed from start to the end of interval
+		 */
+		public float getEndDistance() {
+			return endDistance;
+		}
+	}
+
+	/**
+	 * Returns road intervals reachable from start within maxTime seconds and maxDistance meters of road
+	 * (limit is not used if it is not positive). Listener (could be null) is notified about every interval
+	 * as soon as it is reached.
+	 */
+	public List<ReachableSegment> searchReachableSegments(RoutingContext ctx, LatLon start, float maxTime,
+			float maxDistance, ReachableSegmentListener listener) throws IOException, InterruptedException {
+		long nt = System.nanoTime();
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		List<ReachableSegment> result = new ArrayList<ReachableSegment>();
+		RouteSegmentPoint segment = frontEnd.findRouteSegment(start.getLatitude(), start.getLongitude(), ctx);
+		if (segment == null) {
+			log.warn("Route segment is not found for " + start);
+			return result;
+		}
+		ReachabilitySearch search = new ReachabilitySearch(ctx, maxTime > 0 ? maxTime : Float.POSITIVE_INFINITY,
+				maxDistance > 0 ? maxDistance : Float.POSITIVE_INFINITY, result, listener);
+		search.search(segment);
+		log.info("Reachable segments " + result.size() + " from " + start + " are found in "
+				+ (System.nanoTime() - nt) / 1e6 + " ms");
+		return result;
+	}
+
+	/**
+	 * Polygon of reachable area : for every angular sector around start the farthest reached point is taken.
+	 */
+	public static List<LatLon> buildPolygon(LatLon start, List<ReachableSegment> segments, int sectors) {
+		int sx = MapUtils.get31TileNumberX(start.getLongitude());
+		int sy = MapUtils.get31TileNumberY(start.getLatitude());
+		double[] dist = new double[sectors];
+		int[] xs = new int[sectors];
+		int[] ys = new int[sectors];
+		for (ReachableSegment s : segments) {
+			for (int k = 0; k < 2; k++) {
+				int x = k == 0 ? s.getStartX() : s.getEndX();
+				int y = k == 0 ? s.getStartY() : s.getEndY();
+				double d = BinaryRoutePlanner.squareRootDist(sx, sy, x, y);
+				double angle = Math.atan2(y - sy, x - sx) + Math.PI;
+				int sector = Math.min(sectors - 1, (int) (angle / (2 * Math.PI) * sectors));
+				if (d > dist[sector]) {
+					dist[sector] = d;
+					xs[sector] = x;
+					ys[sector] = y;
+				}
+			}
+		}
+		List<LatLon> polygon = new ArrayList<LatLon>(sectors + 1);
+		for (int i = 0; i < sectors; i++) {
+			if (dist[i] > 0) {
+				polygon.add(new LatLon(MapUtils.get31LatitudeY(ys[i]), MapUtils.get31LongitudeX(xs[i])));
+			}
+		}
+		if (!polygon.isEmpty()) {
+			polygon.add(polygon.get(0));
+		}
+		return polygon;
+	}
+
+	private static class SearchEntry implements Comparable<SearchEntry> {
+		// road entered at segment start point
+		private final RouteSegment segment;
+		private final boolean plus;
+		private final float time;
+		private final float distance;
+		private final long key;
+		// interval of road which leads to the point (null for point entered from intersection)
+		private final ReachableSegment interval;
+		// partially reached interval (search is not continued)
+		private final boolean last;
+
+		public SearchEntry(RouteSegment segment, boolean plus, float time, float distance, long key,
+				ReachableSegment interval, boolean last) {
+			this.segment = segment;
+			this.plus = plus;
+			this.time = time;
+			this.distance = distance;
+			this.key = key;
+			this.interval = interval;
+			this.last = last;
+		}
+
+		@Override
+		public int compareTo(SearchEntry o) {
+			return Float.compare(time, o.time);
+		}
+	}
+
+	private static class ReachabilitySearch {
+		private final RoutingContext ctx;
+		private final VehicleRouter router;
+		private final float maxTime;
+		private final float maxDistance;
+		private final List<ReachableSegment> result;
+		private final ReachableSegmentListener listener;
+		private final TimeLabels labels = new TimeLabels();
+		private final PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+		private boolean stopped;
+
+		public ReachabilitySearch(RoutingContext ctx, float maxTime, float maxDistance, List<ReachableSegment> result,
+				ReachableSegmentListener listener) {
+			this.ctx = ctx;
+			this.router = ctx.getRouter();
+			this.maxTime = maxTime;
+			this.maxDistance = maxDistance;
+			this.result = result;
+			this.listener = listener;
+		}
+
+		public void search(RouteSegmentPoint start) throws IOException, InterruptedException {
+			RouteDataObject road = start.getRoad();
+			int j = start.getSegmentStart();
+			int oneway = router.isOneWay(road);
+			if (oneway >= 0) {
+				moveToNextPoint(road, true, j - 1, start.preciseX, start.preciseY, 0, 0);
+			}
+			if (oneway <= 0) {
+				moveToNextPoint(road, false, j, start.preciseX, start.preciseY, 0, 0);
+			}
+			int visited = 0;
+			while (!queue.isEmpty() && !stopped) {
+				SearchEntry e = queue.poll();
+				if (!e.last && e.time > labels.get(e.key)) {
+					continue;
+				}
+				if (++visited % 1000 == 0) {
+					if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+						throw new InterruptedException("Route calculation interrupted");
+					}
+					if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+						ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+					}
+				}
+				// interval is reported when its end is settled
+				if (e.interval != null) {
+					reached(e.interval);
+				}
+				if (e.last || stopped) {
+					continue;
+				}
+				RouteDataObject r = e.segment.getRoad();
+				int point = e.segment.getSegmentStart();
+				if (e.interval != null) {
+					// entries of intersections are added by road which came to the point (interval gives turn direction)
+					processIntersections(e.interval, e.plus, point, e.time, e.distance);
+				}
+				moveToNextPoint(r, e.plus, point, r.getPoint31XTile(point), r.getPoint31YTile(point), e.time, e.distance);
+			}
+			ctx.visitedSegments += visited;
+		}
+
+		// adds entry of interval from (x, y) located before point 'point' + direction to the next point of road
+		private void moveToNextPoint(RouteDataObject road, boolean plus, int point, int x, int y, float time,
+				float distance) {
+			int next = plus ? point + 1 : point - 1;
+			if (next < 0 || next >= road.getPointsLength()) {
+				return;
+			}
+			int nx = road.getPoint31XTile(next);
+			int ny = road.getPoint31YTile(next);
+			float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+			float dist = (float) BinaryRoutePlanner.squareRootDist(x, y, nx, ny);
+			float t = RouteContractionHierarchy.calculateTime(router, road, speed, x, y, next, 1, plus);
+			if (t < 0) {
+				return;
+			}
+			if (time + t > maxTime || distance + dist > maxDistance) {
+				// partially reached interval
+				float part = Math.min(t > 0 ? (maxTime - time) / t : 1, dist > 0 ? (maxDistance - distance) / dist : 1);
+				int ex = x + (int) ((nx - x) * part);
+				int ey = y + (int) ((ny - y) * part);
+				ReachableSegment s = new ReachableSegment(road, point, next, x, y, ex, ey, time, time + t * part,
+						distance + dist * part);
+				queue.add(new SearchEntry(null, plus, s.getEndTime(), s.getEndDistance(), 0, s, true));
+				return;
+			}
+			long key = RouteDistanceMatrix.calculateRoutePointId(road, next, plus);
+			if (time + t < labels.get(key)) {
+				labels.put(key, time + t);
+				ReachableSegment s = new ReachableSegment(road, point, next, x, y, nx, ny, time, time + t, distance
+						+ dist);
+				queue.add(new SearchEntry(new RouteSegment(road, next), plus, time + t, distance + dist, key, s, false));
+			}
+		}
+
+		private void reached(ReachableSegment s) {
+			result.add(s);
+			if (listener != null && !listener.segmentReached(s)) {
+				stopped = true;
+			}
+		}
+
+		private void processIntersections(RouteSegment segment, boolean plus, int point, float time, float distance) {
+			RouteDataObject road = segment.getRoad();
+			RouteSegment next = ctx.loadRouteSegment(road.getPoint31XTile(point), road.getPoint31YTile(point),
+					ctx.config.memoryLimitation - ctx.memoryOverhead);
+			RouteSegment first = next;
+			while (next != null) {
+				RouteDataObject nr = next.getRoad();
+				if ((nr.getId() != road.getId() || next.getSegmentStart() != point)
+						&& RouteDistanceMatrix.checkRestrictions(router, road, nr, first)) {
+					int oneway = router.isOneWay(nr);
+					if (oneway >= 0 && next.getSegmentStart() < nr.getPointsLength() - 1) {
+						addEntry(next, true, time + (float) router.calculateTurnTime(next, nr.getPointsLength() - 1,
+								segment, point), distance);
+					}
+					if (oneway <= 0 && next.getSegmentStart() > 0) {
+						addEntry(next, false, time + (float) router.calculateTurnTime(next, 0, segment, point), distance);
+					}
+				}
+				next = next.getNext();
+			}
+		}
+
+		private void addEntry(RouteSegment segment, boolean plus, float time, float distance) {
+			if (time > maxTime) {
+				return;
+			}
+			long key = RouteDistanceMatrix.calculateRoutePointId(segment.getRoad(), segment.getSegmentStart(), plus);
+			if (time < labels.get(key)) {
+				labels.put(key, time);
+				queue.add(new SearchEntry(segment, plus, time, distance, key, null, false));
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package net.osmand.router;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Landmark distances of road points for one routing profile (built by {@link RouteLandmarksBuilder}).
+ * For every road point time from each landmark and time to each landmark is stored, so lower bound of time
+ * between 2 points follows from triangle inequality (A*, landmarks and triangle inequality heuristic).
+ * Times are the same as used by {@link BinaryRoutePlanner} without turn costs and turn restrictions,
+ * so estimate never exceeds real route time.
+ */
+public class RouteLandmarks {
+
+	private static final String HEADER = "OsmAnd route landmarks";
+	public static final int VERSION = 2;
+
+	private final String routerName;
+	// hash of router parameters, impassable roads and maps used to build landmarks
+	private final int graphHash;
+	// sorted keys of points ((x31 << 31) + y31)
+	private final long[] pointKeys;
+	private final int[] landmarks;
+	// times by point * landmarks + landmark (infinity if not reachable)
+	private final float[] fromLandmark;
+	private final float[] toLandmark;
+
+	RouteLandmarks(String routerName, int graphHash, long[] pointKeys, int[] landmarks, float[] fromLandmark, float[] toLandmark) {
+		this.routerName = routerName;
+		this.graphHash = graphHash;
+		this.pointKeys = pointKeys;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	public String getRouterName() {
+		return routerName;
+	}
+
+	/**
+	 * @see RoutingConfiguration#calculateGraphHash
+	 */
+	public int getGraphHash() {
+		return graphHash;
+	}
+
+	public int getPointsCount() {
+		return pointKeys.length;
+	}
+
+	public int getLandmarksCount() {
+		return landmarks.length;
+	}
+
+	public int getPoint(int x31, int y31) {
+		int ind = Arrays.binarySearch(pointKeys, RouteContractionHierarchy.nodeKey(x31, y31));
+		return ind < 0 ? -1 : ind;
+	}
+
+	/**
+	 * Lower bound of time to go from first point to second point (-1 if one of points is unknown)
+	 */
+	public float estimate(int fromX31, int fromY31, int toX31, int toY31) {
+		int from = getPoint(fromX31, fromY31);
+		int to = getPoint(toX31, toY31);
+		if (from == -1 || to == -1) {
+			return -1;
+		}
+		return estimate(from, to);
+	}
+
+	public float estimate(int from, int to) {
+		int cnt = landmarks.length;
+		float result = 0;
+		for (int l = 0; l < cnt; l++) {
+			// d(L, to) - d(L, from) <= d(from, to)
+			float lf = fromLandmark[from * cnt + l];
+			float lt = fromLandmark[to * cnt + l];
+			if (lf != Float.POSITIVE_INFINITY && lt != Float.POSITIVE_INFINITY && lt - lf > result) {
+				result = lt - lf;
+			}
+			// d(from, L) - d(to, L) <= d(from, to)
+			float fl = toLandmark[from * cnt + l];
+			float tl = toLandmark[to * cnt + l];
+			if (fl != Float.POSITIVE_INFINITY && tl != Float.POSITIVE_INFINITY && fl - tl > result) {
+				result = fl - tl;
+			}
+		}
+		return result;
+	}
+
+	public void write(File file) throws IOException {
+		OutputStream fout = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			CodedOutputStream out = CodedOutputStream.newInstance(fout);
+			out.writeStringNoTag(HEADER);
+			out.writeRawVarint32(VERSION);
+			out.writeStringNoTag(routerName);
+			out.writeInt32NoTag(graphHash);
+			out.writeRawVarint32(pointKeys.length);
+			long pkey = 0;
+			for (int i = 0; i < pointKeys.length; i++) {
+				out.writeSInt64NoTag(pointKeys[i] - pkey);
+				pkey = pointKeys[i];
+			}
+			out.writeRawVarint32(landmarks.length);
+			for (int l = 0; l < landmarks.length; l++) {
+				out.writeRawVarint32(landmarks[l]);
+			}
+			for (int i = 0; i < fromLandmark.length; i++) {
+				out.writeFloatNoTag(fromLandmark[i]);
+				out.writeFloatNoTag(toLandmark[i]);
+			}
+			out.flush();
+		} finally {
+			fout.close();
+		}
+	}
+
+	public static RouteLandmarks read(File file) throws IOException {
+		InputStream fin = new BufferedInputStream(new FileInputStream(file));
+		try {
+			CodedInputStream in = CodedInputStream.newInstance(fin);
+			in.setSizeLimit(Integer.MAX_VALUE);
+			if (!HEADER.equals(in.readString())) {
+				throw new IOException("File is not a route landmarks file " + file.getName());
+			}
+			int version = in.readRawVarint32();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version of route landmarks " + version + " " + file.getName());
+			}
+			String routerName = in.readString();
+			int graphHash = in.readInt32();
+			long[] pointKeys = new long[in.readRawVarint32()];
+			long pkey = 0;
+			for (int i = 0; i < pointKeys.length; i++) {
+				pkey += in.readSInt64();
+				pointKeys[i] = pkey;
+			}
+			int[] landmarks = new int[in.readRawVarint32()];
+			for (int l = 0; l < landmarks.length; l++) {
+				landmarks[l] = in.readRawVarint32();
+			}
+			float[] fromLandmark = new float[pointKeys.length * landmarks.length];
+			float[] toLandmark = new float[fromLandmark.length];
+			for (int i = 0; i < fromLandmark.length; i++) {
+				fromLandmark[i] = in.readFloat();
+				toLandmark[i] = in.readFloat();
+			}
+			return new RouteLandmarks(routerName, graphHash, pointKeys, landmarks, fromLandmark, toLandmark);
+		} finally {
+			fin.close();
+		}
+	}
+}
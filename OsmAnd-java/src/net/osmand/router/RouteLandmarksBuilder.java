@@ -0,0 +1,338 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.RouteContractionHierarchy.NodeQueue;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Offline preprocessing : builds {@link RouteLandmarks} for routing profile from route sections of obf files.
+ * Every added file is a region, landmarks of region are selected by farthest selection (next landmark is the
+ * point of region with maximal time from already selected landmarks).
+ * Edges are road intervals with time of passing them by planner without obstacles, so landmark graph
+ * contains every way of planner and its times are not greater.
+ */
+public class RouteLandmarksBuilder {
+
+	private static final Log log = PlatformUtil.getLog(RouteLandmarksBuilder.class);
+	public static final int DEFAULT_LANDMARKS_PER_REGION = 8;
+	private static final float INF = Float.POSITIVE_INFINITY;
+
+	private final RoutingConfiguration config;
+	private final VehicleRouter router;
+	private final String routerName;
+	private final List<BinaryMapIndexReader> maps = new ArrayList<BinaryMapIndexReader>();
+	private final int landmarksPerRegion;
+
+	private final TLongHashSet loadedRoads = new TLongHashSet();
+	// roads : oneway, offset of first point
+	private final TByteArrayList roadOneway = new TByteArrayList();
+	private final TIntArrayList roadOffsets = new TIntArrayList();
+	// regions : offset of first point
+	private final TIntArrayList regionOffsets = new TIntArrayList();
+	// points : coordinates and time to come to the point from previous point
+	private final TIntArrayList pointsX = new TIntArrayList();
+	private final TIntArrayList pointsY = new TIntArrayList();
+	private float[] pointsTime = new float[1024];
+
+	// graph (compressed adjacency lists)
+	private int nodes;
+	private int[] outOffsets;
+	private int[] outNodes;
+	private float[] outWeights;
+	private int[] inOffsets;
+	private int[] inNodes;
+	private float[] inWeights;
+	private final NodeQueue queue = new NodeQueue();
+
+	public RouteLandmarksBuilder(RoutingConfiguration config) {
+		this(config, DEFAULT_LANDMARKS_PER_REGION);
+	}
+
+	public RouteLandmarksBuilder(RoutingConfiguration config, int landmarksPerRegion) {
+		this.config = config;
+		this.router = config.router;
+		this.routerName = config.routerName;
+		this.landmarksPerRegion = landmarksPerRegion;
+	}
+
+	/**
+	 * Adds roads of all routing sections of file as one region
+	 */
+	public void addRegion(BinaryMapIndexReader reader) throws IOException {
+		maps.add(reader);
+		startRegion();
+		for (RouteRegion reg : reader.getRoutingIndexes()) {
+			SearchRequest<RouteDataObject> req = BinaryMapIndexReader.buildSearchRouteRequest(0, Integer.MAX_VALUE, 0,
+					Integer.MAX_VALUE, null);
+			List<RouteSubregion> subregions = reader.searchRouteIndexTree(req, reg.getSubregions());
+			for (RouteSubregion sub : subregions) {
+				for (RouteDataObject road : reader.loadRouteIndexData(sub)) {
+					if (road != null) {
+						addRoad(road);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Roads added after that call belong to new region
+	 */
+	public void startRegion() {
+		if (regionOffsets.isEmpty() || regionOffsets.get(regionOffsets.size() - 1) != pointsX.size()) {
+			regionOffsets.add(pointsX.size());
+		}
+	}
+
+	public void addRoad(RouteDataObject road) {
+		int len = road.getPointsLength();
+		if (len < 2 || !router.acceptLine(road) || !loadedRoads.add(road.getId())) {
+			return;
+		}
+		if (regionOffsets.isEmpty()) {
+			startRegion();
+		}
+		roadOneway.add((byte) Integer.signum(router.isOneWay(road)));
+		roadOffsets.add(pointsX.size());
+		int p = pointsX.size();
+		if (p + len > pointsTime.length) {
+			pointsTime = Arrays.copyOf(pointsTime, Math.max(p + len, pointsTime.length * 2));
+		}
+		float speed = RouteContractionHierarchy.getRoadSpeed(router, road);
+		for (int i = 0; i < len; i++) {
+			int x = road.getPoint31XTile(i);
+			int y = road.getPoint31YTile(i);
+			pointsTime[p + i] = i == 0 ? 0 : (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i - 1),
+					road.getPoint31YTile(i - 1), x, y) / speed;
+			pointsX.add(x);
+			pointsY.add(y);
+		}
+	}
+
+	public RouteLandmarks build() {
+		long time = System.currentTimeMillis();
+		int points = pointsX.size();
+		long[] keys = new long[points];
+		for (int i = 0; i < points; i++) {
+			keys[i] = RouteContractionHierarchy.nodeKey(pointsX.get(i), pointsY.get(i));
+		}
+		long[] nodeKeys = unique(keys);
+		nodes = nodeKeys.length;
+		int[] pointNodes = new int[points];
+		for (int i = 0; i < points; i++) {
+			pointNodes[i] = Arrays.binarySearch(nodeKeys, keys[i]);
+		}
+		buildEdges(pointNodes);
+		log.info("Landmarks graph : " + roadOffsets.size() + " roads, " + nodes + " points, " + outNodes.length
+				+ " edges");
+
+		int regions = regionOffsets.size();
+		int cnt = regions * landmarksPerRegion;
+		TIntArrayList landmarks = new TIntArrayList(cnt);
+		float[] fromLandmark = new float[nodes * cnt];
+		float[] toLandmark = new float[nodes * cnt];
+		float[] dist = new float[nodes];
+		// minimal time from selected landmarks
+		float[] minDist = new float[nodes];
+		Arrays.fill(minDist, INF);
+		for (int r = 0; r < regions; r++) {
+			int start = regionOffsets.get(r);
+			int end = r + 1 < regions ? regionOffsets.get(r + 1) : points;
+			if (start == end) {
+				continue;
+			}
+			for (int k = 0; k < landmarksPerRegion; k++) {
+				int landmark = selectFarthest(pointNodes, start, end, minDist);
+				if (landmark == -1) {
+					// region is not reachable from selected landmarks : start from its first point
+					dijkstra(pointNodes[start], true, dist);
+					landmark = selectFarthest(pointNodes, start, end, dist);
+				}
+				if (landmark == -1 || landmarks.contains(landmark)) {
+					break;
+				}
+				int l = landmarks.size();
+				landmarks.add(landmark);
+				dijkstra(landmark, true, dist);
+				for (int v = 0; v < nodes; v++) {
+					fromLandmark[v * cnt + l] = dist[v];
+					minDist[v] = Math.min(minDist[v], dist[v]);
+				}
+				dijkstra(landmark, false, dist);
+				for (int v = 0; v < nodes; v++) {
+					toLandmark[v * cnt + l] = dist[v];
+				}
+			}
+		}
+		int selected = landmarks.size();
+		if (selected < cnt) {
+			fromLandmark = compact(fromLandmark, cnt, selected);
+			toLandmark = compact(toLandmark, cnt, selected);
+		}
+		log.info("Landmarks built : " + selected + " landmarks, " + (System.currentTimeMillis() - time) + " ms");
+		return new RouteLandmarks(routerName, config.calculateGraphHash(maps), nodeKeys, landmarks.toArray(), fromLandmark, toLandmark);
+	}
+
+	private static long[] unique(long[] keys) {
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		int cnt = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (cnt == 0 || sorted[cnt - 1] != sorted[i]) {
+				sorted[cnt++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, cnt);
+	}
+
+	private float[] compact(float[] values, int cnt, int selected) {
+		float[] res = new float[nodes * selected];
+		for (int v = 0; v < nodes; v++) {
+			System.arraycopy(values, v * cnt, res, v * selected, selected);
+		}
+		return res;
+	}
+
+	private int selectFarthest(int[] pointNodes, int start, int end, float[] dist) {
+		int result = -1;
+		float max = -1;
+		for (int p = start; p < end; p++) {
+			int v = pointNodes[p];
+			if (dist[v] != INF && dist[v] > max) {
+				max = dist[v];
+				result = v;
+			}
+		}
+		return result;
+	}
+
+	private void buildEdges(int[] pointNodes) {
+		TIntArrayList from = new TIntArrayList();
+		TIntArrayList to = new TIntArrayList();
+		// edge weight is time of the point where edge of road ends
+		TIntArrayList weightPoint = new TIntArrayList();
+		int roads = roadOffsets.size();
+		for (int r = 0; r < roads; r++) {
+			int start = roadOffsets.get(r);
+			int end = r + 1 < roads ? roadOffsets.get(r + 1) : pointsX.size();
+			for (int p = start + 1; p < end; p++) {
+				int a = pointNodes[p - 1];
+				int b = pointNodes[p];
+				if (a == b) {
+					continue;
+				}
+				if (roadOneway.get(r) >= 0) {
+					from.add(a);
+					to.add(b);
+					weightPoint.add(p);
+				}
+				if (roadOneway.get(r) <= 0) {
+					from.add(b);
+					to.add(a);
+					weightPoint.add(p);
+				}
+			}
+		}
+		int edges = from.size();
+		outOffsets = new int[nodes + 1];
+		inOffsets = new int[nodes + 1];
+		for (int e = 0; e < edges; e++) {
+			outOffsets[from.get(e) + 1]++;
+			inOffsets[to.get(e) + 1]++;
+		}
+		for (int v = 0; v < nodes; v++) {
+			outOffsets[v + 1] += outOffsets[v];
+			inOffsets[v + 1] += inOffsets[v];
+		}
+		outNodes = new int[edges];
+		outWeights = new float[edges];
+		inNodes = new int[edges];
+		inWeights = new float[edges];
+		int[] outPos = Arrays.copyOf(outOffsets, nodes);
+		int[] inPos = Arrays.copyOf(inOffsets, nodes);
+		for (int e = 0; e < edges; e++) {
+			int o = outPos[from.get(e)]++;
+			outNodes[o] = to.get(e);
+			outWeights[o] = pointsTime[weightPoint.get(e)];
+			int i = inPos[to.get(e)]++;
+			inNodes[i] = from.get(e);
+			inWeights[i] = pointsTime[weightPoint.get(e)];
+		}
+	}
+
+	// times from source (forward) or to source (backward) for all nodes
+	private void dijkstra(int source, boolean forward, float[] dist) {
+		int[] offsets = forward ? outOffsets : inOffsets;
+		int[] adj = forward ? outNodes : inNodes;
+		float[] weights = forward ? outWeights : inWeights;
+		Arrays.fill(dist, INF);
+		queue.clear();
+		dist[source] = 0;
+		queue.add(0, source);
+		while (!queue.isEmpty()) {
+			float d = queue.peekKey();
+			int u = queue.poll();
+			if (d > dist[u]) {
+				continue;
+			}
+			for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+				int x = adj[e];
+				float nd = d + weights[e];
+				if (nd < dist[x]) {
+					dist[x] = nd;
+					queue.add(nd, x);
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage : <profile> <output file> <obf files...> [--routing=routing.xml] [--landmarks=8]");
+			return;
+		}
+		RoutingConfiguration.Builder builder = null;
+		int landmarksPerRegion = DEFAULT_LANDMARKS_PER_REGION;
+		for (String a : args) {
+			if (a.startsWith("--routing=")) {
+				builder = RoutingConfiguration.parseFromInputStream(new FileInputStream(a.substring("--routing=".length())));
+			} else if (a.startsWith("--landmarks=")) {
+				landmarksPerRegion = Integer.parseInt(a.substring("--landmarks=".length()));
+			}
+		}
+		if (builder == null) {
+			builder = RoutingConfiguration.getDefault();
+		}
+		RoutingConfiguration config = builder.build(args[0], RoutingConfiguration.DEFAULT_MEMORY_LIMIT);
+		RouteLandmarksBuilder lmBuilder = new RouteLandmarksBuilder(config, landmarksPerRegion);
+		for (int i = 2; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				RandomAccessFile raf = new RandomAccessFile(args[i], "r");
+				BinaryMapIndexReader reader = new BinaryMapIndexReader(raf);
+				lmBuilder.addRegion(reader);
+				reader.close();
+			}
+		}
+		RouteLandmarks landmarks = lmBuilder.build();
+		landmarks.write(new File(args[1]));
+		System.out.println("Points " + landmarks.getPointsCount() + ", landmarks " + landmarks.getLandmarksCount());
+	}
+}
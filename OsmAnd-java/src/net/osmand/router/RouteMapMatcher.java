@@ -0,0 +1,545 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RouteDistanceMatrix.TimeLabels;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Matches recorded tracks to roads by hidden Markov model : candidates of every track point are the nearest roads,
+ * emission probability depends on distance to the road and transition probability on difference between road
+ * distance and straight distance of track points. Road distances are found by short Dijkstra searches from every
+ * candidate to candidates of next point (roads and oneway are defined by router of context).
+ * Decided part of track is reported as soon as all candidates have the same ancestor, so memory is bounded by
+ * the window of undecided points.
+ */
+public class RouteMapMatcher {
+
+	private static final Log log = PlatformUtil.getLog(RouteMapMatcher.class);
+	// points closer than that to previous point are skipped (meters)
+	public static final float MIN_POINT_DISTANCE = 15;
+	// max distance from track point to road (meters)
+	public static final float CANDIDATE_RADIUS = 50;
+	public static final int CANDIDATES = 8;
+	// standard deviation of gps error (meters)
+	public static final double GPS_SIGMA = 10;
+	// scale of difference between road and straight distance (meters)
+	public static final double TRANSITION_BETA = 5;
+	// undecided points kept before best path is forced
+	public static final int MAX_WINDOW = 64;
+
+	private final RoutePlannerFrontEnd frontEnd;
+
+	public RouteMapMatcher(RoutePlannerFrontEnd frontEnd) {
+		this.frontEnd = frontEnd;
+	}
+
+	public interface MatchedSegmentsListener {
+
+		/**
+		 * Matched part of track, continued is false if track could not be matched between
+		 * previous part and this one
+		 */
+		public void segmentsMatched(List<RouteSegmentResult> segments, boolean continued);
+	}
+
+	/**
+	 * Matches whole track, result is prepared as usual route (parts of not matched track are joined)
+	 */
+	public List<RouteSegmentResult> matchTrack(RoutingContext ctx, List<LatLon> track) throws IOException,
+			InterruptedException {
+		final List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+		MatchingSession session = new MatchingSession(ctx, new MatchedSegmentsListener() {
+			@Override
+			public void segmentsMatched(List<RouteSegmentResult> segments, boolean continued) {
+				result.addAll(segments);
+			}
+		});
+		for (LatLon l : track) {
+			session.addPoint(l);
+		}
+		session.finish();
+		new RouteResultPreparation().prepareResult(ctx, result);
+		return result;
+	}
+
+	/**
+	 * Matches tracks in parallel, each thread uses own copy of routing context (tiles are shared
+	 * if context has tile cache)
+	 */
+	public List<List<RouteSegmentResult>> matchTracks(final RoutingContext ctx, final List<List<LatLon>> tracks,
+			int threads) throws IOException, InterruptedException {
+		long nt = System.nanoTime();
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		final List<List<RouteSegmentResult>> result = new ArrayList<List<RouteSegmentResult>>(
+				Collections.<List<RouteSegmentResult>>nCopies(tracks.size(), null));
+		threads = Math.min(threads, tracks.size());
+		if (threads <= 1) {
+			for (int i = 0; i < tracks.size(); i++) {
+				result.set(i, matchTrack(ctx, tracks.get(i)));
+			}
+		} else {
+			final int step = threads;
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				RoutingWorkers.run(executor, ctx.calculationProgress, threads, new RoutingWorkers.Worker() {
+					@Override
+					public void run(int first, RouteCalculationProgress progress) throws IOException,
+							InterruptedException {
+						RoutingContext local = ctx.createThreadContext(progress, step);
+						for (int i = first; i < tracks.size(); i += step) {
+							List<RouteSegmentResult> res = matchTrack(local, tracks.get(i));
+							synchronized (result) {
+								result.set(i, res);
+							}
+						}
+					}
+				});
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		log.info(tracks.size() + " tracks are matched in " + (System.nanoTime() - nt) / 1e6 + " ms");
+		return result;
+	}
+
+	private static class MatchingStep {
+		private final LatLon point;
+		private final RouteSegmentPoint[] candidates;
+		private final double[] scores;
+		private final int[] back;
+		// path from candidate of previous step
+		private final List<List<RouteSegmentResult>> paths;
+
+		public MatchingStep(LatLon point, List<RouteSegmentPoint> list) {
+			this.point = point;
+			this.candidates = list.toArray(new RouteSegmentPoint[list.size()]);
+			this.scores = new double[candidates.length];
+			this.back = new int[candidates.length];
+			this.paths = new ArrayList<List<RouteSegmentResult>>(Collections.<List<RouteSegmentResult>>nCopies(
+					candidates.length, null));
+		}
+
+		public int best() {
+			int best = -1;
+			for (int i = 0; i < candidates.length; i++) {
+				if (scores[i] != Double.NEGATIVE_INFINITY && (best == -1 || scores[i] > scores[best])) {
+					best = i;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Streaming matching of one track : points are added one by one, decided segments are reported to listener
+	 */
+	public class MatchingSession {
+		private final RoutingContext ctx;
+		private final MatchedSegmentsListener listener;
+		// undecided steps (the first step is decided root)
+		private final List<MatchingStep> window = new ArrayList<MatchingStep>();
+		private boolean continued = false;
+		private int points = 0;
+
+		public MatchingSession(RoutingContext ctx, MatchedSegmentsListener listener) {
+			this.ctx = ctx;
+			this.listener = listener;
+		}
+
+		public void addPoint(LatLon point) throws IOException, InterruptedException {
+			if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+				throw new InterruptedException("Track matching interrupted");
+			}
+			if (!window.isEmpty()
+					&& MapUtils.getDistance(window.get(window.size() - 1).point, point) < MIN_POINT_DISTANCE) {
+				return;
+			}
+			if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+				ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+			}
+			points++;
+			List<RouteSegmentPoint> list = frontEnd.findRouteSegments(point.getLatitude(), point.getLongitude(), ctx,
+					CANDIDATES);
+			List<RouteSegmentPoint> candidates = new ArrayList<RouteSegmentPoint>(list.size());
+			for (RouteSegmentPoint p : list) {
+				if (p.dist <= CANDIDATE_RADIUS * CANDIDATE_RADIUS) {
+					candidates.add(p);
+				}
+			}
+			if (candidates.isEmpty()) {
+				return;
+			}
+			MatchingStep step = new MatchingStep(point, candidates);
+			for (int i = 0; i < step.candidates.length; i++) {
+				step.scores[i] = emission(step.candidates[i]);
+				step.back[i] = -1;
+			}
+			if (window.isEmpty()) {
+				window.add(step);
+				return;
+			}
+			MatchingStep prev = window.get(window.size() - 1);
+			if (!calculateTransitions(prev, step)) {
+				// track is interrupted : decide previous part
+				finishWindow();
+				continued = false;
+				window.add(step);
+				return;
+			}
+			window.add(step);
+			if (window.size() > MAX_WINDOW) {
+				// force decision by the best candidate of last step
+				int best = step.best();
+				emit(window.size() - 1, best);
+				keepOnly(step, best);
+			} else {
+				emitConverged();
+			}
+		}
+
+		/**
+		 * Reports the rest of track
+		 */
+		public void finish() {
+			finishWindow();
+			window.clear();
+			log.debug("Track of " + points + " points is matched");
+		}
+
+		private void finishWindow() {
+			if (!window.isEmpty()) {
+				MatchingStep last = window.get(window.size() - 1);
+				emit(window.size() - 1, last.best());
+				window.clear();
+			}
+		}
+
+		private void keepOnly(MatchingStep step, int candidate) {
+			for (int i = 0; i < step.scores.length; i++) {
+				if (i != candidate) {
+					step.scores[i] = Double.NEGATIVE_INFINITY;
+				}
+			}
+		}
+
+		// emits decided steps if all alive candidates of last step have the same ancestor
+		private void emitConverged() {
+			int last = window.size() - 1;
+			boolean[] alive = new boolean[window.get(last).candidates.length];
+			for (int i = 0; i < alive.length; i++) {
+				alive[i] = window.get(last).scores[i] != Double.NEGATIVE_INFINITY;
+			}
+			for (int s = last; s > 0; s--) {
+				MatchingStep step = window.get(s);
+				boolean[] prevAlive = new boolean[window.get(s - 1).candidates.length];
+				int cnt = 0;
+				int single = -1;
+				for (int i = 0; i < alive.length; i++) {
+					if (alive[i] && !prevAlive[step.back[i]]) {
+						prevAlive[step.back[i]] = true;
+						cnt++;
+						single = step.back[i];
+					}
+				}
+				alive = prevAlive;
+				if (cnt == 1) {
+					if (s - 1 > 0) {
+						emit(s - 1, single);
+						keepOnly(window.get(0), single);
+					}
+					return;
+				}
+			}
+		}
+
+		// reports path to candidate of step and makes that step the root of window
+		private void emit(int stepIndex, int candidate) {
+			if (candidate == -1) {
+				return;
+			}
+			List<List<RouteSegmentResult>> paths = new ArrayList<List<RouteSegmentResult>>();
+			int c = candidate;
+			for (int s = stepIndex; s > 0; s--) {
+				MatchingStep step = window.get(s);
+				paths.add(step.paths.get(c));
+				c = step.back[c];
+			}
+			Collections.reverse(paths);
+			List<RouteSegmentResult> segments = new ArrayList<RouteSegmentResult>();
+			for (List<RouteSegmentResult> p : paths) {
+				for (RouteSegmentResult r : p) {
+					addSegment(segments, r);
+				}
+			}
+			if (!segments.isEmpty()) {
+				listener.segmentsMatched(segments, continued);
+				continued = true;
+			}
+			for (int s = 0; s < stepIndex; s++) {
+				window.remove(0);
+			}
+		}
+
+		private void addSegment(List<RouteSegmentResult> segments, RouteSegmentResult r) {
+			if (!segments.isEmpty()) {
+				RouteSegmentResult last = segments.get(segments.size() - 1);
+				if (last.getObject().getId() == r.getObject().getId() && last.getEndPointIndex() == r.getStartPointIndex()) {
+					last.setEndPointIndex(r.getEndPointIndex());
+					return;
+				}
+			}
+			segments.add(r);
+		}
+
+		private boolean calculateTransitions(MatchingStep prev, MatchingStep step) throws IOException {
+			double straight = MapUtils.getDistance(prev.point, step.point);
+			float limit = (float) (2 * straight + 2 * CANDIDATE_RADIUS);
+			double[] scores = new double[step.candidates.length];
+			Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+			boolean found = false;
+			for (int i = 0; i < prev.candidates.length; i++) {
+				if (prev.scores[i] == Double.NEGATIVE_INFINITY) {
+					continue;
+				}
+				TransitionSearch search = new TransitionSearch(ctx, prev.candidates[i], step.candidates, limit);
+				search.search();
+				for (int j = 0; j < step.candidates.length; j++) {
+					if (search.distances[j] != Float.POSITIVE_INFINITY) {
+						double score = prev.scores[i] + step.scores[j]
+								- Math.abs(search.distances[j] - straight) / TRANSITION_BETA;
+						if (score > scores[j]) {
+							scores[j] = score;
+							step.back[j] = i;
+							step.paths.set(j, search.getPath(j));
+							found = true;
+						}
+					}
+				}
+			}
+			if (found) {
+				System.arraycopy(scores, 0, step.scores, 0, scores.length);
+			}
+			return found;
+		}
+	}
+
+	private static double emission(RouteSegmentPoint candidate) {
+		// dist is square distance
+		return -0.5 * candidate.dist / (GPS_SIGMA * GPS_SIGMA);
+	}
+
+	// piece of road passed by search (from start to end point) with previous piece
+	private static class PathNode {
+		private final RouteDataObject road;
+		private final int start;
+		private final int end;
+		private final PathNode parent;
+
+		public PathNode(RouteDataObject road, int start, int end, PathNode parent) {
+			this.road = road;
+			this.start = start;
+			this.end = end;
+			this.parent = parent;
+		}
+	}
+
+	private static class SearchEntry implements Comparable<SearchEntry> {
+		// road entered at segment start point
+		private final RouteSegment segment;
+		private final boolean plus;
+		private final float distance;
+		private final PathNode parent;
+
+		public SearchEntry(RouteSegment segment, boolean plus, float distance, PathNode parent) {
+			this.segment = segment;
+			this.plus = plus;
+			this.distance = distance;
+			this.parent = parent;
+		}
+
+		@Override
+		public int compareTo(SearchEntry o) {
+			return Float.compare(distance, o.distance);
+		}
+	}
+
+	/**
+	 * Dijkstra by road distance from candidate to candidates of next point, limited by distance.
+	 * Candidate is reached on segment between points segmentStart - 1 and segmentStart : path ends
+	 * at the point before candidate and path from candidate starts at the point behind it.
+	 */
+	private static class TransitionSearch {
+		private final RoutingContext ctx;
+		private final VehicleRouter router;
+		private final RouteSegmentPoint source;
+		private final RouteSegmentPoint[] targets;
+		private final float limit;
+		private final float[] distances;
+		private final PathNode[] paths;
+		private final TimeLabels labels = new TimeLabels();
+		private final PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+		private int visited = 0;
+
+		public TransitionSearch(RoutingContext ctx, RouteSegmentPoint source, RouteSegmentPoint[] targets, float limit) {
+			this.ctx = ctx;
+			this.router = ctx.getRouter();
+			this.source = source;
+			this.targets = targets;
+			this.limit = limit;
+			this.distances = new float[targets.length];
+			this.paths = new PathNode[targets.length];
+			Arrays.fill(distances, Float.POSITIVE_INFINITY);
+		}
+
+		public List<RouteSegmentResult> getPath(int target) {
+			List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+			for (PathNode n = paths[target]; n != null; n = n.parent) {
+				if (n.start != n.end) {
+					res.add(new RouteSegmentResult(n.road, n.start, n.end));
+				}
+			}
+			Collections.reverse(res);
+			return res;
+		}
+
+		public void search() {
+			RouteDataObject road = source.getRoad();
+			int j = source.getSegmentStart();
+			int oneway = router.isOneWay(road);
+			if (oneway >= 0) {
+				checkTargetsOnStartSegment(true);
+				float d = (float) BinaryRoutePlanner.squareRootDist(source.preciseX, source.preciseY,
+						road.getPoint31XTile(j), road.getPoint31YTile(j));
+				walk(road, true, j, d, j - 1, null);
+			}
+			if (oneway <= 0) {
+				checkTargetsOnStartSegment(false);
+				float d = (float) BinaryRoutePlanner.squareRootDist(source.preciseX, source.preciseY,
+						road.getPoint31XTile(j - 1), road.getPoint31YTile(j - 1));
+				walk(road, false, j - 1, d, j, null);
+			}
+			while (!queue.isEmpty()) {
+				SearchEntry e = queue.poll();
+				if (e.distance >= maxTargetDistance()) {
+					break;
+				}
+				int point = e.segment.getSegmentStart();
+				walk(e.segment.getRoad(), e.plus, point, e.distance, point, e.parent);
+			}
+			ctx.visitedSegments += visited;
+		}
+
+		private float maxTargetDistance() {
+			float max = 0;
+			for (float d : distances) {
+				max = Math.max(max, d);
+			}
+			return max;
+		}
+
+		// arrived to point with distance, moves along road and adds intersections to queue
+		private void walk(RouteDataObject road, boolean plus, int point, float distance, int pieceStart, PathNode parent) {
+			while (distance <= limit && point >= 0 && point < road.getPointsLength()) {
+				long key = RouteDistanceMatrix.calculateRoutePointId(road, point, plus);
+				if (labels.get(key) <= distance) {
+					return;
+				}
+				labels.put(key, distance);
+				visited++;
+				processIntersections(road, point, distance, new PathNode(road, pieceStart, point, parent));
+				int next = plus ? point + 1 : point - 1;
+				if (next < 0 || next >= road.getPointsLength()) {
+					return;
+				}
+				checkTargetsOnSegment(road, point, next, distance, pieceStart, parent);
+				distance += segmentLength(road, point, next);
+				point = next;
+			}
+		}
+
+		private void processIntersections(RouteDataObject road, int point, float distance, PathNode node) {
+			RouteSegment next = ctx.loadRouteSegment(road.getPoint31XTile(point), road.getPoint31YTile(point),
+					ctx.config.memoryLimitation - ctx.memoryOverhead);
+			RouteSegment first = next;
+			while (next != null) {
+				RouteDataObject nr = next.getRoad();
+				if (nr.getId() != road.getId() && RouteDistanceMatrix.checkRestrictions(router, road, nr, first)) {
+					int oneway = router.isOneWay(nr);
+					if (oneway >= 0 && next.getSegmentStart() < nr.getPointsLength() - 1) {
+						addEntry(next, true, distance, node);
+					}
+					if (oneway <= 0 && next.getSegmentStart() > 0) {
+						addEntry(next, false, distance, node);
+					}
+				}
+				next = next.getNext();
+			}
+		}
+
+		private void addEntry(RouteSegment segment, boolean plus, float distance, PathNode parent) {
+			long key = RouteDistanceMatrix.calculateRoutePointId(segment.getRoad(), segment.getSegmentStart(), plus);
+			if (distance <= limit && distance < labels.get(key)) {
+				queue.add(new SearchEntry(segment, plus, distance, parent));
+			}
+		}
+
+		private static float segmentLength(RouteDataObject road, int from, int to) {
+			return (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(from), road.getPoint31YTile(from),
+					road.getPoint31XTile(to), road.getPoint31YTile(to));
+		}
+
+		// targets located between point and next of road reached with given distance at point
+		private void checkTargetsOnSegment(RouteDataObject road, int point, int next, float distance, int pieceStart,
+				PathNode parent) {
+			int segStart = Math.max(point, next);
+			for (int i = 0; i < targets.length; i++) {
+				RouteSegmentPoint t = targets[i];
+				if (t.getSegmentStart() == segStart && t.getRoad().getId() == road.getId()) {
+					float d = distance + (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(point),
+							road.getPoint31YTile(point), t.preciseX, t.preciseY);
+					if (d < distances[i]) {
+						distances[i] = d;
+						paths[i] = new PathNode(road, pieceStart, point, parent);
+					}
+				}
+			}
+		}
+
+		// targets located on the same segment as source in given direction
+		private void checkTargetsOnStartSegment(boolean plus) {
+			RouteDataObject road = source.getRoad();
+			int j = source.getSegmentStart();
+			int px = road.getPoint31XTile(j - 1);
+			int py = road.getPoint31YTile(j - 1);
+			double startDist = BinaryRoutePlanner.squareRootDist(px, py, source.preciseX, source.preciseY);
+			for (int i = 0; i < targets.length; i++) {
+				RouteSegmentPoint t = targets[i];
+				if (t.getSegmentStart() == j && t.getRoad().getId() == road.getId()) {
+					double targetDist = BinaryRoutePlanner.squareRootDist(px, py, t.preciseX, t.preciseY);
+					float d = (float) Math.abs(targetDist - startDist);
+					if ((plus ? targetDist >= startDist : targetDist <= startDist) && d < distances[i]) {
+						distances[i] = d;
+						paths[i] = new PathNode(road, plus ? j - 1 : j, plus ? j - 1 : j, null);
+					}
+				}
+			}
+		}
+	}
+}
@@ -7,6 +7,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
@@ -27,6 +33,10 @@ public class RoutePlannerFrontEnd {
 	private boolean useOldVersion;
 	protected static final Log log = PlatformUtil.getLog(RoutePlannerFrontEnd.class);
 	public boolean useSmartRouteRecalculation = true; 
+	// number of nearest roads found by segment index (others are used if route is not found from the nearest)
+	private static final int SEGMENT_INDEX_ROADS = 16;
+	private static final int LEG_THREADS_KEEP_ALIVE_SECONDS = 30;
+	private static ThreadPoolExecutor legsExecutor;
 
 	public RoutePlannerFrontEnd(boolean useOldVersion) {
 		this.useOldVersion = useOldVersion;
@@ -35,7 +45,9 @@ public class RoutePlannerFrontEnd {
 	public enum RouteCalculationMode {
 		BASE,
 		NORMAL,
-		COMPLEX
+		COMPLEX,
+		// contraction hierarchy search (normal mode if hierarchy could not be used)
+		HIERARCHY
 	}
 	
 	public RoutingContext buildRoutingContext(RoutingConfiguration config, NativeLibrary nativeLibrary, BinaryMapIndexReader[] map, RouteCalculationMode rm) {
@@ -46,6 +58,13 @@ public class RoutePlannerFrontEnd {
 		return new RoutingContext(config, nativeLibrary, map, RouteCalculationMode.NORMAL);
 	}
 	
+	public RoutingContext buildRoutingContext(RoutingConfiguration config, BinaryMapIndexReader[] map,
+			RouteContractionHierarchy contractionHierarchy) {
+		RoutingContext ctx = new RoutingContext(config, null, map, RouteCalculationMode.HIERARCHY);
+		ctx.contractionHierarchy = contractionHierarchy;
+		return ctx;
+	}
+	
 	
 	private static double squareDist(int x1, int y1, int x2, int y2) {
 		// translate into meters 
@@ -54,7 +73,43 @@ public class RoutePlannerFrontEnd {
 		return dx * dx + dy * dy;
 	}
 	
+	/**
+	 * Nearest segments of k nearest roads (sorted by distance), uses segment indexes of loaded tiles
+	 */
+	public List<RouteSegmentPoint> findRouteSegments(double lat, double lon, RoutingContext ctx, int k) throws IOException {
+		int px = MapUtils.get31TileNumberX(lon);
+		int py = MapUtils.get31TileNumberY(lat);
+		List<RouteSegmentPoint> list = ctx.searchNearestRouteSegments(px, py, 17, k);
+		if (list != null && list.isEmpty()) {
+			list = ctx.searchNearestRouteSegments(px, py, 15, k);
+		}
+		if (list == null) {
+			// tiles are not indexed
+			list = new ArrayList<RouteSegmentPoint>();
+			RouteSegmentPoint ps = findRouteSegment(lat, lon, ctx, false);
+			if (ps != null) {
+				list.add(ps);
+				list.addAll(ps.others.subList(0, Math.min(k - 1, ps.others.size())));
+				ps.others = null;
+			}
+		}
+		return list;
+	}
+	
 	public RouteSegmentPoint findRouteSegment(double lat, double lon, RoutingContext ctx) throws IOException {
+		return findRouteSegment(lat, lon, ctx, ctx.config.segmentIndex);
+	}
+	
+	private RouteSegmentPoint findRouteSegment(double lat, double lon, RoutingContext ctx, boolean useIndex) throws IOException {
+		if (useIndex) {
+			List<RouteSegmentPoint> list = findRouteSegments(lat, lon, ctx, SEGMENT_INDEX_ROADS);
+			if (list.size() > 0) {
+				RouteSegmentPoint ps = list.remove(0);
+				ps.others = list;
+				return ps;
+			}
+			return null;
+		}
 		int px = MapUtils.get31TileNumberX(lon);
 		int py = MapUtils.get31TileNumberY(lat);
 		ArrayList<RouteDataObject> dataObjects = new ArrayList<RouteDataObject>();
@@ -112,7 +167,17 @@ public class RoutePlannerFrontEnd {
 		if(ctx.calculationProgress == null) {
 			ctx.calculationProgress = new RouteCalculationProgress();
 		}
+		if (ctx.calculationMode == RouteCalculationMode.HIERARCHY && ctx.contractionHierarchy != null) {
+			List<RouteSegmentResult> res = searchRouteHierarchy(ctx, start, end, intermediates);
+			if (res != null) {
+				return res;
+			}
+			log.warn("Route is not found by contraction hierarchy, use usual search");
+		}
 		boolean intermediatesEmpty = intermediates == null || intermediates.isEmpty();
+		if (ctx.config.incrementalRecalculation && intermediatesEmpty && routeDirection == null) {
+			return searchRouteIncremental(ctx, start, end);
+		}
 		double maxDistance = MapUtils.getDistance(start, end);
 		if(!intermediatesEmpty) {
 			LatLon b = start;
@@ -171,6 +236,113 @@ public class RoutePlannerFrontEnd {
 		return res;
 	}
 
+	/**
+	 * Calculates best route and up to (count - 1) alternative routes in one search (without intermediate points),
+	 * alternative routes are not longer than maxStretch * best route time and share not more than maxOverlap of length
+	 * with other routes. The best route is the first, null if route is not found.
+	 */
+	public List<List<RouteSegmentResult>> searchRouteAlternatives(final RoutingContext ctx, LatLon start, LatLon end,
+			int count, float maxStretch, float maxOverlap) throws IOException, InterruptedException {
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		if (!addSegment(start, ctx, 0, points) || !addSegment(end, ctx, 1, points)) {
+			return null;
+		}
+		ctx.initStartAndTargetPoints(points.get(0), points.get(1));
+		refreshProgressDistance(ctx);
+		RouteAlternatives alternatives = new RouteAlternatives(count, maxStretch, maxOverlap);
+		ctx.alternatives = alternatives;
+		try {
+			ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, points.get(0), points.get(1), null);
+		} finally {
+			ctx.alternatives = null;
+		}
+		if (alternatives.getRoutes().isEmpty()) {
+			return null;
+		}
+		RouteResultPreparation preparation = new RouteResultPreparation();
+		for (int i = alternatives.getRoutes().size() - 1; i >= 0; i--) {
+			List<RouteSegmentResult> res = alternatives.getRoutes().get(i);
+			ctx.routingTime = alternatives.getRouteTimes().get(i);
+			preparation.prepareResult(ctx, res);
+			makeStartEndPointsPrecise(res, start, end, null);
+		}
+		preparation.printResults(ctx, start, end, alternatives.getRoutes().get(0));
+		return alternatives.getRoutes();
+	}
+
+	/**
+	 * Calculates route by incremental search : search tree from target is kept in context
+	 * and reused if the next route is calculated to the same target (i.e. recalculation from new location).
+	 * Tree should be passed to the context of next calculation (tiles are loaded by java code also with native library).
+	 */
+	public List<RouteSegmentResult> searchRouteIncremental(final RoutingContext ctx, LatLon start, LatLon end)
+			throws IOException, InterruptedException {
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		if (!addSegment(start, ctx, 0, points) || !addSegment(end, ctx, 1, points)) {
+			return null;
+		}
+		if (ctx.incrementalSearch == null || !ctx.incrementalSearch.isTarget(ctx, points.get(1))) {
+			ctx.incrementalSearch = new RouteIncrementalSearch(ctx, points.get(1));
+		}
+		List<RouteSegmentResult> res = ctx.incrementalSearch.searchRoute(ctx, points.get(0));
+		if (res == null) {
+			return null;
+		}
+		new RouteResultPreparation().prepareResult(ctx, res);
+		makeStartEndPointsPrecise(res, start, end, null);
+		new RouteResultPreparation().printResults(ctx, start, end, res);
+		return res;
+	}
+
+	private List<RouteSegmentResult> searchRouteHierarchy(final RoutingContext ctx, LatLon start, LatLon end, List<LatLon> intermediates) 
+			throws IOException, InterruptedException {
+		RouteContractionHierarchy ch = ctx.contractionHierarchy;
+		if (!ch.getRouterName().equals(ctx.config.routerName)) {
+			log.warn("Contraction hierarchy is built for another profile " + ch.getRouterName());
+			return null;
+		}
+		if (ch.getGraphHash() != ctx.config.calculateGraphHash(ctx.map.keySet())) {
+			log.warn("Contraction hierarchy is built for other routing parameters, impassable roads or maps");
+			return null;
+		}
+		List<LatLon> targets = new ArrayList<LatLon>();
+		if (intermediates != null) {
+			targets.addAll(intermediates);
+		}
+		targets.add(end);
+		int indexNotFound = 0;
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		if (!addSegment(start, ctx, indexNotFound++, points)) {
+			return null;
+		}
+		for (LatLon l : targets) {
+			if (!addSegment(l, ctx, indexNotFound++, points)) {
+				return null;
+			}
+		}
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+		float routingTime = 0;
+		for (int i = 0; i < points.size() - 1; i++) {
+			List<RouteSegmentResult> leg = ch.searchRoute(ctx, points.get(i), points.get(i + 1));
+			if (leg == null) {
+				return null;
+			}
+			routingTime += ctx.routingTime;
+			res.addAll(leg);
+		}
+		ctx.routingTime = routingTime;
+		new RouteResultPreparation().prepareResult(ctx, res);
+		makeStartEndPointsPrecise(res, start, end, intermediates);
+		new RouteResultPreparation().printResults(ctx, start, end, res);
+		return res;
+	}
+
 	protected void makeStartEndPointsPrecise(List<RouteSegmentResult> res, LatLon start, LatLon end, List<LatLon> intermediates) {
 		if (res.size() > 0) {
 			updateResult(res.get(0), start, true);
@@ -256,6 +428,9 @@ public class RoutePlannerFrontEnd {
 		}		
 		
 		if (insert != 0) {
+			// road could be shared with tiles of other contexts, so point is inserted into a copy
+			r = new RouteDataObject(r);
+			routeSegmentResult.setObject(r);
 			if (st && routeSegmentResult.getStartPointIndex() < routeSegmentResult.getEndPointIndex()) {
 				routeSegmentResult.setEndPointIndex(routeSegmentResult.getEndPointIndex() + 1);
 			}
@@ -428,6 +603,9 @@ public class RoutePlannerFrontEnd {
 				}
 			}
 		}
+		if (firstPartRecalculatedRoute == null && ctx.config.legThreads > 1 && ctx.nativeLib == null && !useOldVersion) {
+			return searchLegsConcurrently(ctx, points, routeDirection);
+		}
 		List<RouteSegmentResult> results = new ArrayList<RouteSegmentResult>();
 		for (int i = 0; i < points.size() - 1; i++) {
 			RoutingContext local = new RoutingContext(ctx);
@@ -441,15 +619,7 @@ public class RoutePlannerFrontEnd {
 			List<RouteSegmentResult> res = searchRouteInternalPrepare(local, points.get(i), points.get(i + 1), routeDirection);
 
 			results.addAll(res);
-			ctx.distinctLoadedTiles += local.distinctLoadedTiles;
-			ctx.loadedTiles += local.loadedTiles;
-			ctx.visitedSegments += local.visitedSegments;
-			ctx.loadedPrevUnloadedTiles += local.loadedPrevUnloadedTiles;
-			ctx.timeToCalculate += local.timeToCalculate;
-			ctx.timeToLoad += local.timeToLoad;
-			ctx.timeToLoadHeaders += local.timeToLoadHeaders;
-			ctx.relaxedSegments += local.relaxedSegments;
-			ctx.routingTime += local.routingTime;
+			addStatistics(ctx, local);
 
 			local.unloadAllData(ctx);
 			if (restPartRecalculatedRoute != null) {
@@ -462,6 +632,91 @@ public class RoutePlannerFrontEnd {
 
 	}
 	
+	private void addStatistics(RoutingContext ctx, RoutingContext local) {
+		ctx.distinctLoadedTiles += local.distinctLoadedTiles;
+		ctx.loadedTiles += local.loadedTiles;
+		ctx.visitedSegments += local.visitedSegments;
+		ctx.loadedPrevUnloadedTiles += local.loadedPrevUnloadedTiles;
+		ctx.timeToCalculate += local.timeToCalculate;
+		ctx.timeToLoad += local.timeToLoad;
+		ctx.timeToLoadHeaders += local.timeToLoadHeaders;
+		ctx.relaxedSegments += local.relaxedSegments;
+		ctx.routingTime += local.routingTime;
+		ctx.maxEstimatedSize = Math.max(ctx.maxEstimatedSize, local.maxEstimatedSize);
+	}
+	
+	private static synchronized ExecutorService getLegsExecutor(int threads) {
+		if (legsExecutor == null) {
+			// threads are shared by all planners (legs of concurrent calculations wait in queue) and stopped when idle
+			legsExecutor = new ThreadPoolExecutor(threads, threads, LEG_THREADS_KEEP_ALIVE_SECONDS,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private int counter = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "Route leg " + (++counter));
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			legsExecutor.allowCoreThreadTimeOut(true);
+		} else if (legsExecutor.getMaximumPoolSize() < threads) {
+			legsExecutor.setMaximumPoolSize(threads);
+			legsExecutor.setCorePoolSize(threads);
+		}
+		return legsExecutor;
+	}
+
+	/**
+	 * Legs between intermediate points are calculated in parallel (at most legThreads legs at once)
+	 * on own thread contexts (memory limit is split between them), stitched route is prepared once
+	 */
+	private List<RouteSegmentResult> searchLegsConcurrently(final RoutingContext ctx, final List<RouteSegmentPoint> points,
+			final PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
+		final int legs = points.size() - 1;
+		final RoutingContext[] legContexts = new RoutingContext[legs];
+		final List<List<RouteSegmentResult>> legResults = new ArrayList<List<RouteSegmentResult>>(
+				Collections.<List<RouteSegmentResult>>nCopies(legs, null));
+		final AtomicInteger nextLeg = new AtomicInteger();
+		final int workers = Math.min(legs, ctx.config.legThreads);
+		ExecutorService executor = getLegsExecutor(ctx.config.legThreads);
+		RoutingWorkers.run(executor, ctx.calculationProgress, workers, new RoutingWorkers.Worker() {
+			@Override
+			public void run(int worker, RouteCalculationProgress progress) throws IOException, InterruptedException {
+				int i;
+				while ((i = nextLeg.getAndIncrement()) < legs && !progress.isCancelled) {
+					RoutingContext local = ctx.createThreadContext(progress, workers);
+					List<RouteSegmentResult> res = searchLeg(local, points.get(i), points.get(i + 1), routeDirection);
+					local.unloadAllData();
+					// results are read after completion of all workers
+					legResults.set(i, res);
+					legContexts[i] = local;
+				}
+			}
+		});
+		// stitch legs in order
+		List<RouteSegmentResult> results = new ArrayList<RouteSegmentResult>();
+		for (int i = 0; i < legs; i++) {
+			results.addAll(legResults.get(i));
+			addStatistics(ctx, legContexts[i]);
+		}
+		new RouteResultPreparation().prepareResult(ctx, results);
+		ctx.unloadAllData();
+		return results;
+	}
+
+	// segments of leg are not prepared (java routing without recalculation)
+	private List<RouteSegmentResult> searchLeg(RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
+			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
+		ctx.initStartAndTargetPoints(start, end);
+		if (routeDirection != null) {
+			ctx.precalculatedRouteDirection = routeDirection.adopt(ctx);
+		}
+		refreshProgressDistance(ctx);
+		ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, start, end, null);
+		return new RouteResultPreparation().convertFinalSegmentToResults(ctx, ctx.finalRouteSegment);
+	}
+	
 	@SuppressWarnings("static-access")
 	private List<RouteSegmentResult> searchRoute(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end, 
 			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
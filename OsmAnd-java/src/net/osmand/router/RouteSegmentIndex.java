@@ -0,0 +1,270 @@
+package net.osmand.router;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.util.MapUtils;
+
+/**
+ * R-tree packed by Sort-Tile-Recursive over bounding boxes of road segments of one routing tile.
+ * Tree is implicit : entries of every level are stored in packed order, children of node i are entries
+ * [i * NODE_SIZE, (i + 1) * NODE_SIZE) of previous level (level 0 - road segments).
+ */
+public class RouteSegmentIndex {
+
+	private static final int NODE_SIZE = 16;
+
+	private final RouteDataObject[] roads;
+	// segments : road and point index (segment between point - 1 and point)
+	private final int[] segmentRoads;
+	private final int[] segmentPoints;
+	// boxes of levels : left, top, right, bottom
+	private final int[][] levels;
+	private final int[] levelSizes;
+
+	// search queue (min heap by distance)
+	private double[] heapKeys = new double[64];
+	private long[] heapNodes = new long[64];
+	private int heapSize = 0;
+	private int projectionX;
+	private int projectionY;
+
+	public RouteSegmentIndex(List<RouteDataObject> list) {
+		int count = 0;
+		for (RouteDataObject r : list) {
+			count += Math.max(r.getPointsLength() - 1, 0);
+		}
+		roads = list.toArray(new RouteDataObject[list.size()]);
+		segmentRoads = new int[count];
+		segmentPoints = new int[count];
+		int[] boxes = new int[count * 4];
+		int[] order = new int[count];
+		int s = 0;
+		for (int r = 0; r < roads.length; r++) {
+			RouteDataObject road = roads[r];
+			for (int j = 1; j < road.getPointsLength(); j++) {
+				int x1 = road.getPoint31XTile(j - 1);
+				int y1 = road.getPoint31YTile(j - 1);
+				int x2 = road.getPoint31XTile(j);
+				int y2 = road.getPoint31YTile(j);
+				boxes[s * 4] = Math.min(x1, x2);
+				boxes[s * 4 + 1] = Math.min(y1, y2);
+				boxes[s * 4 + 2] = Math.max(x1, x2);
+				boxes[s * 4 + 3] = Math.max(y1, y2);
+				segmentRoads[s] = r;
+				segmentPoints[s] = j;
+				order[s] = s;
+				s++;
+			}
+		}
+		// pack segments
+		sortTileRecursive(boxes, order, count);
+		int[] sortedRoads = segmentRoads.clone();
+		int[] sortedPoints = segmentPoints.clone();
+		int[] level = new int[count * 4];
+		for (int i = 0; i < count; i++) {
+			segmentRoads[i] = sortedRoads[order[i]];
+			segmentPoints[i] = sortedPoints[order[i]];
+			System.arraycopy(boxes, order[i] * 4, level, i * 4, 4);
+		}
+		List<int[]> lvls = new ArrayList<int[]>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		lvls.add(level);
+		sizes.add(count);
+		// build upper levels : every NODE_SIZE entries of packed level are children of one node
+		while (count > 1) {
+			int parents = (count + NODE_SIZE - 1) / NODE_SIZE;
+			int[] parent = new int[parents * 4];
+			for (int p = 0; p < parents; p++) {
+				int st = p * NODE_SIZE;
+				int en = Math.min(count, st + NODE_SIZE);
+				parent[p * 4] = Integer.MAX_VALUE;
+				parent[p * 4 + 1] = Integer.MAX_VALUE;
+				parent[p * 4 + 2] = Integer.MIN_VALUE;
+				parent[p * 4 + 3] = Integer.MIN_VALUE;
+				for (int c = st; c < en; c++) {
+					parent[p * 4] = Math.min(parent[p * 4], level[c * 4]);
+					parent[p * 4 + 1] = Math.min(parent[p * 4 + 1], level[c * 4 + 1]);
+					parent[p * 4 + 2] = Math.max(parent[p * 4 + 2], level[c * 4 + 2]);
+					parent[p * 4 + 3] = Math.max(parent[p * 4 + 3], level[c * 4 + 3]);
+				}
+			}
+			lvls.add(parent);
+			sizes.add(parents);
+			level = parent;
+			count = parents;
+		}
+		levels = lvls.toArray(new int[lvls.size()][]);
+		levelSizes = new int[sizes.size()];
+		for (int i = 0; i < levelSizes.length; i++) {
+			levelSizes[i] = sizes.get(i);
+		}
+	}
+
+	public int getSegmentsCount() {
+		return segmentRoads.length;
+	}
+
+	public int getEstimatedSize() {
+		int sz = 16 + roads.length * 4 + segmentRoads.length * 8;
+		for (int[] l : levels) {
+			sz += 16 + l.length * 4;
+		}
+		return sz;
+	}
+
+	// order of segments : slices by x center, every slice by y center, so every NODE_SIZE segments are close
+	private static void sortTileRecursive(final int[] boxes, int[] order, int count) {
+		int leaves = (count + NODE_SIZE - 1) / NODE_SIZE;
+		int slices = (int) Math.ceil(Math.sqrt(leaves));
+		int sliceSize = slices * NODE_SIZE;
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = (centerX(boxes, order[i]) << 32) | order[i];
+		}
+		Arrays.sort(keys);
+		for (int st = 0; st < count; st += sliceSize) {
+			int en = Math.min(count, st + sliceSize);
+			for (int i = st; i < en; i++) {
+				int s = (int) keys[i];
+				keys[i] = (centerY(boxes, s) << 32) | s;
+			}
+			Arrays.sort(keys, st, en);
+		}
+		for (int i = 0; i < count; i++) {
+			order[i] = (int) keys[i];
+		}
+	}
+
+	private static long centerX(int[] boxes, int s) {
+		return ((long) boxes[s * 4] + boxes[s * 4 + 2]) >> 1;
+	}
+
+	private static long centerY(int[] boxes, int s) {
+		return ((long) boxes[s * 4 + 1] + boxes[s * 4 + 3]) >> 1;
+	}
+
+	/**
+	 * Nearest segment of each of k nearest roads (one point per road, sorted by distance).
+	 * Roads with ids from exclude set are skipped.
+	 */
+	public synchronized List<RouteSegmentPoint> searchNearest(int px, int py, int k, TLongHashSet exclude) {
+		List<RouteSegmentPoint> result = new ArrayList<RouteSegmentPoint>(k);
+		if (segmentRoads.length == 0 || k <= 0) {
+			return result;
+		}
+		TLongHashSet found = new TLongHashSet();
+		int top = levels.length - 1;
+		heapSize = 0;
+		for (int i = 0; i < levelSizes[top]; i++) {
+			push(boxDist(levels[top], i, px, py), top, i);
+		}
+		while (heapSize > 0 && result.size() < k) {
+			double dist = heapKeys[0];
+			long node = pop();
+			int level = (int) (node >> 32);
+			int ind = (int) node;
+			if (level < 0) {
+				// exact distance to segment
+				RouteDataObject road = roads[segmentRoads[ind]];
+				if (found.add(road.getId())) {
+					int j = segmentPoints[ind];
+					RouteSegmentPoint rsp = new RouteSegmentPoint(new RouteDataObject(road), j, dist);
+					projection(road, j, px, py);
+					rsp.preciseX = projectionX;
+					rsp.preciseY = projectionY;
+					result.add(rsp);
+				}
+			} else if (level == 0) {
+				RouteDataObject road = roads[segmentRoads[ind]];
+				if (!found.contains(road.getId()) && (exclude == null || !exclude.contains(road.getId()))) {
+					push(projection(road, segmentPoints[ind], px, py), -1, ind);
+				}
+			} else {
+				int st = ind * NODE_SIZE;
+				int en = Math.min(levelSizes[level - 1], st + NODE_SIZE);
+				for (int c = st; c < en; c++) {
+					push(boxDist(levels[level - 1], c, px, py), level - 1, c);
+				}
+			}
+		}
+		return result;
+	}
+
+	// projection of point to segment (as MapUtils.getProjectionPoint31 without float rounding), returns square distance
+	private double projection(RouteDataObject road, int j, int px, int py) {
+		int x1 = road.getPoint31XTile(j - 1);
+		int y1 = road.getPoint31YTile(j - 1);
+		int x2 = road.getPoint31XTile(j);
+		int y2 = road.getPoint31YTile(j);
+		double projection = MapUtils.calculateProjection31TileMetric(x1, y1, x2, y2, px, py);
+		double mDist = MapUtils.squareDist31TileMetric(x1, y1, x2, y2);
+		if (projection <= 0 || mDist == 0) {
+			projectionX = x1;
+			projectionY = y1;
+		} else if (projection >= mDist) {
+			projectionX = x2;
+			projectionY = y2;
+		} else {
+			projectionX = (int) Math.round(x1 + (x2 - (double) x1) * (projection / mDist));
+			projectionY = (int) Math.round(y1 + (y2 - (double) y1) * (projection / mDist));
+		}
+		return MapUtils.squareDist31TileMetric(projectionX, projectionY, px, py);
+	}
+
+	// lower bound of square distance in meters from point to box
+	private static double boxDist(int[] boxes, int i, int px, int py) {
+		int x = Math.max(boxes[i * 4], Math.min(px, boxes[i * 4 + 2]));
+		int y = Math.max(boxes[i * 4 + 1], Math.min(py, boxes[i * 4 + 3]));
+		return MapUtils.squareDist31TileMetric(x, y, px, py);
+	}
+
+	private void push(double key, int level, int ind) {
+		if (heapSize == heapKeys.length) {
+			heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+			heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+		}
+		long node = (((long) level) << 32) | (ind & 0xffffffffL);
+		int pos = heapSize++;
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (heapKeys[parent] <= key) {
+				break;
+			}
+			heapKeys[pos] = heapKeys[parent];
+			heapNodes[pos] = heapNodes[parent];
+			pos = parent;
+		}
+		heapKeys[pos] = key;
+		heapNodes[pos] = node;
+	}
+
+	private long pop() {
+		long result = heapNodes[0];
+		heapSize--;
+		double key = heapKeys[heapSize];
+		long node = heapNodes[heapSize];
+		int pos = 0;
+		int half = heapSize >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+				child++;
+			}
+			if (key <= heapKeys[child]) {
+				break;
+			}
+			heapKeys[pos] = heapKeys[child];
+			heapNodes[pos] = heapNodes[child];
+			pos = child;
+		}
+		heapKeys[pos] = key;
+		heapNodes[pos] = node;
+		return result;
+	}
+}
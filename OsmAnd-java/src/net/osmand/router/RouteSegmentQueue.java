@@ -0,0 +1,222 @@
+package net.osmand.router;
+
+import java.util.Comparator;
+
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Binary min-heap of route segments with decrease-key.
+ * Segments added with key (route point id) are indexed by key, so segment with the same key
+ * is never queued twice : better segment replaces worse one in place.
+ * Segments added without key are queued as is (as in PriorityQueue).
+ */
+class RouteSegmentQueue {
+
+	private static final long NO_KEY = Long.MIN_VALUE;
+
+	private final Comparator<RouteSegment> comparator;
+	private RouteSegment[] heap = new RouteSegment[64];
+	private long[] heapKeys = new long[64];
+	private int size = 0;
+
+	// key -> position in heap (open addressing, linear probing)
+	private long[] tableKeys;
+	private int[] tablePositions;
+	private int tableSize = 0;
+	private int mask;
+
+	public RouteSegmentQueue(Comparator<RouteSegment> comparator) {
+		this.comparator = comparator;
+		initTable(64);
+	}
+
+	private void initTable(int capacity) {
+		tableKeys = new long[capacity];
+		tablePositions = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < capacity; i++) {
+			tableKeys[i] = NO_KEY;
+		}
+	}
+
+	public void add(RouteSegment segment) {
+		insert(segment, NO_KEY);
+	}
+
+	/**
+	 * Adds segment or updates queued segment with the same key if new segment is better.
+	 * Segment already queued with changed (decreased) values is moved to its new position.
+	 * Returns false if queued segment is not worse and new segment is dropped.
+	 */
+	public boolean addOrDecrease(long key, RouteSegment segment) {
+		int slot = findSlot(key);
+		if (tableKeys[slot] == NO_KEY) {
+			insert(segment, key);
+			return true;
+		}
+		int pos = tablePositions[slot];
+		if (heap[pos] != segment) {
+			if (comparator.compare(segment, heap[pos]) >= 0) {
+				return false;
+			}
+			heap[pos] = segment;
+		}
+		siftUp(pos);
+		return true;
+	}
+
+	public RouteSegment peek() {
+		return size == 0 ? null : heap[0];
+	}
+
+	public RouteSegment poll() {
+		if (size == 0) {
+			return null;
+		}
+		RouteSegment result = heap[0];
+		if (heapKeys[0] != NO_KEY) {
+			removeKey(heapKeys[0]);
+		}
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			heapKeys[0] = heapKeys[size];
+			heap[size] = null;
+			siftDown(0);
+		} else {
+			heap[0] = null;
+		}
+		return result;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void insert(RouteSegment segment, long key) {
+		if (size == heap.length) {
+			RouteSegment[] nheap = new RouteSegment[size * 2];
+			System.arraycopy(heap, 0, nheap, 0, size);
+			heap = nheap;
+			long[] nkeys = new long[size * 2];
+			System.arraycopy(heapKeys, 0, nkeys, 0, size);
+			heapKeys = nkeys;
+		}
+		heap[size] = segment;
+		heapKeys[size] = key;
+		if (key != NO_KEY) {
+			if ((tableSize + 1) * 2 > tableKeys.length) {
+				rehash();
+			}
+			int slot = findSlot(key);
+			tableKeys[slot] = key;
+			tableSize++;
+		}
+		siftUp(size++);
+	}
+
+	private void siftUp(int pos) {
+		RouteSegment s = heap[pos];
+		long key = heapKeys[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (comparator.compare(s, heap[parent]) >= 0) {
+				break;
+			}
+			moveTo(parent, pos);
+			pos = parent;
+		}
+		heap[pos] = s;
+		heapKeys[pos] = key;
+		updatePosition(pos);
+	}
+
+	private void siftDown(int pos) {
+		RouteSegment s = heap[pos];
+		long key = heapKeys[pos];
+		int half = size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < size && comparator.compare(heap[right], heap[child]) < 0) {
+				child = right;
+			}
+			if (comparator.compare(s, heap[child]) <= 0) {
+				break;
+			}
+			moveTo(child, pos);
+			pos = child;
+		}
+		heap[pos] = s;
+		heapKeys[pos] = key;
+		updatePosition(pos);
+	}
+
+	private void moveTo(int from, int to) {
+		heap[to] = heap[from];
+		heapKeys[to] = heapKeys[from];
+		updatePosition(to);
+	}
+
+	private void updatePosition(int pos) {
+		if (heapKeys[pos] != NO_KEY) {
+			tablePositions[findSlot(heapKeys[pos])] = pos;
+		}
+	}
+
+	private int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	// slot with the key or empty slot where key should be inserted
+	private int findSlot(long key) {
+		int slot = hash(key);
+		while (tableKeys[slot] != NO_KEY && tableKeys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void removeKey(long key) {
+		int slot = findSlot(key);
+		if (tableKeys[slot] == NO_KEY) {
+			return;
+		}
+		tableSize--;
+		// shift following keys of the cluster back to keep them reachable
+		int free = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & mask;
+			if (tableKeys[next] == NO_KEY) {
+				break;
+			}
+			int home = hash(tableKeys[next]);
+			boolean reachable = free <= next ? (free < home && home <= next) : (free < home || home <= next);
+			if (!reachable) {
+				tableKeys[free] = tableKeys[next];
+				tablePositions[free] = tablePositions[next];
+				free = next;
+			}
+		}
+		tableKeys[free] = NO_KEY;
+	}
+
+	private void rehash() {
+		long[] oldKeys = tableKeys;
+		int[] oldPositions = tablePositions;
+		initTable(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != NO_KEY) {
+				int slot = findSlot(oldKeys[i]);
+				tableKeys[slot] = oldKeys[i];
+				tablePositions[slot] = oldPositions[i];
+			}
+		}
+	}
+}
@@ -11,7 +11,7 @@ import net.osmand.util.MapUtils;
 
 
 public class RouteSegmentResult {
-	private final RouteDataObject object;
+	private RouteDataObject object;
 	private int startPointIndex;
 	private int endPointIndex;
 	private List<RouteSegmentResult>[] attachedRoutes;
@@ -33,6 +33,10 @@ public class RouteSegmentResult {
 	}
 	
 
+	void setObject(RouteDataObject object) {
+		this.object = object;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void updateCapacity() {
 		int capacity = Math.abs(endPointIndex - startPointIndex) + 1;
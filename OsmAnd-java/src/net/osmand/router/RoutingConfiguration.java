@@ -5,12 +5,16 @@ import gnu.trove.set.hash.TLongHashSet;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.router.GeneralRouter.GeneralRouterProfile;
 import net.osmand.router.GeneralRouter.RouteAttributeContext;
@@ -29,10 +33,18 @@ public class RoutingConfiguration {
 	// 1. parameters of routing and different tweaks
 	// Influence on A* : f(x) + heuristicCoefficient*g(X)
 	public float heuristicCoefficient = 1;
+	// landmark distances of routing profile to estimate h(x) by triangle inequality (null - straight line distance)
+	public RouteLandmarks landmarks;
 	
 	// 1.1 tile load parameters (should not affect routing)
 	public int ZOOM_TO_LOAD_TILES = 16;
 	public int memoryLimitation;
+	// keep roads of loaded tiles packed in primitive arrays (less memory, objects are created on access)
+	public boolean packedTiles = false;
+	// find start and end road segments by segment indexes of loaded tiles (instead of checking all roads)
+	public boolean segmentIndex = false;
+	// number of threads to calculate legs between intermediate points (1 - sequentially)
+	public int legThreads = 1;
 
 	// 1.2 Build A* graph in backward/forward direction (can affect results)
 	// 0 - 2 ways, 1 - direct way, -1 - reverse way
@@ -48,6 +60,57 @@ public class RoutingConfiguration {
 	
 	// 1.5 Recalculate distance help
 	public float recalculateDistance = 20000f;
+	// keep search tree from target in routing context and reuse it for recalculations to the same target
+	public boolean incrementalRecalculation = false;
+	
+	/**
+	 * Copy of configuration with own router caches to calculate routes in another thread
+	 */
+	public RoutingConfiguration createThreadCopy() {
+		RoutingConfiguration c = new RoutingConfiguration();
+		c.attributes.putAll(attributes);
+		c.heuristicCoefficient = heuristicCoefficient;
+		c.landmarks = landmarks;
+		c.ZOOM_TO_LOAD_TILES = ZOOM_TO_LOAD_TILES;
+		c.memoryLimitation = memoryLimitation;
+		c.packedTiles = packedTiles;
+		c.segmentIndex = segmentIndex;
+		c.legThreads = legThreads;
+		c.planRoadDirection = planRoadDirection;
+		c.router = router.createThreadCopy();
+		c.routerName = routerName;
+		c.incrementalRecalculation = incrementalRecalculation;
+		c.initialDirection = initialDirection;
+		c.recalculateDistance = recalculateDistance;
+		return c;
+	}
+
+	/**
+	 * Hash of routing graph : router with its parameters, impassable roads and maps (by routing regions and dates).
+	 * Precalculated data (contraction hierarchy, landmarks) could be used only with the same hash.
+	 */
+	public int calculateGraphHash(Collection<BinaryMapIndexReader> maps) {
+		int hash = routerName.hashCode();
+		String[] keys = router.getObjContext(RouteDataObjectAttribute.ACCESS).getParamKeys();
+		String[] values = router.getObjContext(RouteDataObjectAttribute.ACCESS).getParamValues();
+		int paramsHash = 0;
+		for (int i = 0; i < keys.length; i++) {
+			// order of parameters is not important
+			paramsHash += keys[i].hashCode() ^ (values[i] == null ? 0 : values[i].hashCode());
+		}
+		hash = 31 * hash + paramsHash;
+		long[] impassable = router.getImpassableRoadIds();
+		Arrays.sort(impassable);
+		hash = 31 * hash + Arrays.hashCode(impassable);
+		int mapsHash = 0;
+		for (BinaryMapIndexReader r : maps) {
+			for (RouteRegion reg : r.getRoutingIndexes()) {
+				// order of maps is not important
+				mapsHash += (31 * String.valueOf(reg.getName()).hashCode()) ^ (int) (r.getDateCreated() ^ (r.getDateCreated() >>> 32));
+			}
+		}
+		return 31 * hash + mapsHash;
+	}
 	
 
 	public static class Builder {
@@ -89,6 +152,11 @@ public class RoutingConfiguration {
 			i.heuristicCoefficient = parseSilentFloat(getAttribute(i.router, "heuristicCoefficient"), i.heuristicCoefficient);
 			i.router.addImpassableRoads(impassableRoadIds);
 			i.ZOOM_TO_LOAD_TILES = parseSilentInt(getAttribute(i.router, "zoomToLoadTiles"), i.ZOOM_TO_LOAD_TILES);
+			i.packedTiles = parseSilentBoolean(getAttribute(i.router, "packedTiles"), i.packedTiles);
+			i.segmentIndex = parseSilentBoolean(getAttribute(i.router, "segmentIndex"), i.segmentIndex);
+			i.legThreads = parseSilentInt(getAttribute(i.router, "legThreads"), i.legThreads);
+			i.incrementalRecalculation = parseSilentBoolean(getAttribute(i.router, "incrementalRecalculation"),
+					i.incrementalRecalculation);
 			int desirable = parseSilentInt(getAttribute(i.router, "memoryLimitInMB"), 0);
 			if(desirable != 0) {
 				i.memoryLimitation = desirable * (1 << 20); 
@@ -160,6 +228,13 @@ public class RoutingConfiguration {
 		return Float.parseFloat(t);
 	}
 
+	private static boolean parseSilentBoolean(String t, boolean v) {
+		if (t == null || t.length() == 0) {
+			return v;
+		}
+		return Boolean.parseBoolean(t);
+	}
+
 	
 	private static RoutingConfiguration.Builder DEFAULT;
 
@@ -12,11 +12,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import net.osmand.NativeLibrary;
 import net.osmand.NativeLibrary.NativeRouteSearchResult;
@@ -29,6 +31,7 @@ import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
 import net.osmand.router.BinaryRoutePlanner.RouteSegmentVisitor;
 import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
 
@@ -66,7 +69,18 @@ public class RoutingContext {
 	public RouteCalculationProgress calculationProgress;
 	public boolean leftSideNavigation;
 	public List<RouteSegmentResult> previouslyCalculatedRoute;
+	// search tree kept between recalculations to the same target (RoutingConfiguration.incrementalRecalculation),
+	// it is set by caller from context of previous calculation
+	public RouteIncrementalSearch incrementalSearch;
 	public PrecalculatedRouteDirection precalculatedRouteDirection;
+	// used in RouteCalculationMode.HIERARCHY
+	public RouteContractionHierarchy contractionHierarchy;
+	// decoded tiles shared with other contexts (null - tiles are loaded by context)
+	public RoutingTileCache tileCache;
+	// landmarks of config if they are built for router of config
+	RouteLandmarks landmarks;
+	// alternative routes collected by search (null - search stops when route is found)
+	RouteAlternatives alternatives;
 
 	// 2. Routing memory cache (big objects)
 	TLongObjectHashMap<List<RoutingSubregionTile>> indexedSubregions = new TLongObjectHashMap<List<RoutingSubregionTile>>();
@@ -74,6 +88,8 @@ public class RoutingContext {
 	
 	// Needs to be a sorted array list . Another option to use hashmap but it will be more memory expensive
 	List<RoutingSubregionTile> subregionTiles = new ArrayList<RoutingSubregionTile>();
+	// loaded tiles of parent context : they are not counted in size of this context and not unloaded by it
+	private Set<RoutingSubregionTile> parentTiles = Collections.emptySet();
 	
 	// 3. Warm object caches
 	ArrayList<RouteSegment> segmentsToVisitPrescripted = new ArrayList<BinaryRoutePlanner.RouteSegment>(5);
@@ -94,6 +110,7 @@ public class RoutingContext {
 	
 	int distinctLoadedTiles = 0;
 	int maxLoadedTiles = 0;
+	int maxEstimatedSize = 0;
 	int loadedPrevUnloadedTiles = 0;
 	int unloadedTiles = 0;
 	public float routingTime = 0;
@@ -116,20 +133,15 @@ public class RoutingContext {
 		this.leftSideNavigation = cp.leftSideNavigation;
 		this.reverseMap.putAll(cp.reverseMap);
 		this.nativeLib = cp.nativeLib;
-		// copy local data and clear caches
-		for(RoutingSubregionTile tl : subregionTiles) {
+		this.contractionHierarchy = cp.contractionHierarchy;
+		this.tileCache = cp.tileCache;
+		this.landmarks = cp.landmarks;
+		// copy local data (segments of tiles are not modified by search, it works with their copies)
+		parentTiles = new HashSet<RoutingSubregionTile>();
+		for(RoutingSubregionTile tl : cp.subregionTiles) {
 			if(tl.isLoaded()) {
 				subregionTiles.add(tl);
-				for (RouteSegment rs : tl.routes.valueCollection()) {
-					RouteSegment s = rs;
-					while (s != null) {
-						s.parentRoute = null;
-						s.parentSegmentEnd = 0;
-						s.distanceFromStart = 0;
-						s.distanceToEnd = 0;
-						s = s.next;
-					}
-				}
+				parentTiles.add(tl);
 			}
 		}
 	}
@@ -151,9 +163,39 @@ public class RoutingContext {
 		}
 		this.config = config;
 		this.nativeLib = nativeLibrary;
+		if (config.landmarks != null) {
+			if (!config.landmarks.getRouterName().equals(config.routerName)) {
+				log.warn("Landmarks are built for another profile " + config.landmarks.getRouterName());
+			} else if (config.landmarks.getGraphHash() != config.calculateGraphHash(this.map.keySet())) {
+				log.warn("Landmarks are built for other routing parameters, impassable roads or maps");
+			} else {
+				this.landmarks = config.landmarks;
+			}
+		}
 	}
 	
 	
+	/**
+	 * Context to calculate in another thread : own map cursors and router caches
+	 * @param progress progress of worker threads (see {@link RoutingWorkers})
+	 * @param threads memory limit is split between contexts of concurrent threads
+	 */
+	public RoutingContext createThreadContext(RouteCalculationProgress progress, int threads) {
+		BinaryMapIndexReader[] maps = getMaps();
+		BinaryMapIndexReader[] cursors = new BinaryMapIndexReader[maps.length];
+		for (int i = 0; i < maps.length; i++) {
+			cursors[i] = maps[i].getThreadCursor();
+		}
+		RoutingConfiguration cf = config.createThreadCopy();
+		cf.memoryLimitation = config.memoryLimitation / threads;
+		RoutingContext local = new RoutingContext(cf, null, cursors, calculationMode);
+		local.leftSideNavigation = leftSideNavigation;
+		local.contractionHierarchy = contractionHierarchy;
+		local.tileCache = tileCache;
+		local.calculationProgress = progress;
+		return local;
+	}
+	
 	public RouteSegmentVisitor getVisitor() {
 		return visitor;
 	}
@@ -171,6 +213,13 @@ public class RoutingContext {
 	public int getCurrentEstimatedSize(){
 		return global.size;
 	}
+
+	/**
+	 * Maximal estimated size of loaded tiles during context life
+	 */
+	public int getMaxEstimatedSize() {
+		return maxEstimatedSize;
+	}
 	
 	
 	public void setVisitor(RouteSegmentVisitor visitor) {
@@ -223,15 +272,18 @@ public class RoutingContext {
 	
 	public void unloadAllData(RoutingContext except) {
 		for (RoutingSubregionTile tl : subregionTiles) {
-			if (tl.isLoaded()) {
+			if (tl.isLoaded() && !parentTiles.contains(tl)) {
 				if(except == null || except.searchSubregionTile(tl.subregion) < 0){
+					// segment index is counted in global size too
+					int size = tl.getEstimatedSize();
 					tl.unload();
 					unloadedTiles ++;
-					global.size -= tl.tileStatistics.size;
+					global.size -= size;
 				}
 			}
 		}
 		subregionTiles.clear();
+		parentTiles = Collections.emptySet();
 		tileRoutes.clear();		
 		indexedSubregions.clear();
 	}
@@ -314,17 +366,10 @@ public class RoutingContext {
 			long now = System.nanoTime();
 			try {
 				BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
-				ts.setLoadedNonNative();
-				List<RouteDataObject> res = reader.loadRouteIndexData(ts.subregion);
-//				System.out.println(ts.subregion.shiftToData + " " + res);
-				if(toLoad != null) {
-					toLoad.addAll(res);
+				if (tileCache != null && toLoad == null) {
+					ts.setLoadedShared(tileCache.getTile(reader, ts.subregion, config));
 				} else {
-					for(RouteDataObject ro : res){
-						if(ro != null && config.router.acceptLine(ro)) {
-							ts.add(ro);
-						}
-					}
+					loadSubregionTileData(reader, ts, toLoad);
 				}
 			} catch (IOException e) {
 				throw new RuntimeException("Loading data exception", e);
@@ -352,6 +397,33 @@ public class RoutingContext {
 			distinctLoadedTiles++;
 		}
 		global.size += ts.tileStatistics.size;
+		maxEstimatedSize = Math.max(maxEstimatedSize, global.size);
+		// tile is loaded and counted by this context
+		parentTiles.remove(ts);
+	}
+
+	private void loadSubregionTileData(BinaryMapIndexReader reader, final RoutingSubregionTile ts, List<RouteDataObject> toLoad)
+			throws IOException {
+		ts.setLoadedNonNative();
+		List<RouteDataObject> res = reader.loadRouteIndexData(ts.subregion);
+//		System.out.println(ts.subregion.shiftToData + " " + res);
+		if(toLoad != null) {
+			toLoad.addAll(res);
+		} else if (config.packedTiles) {
+			List<RouteDataObject> accepted = new ArrayList<RouteDataObject>(res.size());
+			for(RouteDataObject ro : res){
+				if(ro != null && config.router.acceptLine(ro)) {
+					accepted.add(ro);
+				}
+			}
+			ts.setLoadedPacked(new PackedRouteTile(ts.subregion.routeReg, accepted));
+		} else {
+			for(RouteDataObject ro : res){
+				if(ro != null && config.router.acceptLine(ro)) {
+					ts.add(ro);
+				}
+			}
+		}
 	}
 
 	private List<RoutingSubregionTile> loadTileHeaders(final int x31, final int y31) {
@@ -457,6 +529,68 @@ public class RoutingContext {
 		timeToFindInitialSegments += (System.nanoTime() - now);
 	}
 	
+	/**
+	 * Nearest segments of k nearest roads around point (sorted by distance) found by segment indexes of loaded tiles,
+	 * null if some tile could not be indexed (native tiles)
+	 */
+	public List<RouteSegmentPoint> searchNearestRouteSegments(int x31, int y31, int zoomAround, int k) {
+		int t =  config.ZOOM_TO_LOAD_TILES - zoomAround;
+		int coordinatesShift = (1 << (31 - config.ZOOM_TO_LOAD_TILES));
+		if(t <= 0) {
+			t = 1;
+			coordinatesShift = (1 << (31 - zoomAround));
+		} else {
+			t = 1 << t;
+		}
+		long now = System.nanoTime();
+		TLongHashSet ts = new TLongHashSet();
+		for(int i = -t; i <= t; i++) {
+			for(int j = -t; j <= t; j++) {
+				ts.add(getRoutingTile(x31 +i*coordinatesShift, y31 + j*coordinatesShift, 0, OPTION_IN_MEMORY_LOAD));
+			}
+		}
+		List<RoutingSubregionTile> tiles = new ArrayList<RoutingSubregionTile>();
+		TLongIterator it = ts.iterator();
+		while (it.hasNext()) {
+			long tileId = it.next();
+			if (tileRoutes.containsKey(tileId)) {
+				return null;
+			}
+			List<RoutingSubregionTile> subregions = indexedSubregions.get(tileId);
+			if (subregions != null) {
+				for (RoutingSubregionTile rs : subregions) {
+					if (!tiles.contains(rs)) {
+						tiles.add(rs);
+					}
+				}
+			}
+		}
+		List<RouteSegmentPoint> list = new ArrayList<RouteSegmentPoint>();
+		for (RoutingSubregionTile rs : tiles) {
+			RouteSegmentIndex index = rs.getSegmentIndex(this);
+			if (index == null) {
+				return null;
+			}
+			list.addAll(index.searchNearest(x31, y31, k, null));
+		}
+		Collections.sort(list, new Comparator<RouteSegmentPoint>() {
+			@Override
+			public int compare(RouteSegmentPoint o1, RouteSegmentPoint o2) {
+				return Double.compare(o1.dist, o2.dist);
+			}
+		});
+		// the same road could be found in different tiles
+		TLongHashSet roads = new TLongHashSet();
+		List<RouteSegmentPoint> result = new ArrayList<RouteSegmentPoint>(k);
+		for (RouteSegmentPoint p : list) {
+			if (result.size() < k && roads.add(p.getRoad().getId())) {
+				result.add(p);
+			}
+		}
+		timeToFindInitialSegments += (System.nanoTime() - now);
+		return result;
+	}
+	
 	@SuppressWarnings("unused")
 	private long getRoutingTile(int x31, int y31, int memoryLimit, int loadOptions){
 //		long now = System.nanoTime();
@@ -528,7 +662,7 @@ public class RoutingContext {
 		List<RoutingSubregionTile> list = new ArrayList<RoutingSubregionTile>(subregionTiles.size() / 2);
 		int loaded = 0;
 		for(RoutingSubregionTile t : subregionTiles) {
-			if(t.isLoaded()) {
+			if(t.isLoaded() && !parentTiles.contains(t)) {
 				list.add(t);
 				loaded++;
 			}
@@ -554,9 +688,10 @@ public class RoutingContext {
 			RoutingSubregionTile unload = list.get(i);
 			i++;
 //			System.out.println("Unload " + unload);
+			int size = unload.getEstimatedSize();
 			unload.unload();
 			unloadedTiles ++;
-			global.size -= unload.tileStatistics.size;
+			global.size -= size;
 			// tile could be cleaned from routing tiles and deleted from whole list
 			
 		}
@@ -608,7 +743,11 @@ public class RoutingContext {
 	
 	
 	private static long calcRouteId(RouteDataObject o, int ind) {
-		return (o.getId() << 10) + ind;
+		return calcRouteId(o.getId(), ind);
+	}
+	
+	private static long calcRouteId(long id, int ind) {
+		return (id << 10) + ind;
 	}
 
 
@@ -621,6 +760,9 @@ public class RoutingContext {
 		private NativeRouteSearchResult searchResult = null;
 		private int isLoaded = 0;
 		private TLongObjectMap<RouteSegment> routes = null;
+		private PackedRouteTile packed = null;
+		// built on first nearest segments search
+		private RouteSegmentIndex segmentIndex = null;
 
 		public RoutingSubregionTile(RouteSubregion subregion) {
 			this.subregion = subregion;
@@ -644,6 +786,14 @@ public class RoutingContext {
 						rs = rs.next;
 					}
 				}
+			} else if(packed != null) {
+				for (int r = 0; r < packed.getRoadsCount(); r++) {
+					if (!excludeDuplications.contains(packed.getRoadId(r))) {
+						RouteDataObject ro = packed.createRoad(r);
+						excludeDuplications.put(ro.id, ro);
+						toFillIn.add(ro);
+					}
+				}
 			} else if(searchResult != null) {
 				RouteDataObject[] objects = searchResult.objects;
 				if(objects != null) {
@@ -659,10 +809,31 @@ public class RoutingContext {
 		
 		private RouteSegment loadRouteSegment(int x31, int y31, RoutingContext ctx, 
 				TLongObjectHashMap<RouteDataObject> excludeDuplications, RouteSegment original) {
-			if(searchResult == null && routes == null) {
+			if(searchResult == null && routes == null && packed == null) {
 				return original;
 			}
 			access++;
+			if (packed != null) {
+				int point = packed.searchPoint(x31, y31);
+				if (point != -1) {
+					// same order as segments chain of not packed tile
+					while (packed.isPointKey(point, x31, y31)) {
+						int road = packed.getPointRoad(point);
+						int ind = packed.getPointIndex(point);
+						long routeId = calcRouteId(packed.getRoadId(road), ind);
+						RouteDataObject toCmp = excludeDuplications.get(routeId);
+						if (toCmp == null || toCmp.getPointsLength() < packed.getRoadPointsLength(road)) {
+							RouteDataObject ro = packed.createRoad(road);
+							excludeDuplications.put(routeId, ro);
+							RouteSegment s = new RouteSegment(ro, ind);
+							s.next = original;
+							original = s;
+						}
+						point++;
+					}
+				}
+				return original;
+			}
 			if (searchResult == null) {
 				long l = (((long) x31) << 31) + (long) y31;
 				RouteSegment segment = routes.get(l);
@@ -712,6 +883,24 @@ public class RoutingContext {
 			return isLoaded > 0;
 		}
 		
+		public int getEstimatedSize() {
+			return tileStatistics.size + (segmentIndex != null ? segmentIndex.getEstimatedSize() : 0);
+		}
+		
+		/**
+		 * Index of road segments of loaded tile (null if roads are kept by native library)
+		 */
+		public RouteSegmentIndex getSegmentIndex(RoutingContext ctx) {
+			if (segmentIndex == null && isLoaded() && (routes != null || packed != null)) {
+				List<RouteDataObject> roads = new ArrayList<RouteDataObject>();
+				loadAllObjects(roads, ctx, new TLongObjectHashMap<RouteDataObject>());
+				segmentIndex = new RouteSegmentIndex(roads);
+				ctx.global.size += segmentIndex.getEstimatedSize();
+				ctx.maxEstimatedSize = Math.max(ctx.maxEstimatedSize, ctx.global.size);
+			}
+			return segmentIndex;
+		}
+		
 		public int getUnloadCont(){
 			return Math.abs(isLoaded);
 		}
@@ -731,6 +920,8 @@ public class RoutingContext {
 			}
 			searchResult = null;
 			routes = null;
+			packed = null;
+			segmentIndex = null;
 		}
 		
 		public void setLoadedNonNative(){
@@ -739,6 +930,22 @@ public class RoutingContext {
 			tileStatistics = new TileStatistics();
 		}
 		
+		public void setLoadedPacked(PackedRouteTile packed) {
+			routes = null;
+			this.packed = packed;
+			tileStatistics = new TileStatistics();
+			tileStatistics.allRoutes = packed.getRoadsCount();
+			tileStatistics.coordinates = packed.getCoordinatesCount();
+			tileStatistics.size = packed.getEstimatedSize();
+		}
+		
+		public void setLoadedShared(RoutingSubregionTile shared) {
+			isLoaded = Math.abs(isLoaded) + 1;
+			routes = shared.routes;
+			packed = shared.packed;
+			tileStatistics = shared.tileStatistics;
+		}
+		
 		public void add(RouteDataObject ro) {
 			tileStatistics.addObject(ro);
 			for (int i = 0; i < ro.pointsX.length; i++) {
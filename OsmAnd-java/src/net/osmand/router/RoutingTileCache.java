@@ -0,0 +1,162 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.RoutingContext.RoutingSubregionTile;
+
+/**
+ * Thread safe cache of decoded routing tiles which could be shared by many routing contexts
+ * (for example by recalculations of route or concurrent requests of routing service). Tile is decoded once
+ * (by subregion file pointer) with roads accepted by router, contexts keep search state in own segments.
+ * Cache is cleared if it is used with another router, its parameters or impassable roads
+ * (so separate cache should be kept for every profile used at the same time).
+ * Least recently used tiles are evicted when estimated size exceeds memory limit.
+ */
+public class RoutingTileCache {
+
+	private final int memoryLimit;
+	private final boolean packed;
+	private final LinkedHashMap<TileKey, CachedTile> tiles = new LinkedHashMap<TileKey, CachedTile>(64, 0.75f, true);
+	// routing graph of cached tiles (see RoutingConfiguration.calculateGraphHash)
+	private Integer graphHash;
+	private int size;
+	private int hits;
+	private int misses;
+
+	public RoutingTileCache(int memoryLimitMB, boolean packed) {
+		this.memoryLimit = memoryLimitMB * (1 << 20);
+		this.packed = packed;
+	}
+
+	RoutingSubregionTile getTile(BinaryMapIndexReader reader, RouteSubregion subregion, RoutingConfiguration config)
+			throws IOException {
+		TileKey key = new TileKey(subregion.routeReg, subregion.filePointer);
+		// maps are not included, tiles are identified by region
+		int hash = config.calculateGraphHash(Collections.<BinaryMapIndexReader>emptyList());
+		CachedTile cached;
+		synchronized (this) {
+			if (graphHash == null || graphHash.intValue() != hash) {
+				tiles.clear();
+				size = 0;
+				graphHash = hash;
+			}
+			cached = tiles.get(key);
+			if (cached == null) {
+				cached = new CachedTile();
+				tiles.put(key, cached);
+				misses++;
+			} else {
+				hits++;
+			}
+		}
+		// other contexts wait while tile is decoded
+		synchronized (cached) {
+			if (cached.tile == null) {
+				RoutingSubregionTile tile = new RoutingSubregionTile(subregion);
+				List<RouteDataObject> res = reader.loadRouteIndexData(subregion);
+				List<RouteDataObject> accepted = new ArrayList<RouteDataObject>(res.size());
+				for (RouteDataObject ro : res) {
+					if (ro != null && config.router.acceptLine(ro)) {
+						accepted.add(ro);
+					}
+				}
+				if (packed) {
+					tile.setLoadedPacked(new PackedRouteTile(subregion.routeReg, accepted));
+				} else {
+					tile.setLoadedNonNative();
+					for (RouteDataObject ro : accepted) {
+						tile.add(ro);
+					}
+				}
+				cached.tile = tile;
+				synchronized (this) {
+					if (tiles.get(key) == cached) {
+						cached.size = tile.tileStatistics.size;
+						size += cached.size;
+						evictTiles(cached);
+					}
+				}
+			}
+			return cached.tile;
+		}
+	}
+
+	private void evictTiles(CachedTile keep) {
+		Iterator<CachedTile> it = tiles.values().iterator();
+		while (size > memoryLimit && it.hasNext()) {
+			CachedTile t = it.next();
+			if (t != keep) {
+				size -= t.size;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		tiles.clear();
+		size = 0;
+		graphHash = null;
+	}
+
+	public synchronized int getSize() {
+		return size;
+	}
+
+	public synchronized int getTilesCount() {
+		return tiles.size();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Routing tiles " + tiles.size() + " size " + (size / (float) (1 << 20)) + " MB hits " + hits + " misses "
+				+ misses;
+	}
+
+	private static class CachedTile {
+		private RoutingSubregionTile tile;
+		// accounted size (0 while tile is decoded)
+		private int size;
+	}
+
+	private static class TileKey {
+		// same region object is shared by thread cursors of one file
+		private final RouteRegion region;
+		private final int filePointer;
+
+		public TileKey(RouteRegion region, int filePointer) {
+			this.region = region;
+			this.filePointer = filePointer;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(region) * 31 + filePointer;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TileKey)) {
+				return false;
+			}
+			TileKey other = (TileKey) obj;
+			return region == other.region && filePointer == other.filePointer;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs route calculation tasks on several threads of executor. Workers share own progress :
+ * failure of one worker cancels the others, cancellation of caller's progress is passed to workers,
+ * but caller's progress is not changed by workers.
+ */
+class RoutingWorkers {
+
+	// how often waiting thread passes cancellation of caller to workers
+	private static final int CANCEL_CHECK_MS = 100;
+
+	interface Worker {
+		/**
+		 * @param progress should be used by contexts of worker (see {@link RoutingContext#createThreadContext(RouteCalculationProgress)})
+		 */
+		void run(int worker, RouteCalculationProgress progress) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Waits until all workers are finished, exception of the first failed worker is rethrown
+	 */
+	static void run(ExecutorService executor, RouteCalculationProgress callerProgress, int workers, final Worker worker)
+			throws IOException, InterruptedException {
+		final RouteCalculationProgress progress = new RouteCalculationProgress();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+		for (int k = 0; k < workers; k++) {
+			final int w = k;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					worker.run(w, progress);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> f : futures) {
+				while (true) {
+					try {
+						f.get(CANCEL_CHECK_MS, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						if (callerProgress != null && callerProgress.isCancelled) {
+							progress.isCancelled = true;
+						}
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			progress.isCancelled = true;
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof InterruptedException) {
+				throw (InterruptedException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			progress.isCancelled = true;
+			throw e;
+		}
+		if (progress.isCancelled || (callerProgress != null && callerProgress.isCancelled)) {
+			throw new InterruptedException("Route calculation interrupted");
+		}
+	}
+}
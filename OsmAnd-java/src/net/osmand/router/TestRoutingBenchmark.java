@@ -0,0 +1,360 @@
+package net.osmand.router;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Routing benchmark : obf files are opened once, corpus of routes (test xml files of {@link TestRouting} or csv)
+ * is calculated after warm-up passes several times by several threads. Metrics of every route are written
+ * as csv, percentiles of metrics are printed as summary (to compare performance of different versions).
+ */
+public class TestRoutingBenchmark {
+
+	private static final String[] METRICS = new String[] { "wall_ms", "calculate_ms", "load_ms", "visited_segments",
+			"loaded_tiles", "peak_memory" };
+	private static final double[] PERCENTILES = new double[] { 50, 90, 95, 99 };
+
+	public static class BenchmarkRoute {
+		public final String description;
+		public final String vehicle;
+		public final LatLon start;
+		public final LatLon end;
+
+		public BenchmarkRoute(String description, String vehicle, LatLon start, LatLon end) {
+			this.description = description;
+			this.vehicle = vehicle;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	public static class RouteMetrics {
+		public BenchmarkRoute route;
+		public int iteration;
+		public boolean found;
+		public String error;
+		public double wallTime;
+		public double calculateTime;
+		public double loadTime;
+		public int visitedSegments;
+		public int loadedTiles;
+		public int peakMemory;
+		public float routingTime;
+		public float distance;
+
+		public double getMetric(int i) {
+			switch (i) {
+			case 0: return wallTime;
+			case 1: return calculateTime;
+			case 2: return loadTime;
+			case 3: return visitedSegments;
+			case 4: return loadedTiles;
+			default: return peakMemory;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args == null || args.length == 0) {
+			info();
+			return;
+		}
+		TestRouting.Parameters params = TestRouting.Parameters.init(args);
+		int warmup = 1;
+		int repeat = 3;
+		int threads = 1;
+		int memoryLimit = TestRouting.MEMORY_TEST_LIMIT;
+		String output = null;
+		List<BenchmarkRoute> routes = new ArrayList<BenchmarkRoute>();
+		for (String a : args) {
+			if (a.startsWith("-warmup=")) {
+				warmup = Integer.parseInt(a.substring("-warmup=".length()));
+			} else if (a.startsWith("-repeat=")) {
+				repeat = Integer.parseInt(a.substring("-repeat=".length()));
+			} else if (a.startsWith("-threads=")) {
+				threads = Integer.parseInt(a.substring("-threads=".length()));
+			} else if (a.startsWith("-memoryLimit=")) {
+				memoryLimit = Integer.parseInt(a.substring("-memoryLimit=".length()));
+			} else if (a.startsWith("-output=")) {
+				output = a.substring("-output=".length());
+			} else if (a.startsWith("-csv=")) {
+				routes.addAll(readCsv(new File(a.substring("-csv=".length())), params.vehicle));
+			}
+		}
+		for (File f : params.tests) {
+			routes.addAll(readTests(f, params.vehicle));
+		}
+		if (routes.isEmpty()) {
+			info();
+			return;
+		}
+		BinaryMapIndexReader[] rs = TestRouting.collectFiles(params.obfDir.getAbsolutePath());
+		TestRoutingBenchmark benchmark = new TestRoutingBenchmark(params.configBuilder, rs, memoryLimit);
+		for (int i = 0; i < warmup; i++) {
+			System.out.println("Warm-up " + (i + 1));
+			benchmark.run(routes, -1, threads);
+		}
+		List<RouteMetrics> metrics = new ArrayList<RouteMetrics>();
+		for (int i = 0; i < repeat; i++) {
+			System.out.println("Iteration " + (i + 1));
+			metrics.addAll(benchmark.run(routes, i, threads));
+		}
+		PrintStream out = output == null ? System.out : new PrintStream(new FileOutputStream(output), false, "UTF-8");
+		writeMetrics(out, metrics);
+		if (out != System.out) {
+			out.close();
+		}
+		printSummary(System.out, metrics);
+	}
+
+	public static void info() {
+		System.out.println("Routing benchmark : calculates routes of test xml files and csv files "
+				+ "(start_lat,start_lon,target_lat,target_lon[,vehicle[,description]]) and prints metrics of every route and percentiles.");
+		System.out.println("\nUsage : [-routingXmlPath=PATH] -obfDir=PATH [-vehicle=VEHICLE_STRING] [-testDir=PATH] [-csv=PATH] "
+				+ "[-warmup=1] [-repeat=3] [-threads=1] [-memoryLimit=MB] [-output=PATH] {individualTestPath}");
+	}
+
+	private final RoutingConfiguration.Builder configBuilder;
+	private final BinaryMapIndexReader[] readers;
+	private final int memoryLimit;
+	private final Map<String, RoutingConfiguration> configs = new HashMap<String, RoutingConfiguration>();
+
+	public TestRoutingBenchmark(RoutingConfiguration.Builder configBuilder, BinaryMapIndexReader[] readers,
+			int memoryLimit) {
+		this.configBuilder = configBuilder;
+		this.readers = readers;
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Calculates all routes once (threads take routes from common list), returns metrics in order of routes
+	 */
+	public List<RouteMetrics> run(final List<BenchmarkRoute> routes, final int iteration, int threads)
+			throws Exception {
+		final RouteMetrics[] result = new RouteMetrics[routes.size()];
+		final AtomicInteger next = new AtomicInteger();
+		threads = Math.max(1, Math.min(threads, routes.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+			for (int k = 0; k < threads; k++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						BinaryMapIndexReader[] cursors = new BinaryMapIndexReader[readers.length];
+						for (int i = 0; i < readers.length; i++) {
+							cursors[i] = readers[i].getThreadCursor();
+						}
+						int i;
+						while ((i = next.getAndIncrement()) < routes.size()) {
+							result[i] = calculate(routes.get(i), iteration, cursors);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return Arrays.asList(result);
+	}
+
+	private RoutingConfiguration getConfig(String vehicle) {
+		synchronized (configs) {
+			RoutingConfiguration config = configs.get(vehicle);
+			if (config == null) {
+				config = configBuilder.build(vehicle, memoryLimit);
+				configs.put(vehicle, config);
+			}
+			return config.createThreadCopy();
+		}
+	}
+
+	private RouteMetrics calculate(BenchmarkRoute route, int iteration, BinaryMapIndexReader[] cursors) {
+		RouteMetrics m = new RouteMetrics();
+		m.route = route;
+		m.iteration = iteration;
+		RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(false);
+		long nt = System.nanoTime();
+		RoutingContext ctx = router.buildRoutingContext(getConfig(route.vehicle), null, cursors);
+		try {
+			// search time without building context (timeToCalculate of context is not a duration for several legs)
+			long searchStart = System.nanoTime();
+			List<RouteSegmentResult> res = router.searchRoute(ctx, route.start, route.end, null);
+			m.calculateTime = (System.nanoTime() - searchStart) / 1e6;
+			m.found = res != null;
+			if (res != null) {
+				for (RouteSegmentResult r : res) {
+					m.distance += r.getDistance();
+				}
+			}
+		} catch (Exception e) {
+			m.error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+		}
+		m.wallTime = (System.nanoTime() - nt) / 1e6;
+		m.loadTime = ctx.timeToLoad / 1e6;
+		m.visitedSegments = ctx.visitedSegments;
+		m.loadedTiles = ctx.loadedTiles;
+		m.peakMemory = ctx.getMaxEstimatedSize();
+		m.routingTime = ctx.routingTime;
+		ctx.unloadAllData();
+		return m;
+	}
+
+	private static List<BenchmarkRoute> readCsv(File f, String defVehicle) throws IOException {
+		List<BenchmarkRoute> routes = new ArrayList<BenchmarkRoute>();
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+		try {
+			String line;
+			int ln = 0;
+			while ((line = r.readLine()) != null) {
+				ln++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#") || line.startsWith("start_lat")) {
+					continue;
+				}
+				String[] s = line.split(",");
+				if (s.length < 4) {
+					throw new IllegalArgumentException("Wrong line " + ln + " of " + f.getName() + " : " + line);
+				}
+				String vehicle = s.length > 4 && s[4].trim().length() > 0 ? s[4].trim() : defVehicle;
+				String description = s.length > 5 ? s[5].trim() : f.getName() + ":" + ln;
+				routes.add(new BenchmarkRoute(description, vehicle, new LatLon(Double.parseDouble(s[0]),
+						Double.parseDouble(s[1])), new LatLon(Double.parseDouble(s[2]), Double.parseDouble(s[3]))));
+			}
+		} finally {
+			r.close();
+		}
+		return routes;
+	}
+
+	private static List<BenchmarkRoute> readTests(File f, String defVehicle) throws Exception {
+		List<BenchmarkRoute> routes = new ArrayList<BenchmarkRoute>();
+		XmlPullParser parser = PlatformUtil.newXMLPullParser();
+		FileInputStream is = new FileInputStream(f);
+		try {
+			parser.setInput(is, "UTF-8");
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG && parser.getName().equals("test")) {
+					String skip = parser.getAttributeValue("", "skip_comment");
+					if (skip != null && skip.length() > 0) {
+						continue;
+					}
+					String vehicle = parser.getAttributeValue("", "vehicle");
+					String description = parser.getAttributeValue("", "description");
+					routes.add(new BenchmarkRoute(description == null ? f.getName() : description,
+							vehicle == null ? defVehicle : vehicle, new LatLon(
+							Double.parseDouble(parser.getAttributeValue("", "start_lat")),
+							Double.parseDouble(parser.getAttributeValue("", "start_lon"))), new LatLon(
+							Double.parseDouble(parser.getAttributeValue("", "target_lat")),
+							Double.parseDouble(parser.getAttributeValue("", "target_lon")))));
+				}
+			}
+		} finally {
+			is.close();
+		}
+		return routes;
+	}
+
+	public static void writeMetrics(PrintStream out, List<RouteMetrics> metrics) {
+		out.println("description,vehicle,iteration,status,routing_time,distance," + join(METRICS));
+		for (RouteMetrics m : metrics) {
+			StringBuilder b = new StringBuilder();
+			b.append(escape(m.route.description)).append(',').append(m.route.vehicle).append(',').append(m.iteration);
+			b.append(',').append(m.error != null ? escape("error: " + m.error) : (m.found ? "ok" : "not_found"));
+			b.append(',').append(format(m.routingTime)).append(',').append(format(m.distance));
+			for (int i = 0; i < METRICS.length; i++) {
+				b.append(',').append(format(m.getMetric(i)));
+			}
+			out.println(b);
+		}
+		out.flush();
+	}
+
+	public static void printSummary(PrintStream out, List<RouteMetrics> metrics) {
+		StringBuilder header = new StringBuilder("metric,count,mean");
+		for (double p : PERCENTILES) {
+			header.append(",p").append((int) p);
+		}
+		out.println(header.append(",max"));
+		for (int i = 0; i < METRICS.length; i++) {
+			double[] values = new double[metrics.size()];
+			int cnt = 0;
+			double sum = 0;
+			for (RouteMetrics m : metrics) {
+				if (m.error == null) {
+					values[cnt++] = m.getMetric(i);
+					sum += m.getMetric(i);
+				}
+			}
+			if (cnt == 0) {
+				continue;
+			}
+			values = Arrays.copyOf(values, cnt);
+			Arrays.sort(values);
+			StringBuilder b = new StringBuilder(METRICS[i]).append(',').append(cnt).append(',').append(format(sum / cnt));
+			for (double p : PERCENTILES) {
+				b.append(',').append(format(percentile(values, p)));
+			}
+			out.println(b.append(',').append(format(values[cnt - 1])));
+		}
+		out.flush();
+	}
+
+	// nearest rank percentile of sorted values
+	private static double percentile(double[] sorted, double p) {
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+
+	private static String join(String[] s) {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < s.length; i++) {
+			if (i > 0) {
+				b.append(',');
+			}
+			b.append(s[i]);
+		}
+		return b.toString();
+	}
+
+	private static String format(double d) {
+		if (d == Math.rint(d) && !Double.isInfinite(d)) {
+			return String.valueOf((long) d);
+		}
+		return String.format(Locale.US, "%.3f", d);
+	}
+
+	private static String escape(String s) {
+		if (s.indexOf(',') == -1 && s.indexOf('"') == -1) {
+			return s;
+		}
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+}
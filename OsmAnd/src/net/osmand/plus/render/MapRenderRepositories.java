@@ -30,10 +30,12 @@ import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
-import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
+import net.osmand.binary.MapDataBlockCache;
+import net.osmand.binary.MultiFileMapSearch;
+import net.osmand.binary.MultiFileMapSearch.FileSearchResult;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.QuadPointDouble;
 import net.osmand.data.QuadRect;
@@ -51,6 +53,7 @@ import net.osmand.render.RenderingRuleProperty;
 import net.osmand.render.RenderingRuleSearchRequest;
 import net.osmand.render.RenderingRuleStorageProperties;
 import net.osmand.render.RenderingRulesStorage;
+import net.osmand.render.RenderingRulesVisibility;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapAlgorithms;
 import net.osmand.util.MapUtils;
@@ -75,6 +78,12 @@ public class MapRenderRepositories {
 	static int zoomForBaseRouteRendering  = 14;
 	private Handler handler;
 	private Map<String, BinaryMapIndexReader> files = new ConcurrentHashMap<String, BinaryMapIndexReader>();
+	// decoded map blocks shared by all files, so small panning doesn't decode the same blocks again
+	private final static int MAP_DATA_BLOCK_CACHE_SIZE = 4 << 20;
+	private final MapDataBlockCache mapDataBlockCache = new MapDataBlockCache(MAP_DATA_BLOCK_CACHE_SIZE);
+	// files covering the same area (borders) are searched in parallel
+	// threads of search are created lazily and stopped with all resources
+	private MultiFileMapSearch mapSearch;
 	private Set<String> nativeFiles = new HashSet<String>();
 	private OsmandRenderer renderer;
 	
@@ -130,6 +139,7 @@ public class MapRenderRepositories {
 			closeConnection(files.get(file.getAbsolutePath()), file.getAbsolutePath());
 		
 		}
+		reader.setMapDataBlockCache(mapDataBlockCache);
 		files.put(file.getAbsolutePath(), reader);
 	}
 
@@ -150,6 +160,7 @@ public class MapRenderRepositories {
 				nativeFiles.remove(file);
 			}
 		}
+		mapDataBlockCache.removeIndexes(c.getMapIndexes());
 		try {
 			c.close();
 		} catch (IOException e) {
@@ -175,6 +186,19 @@ public class MapRenderRepositories {
 		for (String f : new ArrayList<String>(files.keySet())) {
 			closeConnection(files.get(f), f);
 		}
+		synchronized (this) {
+			if (mapSearch != null) {
+				mapSearch.shutdown();
+				mapSearch = null;
+			}
+		}
+	}
+
+	private synchronized MultiFileMapSearch getMapSearch() {
+		if (mapSearch == null) {
+			mapSearch = new MultiFileMapSearch(Runtime.getRuntime().availableProcessors());
+		}
+		return mapSearch;
 	}
 
 	public boolean updateMapIsNeeded(RotatedTileBox box, DrawSettings drawSettings) {
@@ -475,30 +499,12 @@ public class MapRenderRepositories {
 			ArrayList<BinaryMapDataObject> tempResult, ArrayList<BinaryMapDataObject> basemapResult, 
 			TLongSet ids, int[] count, boolean[] ocean, boolean[] land, List<BinaryMapDataObject> coastLines,
 			List<BinaryMapDataObject> basemapCoastLines, int leftX, int rightX, int bottomY, int topY) {
+		// visibility of types is cached by rendering style and shared by files searched in parallel
+		final RenderingRulesVisibility visibility = renderingReq.getVisibility();
 		BinaryMapIndexReader.SearchFilter searchFilter = new BinaryMapIndexReader.SearchFilter() {
 			@Override
 			public boolean accept(TIntArrayList types, BinaryMapIndexReader.MapIndex root) {
-				for (int j = 0; j < types.size(); j++) {
-					int type = types.get(j);
-					TagValuePair pair = root.decodeType(type);
-					if (pair != null) {
-						// TODO is it fast enough ?
-						for (int i = 1; i <= 3; i++) {
-							renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
-							renderingReq.setStringFilter(renderingReq.ALL.R_TAG, pair.tag);
-							renderingReq.setStringFilter(renderingReq.ALL.R_VALUE, pair.value);
-							if (renderingReq.search(i, false)) {
-								return true;
-							}
-						}
-						renderingReq.setStringFilter(renderingReq.ALL.R_TAG, pair.tag);
-						renderingReq.setStringFilter(renderingReq.ALL.R_VALUE, pair.value);
-						if (renderingReq.search(RenderingRulesStorage.TEXT_RULES, false)) {
-							return true;
-						}
-					}
-				}
-				return false;
+				return visibility.isVisible(types, root, zoom);
 			}
 
 		};
@@ -507,16 +513,17 @@ public class MapRenderRepositories {
 		}
 		MapIndex mi = null;
 		searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, searchFilter);
-		for (BinaryMapIndexReader c : files.values()) {
+		List<FileSearchResult> results;
+		try {
+			results = getMapSearch().searchMapIndex(files.values(), searchRequest, checkForDuplicateObjectIds ? ids : null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		for (FileSearchResult fr : results) {
+			BinaryMapIndexReader c = fr.getReader();
 			boolean basemap = c.isBasemap();
-			searchRequest.clearSearchResults();
-			List<BinaryMapDataObject> res;
-			try {
-				res = c.searchMapIndex(searchRequest);
-			} catch (IOException e) {
-				res = new ArrayList<BinaryMapDataObject>();
-				log.debug("Search failed " + c.getRegionNames(), e); //$NON-NLS-1$
-			}
+			List<BinaryMapDataObject> res = fr.getObjects();
 			if(res.size() > 0) {
 				if(basemap) {
 					renderedState |= 1;
@@ -525,13 +532,6 @@ public class MapRenderRepositories {
 				}
 			}
 			for (BinaryMapDataObject r : res) {
-				if (checkForDuplicateObjectIds && !basemap) {
-					if (ids.contains(r.getId()) && r.getId() > 0) {
-						// do not add object twice
-						continue;
-					}
-					ids.add(r.getId());
-				}
 				count[0]++;
 
 				if (r.containsType(r.getMapIndex().coastlineEncodingType)) {
@@ -553,11 +553,11 @@ public class MapRenderRepositories {
 				}
 			}
 
-			if (searchRequest.isOcean()) {
+			if (fr.isOcean()) {
 				mi = c.getMapIndexes().get(0);
 				ocean[0] = true;
 			}
-			if (searchRequest.isLand()) {
+			if (fr.isLand()) {
 				mi = c.getMapIndexes().get(0);
 				land[0] = true;
 			}
@@ -6,9 +6,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 import net.osmand.IProgress;
@@ -17,6 +19,8 @@ import net.osmand.PlatformUtil;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.render.RenderingRulesStorage;
 import net.osmand.render.RenderingRulesStorage.RenderingRulesStorageResolver;
+import net.osmand.render.RenderingRulesStorageSerializer;
+import net.osmand.render.RenderingRulesStorageSerializer.RenderingRulesSourceHashes;
 import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
@@ -33,6 +37,9 @@ public class RendererRegistry {
 	public final static String TOURING_VIEW = "Touring view (contrast and details)";  //$NON-NLS-1$
 	public final static String WINTER_SKI_RENDER = "Winter and ski";  //$NON-NLS-1$
 	public final static String NAUTICAL_RENDER = "Nautical";  //$NON-NLS-1$
+	private final static String BINARY_RENDER_EXT = ".render.bin";  //$NON-NLS-1$
+	// load resolved styles from binary files instead of parsing xml
+	private static final boolean USE_BINARY_STYLES = true;
 	
 	private RenderingRulesStorage defaultRender = null;
 	private RenderingRulesStorage currentSelectedRender = null;
@@ -75,7 +82,14 @@ public class RendererRegistry {
 			return null;
 		}
 		try {
-			RenderingRulesStorage r = loadRenderer(name, new LinkedHashMap<String, RenderingRulesStorage>(), new LinkedHashMap<String, String>());
+			RenderingRulesStorage r = USE_BINARY_STYLES ? loadBinaryRenderer(name) : null;
+			if (r == null) {
+				Map<String, RenderingRulesStorage> loadedRenderers = new LinkedHashMap<String, RenderingRulesStorage>();
+				r = loadRenderer(name, loadedRenderers, new LinkedHashMap<String, String>());
+				if (r != null && USE_BINARY_STYLES) {
+					saveBinaryRenderer(name, r, loadedRenderers.keySet());
+				}
+			}
 			renderers.put(name, r);
 			return r;
 		} catch (IOException e) {
@@ -90,6 +104,70 @@ public class RendererRegistry {
 		return externalRenderers.containsKey(name) || internalRenderers.containsKey(name);
 	}
 	
+	private File getBinaryRendererFile(String name) {
+		return new File(app.getCacheDir(), name.replaceAll("[^A-Za-z0-9_\\-]", "_") + BINARY_RENDER_EXT);
+	}
+
+	// resolved style (with depends styles) saved in binary format is used until sources are changed
+	private RenderingRulesStorage loadBinaryRenderer(String name) {
+		File file = getBinaryRendererFile(name);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			long time = System.currentTimeMillis();
+			// style and its depends styles (in order of loading) listed in header of file
+			final List<String> sources = new ArrayList<String>();
+			RenderingRulesStorage r = RenderingRulesStorageSerializer.readStorage(file, new RenderingRulesSourceHashes() {
+
+				@Override
+				public long getSourceHash(String source) throws IOException {
+					sources.add(source);
+					return getRendererSourceHash(source);
+				}
+			});
+			if (r != null) {
+				log.info("Binary rendering style " + name + " is loaded " + (System.currentTimeMillis() - time) + " ms"); //$NON-NLS-1$
+				if (rendererLoadedEventListener != null) {
+					// as xml loading : depends styles are reported before style
+					for (int i = sources.size() - 1; i >= 0; i--) {
+						rendererLoadedEventListener.onRendererLoaded(sources.get(i), r, getInputStream(sources.get(i)));
+					}
+				}
+			}
+			return r;
+		} catch (IOException e) {
+			log.warn("Binary rendering style is not loaded " + name, e); //$NON-NLS-1$
+		} catch (RuntimeException e) {
+			log.warn("Binary rendering style is not loaded " + name, e); //$NON-NLS-1$
+		}
+		return null;
+	}
+
+	private void saveBinaryRenderer(String name, RenderingRulesStorage r, Collection<String> sources) {
+		try {
+			Map<String, Long> hashes = new LinkedHashMap<String, Long>();
+			for (String s : sources) {
+				hashes.put(s, getRendererSourceHash(s));
+			}
+			RenderingRulesStorageSerializer.writeStorage(r, hashes, getBinaryRendererFile(name));
+		} catch (IOException e) {
+			log.warn("Binary rendering style is not saved " + name, e); //$NON-NLS-1$
+		}
+	}
+
+	private long getRendererSourceHash(String name) throws IOException {
+		InputStream is = getInputStream(name);
+		if (is == null) {
+			throw new FileNotFoundException(name);
+		}
+		try {
+			return RenderingRulesStorageSerializer.getSourceHash(is);
+		} finally {
+			is.close();
+		}
+	}
+
 //	private static boolean USE_PRECOMPILED_STYLE = false;
 	private RenderingRulesStorage loadRenderer(String name, final Map<String, RenderingRulesStorage> loadedRenderers, 
 			final Map<String, String> renderingConstants) throws IOException,  XmlPullParserException {
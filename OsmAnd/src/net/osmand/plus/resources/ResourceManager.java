@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.text.Collator;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -603,6 +602,10 @@ public class ResourceManager {
 		}
 		List<String> warnings = new ArrayList<String>();
 		renderer.clearAllResources();
+		// repositories read files of renderer with own cursors
+		closeAmenities();
+		closeRouteFiles();
+		closeTransport();
 		CachedOsmandIndexes cachedOsmandIndexes = new CachedOsmandIndexes();
 		File indCache = context.getAppPath(INDEXES_CACHE);
 		if (indCache.exists()) {
@@ -648,31 +651,13 @@ public class ResourceManager {
 						addressMap.put(rName, rarb);
 					}
 					if (index.hasTransportData()) {
-						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							transportRepositories.add(new TransportIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
-						} catch (IOException e) {
-							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-						}
+						transportRepositories.add(new TransportIndexRepositoryBinary(index.createCursor()));
 					}
 					if (index.containsRouteData()) {
-						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							routingMapFiles.put(f.getAbsolutePath(), new BinaryMapIndexReader(raf, index));
-						} catch (IOException e) {
-							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-						}
+						routingMapFiles.put(f.getAbsolutePath(), index.createCursor());
 					}
 					if (index.containsPoiData()) {
-						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							amenityRepositories.add(new AmenityIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
-						} catch (IOException e) {
-							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-						}
+						amenityRepositories.add(new AmenityIndexRepositoryBinary(index.createCursor()));
 					}
 				}
 			} catch (SQLiteException e) {
@@ -939,7 +924,7 @@ public class ResourceManager {
 			try {
 				BinaryMapIndexReader ind = routingMapFiles.remove(m);
 				if(ind != null){
-					ind.getRaf().close();
+					ind.close();
 				}
 			} catch(IOException e){
 				log.error("Error closing resource " + m, e);
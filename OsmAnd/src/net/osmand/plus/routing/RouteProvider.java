@@ -47,12 +47,14 @@ import net.osmand.router.GeneralRouter.GeneralRouterProfile;
 import net.osmand.router.GeneralRouter.RoutingParameter;
 import net.osmand.router.GeneralRouter.RoutingParameterType;
 import net.osmand.router.PrecalculatedRouteDirection;
+import net.osmand.router.RouteIncrementalSearch;
 import net.osmand.router.RoutePlannerFrontEnd;
 import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
 import net.osmand.router.RouteSegmentResult;
 import net.osmand.router.RoutingConfiguration;
 import net.osmand.router.RoutingConfiguration.Builder;
 import net.osmand.router.RoutingContext;
+import net.osmand.router.RoutingTileCache;
 import net.osmand.router.TurnType;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
@@ -74,6 +76,13 @@ import btools.routingapp.IBRouterService;
 public class RouteProvider {
 	private static final org.apache.commons.logging.Log log = PlatformUtil.getLog(RouteProvider.class);
 	private static final String OSMAND_ROUTER = "OsmAndRouter";
+	// part of routing memory limit used by tiles kept between route calculations
+	private static final int TILE_CACHE_MEMORY_PART = 4;
+
+	// decoded routing tiles reused by recalculations (java routing only)
+	private RoutingTileCache tileCache;
+	// search tree to the destination reused by recalculations (RoutingConfiguration.incrementalRecalculation)
+	private volatile RouteIncrementalSearch incrementalSearch;
 	
 	public enum RouteService {
 			OSMAND("OsmAnd (offline)"), YOURS("YOURS"), 
@@ -681,6 +690,10 @@ public class RouteProvider {
 		RoutingContext ctx = router.buildRoutingContext(cf,
 				lib, files, 
 				RouteCalculationMode.NORMAL);
+		if (lib == null) {
+			ctx.tileCache = getTileCache(cf);
+		}
+		ctx.incrementalSearch = incrementalSearch;
 		
 		RoutingContext complexCtx = null;
 		boolean complex = params.mode.isDerivedRoutingFrom(ApplicationMode.CAR) && !settings.DISABLE_COMPLEX_ROUTING.get()
@@ -703,6 +716,8 @@ public class RouteProvider {
 			complexCtx.calculationProgress = params.calculationProgress;
 			complexCtx.leftSideNavigation = params.leftSide;
 			complexCtx.previouslyCalculatedRoute = ctx.previouslyCalculatedRoute;
+			complexCtx.tileCache = ctx.tileCache;
+			complexCtx.incrementalSearch = ctx.incrementalSearch;
 		}
 		
 		LatLon st = new LatLon(params.start.getLatitude(), params.start.getLongitude());
@@ -717,6 +732,20 @@ public class RouteProvider {
 
 
 
+	/**
+	 * Releases search tree kept for recalculations (i.e. when route is cancelled)
+	 */
+	public void clearIncrementalSearch() {
+		incrementalSearch = null;
+	}
+
+	private synchronized RoutingTileCache getTileCache(RoutingConfiguration cf) {
+		if (tileCache == null) {
+			tileCache = new RoutingTileCache(cf.memoryLimitation / TILE_CACHE_MEMORY_PART / (1 << 20), cf.packedTiles);
+		}
+		return tileCache;
+	}
+
 	private RoutingConfiguration initOsmAndRoutingConfig(Builder config, final RouteCalculationParams params, OsmandSettings settings,
 			GeneralRouter generalRouter) throws IOException, FileNotFoundException {
 		GeneralRouterProfile p ;
@@ -786,6 +815,8 @@ public class RouteProvider {
 			} else {
 				result = router.searchRoute(ctx, st, en, inters);
 			}
+			// keep tree for the next recalculation
+			incrementalSearch = ctx.incrementalSearch;
 			
 			if(result == null || result.isEmpty()) {
 				if(ctx.calculationProgress.segmentNotFound == 0) {
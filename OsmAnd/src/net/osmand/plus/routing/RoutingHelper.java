@@ -167,6 +167,7 @@ public class RoutingHelper {
 			// clear last fixed location
 			this.lastProjection = null;
 			setFollowingMode(false);
+			provider.clearIncrementalSearch();
 		}
 	}
 	